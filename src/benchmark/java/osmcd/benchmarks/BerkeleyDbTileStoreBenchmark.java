@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import osmcd.program.model.Settings;
+import osmcd.program.tilestore.TileStoreEntry;
+import osmcd.program.tilestore.TileStoreWriteMode;
+import osmcd.program.tilestore.berkeleydb.BerkeleyDbTileStore;
+
+/**
+ * Writing and reading synthetic tiles via {@link BerkeleyDbTileStore#putTileData(byte[], int, int, int,
+ * osmcd.program.interfaces.MapSource)} and {@link BerkeleyDbTileStore#getTile(int, int, int,
+ * osmcd.program.interfaces.MapSource)}. Each trial uses a new tile store in a temporary directory.
+ * <p>
+ * {@link TileStoreWriteMode#DIRECT} can not be measured here as it requires the calling thread to be a
+ * <code>DelayedInterruptThread</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BerkeleyDbTileStoreBenchmark {
+
+	private static final int ZOOM = 14;
+
+	/**
+	 * Number of tiles written before the measurement - the tiles read by {@link #getTile()}
+	 */
+	private static final int PREFILLED_TILES = 4096;
+
+	private static final int SIDE = 1024;
+
+	@Param({ "WRITE_BEHIND", "WRITE_BEHIND_SYNC" })
+	public String writeMode;
+
+	private File tileStoreDir;
+	private BerkeleyDbTileStore tileStore;
+	private SyntheticMapSource mapSource;
+	private byte[][] tileData;
+
+	private final AtomicInteger nextPut = new AtomicInteger(PREFILLED_TILES);
+	private final AtomicInteger nextGet = new AtomicInteger();
+
+	@Setup
+	public void setup() throws Exception {
+		tileStoreDir = File.createTempFile("osmcd-benchmark", "");
+		tileStoreDir.delete();
+		Settings settings = Settings.getInstance();
+		settings.directories.tileStoreDirectory = tileStoreDir.getAbsolutePath();
+		settings.tileStoreWriteMode = TileStoreWriteMode.valueOf(writeMode);
+
+		mapSource = new SyntheticMapSource("Benchmark", 256);
+		tileData = new byte[64][];
+		for (int i = 0; i < tileData.length; i++)
+			tileData[i] = mapSource.getTileData(ZOOM, 8000 + i, 5000, null);
+
+		tileStore = new BerkeleyDbTileStore();
+		for (int i = 0; i < PREFILLED_TILES; i++)
+			put(i);
+		// make sure the prefilled tiles have been written to the database
+		tileStore.getNrOfTiles(mapSource.getName());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tileStore.closeAll();
+		FileUtils.deleteDirectory(tileStoreDir);
+	}
+
+	@Benchmark
+	public void putTile() throws IOException {
+		put(nextPut.getAndIncrement() % (SIDE * SIDE));
+	}
+
+	@Benchmark
+	public TileStoreEntry getTile() {
+		int i = nextGet.getAndIncrement() % PREFILLED_TILES;
+		return tileStore.getTile(8000 + i % SIDE, 5000 + i / SIDE, ZOOM, mapSource);
+	}
+
+	private void put(int i) throws IOException {
+		tileStore.putTileData(tileData[i % tileData.length], 8000 + i % SIDE, 5000 + i / SIDE, ZOOM, mapSource);
+	}
+
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import osmcd.exceptions.MapCreationException;
+import osmcd.program.atlascreators.AtlasCreator;
+import osmcd.program.atlascreators.impl.MapTileBuilder;
+import osmcd.program.atlascreators.impl.MapTileWriter;
+import osmcd.program.atlascreators.tileprovider.TileProvider;
+import osmcd.program.interfaces.MapInterface;
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.Atlas;
+import osmcd.program.model.Layer;
+import osmcd.program.model.Map;
+import osmcd.program.model.Settings;
+import osmcd.program.model.TileImageFormat;
+import osmcd.program.model.TileImageParameters;
+import osmcd.program.model.TileOrder;
+
+/**
+ * Creation of all custom tiles of a 8x8 tiles large map by {@link MapTileBuilder#createTiles()} for different custom
+ * tile sizes. The source tiles are generated once during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MapTileBuilderBenchmark {
+
+	private static final int ZOOM = 12;
+	private static final int MAP_TILES = 8;
+
+	@Param({ "256", "512", "1024" })
+	public int customTileSize;
+
+	@Param({ "PNG8Bit", "JPEG90" })
+	public String tileFormat;
+
+	/**
+	 * Value for {@link Settings#customTileProcessingThreads} (0 = one thread per CPU core)
+	 */
+	@Param({ "1", "0" })
+	public int threads;
+
+	private BenchmarkAtlasCreator atlasCreator;
+	private CountingTileWriter tileWriter;
+
+	@Setup
+	public void setup() throws Exception {
+		Settings.getInstance().customTileProcessingThreads = threads;
+		SyntheticMapSource mapSource = new SyntheticMapSource("Benchmark", 256);
+		int xMin = 2000;
+		int yMin = 1300;
+		int tileSize = mapSource.getMapSpace().getTileSize();
+		for (int x = xMin; x < xMin + MAP_TILES; x++)
+			for (int y = yMin; y < yMin + MAP_TILES; y++)
+				mapSource.getTileImage(ZOOM, x, y, null);
+
+		Atlas atlas = Atlas.newInstance();
+		Layer layer = new Layer(atlas, "Benchmark", ZOOM);
+		Point min = new Point(xMin * tileSize, yMin * tileSize);
+		Point max = new Point((xMin + MAP_TILES) * tileSize - 1, (yMin + MAP_TILES) * tileSize - 1);
+		TileImageParameters parameters = new TileImageParameters(customTileSize, customTileSize,
+				TileImageFormat.valueOf(tileFormat));
+		BenchmarkMap map = new BenchmarkMap(layer, mapSource, min, max, parameters);
+		atlasCreator = new BenchmarkAtlasCreator(map, new SyntheticTileProvider(mapSource, ZOOM));
+		tileWriter = new CountingTileWriter();
+	}
+
+	@Benchmark
+	public long createTiles() throws MapCreationException, InterruptedException {
+		tileWriter.bytes = 0;
+		MapTileBuilder builder = new MapTileBuilder(atlasCreator, tileWriter, true);
+		builder.createTiles();
+		return tileWriter.bytes;
+	}
+
+	private static class BenchmarkMap extends Map {
+
+		public BenchmarkMap(Layer layer, MapSource mapSource, Point minTileCoordinate, Point maxTileCoordinate,
+				TileImageParameters parameters) {
+			super(layer, "Benchmark", mapSource, ZOOM, minTileCoordinate, maxTileCoordinate, parameters);
+		}
+
+	}
+
+	/**
+	 * Initializes the map related fields like {@link AtlasCreator#initializeMap(MapInterface, TileProvider)} does but
+	 * without requiring an <code>AtlasThread</code> and an <code>AtlasProgress</code> window.
+	 */
+	private static class BenchmarkAtlasCreator extends AtlasCreator {
+
+		public BenchmarkAtlasCreator(MapInterface map, TileProvider tileProvider) {
+			this.map = map;
+			this.mapDlTileProvider = tileProvider;
+			this.mapSource = map.getMapSource();
+			this.tileSize = mapSource.getMapSpace().getTileSize();
+			this.parameters = map.getParameters();
+			xMin = map.getMinTileCoordinate().x / tileSize;
+			xMax = map.getMaxTileCoordinate().x / tileSize;
+			yMin = map.getMinTileCoordinate().y / tileSize;
+			yMax = map.getMaxTileCoordinate().y / tileSize;
+			zoom = map.getZoom();
+		}
+
+		@Override
+		public boolean testMapSource(MapSource mapSource) {
+			return true;
+		}
+
+		@Override
+		public void createMap() throws MapCreationException, InterruptedException {
+		}
+
+		@Override
+		public void checkUserAbort() throws InterruptedException {
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedException();
+		}
+
+	}
+
+	private static class SyntheticTileProvider implements TileProvider {
+
+		private final SyntheticMapSource mapSource;
+		private final int zoom;
+
+		public SyntheticTileProvider(SyntheticMapSource mapSource, int zoom) {
+			this.mapSource = mapSource;
+			this.zoom = zoom;
+		}
+
+		public byte[] getTileData(int x, int y) throws IOException {
+			return mapSource.getTileData(zoom, x, y, null);
+		}
+
+		public BufferedImage getTileImage(int x, int y) throws IOException {
+			return mapSource.getTileImage(zoom, x, y, null);
+		}
+
+		public MapSource getMapSource() {
+			return mapSource;
+		}
+
+		public boolean preferTileImageUsage() {
+			return true;
+		}
+
+		public TileOrder getPreferredReadOrder() {
+			return TileOrder.ROW_MAJOR;
+		}
+
+	}
+
+	private static class CountingTileWriter implements MapTileWriter {
+
+		long bytes = 0;
+
+		public void writeTile(int tilex, int tiley, String tileType, byte[] tileData) throws IOException {
+			bytes += tileData.length;
+		}
+
+		public void finalizeMap() throws IOException {
+		}
+
+	}
+
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import osmcd.mapsources.AbstractMultiLayerMapSource;
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.interfaces.MapSource.LoadMethod;
+import osmcd.program.model.TileImageType;
+
+/**
+ * Compositing of the layer tiles by {@link AbstractMultiLayerMapSource#getTileImage(int, int, int, LoadMethod)}. The
+ * first layer is opaque, all others are overlays with transparent background.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultiLayerCompositingBenchmark {
+
+	private static final int ZOOM = 12;
+	private static final int TILES = 4;
+
+	@Param({ "2", "4" })
+	public int layers;
+
+	@Param({ "256", "512" })
+	public int tileSize;
+
+	private BenchmarkMultiLayerMapSource mapSource;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		MapSource[] layerMapSources = new MapSource[layers];
+		for (int i = 0; i < layers; i++)
+			layerMapSources[i] = new SyntheticMapSource("Layer" + i, tileSize, i, i > 0);
+		mapSource = new BenchmarkMultiLayerMapSource(layerMapSources);
+		// generate the layer tiles in advance
+		for (int i = 0; i < TILES * TILES; i++)
+			getTileImage(i);
+	}
+
+	@Benchmark
+	public BufferedImage getTileImage() throws Exception {
+		next = (next + 1) % (TILES * TILES);
+		return getTileImage(next);
+	}
+
+	private BufferedImage getTileImage(int tile) throws Exception {
+		return mapSource.getTileImage(ZOOM, 2000 + tile % TILES, 1300 + tile / TILES, LoadMethod.DEFAULT);
+	}
+
+	private static class BenchmarkMultiLayerMapSource extends AbstractMultiLayerMapSource {
+
+		public BenchmarkMultiLayerMapSource(MapSource[] layerMapSources) {
+			super("Benchmark multi-layer", TileImageType.PNG);
+			mapSources = layerMapSources;
+			initializeValues();
+		}
+
+	}
+
+}
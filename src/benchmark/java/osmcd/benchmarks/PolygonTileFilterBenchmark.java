@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import osmcd.program.tilefilter.PolygonTileFilter;
+
+/**
+ * Tests all tiles of the bounding box of a star shaped polygon map via {@link PolygonTileFilter#testTile(int, int,
+ * int, osmcd.program.interfaces.MapSource)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PolygonTileFilterBenchmark {
+
+	private static final int ZOOM = 12;
+
+	@Param({ "16", "256", "4096" })
+	public int vertices;
+
+	/**
+	 * Width and height of the polygon's bounding box in tiles
+	 */
+	@Param({ "64" })
+	public int sizeInTiles;
+
+	private SyntheticMapSource mapSource;
+	private PolygonTileFilter filter;
+	private int xMin;
+	private int xMax;
+	private int yMin;
+	private int yMax;
+
+	@Setup
+	public void setup() {
+		mapSource = new SyntheticMapSource("Benchmark", 256);
+		int tileSize = mapSource.getMapSpace().getTileSize();
+		int radius = sizeInTiles * tileSize / 2;
+		int centerX = 2000 * tileSize + radius;
+		int centerY = 1300 * tileSize + radius;
+		Random rnd = new Random(0);
+		Polygon polygon = new Polygon();
+		for (int i = 0; i < vertices; i++) {
+			double angle = 2 * Math.PI * i / vertices;
+			// alternate between the outer and an inner radius to get a star with concave parts
+			double r = (i % 2 == 0) ? radius : radius * (0.3 + 0.5 * rnd.nextDouble());
+			polygon.addPoint(centerX + (int) (Math.cos(angle) * r), centerY + (int) (Math.sin(angle) * r));
+		}
+		Rectangle bounds = polygon.getBounds();
+		xMin = bounds.x / tileSize;
+		xMax = (bounds.x + bounds.width) / tileSize;
+		yMin = bounds.y / tileSize;
+		yMax = (bounds.y + bounds.height) / tileSize;
+		filter = new PolygonTileFilter(polygon, ZOOM, mapSource);
+	}
+
+	@Benchmark
+	public int testAllTiles() {
+		int count = 0;
+		for (int y = yMin; y <= yMax; y++)
+			for (int x = xMin; x <= xMax; x++)
+				if (filter.testTile(x, y, ZOOM, mapSource))
+					count++;
+		return count;
+	}
+
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import osmcd.mapsources.mapspace.MapSpaceFactory;
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.interfaces.MapSpace;
+import osmcd.program.model.MapSourceLoaderInfo;
+import osmcd.program.model.TileImageType;
+
+/**
+ * A {@link MapSource} delivering the tiles of a {@link SyntheticTileGenerator}. Generated tiles are kept in memory so
+ * that a benchmark measures the code consuming the tiles and not the tile generator.
+ */
+public class SyntheticMapSource implements MapSource {
+
+	private final String name;
+	private final SyntheticTileGenerator generator;
+	private final boolean overlay;
+	private final MapSpace mapSpace;
+
+	private final ConcurrentHashMap<Long, BufferedImage> images = new ConcurrentHashMap<Long, BufferedImage>();
+	private final ConcurrentHashMap<Long, byte[]> data = new ConcurrentHashMap<Long, byte[]>();
+
+	public SyntheticMapSource(String name, int tileSize) {
+		this(name, tileSize, 0, false);
+	}
+
+	/**
+	 * @param overlay
+	 *            if <code>true</code> the tiles have a transparent background
+	 */
+	public SyntheticMapSource(String name, int tileSize, long seed, boolean overlay) {
+		this.name = name;
+		this.generator = new SyntheticTileGenerator(tileSize, seed);
+		this.overlay = overlay;
+		this.mapSpace = MapSpaceFactory.getInstance(tileSize, true);
+	}
+
+	public SyntheticTileGenerator getGenerator() {
+		return generator;
+	}
+
+	public int getMaxZoom() {
+		return 22;
+	}
+
+	public int getMinZoom() {
+		return 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod) throws IOException {
+		Long key = tileKey(zoom, x, y);
+		byte[] tileData = data.get(key);
+		if (tileData == null) {
+			tileData = SyntheticTileGenerator.encode(getTileImage(zoom, x, y, loadMethod), "png");
+			data.put(key, tileData);
+		}
+		return tileData;
+	}
+
+	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod) {
+		Long key = tileKey(zoom, x, y);
+		BufferedImage image = images.get(key);
+		if (image == null) {
+			if (overlay)
+				image = generator.generateOverlayImage(zoom, x, y);
+			else
+				image = generator.generateImage(zoom, x, y);
+			images.put(key, image);
+		}
+		return image;
+	}
+
+	public TileImageType getTileImageType() {
+		return TileImageType.PNG;
+	}
+
+	public MapSpace getMapSpace() {
+		return mapSpace;
+	}
+
+	public Color getBackgroundColor() {
+		return Color.BLACK;
+	}
+
+	public MapSourceLoaderInfo getLoaderInfo() {
+		return null;
+	}
+
+	public void setLoaderInfo(MapSourceLoaderInfo loaderInfo) {
+		throw new RuntimeException("LoaderInfo can not be set");
+	}
+
+	private static Long tileKey(int zoom, int x, int y) {
+		return Long.valueOf(((long) zoom << 58) | ((long) x << 29) | y);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates deterministic map tiles for the benchmarks. Like the tiles of the test tile server
+ * (<code>osmcb.tools.testtileserver</code>) each tile shows its border, both diagonals and its coordinates. In addition
+ * some land/water areas and depth contour lines are painted so that the image encoders have chart like content to
+ * work on. The content only depends on the tile coordinate and the generator seed - two runs on the same machine
+ * always produce the same tiles.
+ */
+public class SyntheticTileGenerator {
+
+	private static final Color WATER = new Color(0xb5, 0xd0, 0xd0);
+	private static final Color SHALLOW_WATER = new Color(0x97, 0xc7, 0xe6);
+	private static final Color LAND = new Color(0xf2, 0xef, 0xe9);
+	private static final Color CONTOUR = new Color(0x3f, 0x6f, 0xa6);
+	private static final Color GRID = Color.RED;
+
+	private static final Font FONT = new Font("Sans Serif", Font.BOLD, 20);
+
+	private final int tileSize;
+	private final long seed;
+
+	public SyntheticTileGenerator(int tileSize) {
+		this(tileSize, 0);
+	}
+
+	public SyntheticTileGenerator(int tileSize, long seed) {
+		this.tileSize = tileSize;
+		this.seed = seed;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @return an opaque tile image of type {@link BufferedImage#TYPE_3BYTE_BGR}
+	 */
+	public BufferedImage generateImage(int zoom, int x, int y) {
+		BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_3BYTE_BGR);
+		paintTile(tile, zoom, x, y, false);
+		return tile;
+	}
+
+	/**
+	 * @return a tile image of type {@link BufferedImage#TYPE_INT_ARGB} with transparent background as delivered by
+	 *         overlay map sources (e.g. sea marks)
+	 */
+	public BufferedImage generateOverlayImage(int zoom, int x, int y) {
+		BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+		paintTile(tile, zoom, x, y, true);
+		return tile;
+	}
+
+	public byte[] generatePng(int zoom, int x, int y) throws IOException {
+		return encode(generateImage(zoom, x, y), "png");
+	}
+
+	public byte[] generateJpeg(int zoom, int x, int y) throws IOException {
+		return encode(generateImage(zoom, x, y), "jpg");
+	}
+
+	protected void paintTile(BufferedImage tile, int zoom, int x, int y, boolean overlay) {
+		Random rnd = new Random(tileSeed(zoom, x, y));
+		int max = tileSize - 1;
+		Graphics2D g2 = tile.createGraphics();
+		try {
+			g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+			if (!overlay) {
+				g2.setColor(WATER);
+				g2.fillRect(0, 0, tileSize, tileSize);
+				g2.setColor(SHALLOW_WATER);
+				g2.fillPolygon(randomPolygon(rnd, 12));
+				g2.setColor(LAND);
+				g2.fillPolygon(randomPolygon(rnd, 8));
+			}
+			g2.setColor(CONTOUR);
+			for (int i = 0; i < 6; i++) {
+				int y1 = rnd.nextInt(tileSize);
+				int y2 = rnd.nextInt(tileSize);
+				g2.drawLine(0, y1, max, y2);
+			}
+			if (overlay) {
+				// some sea marks
+				for (int i = 0; i < 4; i++) {
+					int px = rnd.nextInt(tileSize - 16);
+					int py = rnd.nextInt(tileSize - 16);
+					g2.setColor(i % 2 == 0 ? Color.RED : Color.GREEN);
+					g2.fillOval(px, py, 12, 12);
+				}
+			}
+			g2.setColor(GRID);
+			g2.drawRect(0, 0, max, max);
+			g2.drawLine(0, 0, max, max);
+			g2.drawLine(max, 0, 0, max);
+			g2.setFont(FONT);
+			g2.drawString("z=" + zoom, 8, 30);
+			g2.drawString("x=" + x, 8, 55);
+			g2.drawString("y=" + y, 8, 80);
+		} finally {
+			g2.dispose();
+		}
+	}
+
+	private Polygon randomPolygon(Random rnd, int points) {
+		Polygon p = new Polygon();
+		int center = tileSize / 2;
+		for (int i = 0; i < points; i++) {
+			double angle = 2 * Math.PI * i / points;
+			double radius = tileSize * (0.2 + 0.4 * rnd.nextDouble());
+			p.addPoint(center + (int) (Math.cos(angle) * radius), center + (int) (Math.sin(angle) * radius));
+		}
+		return p;
+	}
+
+	private long tileSeed(int zoom, int x, int y) {
+		long h = seed;
+		h = h * 31 + zoom;
+		h = h * 1000003 + x;
+		h = h * 1000003 + y;
+		return h;
+	}
+
+	public static byte[] encode(BufferedImage image, String format) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(32768);
+		ImageIO.write(image, format, buf);
+		return buf.toByteArray();
+	}
+
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import osmcd.utilities.tar.TarIndex;
+import osmcd.utilities.tar.TarIndexedArchive;
+import osmcd.utilities.tilearchive.MappedTileArchive;
+
+/**
+ * Tile reads from the {@link MappedTileArchive} the downloaded tiles are stored in, in write order (as done by the
+ * atlas creators) and in random order. Random reads via {@link TarIndex#getEntryContent(String)} from a tar archive
+ * containing the same tiles are measured for comparison. The archives are shared by all benchmark threads - run with
+ * <code>-t</code> to measure the contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileArchiveReadBenchmark {
+
+	private static final int ZOOM = 14;
+
+	@Param({ "1024" })
+	public int tileCount;
+
+	private static final int X_MIN = 8000;
+	private static final int Y_MIN = 5000;
+
+	private File tarFile;
+	private TarIndex tarIndex;
+	private MappedTileArchive tileArchive;
+	private int side;
+	private String[] entryNames;
+	private int[] accessOrder;
+	private final AtomicInteger next = new AtomicInteger();
+
+	@Setup
+	public void setup() throws IOException {
+		side = (int) Math.ceil(Math.sqrt(tileCount));
+		SyntheticTileGenerator generator = new SyntheticTileGenerator(256);
+		// A few distinct tile images are sufficient - the tile content does not matter for the index lookup
+		byte[][] tileData = new byte[16][];
+		for (int i = 0; i < tileData.length; i++)
+			tileData[i] = generator.generatePng(ZOOM, X_MIN + i, Y_MIN);
+
+		tarFile = File.createTempFile("osmcd-benchmark", ".tar");
+		TarIndexedArchive archive = new TarIndexedArchive(tarFile, tileCount);
+		tileArchive = new MappedTileArchive(tarFile.getParentFile(), "osmcd-benchmark", X_MIN, X_MIN + side - 1,
+				Y_MIN, Y_MIN + side - 1);
+		entryNames = new String[tileCount];
+		for (int i = 0; i < tileCount; i++) {
+			byte[] data = tileData[i % tileData.length];
+			entryNames[i] = "z" + ZOOM + "/" + (X_MIN + i % side) + "_" + (Y_MIN + i / side) + ".png";
+			archive.writeFileFromData(entryNames[i], data);
+			tileArchive.writeTile(X_MIN + i % side, Y_MIN + i / side, data);
+		}
+		archive.writeEndofArchive();
+		archive.close();
+		tarIndex = archive.getTarIndex();
+		tileArchive.setComplete();
+
+		Random rnd = new Random(0);
+		accessOrder = new int[4096];
+		for (int i = 0; i < accessOrder.length; i++)
+			accessOrder[i] = rnd.nextInt(tileCount);
+	}
+
+	@TearDown
+	public void tearDown() {
+		tarIndex.closeAndDelete();
+		tileArchive.closeAndDelete();
+	}
+
+	@Benchmark
+	public byte[] tileArchiveSequential() throws IOException {
+		int i = (next.getAndIncrement() & Integer.MAX_VALUE) % tileCount;
+		return tileArchive.getTileData(X_MIN + i % side, Y_MIN + i / side);
+	}
+
+	@Benchmark
+	public byte[] tileArchiveRandom() throws IOException {
+		int i = accessOrder[next.getAndIncrement() & (accessOrder.length - 1)];
+		return tileArchive.getTileData(X_MIN + i % side, Y_MIN + i / side);
+	}
+
+	@Benchmark
+	public byte[] tarIndexRandom() throws IOException {
+		int i = accessOrder[next.getAndIncrement() & (accessOrder.length - 1)];
+		return tarIndex.getEntryContent(entryNames[i]);
+	}
+
+}
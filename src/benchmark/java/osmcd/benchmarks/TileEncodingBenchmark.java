@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import osmcd.program.interfaces.TileImageDataWriter;
+import osmcd.program.tiledatawriter.TileImageJpegDataWriter;
+import osmcd.program.tiledatawriter.TileImagePng8DataWriter;
+
+/**
+ * Encoding of a single tile by {@link TileImagePng8DataWriter} and {@link TileImageJpegDataWriter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileEncodingBenchmark {
+
+	@Param({ "png8", "jpeg90" })
+	public String format;
+
+	@Param({ "256", "512" })
+	public int tileSize;
+
+	private TileImageDataWriter writer;
+	private BufferedImage[] images;
+	private ByteArrayOutputStream buf;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		if ("png8".equals(format))
+			writer = new TileImagePng8DataWriter();
+		else if ("jpeg90".equals(format))
+			writer = new TileImageJpegDataWriter(0.9);
+		else
+			throw new IllegalArgumentException("Unknown format: " + format);
+		writer.initialize();
+		SyntheticTileGenerator generator = new SyntheticTileGenerator(tileSize);
+		images = new BufferedImage[16];
+		for (int i = 0; i < images.length; i++)
+			images[i] = generator.generateImage(12, 2000 + i % 4, 1300 + i / 4);
+		buf = new ByteArrayOutputStream(65536);
+	}
+
+	@TearDown
+	public void tearDown() {
+		writer.dispose();
+	}
+
+	@Benchmark
+	public int encode() throws IOException {
+		BufferedImage image = images[next];
+		next = (next + 1) % images.length;
+		buf.reset();
+		writer.processImage(image, buf);
+		return buf.size();
+	}
+
+}
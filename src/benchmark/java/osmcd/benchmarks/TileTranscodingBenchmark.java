@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import osmcd.program.interfaces.TileImageDataWriter;
+import osmcd.program.model.TileImageFormat;
+import osmcd.program.tiledatawriter.TileImageTranscoder;
+
+/**
+ * Conversion of encoded tiles to another tile format in tiles per second: the {@link TileImageTranscoder} compared to
+ * a full ImageIO round trip (<code>ImageIO.read()</code> and a new output buffer per tile) as done before. Run with
+ * <code>-t</code> for measuring several converting threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TileTranscodingBenchmark {
+
+	@Param({ "png-jpeg90", "jpeg-png8" })
+	public String conversion;
+
+	@Param({ "imageio", "transcoder" })
+	public String method;
+
+	private byte[][] tiles;
+	private TileImageDataWriter writer;
+	private TileImageTranscoder transcoder;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		TileImageFormat format;
+		boolean jpegSource;
+		if ("png-jpeg90".equals(conversion)) {
+			format = TileImageFormat.JPEG90;
+			jpegSource = false;
+		} else if ("jpeg-png8".equals(conversion)) {
+			format = TileImageFormat.PNG8Bit;
+			jpegSource = true;
+		} else
+			throw new IllegalArgumentException("Unknown conversion: " + conversion);
+		ImageIO.setUseCache(false);
+		writer = format.getDataWriter().duplicate();
+		writer.initialize();
+		transcoder = new TileImageTranscoder(format);
+		SyntheticTileGenerator generator = new SyntheticTileGenerator(256);
+		tiles = new byte[16][];
+		for (int i = 0; i < tiles.length; i++) {
+			int x = 2000 + i % 4;
+			int y = 1300 + i / 4;
+			tiles[i] = jpegSource ? generator.generateJpeg(12, x, y) : generator.generatePng(12, x, y);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		writer.dispose();
+	}
+
+	@Benchmark
+	public int convert() throws IOException {
+		byte[] tile = tiles[next];
+		next = (next + 1) % tiles.length;
+		if ("transcoder".equals(method))
+			return transcoder.transcode(tile).length;
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(tile));
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(32000);
+		writer.processImage(image, buf);
+		return buf.toByteArray().length;
+	}
+
+}
@@ -29,6 +29,7 @@ import osmcd.program.Logging;
 import osmcd.program.ProgramInfo;
 import osmcd.program.commandline.CommandLineEmpty;
 import osmcd.program.commandline.CreateAtlas;
+import osmcd.program.commandline.MigrateTileStore;
 import osmcd.program.interfaces.CommandLineAction;
 import osmcd.program.model.Settings;
 import osmcd.program.tilestore.TileStore;
@@ -93,6 +94,11 @@ public class Main
 	protected void parseCommandLine()
 	{
 		String[] args = StartOSMCD.ARGS;
+		if (args.length >= 1 && "migrate-tilestore".equalsIgnoreCase(args[0]))
+		{
+			cmdAction = new MigrateTileStore();
+			return;
+		}
 		if (args.length >= 2)
 		{
 			if ("create".equalsIgnoreCase(args[0]))
@@ -18,26 +18,44 @@ package osmcd.exceptions;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URL;
+
+import osmcd.program.download.http.TileHttpResponse;
 
 public class DownloadFailedException extends IOException {
 
 	private final int httpResponseCode;
-	private HttpURLConnection connection;
+	private final URL url;
+	private TileHttpResponse response = null;
 
 	public DownloadFailedException(HttpURLConnection connection, int httpResponseCode)
 			throws IOException {
 		super("Invaild HTTP response: " + httpResponseCode);
-		this.connection = connection;
+		this.url = connection.getURL();
 		this.httpResponseCode = httpResponseCode;
 	}
 
+	public DownloadFailedException(TileHttpResponse response) {
+		super("Invaild HTTP response: " + response.getResponseCode());
+		this.url = response.getUrl();
+		this.httpResponseCode = response.getResponseCode();
+		this.response = response;
+	}
+
 	public int getHttpResponseCode() {
 		return httpResponseCode;
 	}
 
+	/**
+	 * @return the server's response or <code>null</code> if not available
+	 */
+	public TileHttpResponse getResponse() {
+		return response;
+	}
+
 	@Override
 	public String getMessage() {
-		return super.getMessage() + "\n" + connection.getURL();
+		return super.getMessage() + "\n" + url;
 	}
 
 }
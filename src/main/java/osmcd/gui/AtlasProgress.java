@@ -27,6 +27,7 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -83,7 +84,6 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 	{
 		AtlasInterface atlasInterface;
 		MapInterface map;
-		MapInfo mapInfo;
 		long numberOfDownloadedBytes = 0;
 		long numberOfBytesLoadedFromCache = 0;
 		int totalNumberOfTiles = 0;
@@ -104,6 +104,23 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 
 	private final Data data = new Data();
 
+	/**
+	 * The maps currently downloaded or created - more than one if the maps are created concurrently. Guarded by
+	 * {@link #data}.
+	 */
+	private final ArrayList<MapProgress> activeMaps = new ArrayList<MapProgress>();
+
+	/**
+	 * The map initialized last - the target of {@link #incMapDownloadProgress()} and {@link #setErrorCounter(int, int)}
+	 */
+	private volatile MapProgress currentMap = null;
+
+	/**
+	 * Atlas progress of the maps that are no longer active
+	 */
+	private int finishedMapsProgress = 0;
+	private int finishedMaps = 0;
+
 	private boolean aborted = false;
 	private boolean finished = false;
 
@@ -351,65 +368,143 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 		TIMER.schedule(updateTask, 0, 500);
 	}
 
-	public void initMapDownload(MapInterface map)
+	/**
+	 * Starts the progress of the next map of a sequential atlas creation. All maps before <code>map</code> are
+	 * considered as finished (or skipped). Calling this method again for the same map restarts its progress.
+	 * 
+	 * @param map
+	 * @return the progress of <code>map</code>
+	 */
+	public MapProgress initMapDownload(MapInterface map)
 	{
-		int index = mapInfos.indexOf(new MapInfo(map, 0, 0));
-		data.mapInfo = mapInfos.get(index);
-		data.totalProgress = data.mapInfo.tileCountOnStart;
-		data.map = map;
-		data.mapDownloadNumberOfTiles = (int) map.calculateTilesToDownload();
-		initialMapDownloadTime = System.currentTimeMillis();
-		data.prevMapsPermanentErrors += data.mapPermanentErrors;
-		data.prevMapsRetryErrors += data.mapRetryErrors;
-		data.mapCreationProgress = 0;
-		data.mapDownloadProgress = 0;
-		data.currentMapNumber = index + 1;
+		MapProgress mp = new MapProgress(map);
+		synchronized (data)
+		{
+			for (MapProgress active: activeMaps)
+				retire(active);
+			activeMaps.clear();
+			activeMaps.add(mp);
+			finishedMapsProgress = mp.mapInfo.tileCountOnStart;
+			data.currentMapNumber = mp.index + 1;
+			data.map = map;
+			currentMap = mp;
+			updateProgress();
+		}
 		updateGUI();
+		return mp;
 	}
 
 	/**
-	 * Initialize the GUI progress bars
+	 * Starts the progress of a map that is created concurrently to other maps. The other active maps are not affected
+	 * - only a previous progress of the same map (download retry) is replaced. The map has to be finished via
+	 * {@link MapProgress#mapFinished()}.
 	 * 
-	 * @param maxTilesToProcess
+	 * @param map
+	 * @return the progress of <code>map</code>
 	 */
-	public void initMapCreation(int maxTilesToProcess)
+	public MapProgress initParallelMapDownload(MapInterface map)
 	{
-		data.mapCreationProgress = 0;
-		data.mapCreationMax = maxTilesToProcess;
-		initialMapDownloadTime = -1;
+		MapProgress mp = new MapProgress(map);
+		synchronized (data)
+		{
+			Iterator<MapProgress> it = activeMaps.iterator();
+			while (it.hasNext())
+			{
+				MapProgress active = it.next();
+				if (active.mapInfo.equals(mp.mapInfo))
+				{
+					retire(active);
+					it.remove();
+				}
+			}
+			activeMaps.add(mp);
+			data.currentMapNumber = Math.min(finishedMaps + 1, data.totalNumberOfMaps);
+			data.map = map;
+			currentMap = mp;
+			updateProgress();
+		}
 		updateGUI();
+		return mp;
 	}
 
-	public void setErrorCounter(int retryErrors, int permanentErrors)
+	/**
+	 * @param map
+	 * @return the progress of <code>map</code> or <code>null</code> if <code>map</code> is not active
+	 */
+	public MapProgress getMapProgress(MapInterface map)
 	{
-		data.mapRetryErrors = retryErrors;
-		data.mapPermanentErrors = permanentErrors;
-		updateGUI();
+		synchronized (data)
+		{
+			for (MapProgress mp: activeMaps)
+				if (mp.mapInfo.map.equals(map))
+					return mp;
+		}
+		return null;
 	}
 
-	public void incMapDownloadProgress()
+	public void setErrorCounter(int retryErrors, int permanentErrors)
 	{
-		data.mapDownloadProgress++;
-		data.totalProgress++;
-		updateGUI();
+		currentMap.setErrorCounter(retryErrors, permanentErrors);
 	}
 
-	public void incMapCreationProgress()
+	public void incMapDownloadProgress()
 	{
-		setMapCreationProgress(data.mapCreationProgress + 1);
+		currentMap.incMapDownloadProgress();
 	}
 
-	public void incMapCreationProgress(int stepSize)
+	/**
+	 * Adds the error counters of a map that is no longer active to the totals. Requires the lock on {@link #data}.
+	 */
+	private void retire(MapProgress mp)
 	{
-		setMapCreationProgress(data.mapCreationProgress + stepSize);
+		data.prevMapsRetryErrors += mp.retryErrors;
+		data.prevMapsPermanentErrors += mp.permanentErrors;
 	}
 
-	public void setMapCreationProgress(int progress)
+	/**
+	 * Aggregates the progress of all active maps into {@link #data}. Requires the lock on {@link #data}.
+	 */
+	private void updateProgress()
 	{
-		data.mapCreationProgress = progress;
-		data.totalProgress = data.mapInfo.tileCountOnStart + data.mapInfo.mapTiles
-				+ (int) (((long) data.mapInfo.mapTiles) * data.mapCreationProgress / data.mapCreationMax);
-		updateGUI();
+		int totalProgress = finishedMapsProgress;
+		int downloadProgress = 0;
+		int downloadTiles = 0;
+		int creationProgress = 0;
+		int creationMax = 0;
+		int retryErrors = 0;
+		int permanentErrors = 0;
+		long downloadStart = -1;
+		boolean single = (activeMaps.size() == 1);
+		for (MapProgress mp: activeMaps)
+		{
+			totalProgress += mp.getAtlasProgress();
+			downloadProgress += mp.downloadProgress;
+			downloadTiles += mp.mapInfo.mapTiles;
+			retryErrors += mp.retryErrors;
+			permanentErrors += mp.permanentErrors;
+			if (single)
+			{
+				creationProgress = mp.creationProgress;
+				creationMax = mp.creationMax;
+			}
+			else
+			{
+				// Concurrent maps are weighted equally in per mill
+				if (mp.creationMax > 0)
+					creationProgress += (int) (1000L * mp.creationProgress / mp.creationMax);
+				creationMax += 1000;
+			}
+			if (mp.downloadStart > 0 && (downloadStart < 0 || mp.downloadStart < downloadStart))
+				downloadStart = mp.downloadStart;
+		}
+		data.totalProgress = totalProgress;
+		data.mapDownloadProgress = downloadProgress;
+		data.mapDownloadNumberOfTiles = downloadTiles;
+		data.mapCreationProgress = creationProgress;
+		data.mapCreationMax = creationMax;
+		data.mapRetryErrors = retryErrors;
+		data.mapPermanentErrors = permanentErrors;
+		initialMapDownloadTime = downloadStart;
 	}
 
 	public boolean ignoreDownloadErrors()
@@ -750,6 +845,119 @@ public class AtlasProgress extends JFrame implements ActionListener, MapSourceLi
 
 	}
 
+	/**
+	 * Download and creation progress of a single map. All methods are thread-safe.
+	 */
+	public class MapProgress
+	{
+
+		private final MapInfo mapInfo;
+		private final int index;
+		private int downloadProgress = 0;
+		private int creationProgress = 0;
+		private int creationMax = 0;
+		private int retryErrors = 0;
+		private int permanentErrors = 0;
+		private long downloadStart;
+
+		private MapProgress(MapInterface map) {
+			index = mapInfos.indexOf(new MapInfo(map, 0, 0));
+			mapInfo = mapInfos.get(index);
+			downloadStart = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return the progress of this map in units of the atlas progress bar
+		 */
+		private int getAtlasProgress()
+		{
+			if (creationMax <= 0)
+				return downloadProgress;
+			return mapInfo.mapTiles + (int) (((long) mapInfo.mapTiles) * creationProgress / creationMax);
+		}
+
+		public void setErrorCounter(int retryErrors, int permanentErrors)
+		{
+			synchronized (data)
+			{
+				this.retryErrors = retryErrors;
+				this.permanentErrors = permanentErrors;
+				updateProgress();
+			}
+			updateGUI();
+		}
+
+		public void incMapDownloadProgress()
+		{
+			synchronized (data)
+			{
+				downloadProgress++;
+				updateProgress();
+			}
+			updateGUI();
+		}
+
+		/**
+		 * Initialize the GUI progress bars
+		 * 
+		 * @param maxTilesToProcess
+		 */
+		public void initMapCreation(int maxTilesToProcess)
+		{
+			synchronized (data)
+			{
+				creationProgress = 0;
+				creationMax = maxTilesToProcess;
+				downloadStart = -1;
+				updateProgress();
+			}
+			updateGUI();
+		}
+
+		public void incMapCreationProgress()
+		{
+			incMapCreationProgress(1);
+		}
+
+		public void incMapCreationProgress(int stepSize)
+		{
+			synchronized (data)
+			{
+				creationProgress += stepSize;
+				updateProgress();
+			}
+			updateGUI();
+		}
+
+		public void setMapCreationProgress(int progress)
+		{
+			synchronized (data)
+			{
+				creationProgress = progress;
+				updateProgress();
+			}
+			updateGUI();
+		}
+
+		/**
+		 * Marks a map started via {@link AtlasProgress#initParallelMapDownload(MapInterface)} as finished (or skipped).
+		 */
+		public void mapFinished()
+		{
+			synchronized (data)
+			{
+				if (!activeMaps.remove(this))
+					return;
+				retire(this);
+				finishedMapsProgress += mapInfo.tileCountOnEnd - mapInfo.tileCountOnStart;
+				finishedMaps++;
+				data.currentMapNumber = Math.min(finishedMaps + 1, data.totalNumberOfMaps);
+				updateProgress();
+			}
+			updateGUI();
+		}
+	}
+
 	protected static class MapInfo
 	{
 
@@ -124,6 +124,7 @@ public class GpxElementListener implements MouseListener
 				WptEntry wptEntry = (WptEntry) gpxEntry;
 				WptType wpt = wptEntry.getWpt();
 				editor.findWptAndDelete(wpt, gpxEntry);
+				wptEntry.getLayer().invalidate();
 				wptEntry.getLayer().getPanel().removeWpt(wptEntry);
 				mapController.repaint();
 			}
@@ -23,7 +23,10 @@ import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryNotificationInfo;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryUsage;
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.Notification;
 import javax.management.NotificationBroadcaster;
@@ -33,36 +36,55 @@ import org.apache.log4j.Logger;
 
 import osmcd.gui.mapview.Tile.TileState;
 import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.Settings;
 
 /**
- * {@link TileImageCache} implementation that stores all {@link Tile} objects in memory up to a certain limit (
- * {@link #getCacheSize()}). If the limit is exceeded the least recently used {@link Tile} objects will be deleted.
+ * Cache that stores {@link Tile} objects in memory up to a certain amount of bytes ({@link #getCapacity()}). If the
+ * limit is exceeded tiles are evicted using the CLOCK (second chance) algorithm, an approximation of least recently
+ * used.
+ * 
+ * The cache is split into independent shards, each consisting of a {@link ConcurrentHashMap} indexed by a packed
+ * <code>long</code> key (map source, zoom, x, y) and a {@link ConcurrentLinkedQueue} acting as clock. Lookups do not
+ * take any lock - a cache hit only sets the reference bit of the entry.
  * 
  * @author Jan Peter Stotz
  * @author r_x
  */
 public class MemoryTileCache implements NotificationListener {
 
-	protected final Logger log;
+	private static final int SHARD_COUNT = 16;
+
+	private static final int SOURCE_BITS = 15;
+	private static final int ZOOM_BITS = 5;
+	private static final int COORD_BITS = 22;
+	private static final long COORD_MASK = (1L << COORD_BITS) - 1;
 
 	/**
-	 * Default cache size
+	 * Numeric ids of all map sources (identified by name) used in a tile key
 	 */
-	protected int cacheSize = 200;
+	private static final ConcurrentHashMap<String, Integer> SOURCE_IDS = new ConcurrentHashMap<String, Integer>();
+	private static final AtomicInteger NEXT_SOURCE_ID = new AtomicInteger(0);
 
-	protected Hashtable<String, CacheEntry> hashtable;
+	protected final Logger log;
 
 	/**
-	 * List of all tiles in their last recently used order
+	 * Maximum number of bytes of all cached tile images
 	 */
-	protected CacheLinkedListElement lruTiles;
+	protected volatile long capacity;
+
+	protected final Shard[] shards;
 
 	public MemoryTileCache() {
+		this(Settings.getInstance().mapviewTileCacheSize * 1024L * 1024L);
+	}
+
+	public MemoryTileCache(long capacity) {
 		log = Logger.getLogger(this.getClass());
-		hashtable = new Hashtable<String, CacheEntry>(cacheSize);
-		lruTiles = new CacheLinkedListElement();
-		
-		cacheSize = 500;
+		this.capacity = capacity;
+		shards = new Shard[SHARD_COUNT];
+		for (int i = 0; i < SHARD_COUNT; i++)
+			shards[i] = new Shard();
+
 		MemoryMXBean mbean = ManagementFactory.getMemoryMXBean();
 		NotificationBroadcaster emitter = (NotificationBroadcaster) mbean;
 		emitter.addNotificationListener(this, null, null);
@@ -76,209 +98,205 @@ public class MemoryTileCache implements NotificationListener {
 	}
 
 	/**
-	 * In case we are running out of memory we free half of the cached down to a minimum of 25 cached tiles.
+	 * In case we are running out of memory we free half of the cached tiles.
 	 */
 	public void handleNotification(Notification notification, Object handback) {
 		log.trace("Memory notification: " + notification.toString());
 		if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType()))
 			return;
-		synchronized (lruTiles) {
-			int count_half = lruTiles.getElementCount() / 2;
-			count_half = Math.max(25, count_half);
-			if (lruTiles.getElementCount() <= count_half)
-				return;
-			log.warn("memory low - freeing cached tiles: " + lruTiles.getElementCount() + " -> " + count_half);
-			try {
-				while (lruTiles.getElementCount() > count_half) {
-					removeEntry(lruTiles.getLastElement());
-				}
-			} catch (Exception e) {
-				log.error("", e);
-			}
-		}
+		long before = getCacheBytes();
+		for (Shard shard : shards)
+			shard.evict(shard.bytes.get() / 2, true);
+		log.warn("memory low - freeing cached tiles: " + before + " -> " + getCacheBytes() + " bytes");
 	}
 
 	public void addTile(Tile tile) {
-		CacheEntry entry = createCacheEntry(tile);
-		hashtable.put(tile.getKey(), entry);
-		lruTiles.addFirst(entry);
-		if (hashtable.size() > cacheSize)
-			removeOldEntries();
+		long key = getTileKey(tile.getSource(), tile.getXtile(), tile.getYtile(), tile.getZoom());
+		int tileSize = tile.getSource().getMapSpace().getTileSize();
+		// All tiles are decoded or painted into images with (at most) four bytes per pixel
+		CacheEntry entry = new CacheEntry(key, tile, tileSize * tileSize * 4);
+		Shard shard = getShard(key);
+		shard.add(entry);
+		long shardCapacity = capacity / SHARD_COUNT;
+		if (shard.bytes.get() > shardCapacity)
+			shard.evict(shardCapacity, false);
 	}
 
 	public Tile getTile(MapSource source, int x, int y, int z) {
-		CacheEntry entry = hashtable.get(Tile.getTileKey(source, x, y, z));
-		if (entry == null)
+		long key = getTileKey(source, x, y, z);
+		Shard shard = getShard(key);
+		CacheEntry entry = shard.map.get(key);
+		if (entry == null) {
+			shard.misses.incrementAndGet();
 			return null;
+		}
+		shard.hits.incrementAndGet();
 		// We don't care about placeholder tiles and hourglass image tiles, the
 		// important tiles are the loaded ones
-		if (entry.tile.getTileState() == TileState.TS_LOADED)
-			lruTiles.moveElementToFirstPos(entry);
+		if (entry.tile.getTileState() == TileState.TS_LOADED && !entry.referenced)
+			entry.referenced = true;
 		return entry.tile;
 	}
 
 	/**
-	 * Removes the least recently used tiles
+	 * Clears the cache deleting all tiles from memory
 	 */
-	protected void removeOldEntries() {
-		synchronized (lruTiles) {
-			try {
-				while (lruTiles.getElementCount() > cacheSize) {
-					removeEntry(lruTiles.getLastElement());
-				}
-			} catch (Exception e) {
-				log.warn("", e);
-			}
-		}
+	public void clear() {
+		for (Shard shard : shards)
+			shard.evict(0, true);
+	}
+
+	public int getTileCount() {
+		int count = 0;
+		for (Shard shard : shards)
+			count += shard.map.size();
+		return count;
 	}
 
-	protected void removeEntry(CacheEntry entry) {
-		hashtable.remove(entry.tile.getKey());
-		lruTiles.removeEntry(entry);
+	/**
+	 * @return estimated number of bytes used by all cached tile images
+	 */
+	public long getCacheBytes() {
+		long bytes = 0;
+		for (Shard shard : shards)
+			bytes += shard.bytes.get();
+		return bytes;
 	}
 
-	protected CacheEntry createCacheEntry(Tile tile) {
-		return new CacheEntry(tile);
+	public long getCapacity() {
+		return capacity;
 	}
 
 	/**
-	 * Clears the cache deleting all tiles from memory
+	 * Changes the maximum number of bytes that the images of the cached {@link Tile} objects may use.
+	 * 
+	 * @param capacity
+	 *            new capacity in bytes
 	 */
-	public void clear() {
-		synchronized (lruTiles) {
-			hashtable.clear();
-			lruTiles.clear();
-		}
+	public void setCapacity(long capacity) {
+		this.capacity = capacity;
+		long shardCapacity = capacity / SHARD_COUNT;
+		for (Shard shard : shards)
+			shard.evict(shardCapacity, false);
 	}
 
-	public int getTileCount() {
-		return hashtable.size();
+	public long getHitCount() {
+		long count = 0;
+		for (Shard shard : shards)
+			count += shard.hits.get();
+		return count;
+	}
+
+	public long getMissCount() {
+		long count = 0;
+		for (Shard shard : shards)
+			count += shard.misses.get();
+		return count;
+	}
+
+	public long getEvictionCount() {
+		long count = 0;
+		for (Shard shard : shards)
+			count += shard.evictions.get();
+		return count;
 	}
 
-	public int getCacheSize() {
-		return cacheSize;
+	protected Shard getShard(long key) {
+		int h = (int) (key ^ (key >>> 32));
+		h ^= (h >>> 16);
+		h ^= (h >>> 8);
+		return shards[h & (SHARD_COUNT - 1)];
 	}
 
 	/**
-	 * Changes the maximum number of {@link Tile} objects that this cache holds.
-	 * 
-	 * @param cacheSize
-	 *            new maximum number of tiles
+	 * Packs map source, zoom level and tile coordinates into one <code>long</code> value: 15 bits source id, 5 bits
+	 * zoom, 22 bits x and 22 bits y.
 	 */
-	public void setCacheSize(int cacheSize) {
-		this.cacheSize = cacheSize;
-		if (hashtable.size() > cacheSize)
-			removeOldEntries();
+	public static long getTileKey(MapSource source, int xtile, int ytile, int zoom) {
+		long sourceId = getSourceId(source);
+		return (sourceId << (ZOOM_BITS + 2 * COORD_BITS)) | (((long) zoom) << (2 * COORD_BITS))
+				| ((xtile & COORD_MASK) << COORD_BITS) | (ytile & COORD_MASK);
+	}
+
+	private static int getSourceId(MapSource source) {
+		String name = source.getName();
+		Integer id = SOURCE_IDS.get(name);
+		if (id == null) {
+			Integer newId = Integer.valueOf(NEXT_SOURCE_ID.getAndIncrement() & ((1 << SOURCE_BITS) - 1));
+			id = SOURCE_IDS.putIfAbsent(name, newId);
+			if (id == null)
+				id = newId;
+		}
+		return id.intValue();
 	}
 
 	/**
-	 * Linked list element holding the {@link Tile} and links to the {@link #next} and {@link #prev} item in the list.
+	 * Cache entry holding the {@link Tile}, its estimated memory size and the reference bit used by the clock.
 	 */
 	protected static class CacheEntry {
-		Tile tile;
+		final long key;
+		final Tile tile;
+		final int size;
+		volatile boolean referenced = false;
 
-		CacheEntry next;
-		CacheEntry prev;
-
-		protected CacheEntry(Tile tile) {
+		protected CacheEntry(long key, Tile tile, int size) {
+			this.key = key;
 			this.tile = tile;
+			this.size = size;
 		}
 
 		public Tile getTile() {
 			return tile;
 		}
 
-		public CacheEntry getNext() {
-			return next;
-		}
-
-		public CacheEntry getPrev() {
-			return prev;
-		}
-
 	}
 
 	/**
-	 * Special implementation of a double linked list for {@link CacheEntry} elements. It supports element removal in
-	 * constant time - in difference to the Java implementation which needs O(n).
-	 * 
-	 * @author Jan Peter Stotz
+	 * One independent part of the cache. Entries are appended to the {@link #clock} queue in insertion order. On
+	 * eviction the head entry is removed unless its reference bit is set - in that case the bit is cleared and the
+	 * entry gets a second chance at the tail of the queue. Entries that have been replaced in the {@link #map} are
+	 * silently dropped from the queue.
 	 */
-	protected static class CacheLinkedListElement {
-		protected CacheEntry firstElement = null;
-		protected CacheEntry lastElement;
-		protected int elementCount;
-
-		public CacheLinkedListElement() {
-			clear();
-		}
-
-		public synchronized void clear() {
-			elementCount = 0;
-			firstElement = null;
-			lastElement = null;
+	protected static class Shard {
+		final ConcurrentHashMap<Long, CacheEntry> map = new ConcurrentHashMap<Long, CacheEntry>();
+		final ConcurrentLinkedQueue<CacheEntry> clock = new ConcurrentLinkedQueue<CacheEntry>();
+		final AtomicLong bytes = new AtomicLong(0);
+		final AtomicLong hits = new AtomicLong(0);
+		final AtomicLong misses = new AtomicLong(0);
+		final AtomicLong evictions = new AtomicLong(0);
+
+		void add(CacheEntry entry) {
+			CacheEntry old = map.put(entry.key, entry);
+			if (old != null)
+				bytes.addAndGet(-old.size);
+			bytes.addAndGet(entry.size);
+			clock.offer(entry);
 		}
 
 		/**
-		 * Add the element to the head of the list.
+		 * Evicts entries until the shard uses at most <code>limit</code> bytes.
 		 * 
-		 * @param new element to be added
+		 * @param limit
+		 * @param ignoreReferences
+		 *            evict entries regardless of their reference bit
 		 */
-		public synchronized void addFirst(CacheEntry element) {
-			if (elementCount == 0) {
-				firstElement = element;
-				lastElement = element;
-				element.prev = null;
-				element.next = null;
-			} else {
-				element.next = firstElement;
-				firstElement.prev = element;
-				element.prev = null;
-				firstElement = element;
-			}
-			elementCount++;
-		}
-
-		/**
-		 * Removes the specified elemntent form the list.
-		 * 
-		 * @param element
-		 *            to be removed
-		 */
-		public synchronized void removeEntry(CacheEntry element) {
-			if (element.next != null) {
-				element.next.prev = element.prev;
-			}
-			if (element.prev != null) {
-				element.prev.next = element.next;
+		void evict(long limit, boolean ignoreReferences) {
+			while (bytes.get() > limit) {
+				CacheEntry entry = clock.poll();
+				if (entry == null)
+					return;
+				if (map.get(entry.key) != entry)
+					continue; // stale entry that has already been replaced or removed
+				if (entry.referenced && !ignoreReferences) {
+					entry.referenced = false;
+					clock.offer(entry);
+					continue;
+				}
+				if (map.remove(entry.key, entry)) {
+					bytes.addAndGet(-entry.size);
+					evictions.incrementAndGet();
+				}
 			}
-			if (element == firstElement)
-				firstElement = element.next;
-			if (element == lastElement)
-				lastElement = element.prev;
-			element.next = null;
-			element.prev = null;
-			elementCount--;
-		}
-
-		public synchronized void moveElementToFirstPos(CacheEntry entry) {
-			if (firstElement == entry)
-				return;
-			removeEntry(entry);
-			addFirst(entry);
 		}
-
-		public int getElementCount() {
-			return elementCount;
-		}
-
-		public CacheEntry getLastElement() {
-			return lastElement;
-		}
-
-		public CacheEntry getFirstElement() {
-			return firstElement;
-		}
-
 	}
 }
@@ -26,6 +26,7 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.imageio.ImageIO;
 
@@ -59,13 +60,16 @@ public class Tile {
 		TS_NEW, TS_LOADING, TS_LOADED, TS_ERROR
 	};
 
+	private static final AtomicReferenceFieldUpdater<Tile, TileState> STATE_UPDATER = AtomicReferenceFieldUpdater
+			.newUpdater(Tile.class, TileState.class, "tileState");
+
 	protected MapSource mapSource;
 	protected int xtile;
 	protected int ytile;
 	protected int zoom;
 	protected BufferedImage image;
 	protected String key;
-	protected TileState tileState = TileState.TS_NEW;
+	protected volatile TileState tileState = TileState.TS_NEW;
 
 	/**
 	 * Creates a tile with empty image.
@@ -211,6 +215,17 @@ public class Tile {
 		this.tileState = tileState;
 	}
 
+	/**
+	 * Atomically changes the tile state to <code>newState</code> if the current state is <code>expectedState</code>.
+	 * 
+	 * @param expectedState
+	 * @param newState
+	 * @return <code>true</code> if the state has been changed
+	 */
+	public boolean compareAndSetTileState(TileState expectedState, TileState newState) {
+		return STATE_UPDATER.compareAndSet(this, expectedState, newState);
+	}
+
 	/**
 	 * Paints the tile-image on the {@link Graphics} <code>g</code> at the position <code>x</code>/<code>y</code>.
 	 * 
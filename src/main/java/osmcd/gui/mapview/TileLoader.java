@@ -75,12 +75,9 @@ public class TileLoader {
 
 		public void run() {
 			MemoryTileCache cache = listener.getTileImageCache();
-			synchronized (cache) {
-				tile = cache.getTile(mapSource, tilex, tiley, zoom);
-				if (tile == null || tile.tileState != TileState.TS_NEW)
-					return;
-				tile.setTileState(TileState.TS_LOADING);
-			}
+			tile = cache.getTile(mapSource, tilex, tiley, zoom);
+			if (tile == null || !tile.compareAndSetTileState(TileState.TS_NEW, TileState.TS_LOADING))
+				return;
 			if (loadTileFromStore())
 				return;
 			if (fileTilePainted) {
@@ -80,6 +80,7 @@ public class GpxMapController extends JMapController implements MouseListener {
 			} else if (entry instanceof TrksegEntry) {
 				editor.findTrksegAndAdd((TrksegEntry) entry, wpt);
 			}
+			entry.getLayer().invalidate();
 			panel.addWpt(wpt, entry);
 		}
 		map.repaint();
@@ -21,6 +21,10 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Stroke;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
 
 import osmcd.data.gpx.gpx11.Gpx;
 import osmcd.data.gpx.gpx11.RteType;
@@ -47,7 +51,7 @@ public class GpxLayer implements MapLayer {
 
 	private Stroke outlineStroke = new BasicStroke(1);
 
-	private Stroke lineStroke = new BasicStroke(2.0f);
+	private BasicStroke lineStroke = new BasicStroke(2.0f);
 
 	// private Logger log = Logger.getLogger(GpxLayer.class);
 
@@ -63,49 +67,86 @@ public class GpxLayer implements MapLayer {
 	private boolean showTracks = true;
 	private boolean showRoutes = true;
 
-	private int lastTrackPointX = Integer.MIN_VALUE;
-	private int lastTrackPointY = Integer.MIN_VALUE;
+	/**
+	 * Number of zoom levels the projected GPX data is cached for
+	 */
+	private static final int MAX_CACHED_ZOOM_LEVELS = 4;
+
+	/** the coordinates of the gpx object, extracted on first use (see {@link #invalidate()}) */
+	private GeoData geoData = null;
+
+	/** the map space the cached projections belong to */
+	private MapSpace projectedMapSpace = null;
+
+	private final LinkedHashMap<Integer, ProjectedGpx> projectedCache = new LinkedHashMap<Integer, ProjectedGpx>(
+			MAX_CACHED_ZOOM_LEVELS + 1, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<Integer, ProjectedGpx> eldest) {
+			return size() > MAX_CACHED_ZOOM_LEVELS;
+		}
+	};
 
 	public GpxLayer(Gpx gpx) {
 		this.gpx = gpx;
 	}
 
+	/**
+	 * Has to be called after the content of the associated gpx object has been modified.
+	 */
+	public synchronized void invalidate() {
+		geoData = null;
+		projectedCache.clear();
+	}
+
 	public void paint(JMapViewer map, Graphics2D g, int zoom, int minX, int minY, int maxX, int maxY) {
-		g.setColor(wptPointColor);
 		final MapSpace mapSpace = map.getMapSource().getMapSpace();
+		ProjectedGpx projected = getProjectedGpx(mapSpace, zoom);
 		if (showWaypoints) {
-			for (WptType pt : gpx.getWpt()) {
-				paintPoint(pt, wptPointColor, g, showWaypointName, mapSpace, zoom, minX, minY, maxX, maxY);
+			for (int i = 0; i < projected.wpts.length; i++) {
+				paintPoint(projected.wpts[i], projected.wptX[i], projected.wptY[i], wptPointColor, g,
+						showWaypointName, minX, minY, maxX, maxY);
 			}
 		}
+		int margin = (int) Math.ceil(lineStroke.getLineWidth());
+		if (showTracks || showRoutes)
+			g.setStroke(lineStroke);
 		if (showTracks) {
-			for (TrkType trk : gpx.getTrk()) {
-				for (TrksegType seg : trk.getTrkseg()) {
-					lastTrackPointX = Integer.MIN_VALUE;
-					lastTrackPointY = Integer.MIN_VALUE;
-					for (WptType pt : seg.getTrkpt()) {
-						paintTrack(pt, trkPointColor, g, mapSpace, zoom, minX, minY, maxX, maxY);
-					}
-				}
-			}
+			g.setColor(trkPointColor);
+			projected.tracks.paint(g, minX, minY, maxX, maxY, margin);
 		}
 		if (showRoutes) {
-			for (RteType rte : gpx.getRte()) {
-				lastTrackPointX = Integer.MIN_VALUE;
-				lastTrackPointY = Integer.MIN_VALUE;
-				for (WptType pt : rte.getRtept()) {
-					paintTrack(pt, rtePointColor, g, mapSpace, zoom, minX, minY, maxX, maxY);
-				}
-			}
+			g.setColor(rtePointColor);
+			projected.routes.paint(g, minX, minY, maxX, maxY, margin);
 		}
 	}
 
-	private boolean paintPoint(final WptType point, Color color, final Graphics2D g, boolean paintPointName,
-			MapSpace mapSpace, int zoom, int minX, int minY, int maxX, int maxY) {
-		int x = mapSpace.cLonToX(point.getLon().doubleValue(), zoom);
+	/**
+	 * Returns the gpx content projected to the pixel coordinates of the specified zoom level. The BigDecimal
+	 * coordinates of the gpx object are converted only once, the projection is cached for the last
+	 * {@link #MAX_CACHED_ZOOM_LEVELS} zoom levels.
+	 */
+	private synchronized ProjectedGpx getProjectedGpx(MapSpace mapSpace, int zoom) {
+		if (geoData == null)
+			geoData = new GeoData(gpx);
+		if (mapSpace != projectedMapSpace) {
+			projectedCache.clear();
+			projectedMapSpace = mapSpace;
+		}
+		ProjectedGpx projected = projectedCache.get(zoom);
+		if (projected == null) {
+			projected = new ProjectedGpx(geoData, mapSpace, zoom);
+			projectedCache.put(zoom, projected);
+		}
+		return projected;
+	}
+
+	private boolean paintPoint(final WptType point, int x, int y, Color color, final Graphics2D g,
+			boolean paintPointName, int minX, int minY, int maxX, int maxY) {
 		if (x < minX || x > maxX)
 			return false; // Point outside of visible region
-		int y = mapSpace.cLatToY(point.getLat().doubleValue(), zoom);
 		if (y < minY || y > maxY)
 			return false; // Point outside of visible region
 		x -= minX;
@@ -121,24 +162,6 @@ public class GpxLayer implements MapLayer {
 		return true;
 	}
 
-	private boolean paintTrack(final WptType point, Color color, final Graphics2D g, MapSpace mapSpace, int zoom,
-			int minX, int minY, int maxX, int maxY) {
-		// Absolute map space coordinates
-		int xAbs = mapSpace.cLonToX(point.getLon().doubleValue(), zoom);
-		int yAbs = mapSpace.cLatToY(point.getLat().doubleValue(), zoom);
-		// Relative coordinates regarding the top left point on map
-		int x = xAbs - minX;
-		int y = yAbs - minY;
-		g.setColor(color);
-		if (lastTrackPointX != Integer.MIN_VALUE && lastTrackPointY != Integer.MIN_VALUE) {
-			g.setStroke(lineStroke);
-			g.drawLine(lastTrackPointX, lastTrackPointY, x, y);
-		}
-		lastTrackPointX = x;
-		lastTrackPointY = y;
-		return true;
-	}
-
 	/**
 	 * The associated gpx object
 	 * 
@@ -169,4 +192,77 @@ public class GpxLayer implements MapLayer {
 		return file;
 	}
 
+
+	/**
+	 * The coordinates of all waypoints, track segments and routes as primitive arrays
+	 */
+	private static class GeoData {
+
+		final WptType[] wpts;
+		final double[] wptLon;
+		final double[] wptLat;
+		final List<double[][]> tracks = new ArrayList<double[][]>();
+		final List<double[][]> routes = new ArrayList<double[][]>();
+
+		public GeoData(Gpx gpx) {
+			List<WptType> wptList = gpx.getWpt();
+			wpts = wptList.toArray(new WptType[wptList.size()]);
+			double[][] wptCoords = toCoordinates(wptList);
+			wptLon = wptCoords[0];
+			wptLat = wptCoords[1];
+			for (TrkType trk : gpx.getTrk()) {
+				for (TrksegType seg : trk.getTrkseg())
+					tracks.add(toCoordinates(seg.getTrkpt()));
+			}
+			for (RteType rte : gpx.getRte())
+				routes.add(toCoordinates(rte.getRtept()));
+		}
+
+		private static double[][] toCoordinates(List<WptType> points) {
+			double[] lon = new double[points.size()];
+			double[] lat = new double[points.size()];
+			int i = 0;
+			for (WptType pt : points) {
+				lon[i] = pt.getLon().doubleValue();
+				lat[i] = pt.getLat().doubleValue();
+				i++;
+			}
+			return new double[][] { lon, lat };
+		}
+	}
+
+	/**
+	 * The content of a {@link GeoData} instance projected to one zoom level. Tracks and routes are simplified and
+	 * spatially indexed (see {@link PolylineIndex}).
+	 */
+	private static class ProjectedGpx {
+
+		final WptType[] wpts;
+		final int[] wptX;
+		final int[] wptY;
+		final PolylineIndex tracks;
+		final PolylineIndex routes;
+
+		public ProjectedGpx(GeoData geoData, MapSpace mapSpace, int zoom) {
+			wpts = geoData.wpts;
+			wptX = new int[wpts.length];
+			wptY = new int[wpts.length];
+			for (int i = 0; i < wpts.length; i++) {
+				wptX[i] = mapSpace.cLonToX(geoData.wptLon[i], zoom);
+				wptY[i] = mapSpace.cLatToY(geoData.wptLat[i], zoom);
+			}
+			tracks = project(geoData.tracks, mapSpace, zoom);
+			routes = project(geoData.routes, mapSpace, zoom);
+		}
+
+		private static PolylineIndex project(List<double[][]> lines, MapSpace mapSpace, int zoom) {
+			ProjectedPolyline[] result = new ProjectedPolyline[lines.size()];
+			for (int i = 0; i < result.length; i++) {
+				double[][] coords = lines.get(i);
+				result[i] = new ProjectedPolyline(coords[0], coords[1], mapSpace, zoom);
+			}
+			return new PolylineIndex(result);
+		}
+	}
+
 }
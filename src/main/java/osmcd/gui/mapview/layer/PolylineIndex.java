@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.gui.mapview.layer;
+
+import java.awt.Graphics2D;
+import java.util.HashMap;
+
+/**
+ * Spatial index of the runs of a set of {@link ProjectedPolyline}s of one zoom level.
+ * <p>
+ * The pixel plane is divided into a grid of square cells. Each run is registered in the buckets of all cells covered
+ * by its bounding box, so painting only visits the runs registered in the cells intersecting the visible region. The
+ * cell size is a power of two of at least {@link #MIN_CELL_SIZE} pixels adapted to the average run extent, therefore a
+ * run typically covers only a few cells. Runs covering more than {@link #MAX_CELLS_PER_RUN} cells (e.g. long straight
+ * segments at high zoom levels) are kept in a separate list and tested individually.
+ * </p>
+ */
+final class PolylineIndex {
+
+	private static final int MIN_CELL_SIZE = 256;
+
+	private static final int MAX_CELLS_PER_RUN = 16;
+
+	private final ProjectedPolyline[] lines;
+
+	/**
+	 * log2 of the cell size in pixels
+	 */
+	private final int cellShift;
+
+	private final HashMap<Long, RunList> buckets = new HashMap<Long, RunList>();
+
+	private final RunList largeRuns = new RunList();
+
+	public PolylineIndex(ProjectedPolyline[] lines) {
+		this.lines = lines;
+		long extentSum = 0;
+		int runCount = 0;
+		for (ProjectedPolyline line : lines) {
+			for (int r = 0; r < line.getRunCount(); r++) {
+				extentSum += Math.max(line.getRunMaxX(r) - line.getRunMinX(r), line.getRunMaxY(r) - line.getRunMinY(r));
+				runCount++;
+			}
+		}
+		int cellSize = MIN_CELL_SIZE;
+		if (runCount > 0) {
+			long averageExtent = extentSum / runCount;
+			while (cellSize < averageExtent && cellSize < (1 << 30))
+				cellSize <<= 1;
+		}
+		cellShift = Integer.numberOfTrailingZeros(cellSize);
+
+		for (int l = 0; l < lines.length; l++) {
+			ProjectedPolyline line = lines[l];
+			for (int r = 0; r < line.getRunCount(); r++) {
+				int cellMinX = line.getRunMinX(r) >> cellShift;
+				int cellMinY = line.getRunMinY(r) >> cellShift;
+				int cellMaxX = line.getRunMaxX(r) >> cellShift;
+				int cellMaxY = line.getRunMaxY(r) >> cellShift;
+				if ((long) (cellMaxX - cellMinX + 1) * (cellMaxY - cellMinY + 1) > MAX_CELLS_PER_RUN) {
+					largeRuns.add(l, r);
+					continue;
+				}
+				for (int cy = cellMinY; cy <= cellMaxY; cy++) {
+					for (int cx = cellMinX; cx <= cellMaxX; cx++) {
+						Long key = cellKey(cx, cy);
+						RunList bucket = buckets.get(key);
+						if (bucket == null) {
+							bucket = new RunList();
+							buckets.put(key, bucket);
+						}
+						bucket.add(l, r);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Paints the runs intersecting the visible region (absolute pixel coordinates).
+	 * 
+	 * @param margin
+	 *            number of pixels the visible region is enlarged by for culling (line width)
+	 */
+	public void paint(Graphics2D g, int minX, int minY, int maxX, int maxY, int margin) {
+		int cMinX = minX - margin;
+		int cMinY = minY - margin;
+		int cMaxX = maxX + margin;
+		int cMaxY = maxY + margin;
+		int[] bufX = new int[ProjectedPolyline.RUN_LENGTH + 1];
+		int[] bufY = new int[ProjectedPolyline.RUN_LENGTH + 1];
+		for (int i = 0; i < largeRuns.size; i++) {
+			ProjectedPolyline line = lines[largeRuns.getLine(i)];
+			int r = largeRuns.getRun(i);
+			if (intersects(line, r, cMinX, cMinY, cMaxX, cMaxY))
+				line.paintRun(g, r, minX, minY, bufX, bufY);
+		}
+		int gridMinX = cMinX >> cellShift;
+		int gridMinY = cMinY >> cellShift;
+		int gridMaxX = cMaxX >> cellShift;
+		int gridMaxY = cMaxY >> cellShift;
+		for (int cy = gridMinY; cy <= gridMaxY; cy++) {
+			for (int cx = gridMinX; cx <= gridMaxX; cx++) {
+				RunList bucket = buckets.get(cellKey(cx, cy));
+				if (bucket == null)
+					continue;
+				for (int i = 0; i < bucket.size; i++) {
+					ProjectedPolyline line = lines[bucket.getLine(i)];
+					int r = bucket.getRun(i);
+					if (!intersects(line, r, cMinX, cMinY, cMaxX, cMaxY))
+						continue;
+					// The run is registered in all cells covered by its bounding box - paint it only in the first
+					// visible one
+					if (cx != Math.max(gridMinX, line.getRunMinX(r) >> cellShift)
+							|| cy != Math.max(gridMinY, line.getRunMinY(r) >> cellShift))
+						continue;
+					line.paintRun(g, r, minX, minY, bufX, bufY);
+				}
+			}
+		}
+	}
+
+	private static boolean intersects(ProjectedPolyline line, int r, int minX, int minY, int maxX, int maxY) {
+		return line.getRunMaxX(r) >= minX && line.getRunMinX(r) <= maxX && line.getRunMaxY(r) >= minY
+				&& line.getRunMinY(r) <= maxY;
+	}
+
+	private static Long cellKey(int cx, int cy) {
+		return Long.valueOf(((long) cx << 32) | (cy & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Growable list of (line index, run index) pairs
+	 */
+	private static class RunList {
+
+		private int[] refs = new int[8];
+		private int size = 0;
+
+		public void add(int line, int run) {
+			if (2 * size + 2 > refs.length) {
+				int[] newRefs = new int[refs.length * 2];
+				System.arraycopy(refs, 0, newRefs, 0, 2 * size);
+				refs = newRefs;
+			}
+			refs[2 * size] = line;
+			refs[2 * size + 1] = run;
+			size++;
+		}
+
+		public int getLine(int i) {
+			return refs[2 * i];
+		}
+
+		public int getRun(int i) {
+			return refs[2 * i + 1];
+		}
+	}
+
+}
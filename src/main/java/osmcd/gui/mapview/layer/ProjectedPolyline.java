@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.gui.mapview.layer;
+
+import java.awt.Graphics2D;
+
+import osmcd.program.interfaces.MapSpace;
+
+/**
+ * A GPX track segment or route projected to the pixel coordinates of one zoom level.
+ * <p>
+ * The points are simplified using the Douglas-Peucker algorithm with a tolerance of {@link #TOLERANCE} pixels. The
+ * simplified points are split into runs of {@link #RUN_LENGTH} segments with a precomputed bounding box. The runs are
+ * the unit a {@link PolylineIndex} registers and paints.
+ * </p>
+ */
+final class ProjectedPolyline {
+
+	/**
+	 * Maximum deviation in pixels of the simplified line from the original line
+	 */
+	private static final double TOLERANCE = 0.7;
+
+	/**
+	 * Number of segments per bounding box
+	 */
+	static final int RUN_LENGTH = 32;
+
+	private final int[] x;
+	private final int[] y;
+	private final int count;
+
+	/**
+	 * Bounding boxes of the runs: run <code>i</code> contains the points
+	 * <code>i * RUN_LENGTH ... (i + 1) * RUN_LENGTH</code>
+	 */
+	private final int[] runMinX;
+	private final int[] runMinY;
+	private final int[] runMaxX;
+	private final int[] runMaxY;
+
+	/**
+	 * @param lon
+	 *            longitude of the points
+	 * @param lat
+	 *            latitude of the points
+	 */
+	public ProjectedPolyline(double[] lon, double[] lat, MapSpace mapSpace, int zoom) {
+		int n = lon.length;
+		int[] px = new int[n];
+		int[] py = new int[n];
+		// Project and drop consecutive points at the same pixel
+		int c = 0;
+		for (int i = 0; i < n; i++) {
+			int xi = mapSpace.cLonToX(lon[i], zoom);
+			int yi = mapSpace.cLatToY(lat[i], zoom);
+			if (c > 0 && px[c - 1] == xi && py[c - 1] == yi)
+				continue;
+			px[c] = xi;
+			py[c] = yi;
+			c++;
+		}
+		boolean[] keep = simplify(px, py, c);
+		int k = 0;
+		for (int i = 0; i < c; i++) {
+			if (keep[i]) {
+				px[k] = px[i];
+				py[k] = py[i];
+				k++;
+			}
+		}
+		count = k;
+		x = new int[count];
+		y = new int[count];
+		System.arraycopy(px, 0, x, 0, count);
+		System.arraycopy(py, 0, y, 0, count);
+
+		int runs = Math.max(0, (count - 2) / RUN_LENGTH + 1);
+		runMinX = new int[runs];
+		runMinY = new int[runs];
+		runMaxX = new int[runs];
+		runMaxY = new int[runs];
+		for (int r = 0; r < runs; r++) {
+			int start = r * RUN_LENGTH;
+			int end = Math.min(count - 1, start + RUN_LENGTH);
+			int rMinX = Integer.MAX_VALUE, rMinY = Integer.MAX_VALUE;
+			int rMaxX = Integer.MIN_VALUE, rMaxY = Integer.MIN_VALUE;
+			for (int i = start; i <= end; i++) {
+				rMinX = Math.min(rMinX, x[i]);
+				rMinY = Math.min(rMinY, y[i]);
+				rMaxX = Math.max(rMaxX, x[i]);
+				rMaxY = Math.max(rMaxY, y[i]);
+			}
+			runMinX[r] = rMinX;
+			runMinY[r] = rMinY;
+			runMaxX[r] = rMaxX;
+			runMaxY[r] = rMaxY;
+		}
+	}
+
+	/**
+	 * Douglas-Peucker simplification (iterative to avoid deep recursion on long tracks).
+	 * 
+	 * @return the points to keep
+	 */
+	private static boolean[] simplify(int[] px, int[] py, int n) {
+		boolean[] keep = new boolean[n];
+		if (n == 0)
+			return keep;
+		keep[0] = true;
+		keep[n - 1] = true;
+		int[] stack = new int[64];
+		int sp = 0;
+		stack[sp++] = 0;
+		stack[sp++] = n - 1;
+		double tolerance2 = TOLERANCE * TOLERANCE;
+		while (sp > 0) {
+			int last = stack[--sp];
+			int first = stack[--sp];
+			if (last - first < 2)
+				continue;
+			double dx = px[last] - px[first];
+			double dy = py[last] - py[first];
+			double len2 = dx * dx + dy * dy;
+			double maxDist2 = -1;
+			int index = -1;
+			for (int i = first + 1; i < last; i++) {
+				double ex = px[i] - px[first];
+				double ey = py[i] - py[first];
+				double dist2;
+				if (len2 == 0) {
+					dist2 = ex * ex + ey * ey;
+				} else {
+					double cross = ex * dy - ey * dx;
+					dist2 = cross * cross / len2;
+				}
+				if (dist2 > maxDist2) {
+					maxDist2 = dist2;
+					index = i;
+				}
+			}
+			if (maxDist2 > tolerance2) {
+				keep[index] = true;
+				if (sp + 4 > stack.length) {
+					int[] newStack = new int[stack.length * 2];
+					System.arraycopy(stack, 0, newStack, 0, sp);
+					stack = newStack;
+				}
+				stack[sp++] = first;
+				stack[sp++] = index;
+				stack[sp++] = index;
+				stack[sp++] = last;
+			}
+		}
+		return keep;
+	}
+
+	/**
+	 * Number of points after simplification
+	 */
+	public int getPointCount() {
+		return count;
+	}
+
+	public int getRunCount() {
+		return runMinX.length;
+	}
+
+	public int getRunMinX(int run) {
+		return runMinX[run];
+	}
+
+	public int getRunMinY(int run) {
+		return runMinY[run];
+	}
+
+	public int getRunMaxX(int run) {
+		return runMaxX[run];
+	}
+
+	public int getRunMaxY(int run) {
+		return runMaxY[run];
+	}
+
+	/**
+	 * Paints the line segments of one run.
+	 * 
+	 * @param offsetX
+	 *            absolute pixel coordinate of the left border of the painted region
+	 * @param offsetY
+	 *            absolute pixel coordinate of the top border of the painted region
+	 * @param bufX
+	 *            buffer of at least {@link #RUN_LENGTH} + 1 elements
+	 * @param bufY
+	 *            buffer of at least {@link #RUN_LENGTH} + 1 elements
+	 */
+	public void paintRun(Graphics2D g, int run, int offsetX, int offsetY, int[] bufX, int[] bufY) {
+		int start = run * RUN_LENGTH;
+		int end = Math.min(count - 1, start + RUN_LENGTH);
+		int n = 0;
+		// Relative coordinates regarding the top left point on map
+		for (int i = start; i <= end; i++) {
+			bufX[n] = x[i] - offsetX;
+			bufY[n] = y[i] - offsetY;
+			n++;
+		}
+		g.drawPolyline(bufX, bufY, n);
+	}
+}
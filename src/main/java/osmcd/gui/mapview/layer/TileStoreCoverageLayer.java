@@ -16,8 +16,10 @@
  ******************************************************************************/
 package osmcd.gui.mapview.layer;
 
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.util.Iterator;
 
@@ -30,20 +32,38 @@ import osmcd.gui.mapview.PreviewMap;
 import osmcd.gui.mapview.interfaces.MapLayer;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSpace;
+import osmcd.program.tilestore.TileCoverageIndex;
 import osmcd.program.tilestore.TileStore;
 import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 import osmcd.utilities.GUIExceptionHandler;
 import osmcd.utilities.I18nUtils;
 
+/**
+ * Displays which tiles of one zoom level are available in the tile store. The coverage is computed on every change of
+ * the visible region from the {@link TileCoverageIndex} of the tile store, therefore it follows panning, zooming and
+ * running downloads. Partially covered regions are painted in intermediate colors and - if the viewer zoom is lower
+ * than the coverage zoom - labeled with their coverage percentage.
+ */
 public class TileStoreCoverageLayer implements MapLayer {
 
+	/**
+	 * Coverage cells are painted with a size of <code>tileSize >> CELL_ZOOM_OFFSET</code> pixels (or larger)
+	 */
+	private static final int CELL_ZOOM_OFFSET = 4;
+
+	private static final Color EMPTY_COLOR = new Color(120, 120, 120, 120);
+	private static final Color FULL_COLOR = new Color(10, 255, 0, 120);
+	private static final Font PERCENTAGE_FONT = new Font("Sans Serif", Font.BOLD, 14);
+
 	private final MapSource mapSource;
 	private final int zoom;
-	private final Point pixelCoordinateMin;
-	private final Point pixelCoordinateMax;
-	private final Point tileNumMin;
-	private final Point tileNumMax;
+	private volatile TileCoverageIndex coverageIndex = null;
+
+	// Last painted coverage image and the parameters it has been computed for
 	private BufferedImage coverageImage = null;
+	private int imageViewerZoom = -1;
+	private int imageCellMinX, imageCellMinY, imageCellMaxX, imageCellMaxY;
+	private long imageTileCount = -1;
 
 	public static void removeCacheCoverageLayers() {
 		try {
@@ -63,30 +83,19 @@ public class TileStoreCoverageLayer implements MapLayer {
 	public TileStoreCoverageLayer(PreviewMap mapViewer, MapSource mapSource, int zoom) {
 		this.mapSource = mapSource;
 		this.zoom = zoom;
-
-		MapSpace mapSpace = mapSource.getMapSpace();
-		int tileSize = mapSpace.getTileSize();
-		int mapViewerZoom = mapViewer.getZoom();
-		Point min = mapViewer.getTopLeftCoordinate();
-		Point max = new Point(min.x + mapViewer.getWidth(), min.y + mapViewer.getHeight());
-		min = mapSpace.changeZoom(min, mapViewerZoom, zoom);
-		max = mapSpace.changeZoom(max, mapViewerZoom, zoom);
-
-		tileNumMax = new Point(max.x / tileSize, max.y / tileSize);
-		tileNumMin = new Point(min.x / tileSize, min.y / tileSize);
-		pixelCoordinateMax = new Point(tileNumMax.x * tileSize + tileSize - 1, tileNumMax.y * tileSize + tileSize - 1);
-		pixelCoordinateMin = new Point(tileNumMin.x * tileSize, tileNumMin.y * tileSize);
-		updateCoverageImage();
+		loadCoverageIndex();
 	}
 
-	private void updateCoverageImage() {
-		coverageImage = null;
+	/**
+	 * Loads the coverage index - this is only slow the first time a tile store is opened without a saved index.
+	 */
+	private void loadCoverageIndex() {
 		Runnable r = new Runnable() {
 
 			public void run() {
 				try {
-					coverageImage = TileStore.getInstance().getCacheCoverage(mapSource, zoom, tileNumMin, tileNumMax);
-					if (coverageImage == null)
+					coverageIndex = TileStore.getInstance().getCoverageIndex(mapSource);
+					if (coverageIndex == null)
 						JOptionPane.showMessageDialog(MainGUI.getMainGUI(),
 								I18nUtils.localizedStringForKey("msg_tile_store_failed_retrieve_coverage"), 
 								I18nUtils.localizedStringForKey("Error"),
@@ -95,7 +104,7 @@ public class TileStoreCoverageLayer implements MapLayer {
 				} catch (Exception e) {
 					GUIExceptionHandler.processException(e);
 				}
-				if (coverageImage == null)
+				if (coverageIndex == null)
 					removeCacheCoverageLayers();
 				MainGUI.getMainGUI().previewMap.repaint();
 			}
@@ -106,24 +115,99 @@ public class TileStoreCoverageLayer implements MapLayer {
 	}
 
 	public void paint(JMapViewer mapViewer, Graphics2D g, int zoom, int minX, int minY, int maxX, int maxY) {
-		if (coverageImage == null)
+		TileCoverageIndex index = coverageIndex;
+		if (index == null)
 			return;
-		paintCoverage(g, zoom, minX, minY, maxX, maxY);
+		paintCoverage(index, g, zoom, minX, minY, maxX, maxY);
 	}
 
-	protected void paintCoverage(Graphics2D g, int zoom, int minX, int minY, int maxX, int maxY) {
-		Point max = pixelCoordinateMax;
-		Point min = pixelCoordinateMin;
+	protected void paintCoverage(TileCoverageIndex index, Graphics2D g, int zoom, int minX, int minY, int maxX,
+			int maxY) {
 		MapSpace mapSpace = mapSource.getMapSpace();
-		int mapX = mapSpace.xChangeZoom(min.x, this.zoom, zoom);
-		int mapY = mapSpace.yChangeZoom(min.y, this.zoom, zoom);
-		int mapW = mapSpace.xChangeZoom(max.x - min.x + 1, this.zoom, zoom);
-		int mapH = mapSpace.yChangeZoom(max.y - min.y + 1, this.zoom, zoom);
-		int x = mapX - minX;
-		int y = mapY - minY;
-		int w = mapW;
-		int h = mapH;
-		g.drawImage(coverageImage, x, y, w, h, null);
+		int tileSize = mapSpace.getTileSize();
+
+		// Cells are tiles of cellZoom, each cell aggregates 4^(this.zoom - cellZoom) tiles
+		int cellZoom = Math.min(this.zoom, zoom + CELL_ZOOM_OFFSET);
+		int cellSize = (cellZoom <= zoom) ? tileSize << (zoom - cellZoom) : tileSize >> (cellZoom - zoom);
+		int maxCell = mapSpace.getMaxPixels(cellZoom) / tileSize - 1;
+		int cellMinX = Math.max(0, minX / cellSize);
+		int cellMinY = Math.max(0, minY / cellSize);
+		int cellMaxX = Math.min(maxCell, maxX / cellSize);
+		int cellMaxY = Math.min(maxCell, maxY / cellSize);
+		if (cellMinX > cellMaxX || cellMinY > cellMaxY)
+			return;
+
+		long tileCount = index.getTileCount(this.zoom);
+		if (coverageImage == null || imageViewerZoom != zoom || imageCellMinX != cellMinX
+				|| imageCellMinY != cellMinY || imageCellMaxX != cellMaxX || imageCellMaxY != cellMaxY
+				|| imageTileCount != tileCount) {
+			int[] counts = index.getCoverage(this.zoom, cellZoom, cellMinX, cellMinY, cellMaxX, cellMaxY);
+			coverageImage = createCoverageImage(counts, cellMaxX - cellMinX + 1, cellMaxY - cellMinY + 1,
+					1L << (2 * (this.zoom - cellZoom)));
+			imageViewerZoom = zoom;
+			imageCellMinX = cellMinX;
+			imageCellMinY = cellMinY;
+			imageCellMaxX = cellMaxX;
+			imageCellMaxY = cellMaxY;
+			imageTileCount = tileCount;
+		}
+		int x = cellMinX * cellSize - minX;
+		int y = cellMinY * cellSize - minY;
+		g.drawImage(coverageImage, x, y, coverageImage.getWidth() * cellSize, coverageImage.getHeight() * cellSize,
+				null);
+
+		if (zoom < this.zoom)
+			paintPercentages(index, g, zoom, tileSize, minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Labels each visible tile of the viewer zoom level with the percentage of its area covered by stored tiles.
+	 */
+	private void paintPercentages(TileCoverageIndex index, Graphics2D g, int zoom, int tileSize, int minX, int minY,
+			int maxX, int maxY) {
+		int maxTile = mapSource.getMapSpace().getMaxPixels(zoom) / tileSize - 1;
+		int tileMinX = Math.max(0, minX / tileSize);
+		int tileMinY = Math.max(0, minY / tileSize);
+		int tileMaxX = Math.min(maxTile, maxX / tileSize);
+		int tileMaxY = Math.min(maxTile, maxY / tileSize);
+		if (tileMinX > tileMaxX || tileMinY > tileMaxY)
+			return;
+		int[] counts = index.getCoverage(this.zoom, zoom, tileMinX, tileMinY, tileMaxX, tileMaxY);
+		double tilesPerCell = Math.pow(4, this.zoom - zoom);
+		g.setFont(PERCENTAGE_FONT);
+		FontMetrics fm = g.getFontMetrics();
+		int width = tileMaxX - tileMinX + 1;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0)
+				continue;
+			double percentage = 100.0 * counts[i] / tilesPerCell;
+			String text = (percentage < 1.0) ? "<1%" : String.format("%d%%", (int) percentage);
+			int x = (tileMinX + i % width) * tileSize - minX + (tileSize - fm.stringWidth(text)) / 2;
+			int y = (tileMinY + i / width) * tileSize - minY + (tileSize + fm.getAscent()) / 2;
+			g.setColor(Color.WHITE);
+			g.drawString(text, x + 1, y + 1);
+			g.setColor(Color.BLACK);
+			g.drawString(text, x, y);
+		}
+	}
+
+	private static BufferedImage createCoverageImage(int[] counts, int width, int height, long tilesPerCell) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] argb = new int[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			double f = (double) counts[i] / tilesPerCell;
+			argb[i] = interpolate(EMPTY_COLOR, FULL_COLOR, f);
+		}
+		image.setRGB(0, 0, width, height, argb, 0, width);
+		return image;
+	}
+
+	private static int interpolate(Color c1, Color c2, double f) {
+		int r = (int) (c1.getRed() + (c2.getRed() - c1.getRed()) * f);
+		int g = (int) (c1.getGreen() + (c2.getGreen() - c1.getGreen()) * f);
+		int b = (int) (c1.getBlue() + (c2.getBlue() - c1.getBlue()) * f);
+		int a = (int) (c1.getAlpha() + (c2.getAlpha() - c1.getAlpha()) * f);
+		return (a << 24) | (r << 16) | (g << 8) | b;
 	}
 
 }
@@ -16,15 +16,26 @@
  ******************************************************************************/
 package osmcd.mapsources;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 import javax.xml.bind.annotation.XmlTransient;
@@ -35,12 +46,37 @@ import osmcd.exceptions.TileException;
 import osmcd.gui.mapview.PreviewMap;
 import osmcd.program.interfaces.InitializableMapSource;
 import osmcd.program.interfaces.MapSource;
+import osmcd.program.interfaces.MapSourceListener;
 import osmcd.program.interfaces.MapSpace;
 import osmcd.program.model.MapSourceLoaderInfo;
 import osmcd.program.model.TileImageType;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 
 public abstract class AbstractMultiLayerMapSource implements InitializableMapSource, Iterable<MapSource> {
 
+	/**
+	 * Maximum number of composited tiles kept in memory
+	 */
+	private static final int COMPOSITE_CACHE_SIZE = 16;
+
+	/**
+	 * Composited tiles older than this (in milliseconds) are not reused
+	 */
+	private static final long COMPOSITE_CACHE_TTL = 30000;
+
+	/**
+	 * Loads the tiles of all but the first layer concurrently to the calling thread. The pool is unbounded as the
+	 * number of concurrent requests is already limited by the number of download threads.
+	 */
+	private static final ExecutorService LAYER_LOADER = createLayerLoader(false);
+
+	/**
+	 * Used instead of {@link #LAYER_LOADER} if the requesting thread is a {@link MapSourceListener} (e.g. an atlas
+	 * download worker). Its threads forward the download notifications to the requesting thread so that the layer
+	 * tiles are counted and bandwidth limited like the tiles of the first layer.
+	 */
+	private static final ExecutorService LISTENER_LAYER_LOADER = createLayerLoader(true);
+
 	protected Logger log;
 
 	protected String name = "";
@@ -52,6 +88,17 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 	private MapSpace mapSpace;
 	protected MapSourceLoaderInfo loaderInfo = null;
 
+	private final LinkedHashMap<Long, CompositeTile> compositeCache = new LinkedHashMap<Long, CompositeTile>(
+			COMPOSITE_CACHE_SIZE + 1, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<Long, CompositeTile> eldest) {
+			return size() > COMPOSITE_CACHE_SIZE;
+		}
+	};
+
 	public AbstractMultiLayerMapSource(String name, TileImageType tileImageType) {
 		this();
 		this.name = name;
@@ -119,13 +166,19 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 
 	public byte[] getTileData(int zoom, int x, int y, LoadMethod loadMethod) throws IOException, InterruptedException,
 			TileException {
-		ByteArrayOutputStream buf = new ByteArrayOutputStream(16000);
 		BufferedImage image = getTileImage(zoom, x, y, loadMethod);
 		if (image == null)
 			return null;
+		CompositeTile cached = getCachedComposite(zoom, x, y, loadMethod);
+		if (cached != null && cached.image == image && cached.data != null)
+			return cached.data;
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(16000);
 		// TODO: here can write with compress
 		ImageIO.write(image, tileType.getFileExt(), buf);
-		return buf.toByteArray();
+		byte[] data = buf.toByteArray();
+		if (cached != null && cached.image == image)
+			cached.data = data;
+		return data;
 	}
 
 	// public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod) throws IOException,
@@ -156,56 +209,266 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 
 	public BufferedImage getTileImage(int zoom, int x, int y, LoadMethod loadMethod) throws IOException,
 			InterruptedException, TileException {
-		// int tileSize = mapSpace.getTileSize();
-		BufferedImage image = null;
-		Graphics2D g2 = null;
+		CompositeTile cached = getCachedComposite(zoom, x, y, loadMethod);
+		if (cached != null)
+			return cached.image;
+
+		BufferedImage[] layerImages = loadLayerImages(zoom, x, y, loadMethod);
+		int maxSize = mapSpace.getTileSize();
+		int count = 0;
+		BufferedImage lastImage = null;
+		for (BufferedImage layerImage : layerImages) {
+			if (layerImage == null)
+				continue;
+			count++;
+			lastImage = layerImage;
+			maxSize = Math.max(maxSize, layerImage.getWidth());
+		}
+
+		// optimize for when only one layer exist
+		if (count == 0)
+			return null;
+		if (count == 1)
+			return lastImage;
+
+		BufferedImage image = compositeLayers(layerImages, maxSize);
+		// Tiles with missing layers are not cached as a later request may be able to load them
+		if (count == layerImages.length)
+			putCachedComposite(zoom, x, y, loadMethod, image);
+		return image;
+	}
+
+	/**
+	 * Retrieves the tiles of all layers. The first layer is loaded by the calling thread, all others concurrently on
+	 * the {@link #LAYER_LOADER} or {@link #LISTENER_LAYER_LOADER} threads.
+	 * 
+	 * @return the layer tile images in layer order, <code>null</code> for layers without a tile
+	 */
+	protected BufferedImage[] loadLayerImages(final int zoom, final int x, final int y, final LoadMethod loadMethod)
+			throws IOException, InterruptedException, TileException {
+		BufferedImage[] layerImages = new BufferedImage[mapSources.length];
+		List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(mapSources.length);
+		Thread caller = Thread.currentThread();
+		final MapSourceListener listener = (caller instanceof MapSourceListener) ? (MapSourceListener) caller : null;
+		ExecutorService loader = (listener != null) ? LISTENER_LAYER_LOADER : LAYER_LOADER;
 		try {
-			ArrayList<BufferedImage> layerImages = new ArrayList<BufferedImage>(mapSources.length);
-			int maxSize = mapSpace.getTileSize();
-			for (int i = 0; i < mapSources.length; i++) {
-				MapSource layerMapSource = mapSources[i];
-				BufferedImage layerImage = layerMapSource.getTileImage(zoom, x, y, loadMethod);
-				if (layerImage != null) {
-					log.debug("Multi layer loading: " + layerMapSource + " " + x + " " + y + " " + zoom);
-					layerImages.add(layerImage);
-					int size = layerImage.getWidth();
-					if (size > maxSize) {
-						maxSize = size;
+			for (int i = 1; i < mapSources.length; i++) {
+				final MapSource layerMapSource = mapSources[i];
+				futures.add(loader.submit(new Callable<BufferedImage>() {
+
+					public BufferedImage call() throws Exception {
+						if (listener == null)
+							return layerMapSource.getTileImage(zoom, x, y, loadMethod);
+						ListenerLoaderThread thread = (ListenerLoaderThread) Thread.currentThread();
+						thread.listener = listener;
+						try {
+							return layerMapSource.getTileImage(zoom, x, y, loadMethod);
+						} finally {
+							thread.listener = null;
+						}
 					}
-				}
+				}));
 			}
+			layerImages[0] = mapSources[0].getTileImage(zoom, x, y, loadMethod);
+			for (int i = 1; i < mapSources.length; i++)
+				layerImages[i] = getLayerImage(futures.get(i - 1));
+		} finally {
+			// Stops the remaining layer requests in case of an error or an interrupt
+			for (Future<BufferedImage> future : futures)
+				future.cancel(true);
+		}
+		if (log.isDebugEnabled()) {
+			for (int i = 0; i < mapSources.length; i++)
+				if (layerImages[i] != null)
+					log.debug("Multi layer loading: " + mapSources[i] + " " + x + " " + y + " " + zoom);
+		}
+		return layerImages;
+	}
 
-			// optimize for when only one layer exist
-			if (layerImages.size() == 1) {
-				return layerImages.get(0);
-			} else if (layerImages.size() > 1) {
-				image = new BufferedImage(maxSize, maxSize, BufferedImage.TYPE_3BYTE_BGR);
-				g2 = image.createGraphics();
-				g2.setColor(getBackgroundColor());
-				g2.fillRect(0, 0, maxSize, maxSize);
-
-				for (int i = 0; i < layerImages.size(); i++) {
-					BufferedImage layerImage = layerImages.get(i);
-					g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, getLayerAlpha(i)));
-					g2.drawImage(layerImage, 0, 0, maxSize, maxSize, null);
-				}
-				return image;
-			} else {
-				return null;
+	private BufferedImage getLayerImage(Future<BufferedImage> future) throws IOException, InterruptedException,
+			TileException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof TileException)
+				throw (TileException) cause;
+			if (cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Blends the layer images on top of each other onto the background color. The blending works directly on the int
+	 * pixel arrays instead of using {@link Graphics2D} and {@link java.awt.AlphaComposite}.
+	 * 
+	 * @param layerImages
+	 *            layer images in layer order, <code>null</code> entries are skipped
+	 * @param size
+	 *            width and height of the resulting image - layer images of a different size are scaled
+	 * @return opaque image of type {@link BufferedImage#TYPE_INT_RGB}
+	 */
+	protected BufferedImage compositeLayers(BufferedImage[] layerImages, int size) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		int[] dst = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		Color background = getBackgroundColor();
+		// TYPE_INT_RGB has no alpha: the background color is applied on black as the former Graphics2D code did
+		Arrays.fill(dst, blendPixel(background.getRGB(), 0, (background.getAlpha() * 256 + 127) / 255));
+		int[] src = new int[size * size];
+		int[] alphaTable = new int[256];
+		for (int i = 0; i < layerImages.length; i++) {
+			BufferedImage layerImage = layerImages[i];
+			if (layerImage == null)
+				continue;
+			float layerAlpha = Math.max(0f, Math.min(1f, getLayerAlpha(i)));
+			if (layerAlpha == 0f)
+				continue;
+			// maps the source pixel alpha to the combined alpha in the range 0..256
+			for (int a = 0; a < 256; a++)
+				alphaTable[a] = Math.round(a * layerAlpha * 256f / 255f);
+			getLayerPixels(layerImage, size, src);
+			for (int p = 0; p < dst.length; p++) {
+				int s = src[p];
+				int alpha = alphaTable[s >>> 24];
+				if (alpha == 256)
+					dst[p] = s;
+				else if (alpha != 0)
+					dst[p] = blendPixel(s, dst[p], alpha);
 			}
+		}
+		return image;
+	}
 
-		} finally {
-			if (g2 != null) {
+	/**
+	 * @param alpha
+	 *            weight of <code>src</code> in the range 0..256
+	 * @return the blended RGB value (the alpha byte of the result is undefined)
+	 */
+	private static int blendPixel(int src, int dst, int alpha) {
+		int inv = 256 - alpha;
+		int rb = (((src & 0xFF00FF) * alpha + (dst & 0xFF00FF) * inv) >>> 8) & 0xFF00FF;
+		int g = (((src & 0xFF00) * alpha + (dst & 0xFF00) * inv) >>> 8) & 0xFF00;
+		return rb | g;
+	}
+
+	private static void getLayerPixels(BufferedImage layerImage, int size, int[] pixels) {
+		if (layerImage.getWidth() != size || layerImage.getHeight() != size) {
+			BufferedImage scaled = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g2 = scaled.createGraphics();
+			try {
+				g2.drawImage(layerImage, 0, 0, size, size, null);
+			} finally {
 				g2.dispose();
 			}
-
+			layerImage = scaled;
 		}
+		layerImage.getRGB(0, 0, size, size, pixels, 0, size);
 	}
 
 	protected float getLayerAlpha(int layerIndex) {
 		return 1.0f;
 	}
 
+	/**
+	 * Composited tiles are shared between all load methods (e.g. map preview and atlas creation) as long as the cached
+	 * tile is at least as fresh as requested: a {@link LoadMethod#CACHE} request accepts every cached tile, a
+	 * {@link LoadMethod#DEFAULT} request only tiles composited from updated or downloaded layer tiles.
+	 */
+	private CompositeTile getCachedComposite(int zoom, int x, int y, LoadMethod loadMethod) {
+		synchronized (compositeCache) {
+			Long key = compositeKey(zoom, x, y);
+			CompositeTile tile = compositeCache.get(key);
+			if (tile == null)
+				return null;
+			if (tile.isExpired()) {
+				compositeCache.remove(key);
+				return null;
+			}
+			if (getFreshness(tile.loadMethod) < getFreshness(loadMethod))
+				return null;
+			return tile;
+		}
+	}
+
+	private void putCachedComposite(int zoom, int x, int y, LoadMethod loadMethod, BufferedImage image) {
+		synchronized (compositeCache) {
+			Long key = compositeKey(zoom, x, y);
+			CompositeTile tile = compositeCache.get(key);
+			// Do not replace a fresher tile composited concurrently
+			if (tile != null && !tile.isExpired() && getFreshness(tile.loadMethod) > getFreshness(loadMethod))
+				return;
+			compositeCache.put(key, new CompositeTile(image, loadMethod));
+		}
+	}
+
+	private static Long compositeKey(int zoom, int x, int y) {
+		return Long.valueOf(((long) zoom << 56) | ((long) x << 28) | y);
+	}
+
+	/**
+	 * @return how up to date the layer tiles retrieved via <code>loadMethod</code> are - higher values are fresher
+	 */
+	private static int getFreshness(LoadMethod loadMethod) {
+		switch (loadMethod) {
+		case CACHE:
+			return 0;
+		case SOURCE:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	private static ExecutorService createLayerLoader(final boolean forwardToListener) {
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+
+					public Thread newThread(Runnable r) {
+						Thread t;
+						if (forwardToListener)
+							t = new ListenerLoaderThread(r);
+						else
+							t = new DelayedInterruptThread(r);
+						t.setName("Multi-layer tile loader");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Layer loader thread that forwards the download notifications to the {@link MapSourceListener} of the thread that
+	 * requested the tile.
+	 */
+	private static class ListenerLoaderThread extends DelayedInterruptThread implements MapSourceListener {
+
+		volatile MapSourceListener listener = null;
+
+		public ListenerLoaderThread(Runnable target) {
+			super(target);
+		}
+
+		public void tileDownloaded(int size) {
+			MapSourceListener l = listener;
+			if (l != null)
+				l.tileDownloaded(size);
+		}
+
+		public void tileLoadedFromCache(int size) {
+			MapSourceListener l = listener;
+			if (l != null)
+				l.tileLoadedFromCache(size);
+		}
+
+	}
+
 	public TileImageType getTileImageType() {
 		return tileType;
 	}
@@ -230,4 +493,22 @@ public abstract class AbstractMultiLayerMapSource implements InitializableMapSou
 		this.loaderInfo = loaderInfo;
 	}
 
+	private static class CompositeTile {
+
+		private final BufferedImage image;
+		private final LoadMethod loadMethod;
+		private final long created;
+		private volatile byte[] data = null;
+
+		public CompositeTile(BufferedImage image, LoadMethod loadMethod) {
+			this.image = image;
+			this.loadMethod = loadMethod;
+			this.created = System.currentTimeMillis();
+		}
+
+		public boolean isExpired() {
+			return System.currentTimeMillis() - created > COMPOSITE_CACHE_TTL;
+		}
+	}
+
 }
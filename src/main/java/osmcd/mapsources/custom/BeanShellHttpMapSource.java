@@ -9,6 +9,8 @@ import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import osmcd.exceptions.TileException;
 import osmcd.gui.mapview.PreviewMap;
@@ -23,14 +25,32 @@ import osmcd.utilities.Utilities;
 import bsh.EvalError;
 import bsh.Interpreter;
 
+/**
+ * Map source defined by a BeanShell script. Every thread evaluates the script in its own {@link Interpreter}, therefore
+ * concurrent downloads do not block each other. If the script's <code>getTileUrl</code> is a pure function of zoom, x
+ * and y the tile URLs are created from a {@link TileUrlTemplate} without evaluating the script at all.
+ */
 public class BeanShellHttpMapSource extends AbstractHttpMapSource {
 
-	private static final String AH_ERROR = "Sourced file: inline evaluation of: "
-			+ "``addHeaders(conn);'' : Command not found: addHeaders( sun.net.www.protocol.http.HttpURLConnection )";
-
 	private static int NUM = 0;
 
-	private final Interpreter i;
+	private final String code;
+
+	private final ThreadLocal<Interpreter> interpreters = new ThreadLocal<Interpreter>() {
+
+		@Override
+		protected Interpreter initialValue() {
+			try {
+				return createInterpreter(code);
+			} catch (EvalError e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private final boolean hasAddHeaders;
+
+	private final TileUrlTemplate urlTemplate;
 
 	private Color backgroundColor = Color.BLACK;
 
@@ -56,12 +76,10 @@ public class BeanShellHttpMapSource extends AbstractHttpMapSource {
 	public BeanShellHttpMapSource(String code) throws EvalError {
 		super("", 0, 0, TileImageType.PNG, TileUpdate.None);
 		name = "BeanShell map source " + NUM++;
-		i = new Interpreter();
-
-		i.eval("import osmcd.program.interfaces.HttpMapSource.TileUpdate;");
-		i.eval("import java.net.HttpURLConnection;");
-		i.eval("import osmcd.utilities.beanshell.*;");
-		i.eval(code);
+		this.code = code;
+		// The interpreter used for reading the map source definition is reused by the current thread
+		Interpreter i = createInterpreter(code);
+		interpreters.set(i);
 		Object o = i.get("name");
 		if (o != null)
 			name = (String) o;
@@ -112,10 +130,59 @@ public class BeanShellHttpMapSource extends AbstractHttpMapSource {
 			} catch (javax.xml.bind.UnmarshalException e) {
 				throw new EvalError(e.getMessage(), null, null);
 			}
+
+		hasAddHeaders = Arrays.asList(i.getNameSpace().getMethodNames()).contains("addHeaders");
+		urlTemplate = deriveUrlTemplate();
+		if (urlTemplate != null)
+			log.debug("Map source \"" + name + "\" uses the tile URL template " + urlTemplate);
+	}
+
+	private static Interpreter createInterpreter(String code) throws EvalError {
+		Interpreter interpreter = new Interpreter();
+		interpreter.eval("import osmcd.program.interfaces.HttpMapSource.TileUpdate;");
+		interpreter.eval("import java.net.HttpURLConnection;");
+		interpreter.eval("import osmcd.utilities.beanshell.*;");
+		interpreter.eval(code);
+		return interpreter;
+	}
+
+	/**
+	 * Evaluates <code>getTileUrl</code> for a sample tile and replaces the decimal zoom, x and y values in the result by
+	 * placeholders. The template is only used if it reproduces the script's result for several other tiles and if the
+	 * script returns the same URL when called twice for the same tile.
+	 * 
+	 * @return the template or <code>null</code> if the script can not be replaced by a template
+	 */
+	private TileUrlTemplate deriveUrlTemplate() {
+		try {
+			int zoom = Math.max(minZoom, Math.min(maxZoom, 17));
+			long tiles = 1L << zoom;
+			int x = (int) (tiles * 0.618) + 1;
+			int y = (int) (tiles * 0.382) + 3;
+			TileUrlTemplate template = TileUrlTemplate.create(evalTileUrl(zoom, x, y), zoom, x, y);
+			if (template == null)
+				return null;
+			int[][] samples = { { zoom, x, y }, { minZoom, 0, 0 }, { maxZoom, 0, 0 }, { zoom, x + 1, y - 1 },
+					{ zoom, y, x }, { maxZoom, (1 << maxZoom) - 1, (1 << maxZoom) - 1 },
+					{ (minZoom + maxZoom) / 2, 1, 2 } };
+			for (int[] sample : samples) {
+				String url = evalTileUrl(sample[0], sample[1], sample[2]);
+				if (url == null || !url.equals(template.getTileUrl(sample[0], sample[1], sample[2])))
+					return null;
+			}
+			return template;
+		} catch (EvalError e) {
+			log.trace("No tile URL template for map source \"" + name + "\": " + e.getMessage());
+			return null;
+		} catch (RuntimeException e) {
+			// The script does not support the sample tiles
+			log.trace("No tile URL template for map source \"" + name + "\": " + e.getMessage());
+			return null;
+		}
 	}
 
 	@Override
-	public synchronized HttpURLConnection getTileUrlConnection(int zoom, int tilex, int tiley) throws IOException {
+	public HttpURLConnection getTileUrlConnection(int zoom, int tilex, int tiley) throws IOException {
 		HttpURLConnection conn = null;
 		try {
 			String url = getTileUrl(zoom, tilex, tiley);
@@ -126,12 +193,11 @@ public class BeanShellHttpMapSource extends AbstractHttpMapSource {
 			log.error("", e);
 			throw new IOException(e);
 		}
-		try {
-			i.set("conn", conn);
-			i.eval("addHeaders(conn);");
-		} catch (EvalError e) {
-			String msg = e.getMessage();
-			if (!AH_ERROR.equals(msg)) {
+		if (hasAddHeaders) {
+			Interpreter interpreter = interpreters.get();
+			try {
+				interpreter.getNameSpace().invokeMethod("addHeaders", new Object[] { conn }, interpreter);
+			} catch (EvalError e) {
 				log.error(e.getClass() + ": " + e.getMessage(), e);
 				throw new IOException(e);
 			}
@@ -156,14 +222,22 @@ public class BeanShellHttpMapSource extends AbstractHttpMapSource {
 	}
 
 	public String getTileUrl(int zoom, int tilex, int tiley) {
+		if (urlTemplate != null)
+			return urlTemplate.getTileUrl(zoom, tilex, tiley);
 		try {
-			return (String) i.eval(String.format("getTileUrl(%d,%d,%d);", zoom, tilex, tiley));
+			return evalTileUrl(zoom, tilex, tiley);
 		} catch (EvalError e) {
 			log.error(e.getClass() + ": " + e.getMessage(), e);
 			throw new RuntimeException(e);
 		}
 	}
 
+	private String evalTileUrl(int zoom, int tilex, int tiley) throws EvalError {
+		Interpreter interpreter = interpreters.get();
+		return (String) interpreter.getNameSpace().invokeMethod("getTileUrl", new Object[] { zoom, tilex, tiley },
+				interpreter);
+	}
+
 	@Override
 	public MapSpace getMapSpace() {
 		return mapSpace;
@@ -193,4 +267,102 @@ public class BeanShellHttpMapSource extends AbstractHttpMapSource {
 		return backgroundColor;
 	}
 
+	/**
+	 * @return the template the tile URLs are created from or <code>null</code> if the script's
+	 *         <code>getTileUrl</code> is evaluated for every tile
+	 */
+	public TileUrlTemplate getUrlTemplate() {
+		return urlTemplate;
+	}
+
+	/**
+	 * A tile URL consisting of literal parts and the decimal zoom, x and y values
+	 */
+	public static class TileUrlTemplate {
+
+		private static final String[] PLACEHOLDERS = { "{z}", "{x}", "{y}" };
+
+		/**
+		 * One more literal than parameters
+		 */
+		private final String[] literals;
+
+		/**
+		 * 0 = zoom, 1 = x, 2 = y
+		 */
+		private final int[] params;
+
+		private TileUrlTemplate(String[] literals, int[] params) {
+			this.literals = literals;
+			this.params = params;
+		}
+
+		/**
+		 * Creates the template by searching the decimal values of <code>zoom</code>, <code>x</code> and <code>y</code>
+		 * in <code>url</code>.
+		 * 
+		 * @return the template or <code>null</code> if a value is not contained exactly once in <code>url</code> or
+		 *         if the values can not be distinguished
+		 */
+		public static TileUrlTemplate create(String url, int zoom, int x, int y) {
+			if (url == null)
+				return null;
+			String[] values = { Integer.toString(zoom), Integer.toString(x), Integer.toString(y) };
+			for (int a = 0; a < values.length; a++)
+				for (int b = 0; b < values.length; b++)
+					if (a != b && values[a].contains(values[b]))
+						return null;
+			ArrayList<int[]> found = new ArrayList<int[]>(3);
+			for (int p = 0; p < values.length; p++) {
+				int pos = url.indexOf(values[p]);
+				if (pos < 0 || url.indexOf(values[p], pos + 1) >= 0)
+					return null;
+				int index = 0;
+				while (index < found.size() && found.get(index)[0] < pos)
+					index++;
+				found.add(index, new int[] { pos, p });
+			}
+			String[] literals = new String[found.size() + 1];
+			int[] params = new int[found.size()];
+			int start = 0;
+			for (int n = 0; n < found.size(); n++) {
+				int pos = found.get(n)[0];
+				if (pos < start)
+					return null; // overlapping values
+				params[n] = found.get(n)[1];
+				literals[n] = url.substring(start, pos);
+				start = pos + values[params[n]].length();
+			}
+			literals[found.size()] = url.substring(start);
+			return new TileUrlTemplate(literals, params);
+		}
+
+		public String getTileUrl(int zoom, int x, int y) {
+			StringBuilder sb = new StringBuilder(128);
+			for (int n = 0; n < params.length; n++) {
+				sb.append(literals[n]);
+				switch (params[n]) {
+				case 0:
+					sb.append(zoom);
+					break;
+				case 1:
+					sb.append(x);
+					break;
+				default:
+					sb.append(y);
+				}
+			}
+			sb.append(literals[params.length]);
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (int n = 0; n < params.length; n++)
+				sb.append(literals[n]).append(PLACEHOLDERS[params[n]]);
+			return sb.append(literals[params.length]).toString();
+		}
+	}
+
 }
@@ -16,9 +16,18 @@
  ******************************************************************************/
 package osmcd.program;
 
+import java.awt.Point;
 import java.awt.Toolkit;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
@@ -29,11 +38,14 @@ import osmcd.exceptions.AtlasTestException;
 import osmcd.exceptions.MapDownloadSkippedException;
 import osmcd.gui.AtlasProgress;
 import osmcd.gui.AtlasProgress.AtlasCreationController;
+import osmcd.gui.AtlasProgress.MapProgress;
 import osmcd.program.atlascreators.AtlasCreator;
 import osmcd.program.atlascreators.tileprovider.DownloadedTileProvider;
 import osmcd.program.atlascreators.tileprovider.FilteredMapSourceProvider;
+import osmcd.program.atlascreators.tileprovider.StreamingDownloadedTileProvider;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.download.DownloadJobProducerThread;
+import osmcd.program.download.StreamingMapDownload;
 import osmcd.program.interfaces.AtlasInterface;
 import osmcd.program.interfaces.DownloadJobListener;
 import osmcd.program.interfaces.DownloadableElement;
@@ -44,12 +56,13 @@ import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSource.LoadMethod;
 import osmcd.program.model.AtlasOutputFormat;
 import osmcd.program.model.Settings;
+import osmcd.program.model.TileOrder;
 import osmcd.program.tilestore.TileStore;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 import osmcd.utilities.GUIExceptionHandler;
 import osmcd.utilities.I18nUtils;
 import osmcd.utilities.Utilities;
-import osmcd.utilities.tar.TarIndex;
-import osmcd.utilities.tar.TarIndexedArchive;
+import osmcd.utilities.tilearchive.MappedTileArchive;
 
 public class AtlasThread extends Thread implements DownloadJobListener, AtlasCreationController {
 
@@ -59,7 +72,7 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 	private File customAtlasDir = null;
 	private boolean quitOsmcbAfterAtlasCreation = false;
 
-	private DownloadJobProducerThread djp = null;
+	private StreamingMapDownload prefetchedDownload = null;
 	private JobDispatcher downloadJobDispatcher;
 	private AtlasProgress ap; // The GUI showing the progress
 
@@ -193,37 +206,44 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 
 		Settings s = Settings.getInstance();
 
-		downloadJobDispatcher = new JobDispatcher(s.downloadThreadCount, pauseResumeHandler, ap);
+		boolean parallel = (s.parallelMapCreationCount > 1) && atlasCreator.supportsParallelMapCreation()
+				&& !AtlasOutputFormat.TILESTORE.equals(atlas.getOutputFormat());
+		boolean streaming = !parallel && s.streamingMapCreation && atlasCreator.supportsStreamingMapCreation()
+				&& !AtlasOutputFormat.TILESTORE.equals(atlas.getOutputFormat());
+		if (!parallel)
+			downloadJobDispatcher = new JobDispatcher(s.downloadThreadCount, pauseResumeHandler, ap);
+		List<MapInterface> maps = new ArrayList<MapInterface>();
+		for (LayerInterface layer : atlas) {
+			for (MapInterface map : layer)
+				maps.add(map);
+		}
+		int mapIndex = 0;
 		try {
-			for (LayerInterface layer : atlas) {
-				atlasCreator.initLayerCreation(layer);
-				for (MapInterface map : layer) {
-					try {
-						while (!createMap(map))
-							;
-					} catch (InterruptedException e) {
-						throw e; // User has aborted
-					} catch (MapDownloadSkippedException e) {
-						// Do nothing and continue with next map
-					} catch (Exception e) {
-						log.error("", e);
-						String[] options = { I18nUtils.localizedStringForKey("Continue"),
-								I18nUtils.localizedStringForKey("Abort"),
-								I18nUtils.localizedStringForKey("dlg_download_show_error_report") };
-						int a = JOptionPane.showOptionDialog(null,
-								I18nUtils.localizedStringForKey("dlg_download_erro_head") + e.getMessage() + "\n["
-										+ e.getClass().getSimpleName() + "]\n\n",
-								I18nUtils.localizedStringForKey("Error"), 0, JOptionPane.ERROR_MESSAGE, null, options,
-								options[0]);
-						switch (a) {
-						case 2:
-							GUIExceptionHandler.processException(e);
-						case 1:
-							throw new InterruptedException();
+			if (parallel)
+				createMapsParallel(s.parallelMapCreationCount);
+			else {
+				for (LayerInterface layer : atlas) {
+					atlasCreator.initLayerCreation(layer);
+					for (MapInterface map : layer) {
+						mapIndex++;
+						try {
+							if (streaming && !(map.getMapSource() instanceof FileBasedMapSource)) {
+								MapInterface nextMap = (mapIndex < maps.size()) ? maps.get(mapIndex) : null;
+								createMapStreaming(map, nextMap);
+							} else {
+								while (!createMap(map))
+									;
+							}
+						} catch (InterruptedException e) {
+							throw e; // User has aborted
+						} catch (MapDownloadSkippedException e) {
+							// Do nothing and continue with next map
+						} catch (Exception e) {
+							handleMapCreationError(e);
 						}
 					}
+					atlasCreator.finishLayerCreation();
 				}
-				atlasCreator.finishLayerCreation();
 			}
 		} catch (InterruptedException e) {
 			atlasCreator.abortAtlasCreation();
@@ -232,10 +252,14 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 			atlasCreator.abortAtlasCreation();
 			throw e;
 		} finally {
-			// In case of an abort: Stop create new download jobs
-			if (djp != null)
-				djp.cancel();
-			downloadJobDispatcher.terminateAllWorkerThreads();
+			if (prefetchedDownload != null) {
+				prefetchedDownload.cancel();
+				prefetchedDownload.interrupt();
+				prefetchedDownload.getTileArchive().closeAndDelete();
+				prefetchedDownload = null;
+			}
+			if (downloadJobDispatcher != null)
+				downloadJobDispatcher.terminateAllWorkerThreads();
 			if (!atlasCreator.isAborted())
 				atlasCreator.finishAtlasCreation();
 			ap.atlasCreationFinished();
@@ -243,6 +267,28 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 
 	}
 
+	/**
+	 * Asks the user how to continue after the creation of a map has failed.
+	 * 
+	 * @param e
+	 * @throws InterruptedException
+	 *             if the user has decided to abort the atlas creation
+	 */
+	protected void handleMapCreationError(Exception e) throws InterruptedException {
+		log.error("", e);
+		String[] options = { I18nUtils.localizedStringForKey("Continue"), I18nUtils.localizedStringForKey("Abort"),
+				I18nUtils.localizedStringForKey("dlg_download_show_error_report") };
+		int a = JOptionPane.showOptionDialog(null, I18nUtils.localizedStringForKey("dlg_download_erro_head")
+				+ e.getMessage() + "\n[" + e.getClass().getSimpleName() + "]\n\n",
+				I18nUtils.localizedStringForKey("Error"), 0, JOptionPane.ERROR_MESSAGE, null, options, options[0]);
+		switch (a) {
+		case 2:
+			GUIExceptionHandler.processException(e);
+		case 1:
+			throw new InterruptedException();
+		}
+	}
+
 	/**
 	 * 
 	 * @param map
@@ -251,9 +297,83 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 	 * @throws Exception
 	 */
 	public boolean createMap(MapInterface map) throws Exception {
-		TarIndex tileIndex = null;
-		TarIndexedArchive tileArchive = null;
+		return new MapCreation(map, atlasCreator, downloadJobDispatcher).create();
+	}
 
+	/**
+	 * Downloads and creates up to <code>count</code> maps concurrently (see
+	 * {@link AtlasCreator#supportsParallelMapCreation()}). Each map is created by its own
+	 * {@link AtlasCreator#createParallelInstance() atlas creator instance} and downloaded by its own
+	 * {@link JobDispatcher}, the download threads are divided between the concurrent maps. Maps of the next layer are
+	 * already started while the last maps of the previous layer are still being created, the layers are finished in
+	 * atlas order.
+	 * 
+	 * @param count
+	 *            maximum number of maps created at the same time
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	protected void createMapsParallel(int count) throws InterruptedException, IOException {
+		int downloadThreadCount = Math.max(1, (Settings.getInstance().downloadThreadCount + count - 1) / count);
+		log.debug("Creating up to " + count + " maps concurrently with " + downloadThreadCount
+				+ " download threads each");
+		ExecutorService executor = Executors.newFixedThreadPool(count, new ThreadFactory() {
+
+			private int mapThreadNum = 0;
+
+			public Thread newThread(Runnable r) {
+				return new MapCreationThread(AtlasThread.this, r, getName() + " map " + (++mapThreadNum));
+			}
+		});
+		try {
+			List<AtlasCreator> layerCreators = new ArrayList<AtlasCreator>();
+			List<List<Future<Void>>> layerResults = new ArrayList<List<Future<Void>>>();
+			for (LayerInterface layer : atlas) {
+				AtlasCreator layerCreator = atlasCreator.createParallelInstance();
+				layerCreator.initLayerCreation(layer);
+				List<Future<Void>> results = new ArrayList<Future<Void>>();
+				for (MapInterface map : layer)
+					results.add(executor.submit(new ParallelMapCreation(map, layerCreator.createParallelInstance(),
+							downloadThreadCount)));
+				layerCreators.add(layerCreator);
+				layerResults.add(results);
+			}
+			for (int i = 0; i < layerCreators.size(); i++) {
+				for (Future<Void> result : layerResults.get(i)) {
+					try {
+						result.get();
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof InterruptedException)
+							throw (InterruptedException) cause; // User has aborted
+						if (cause instanceof Error)
+							throw (Error) cause;
+						if (!(cause instanceof MapDownloadSkippedException))
+							handleMapCreationError((Exception) cause);
+					}
+				}
+				layerCreators.get(i).finishLayerCreation();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates the map while its tiles are still being downloaded. Only used for online map sources and atlas creators
+	 * that support it (see {@link AtlasCreator#supportsStreamingMapCreation()}). Tiles not yet available block the
+	 * atlas creator until they have been downloaded. As soon as the download of this map is complete the download of
+	 * <code>nextMap</code> is started so that it overlaps with the creation of this map.
+	 * <p>
+	 * Download errors do not interrupt the map creation: tiles that could not be downloaded are treated as missing.
+	 * </p>
+	 * 
+	 * @param map
+	 * @param nextMap
+	 *            the map that will be created after <code>map</code> or <code>null</code>
+	 * @throws Exception
+	 */
+	protected void createMapStreaming(MapInterface map, MapInterface nextMap) throws Exception {
 		jobsCompleted = 0;
 		jobsRetryError = 0;
 		jobsPermanentError = 0;
@@ -261,108 +381,61 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 		ap.initMapDownload(map);
 		if (currentThread().isInterrupted())
 			throw new InterruptedException();
-
-		// Prepare the tile store directory
-		// ts.prepareTileStore(map.getMapSource());
-
-		/***
-		 * In this section of code below, tiles for Atlas is being downloaded and saved in the temporary layer tar file
-		 * in the system temp directory.
-		 **/
-		int zoom = map.getZoom();
-
-		final int tileCount = (int) map.calculateTilesToDownload();
-
-		ap.setZoomLevel(zoom);
-		try {
-			tileArchive = null;
-			TileProvider mapTileProvider;
-			if (!(map.getMapSource() instanceof FileBasedMapSource)) {
-				// For online maps we download the tiles first and then start creating the map if
-				// we are sure we got all tiles
-				if (!AtlasOutputFormat.TILESTORE.equals(atlas.getOutputFormat())) {
-					String tempSuffix = "OSMCB_" + atlas.getName() + "_" + zoom + "_";
-					File tileArchiveFile = File.createTempFile(tempSuffix, ".tar", DirectoryManager.tempDir);
-					// If something goes wrong the temp file only persists until the VM exits
-					tileArchiveFile.deleteOnExit();
-					log.debug("Writing downloaded tiles to " + tileArchiveFile.getPath());
-					tileArchive = new TarIndexedArchive(tileArchiveFile, tileCount);
-				} else
-					log.debug("Downloading to tile store only");
-
-				djp = new DownloadJobProducerThread(this, downloadJobDispatcher, tileArchive, (DownloadableElement) map);
-
-				boolean failedMessageAnswered = false;
-
-				while (djp.isAlive() || (downloadJobDispatcher.getWaitingJobCount() > 0)
-						|| downloadJobDispatcher.isAtLeastOneWorkerActive()) {
-					Thread.sleep(500);
-					if (!failedMessageAnswered && (jobsRetryError > 50) && !ap.ignoreDownloadErrors()) {
-						pauseResumeHandler.pause();
-						String[] answers = new String[] { I18nUtils.localizedStringForKey("Continue"),
-								I18nUtils.localizedStringForKey("Retry"), I18nUtils.localizedStringForKey("Skip"),
-								I18nUtils.localizedStringForKey("Abort") };
-						int answer = JOptionPane.showOptionDialog(ap,
-								I18nUtils.localizedStringForKey("dlg_download_errors_todo_msg"),
-								I18nUtils.localizedStringForKey("dlg_download_errors_todo"), 0,
-								JOptionPane.QUESTION_MESSAGE, null, answers, answers[0]);
-						failedMessageAnswered = true;
-						switch (answer) {
-						case 0: // Continue
-							pauseResumeHandler.resume();
-							break;
-						case 1: // Retry
-							djp.cancel();
-							djp = null;
-							downloadJobDispatcher.cancelOutstandingJobs();
-							return false;
-						case 2: // Skip
-							downloadJobDispatcher.cancelOutstandingJobs();
-							throw new MapDownloadSkippedException();
-						default: // Abort or close dialog
-							downloadJobDispatcher.cancelOutstandingJobs();
-							downloadJobDispatcher.terminateAllWorkerThreads();
-							throw new InterruptedException();
-						}
-					}
-				}
-				djp = null;
-				log.debug("All download jobs has been completed!");
-				if (tileArchive != null) {
-					tileArchive.writeEndofArchive();
-					tileArchive.close();
-					tileIndex = tileArchive.getTarIndex();
-					if (tileIndex.size() < tileCount && !ap.ignoreDownloadErrors()) {
-						int missing = tileCount - tileIndex.size();
-						log.debug("Expected tile count: " + tileCount + " downloaded tile count: " + tileIndex.size()
-								+ " missing: " + missing);
-						int answer = JOptionPane.showConfirmDialog(ap, String.format(
-								I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile_msg"), missing),
-								I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile"),
-								JOptionPane.YES_NO_OPTION, JOptionPane.ERROR_MESSAGE);
-						if (answer != JOptionPane.YES_OPTION)
-							throw new InterruptedException();
-					}
-				}
-				downloadJobDispatcher.cancelOutstandingJobs();
-				log.debug("Starting to create atlas from downloaded tiles");
-				mapTileProvider = new DownloadedTileProvider(tileIndex, map);
-			} else {
-				// We don't need to download anything. Everything is already stored locally therefore we can just use it
-				mapTileProvider = new FilteredMapSourceProvider(map, LoadMethod.DEFAULT);
+		ap.setZoomLevel(map.getZoom());
+
+		StreamingMapDownload download = prefetchedDownload;
+		prefetchedDownload = null;
+		if (download == null || download.getMap() != map) {
+			if (download != null) {
+				download.cancel();
+				download.getTileArchive().closeAndDelete();
 			}
+			download = new StreamingMapDownload(this, downloadJobDispatcher, map, createTileArchive(map,
+					TileOrder.ROW_MAJOR));
+			download.start();
+		}
+		if (nextMap != null && !(nextMap.getMapSource() instanceof FileBasedMapSource)) {
+			prefetchedDownload = new StreamingMapDownload(this, downloadJobDispatcher, nextMap,
+					createTileArchive(nextMap, TileOrder.ROW_MAJOR));
+			download.startAfterCompletion(prefetchedDownload);
+		}
+		log.debug("Starting to create atlas from streamed tiles");
+		StreamingDownloadedTileProvider mapTileProvider = new StreamingDownloadedTileProvider(
+				download.getTileArchive(), map);
+		try {
 			atlasCreator.initializeMap(map, mapTileProvider);
 			atlasCreator.createMap();
 		} catch (Error e) {
-			log.error("Error in createMap: " + e.getMessage(), e);
+			log.error("Error in createMapStreaming: " + e.getMessage(), e);
 			throw e;
 		} finally {
-			if (tileIndex != null)
-				tileIndex.closeAndDelete();
-			else if (tileArchive != null)
-				tileArchive.delete();
+			download.cancel();
+			try {
+				download.waitForCompletion();
+			} catch (InterruptedException e) {
+				// User has aborted - the archive will be deleted on exit if it is still in use
+				Thread.currentThread().interrupt();
+			}
+			download.getTileArchive().closeAndDelete();
 		}
-		return true;
+	}
+
+	/**
+	 * @param order
+	 *            order in which the tiles will be downloaded - streaming map creation requires
+	 *            {@link TileOrder#ROW_MAJOR} (see {@link AtlasCreator#supportsStreamingMapCreation()})
+	 */
+	private MappedTileArchive createTileArchive(MapInterface map, TileOrder order) {
+		String tempPrefix = "OSMCB_" + atlas.getName() + "_" + map.getZoom() + "_";
+		int tileSize = map.getMapSource().getMapSpace().getTileSize();
+		Point minCoord = map.getMinTileCoordinate();
+		Point maxCoord = map.getMaxTileCoordinate();
+		log.debug("Writing downloaded tiles to " + DirectoryManager.tempDir + File.separator + tempPrefix + "*");
+		// The segment files are deleted on exit if something goes wrong
+		MappedTileArchive tileArchive = new MappedTileArchive(DirectoryManager.tempDir, tempPrefix, minCoord.x
+				/ tileSize, maxCoord.x / tileSize, minCoord.y / tileSize, maxCoord.y / tileSize);
+		tileArchive.setTileOrder(order);
+		return tileArchive;
 	}
 
 	public void pauseResumeAtlasCreation() {
@@ -388,9 +461,6 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 	 */
 	public void abortAtlasCreation() {
 		try {
-			DownloadJobProducerThread djp_ = djp;
-			if (djp_ != null)
-				djp_.cancel();
 			if (downloadJobDispatcher != null)
 				downloadJobDispatcher.terminateAllWorkerThreads();
 			pauseResumeHandler.resume();
@@ -453,4 +523,247 @@ public class AtlasThread extends Thread implements DownloadJobListener, AtlasCre
 		this.quitOsmcbAfterAtlasCreation = quitOsmcbAfterAtlasCreation;
 	}
 
+	/**
+	 * @param t
+	 * @return the {@link AtlasThread} <code>t</code> is working for: <code>t</code> itself or the atlas thread of a
+	 *         parallel map creation thread. <code>null</code> if <code>t</code> is neither of them.
+	 */
+	public static AtlasThread getAtlasThread(Thread t) {
+		if (t instanceof AtlasThread)
+			return (AtlasThread) t;
+		if (t instanceof MapCreationThread)
+			return ((MapCreationThread) t).atlasThread;
+		return null;
+	}
+
+	/**
+	 * Downloads the tiles of one map and creates the map afterwards. The download progress and errors are counted per
+	 * map so that multiple instances can run concurrently (see {@link AtlasThread#createMapsParallel(int)}).
+	 */
+	private class MapCreation implements DownloadJobListener {
+
+		protected final MapInterface map;
+		protected final AtlasCreator mapCreator;
+		protected JobDispatcher dispatcher;
+		protected volatile MapProgress progress = null;
+
+		private int jobsCompleted = 0;
+		private int jobsRetryError = 0;
+		private int jobsPermanentError = 0;
+
+		public MapCreation(MapInterface map, AtlasCreator mapCreator, JobDispatcher dispatcher) {
+			this.map = map;
+			this.mapCreator = mapCreator;
+			this.dispatcher = dispatcher;
+		}
+
+		protected MapProgress initProgress() {
+			return ap.initMapDownload(map);
+		}
+
+		/**
+		 * @return true if map creation process was finished and false if something went wrong and the user decided to
+		 *         retry map download
+		 * @throws Exception
+		 */
+		public boolean create() throws Exception {
+			MappedTileArchive tileArchive = null;
+			DownloadJobProducerThread djp = null;
+
+			synchronized (this) {
+				jobsCompleted = 0;
+				jobsRetryError = 0;
+				jobsPermanentError = 0;
+			}
+
+			progress = initProgress();
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedException();
+
+			// Prepare the tile store directory
+			// ts.prepareTileStore(map.getMapSource());
+
+			/***
+			 * In this section of code below, tiles for Atlas is being downloaded and saved in the temporary tile
+			 * archive in the system temp directory.
+			 **/
+			int zoom = map.getZoom();
+
+			final int tileCount = (int) map.calculateTilesToDownload();
+
+			ap.setZoomLevel(zoom);
+			try {
+				TileProvider mapTileProvider;
+				if (!(map.getMapSource() instanceof FileBasedMapSource)) {
+					// For online maps we download the tiles first and then start creating the map if
+					// we are sure we got all tiles
+					if (!AtlasOutputFormat.TILESTORE.equals(atlas.getOutputFormat())) {
+						tileArchive = createTileArchive(map, Settings.getInstance().downloadTileOrder);
+					} else
+						log.debug("Downloading to tile store only");
+
+					djp = new DownloadJobProducerThread(this, dispatcher, tileArchive, (DownloadableElement) map);
+
+					boolean failedMessageAnswered = false;
+
+					while (djp.isAlive() || (dispatcher.getWaitingJobCount() > 0)
+							|| dispatcher.isAtLeastOneWorkerActive()) {
+						Thread.sleep(500);
+						if (!failedMessageAnswered && (getJobsRetryError() > 50) && !ap.ignoreDownloadErrors()) {
+							pauseResumeHandler.pause();
+							String[] answers = new String[] { I18nUtils.localizedStringForKey("Continue"),
+									I18nUtils.localizedStringForKey("Retry"), I18nUtils.localizedStringForKey("Skip"),
+									I18nUtils.localizedStringForKey("Abort") };
+							int answer = JOptionPane.showOptionDialog(ap,
+									I18nUtils.localizedStringForKey("dlg_download_errors_todo_msg"),
+									I18nUtils.localizedStringForKey("dlg_download_errors_todo"), 0,
+									JOptionPane.QUESTION_MESSAGE, null, answers, answers[0]);
+							failedMessageAnswered = true;
+							switch (answer) {
+							case 0: // Continue
+								pauseResumeHandler.resume();
+								break;
+							case 1: // Retry
+								djp.cancel();
+								djp = null;
+								dispatcher.cancelOutstandingJobs();
+								return false;
+							case 2: // Skip
+								dispatcher.cancelOutstandingJobs();
+								throw new MapDownloadSkippedException();
+							default: // Abort or close dialog
+								dispatcher.cancelOutstandingJobs();
+								dispatcher.terminateAllWorkerThreads();
+								throw new InterruptedException();
+							}
+						}
+					}
+					djp = null;
+					log.debug("All download jobs has been completed!");
+					if (tileArchive != null) {
+						tileArchive.setComplete();
+						if (tileArchive.size() < tileCount && !ap.ignoreDownloadErrors()) {
+							int missing = tileCount - tileArchive.size();
+							log.debug("Expected tile count: " + tileCount + " downloaded tile count: "
+									+ tileArchive.size() + " missing: " + missing);
+							int answer = JOptionPane.showConfirmDialog(ap, String.format(
+									I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile_msg"), missing),
+									I18nUtils.localizedStringForKey("dlg_download_errors_missing_tile"),
+									JOptionPane.YES_NO_OPTION, JOptionPane.ERROR_MESSAGE);
+							if (answer != JOptionPane.YES_OPTION)
+								throw new InterruptedException();
+						}
+					}
+					dispatcher.cancelOutstandingJobs();
+					log.debug("Starting to create atlas from downloaded tiles");
+					mapTileProvider = new DownloadedTileProvider(tileArchive, map);
+				} else {
+					// We don't need to download anything. Everything is already stored locally therefore we can just
+					// use it
+					mapTileProvider = new FilteredMapSourceProvider(map, LoadMethod.DEFAULT);
+				}
+				mapCreator.initializeMap(map, mapTileProvider);
+				mapCreator.createMap();
+			} catch (Error e) {
+				log.error("Error in createMap: " + e.getMessage(), e);
+				throw e;
+			} finally {
+				// In case of an abort: Stop create new download jobs
+				if (djp != null)
+					djp.cancel();
+				if (tileArchive != null)
+					tileArchive.closeAndDelete();
+			}
+			return true;
+		}
+
+		private synchronized int getJobsRetryError() {
+			return jobsRetryError;
+		}
+
+		public int getMaxDownloadRetries() {
+			return maxDownloadRetries;
+		}
+
+		public void jobStarted() {
+			AtlasThread.this.jobStarted();
+		}
+
+		public void jobFinishedSuccessfully(int bytesDownloaded) {
+			synchronized (this) {
+				jobsCompleted++;
+			}
+			synchronized (AtlasThread.this) {
+				activeDownloads--;
+			}
+			progress.incMapDownloadProgress();
+		}
+
+		public void jobFinishedWithError(boolean retry) {
+			int retryErrors;
+			int permanentErrors;
+			synchronized (this) {
+				if (retry)
+					jobsRetryError++;
+				else
+					jobsPermanentError++;
+				retryErrors = jobsRetryError;
+				permanentErrors = jobsPermanentError;
+			}
+			synchronized (AtlasThread.this) {
+				activeDownloads--;
+			}
+			if (!retry)
+				progress.incMapDownloadProgress();
+			if (!ap.ignoreDownloadErrors())
+				Toolkit.getDefaultToolkit().beep();
+			progress.setErrorCounter(retryErrors, permanentErrors);
+		}
+	}
+
+	/**
+	 * A map created concurrently to other maps on a {@link MapCreationThread} with its own download job dispatcher.
+	 */
+	private class ParallelMapCreation extends MapCreation implements Callable<Void> {
+
+		private final int downloadThreadCount;
+
+		public ParallelMapCreation(MapInterface map, AtlasCreator mapCreator, int downloadThreadCount) {
+			super(map, mapCreator, null);
+			this.downloadThreadCount = downloadThreadCount;
+		}
+
+		@Override
+		protected MapProgress initProgress() {
+			return ap.initParallelMapDownload(map);
+		}
+
+		public Void call() throws Exception {
+			dispatcher = new JobDispatcher(downloadThreadCount, pauseResumeHandler, ap);
+			try {
+				while (!create())
+					;
+			} finally {
+				dispatcher.terminateAllWorkerThreads();
+				if (progress != null)
+					progress.mapFinished();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Thread of the parallel map creation - allows {@link AtlasCreator#initializeMap(MapInterface, TileProvider)} to
+	 * find the {@link AtlasThread} via {@link AtlasThread#getAtlasThread(Thread)}.
+	 */
+	private static class MapCreationThread extends DelayedInterruptThread {
+
+		private final AtlasThread atlasThread;
+
+		public MapCreationThread(AtlasThread atlasThread, Runnable target, String name) {
+			super(target, name);
+			this.atlasThread = atlasThread;
+		}
+	}
+
 }
@@ -24,6 +24,7 @@ import org.apache.log4j.Logger;
 
 import osmcd.exceptions.StopAllDownloadsException;
 import osmcd.program.interfaces.MapSourceListener;
+import osmcd.program.tilestore.TileStore;
 import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 
 /**
@@ -88,7 +89,7 @@ public class JobDispatcher {
 	public void addJob(Job job) throws InterruptedException {
 		while (jobQueue.size() > maxJobsInQueue) {
 			Thread.sleep(200);
-			if ((jobQueue.size() < minJobsInQueue) && (maxJobsInQueue < 2000)) {
+			if ((jobQueue.size() < minJobsInQueue) && (maxJobsInQueue < 2000) && !isTileStoreBacklogged()) {
 				// System and download connection is very fast - we have to
 				// increase the maximum job count in the queue
 				maxJobsInQueue *= 2;
@@ -98,6 +99,15 @@ public class JobDispatcher {
 		jobQueue.put(job);
 	}
 
+	/**
+	 * The worker threads block while the tile store can not keep up with writing the downloaded tiles. Growing the job
+	 * queue in that situation would only waste memory.
+	 */
+	protected boolean isTileStoreBacklogged() {
+		TileStore tileStore = TileStore.getInstance();
+		return (tileStore != null) && tileStore.isWriteBacklogged();
+	}
+
 	/**
 	 * Adds the job to the job-queue and returns. This method will never block!
 	 * 
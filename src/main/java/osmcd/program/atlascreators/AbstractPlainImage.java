@@ -75,6 +75,11 @@ public abstract class AbstractPlainImage extends AtlasCreator {
 		}
 	}
 
+	@Override
+	public boolean supportsStreamingMapCreation() {
+		return true;
+	}
+
 	/**
 	 * @return maximum image height and width. In case an image is larger it will be scaled to fit.
 	 */
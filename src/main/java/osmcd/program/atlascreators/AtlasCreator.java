@@ -27,9 +27,10 @@ import org.apache.log4j.Logger;
 
 import osmcd.exceptions.AtlasTestException;
 import osmcd.exceptions.MapCreationException;
-import osmcd.gui.AtlasProgress;
+import osmcd.gui.AtlasProgress.MapProgress;
 import osmcd.program.AtlasThread;
 import osmcd.program.PauseResumeHandler;
+import osmcd.program.atlascreators.tileprovider.TileAccessPlan;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.AtlasInterface;
 import osmcd.program.interfaces.LayerInterface;
@@ -52,8 +53,11 @@ import osmcd.utilities.Utilities;
  * <li>1 to n times {@link #initializeMap(MapInterface, TileProvider)} followed by {@link #createMap()}</li>
  * <li>AtlasCreator atlas finalization via {@link #finishAtlasCreation()}</li>
  * </ol>
+ * If {@link #supportsParallelMapCreation()} is <code>true</code> each map is initialized and created on a separate
+ * instance obtained via {@link #createParallelInstance()} after {@link #initLayerCreation(LayerInterface)} has been
+ * called.
  */
-public abstract class AtlasCreator {
+public abstract class AtlasCreator implements Cloneable {
 
 	public static final Charset TEXT_FILE_CHARSET = Charsets.ISO_8859_1;
 
@@ -67,7 +71,7 @@ public abstract class AtlasCreator {
 
 	protected File atlasDir;
 
-	protected AtlasProgress atlasProgress = null;
+	protected MapProgress atlasProgress = null;
 
 	protected PauseResumeHandler pauseResumeHandler = null;
 
@@ -178,11 +182,10 @@ public abstract class AtlasCreator {
 		this.zoom = map.getZoom();
 		this.atlasOutputFormat = layer.getAtlas().getOutputFormat();
 
-		Thread t = Thread.currentThread();
-		if (!(t instanceof AtlasThread))
+		AtlasThread at = AtlasThread.getAtlasThread(Thread.currentThread());
+		if (at == null)
 			throw new RuntimeException("Calling thread must be AtlasThread!");
-		AtlasThread at = (AtlasThread) t;
-		atlasProgress = at.getAtlasProgress();
+		atlasProgress = at.getAtlasProgress().getMapProgress(map);
 		pauseResumeHandler = at.getPauseResumeHandler();
 	}
 
@@ -192,6 +195,46 @@ public abstract class AtlasCreator {
 	 */
 	public abstract void createMap() throws MapCreationException, InterruptedException;
 
+	/**
+	 * Indicates if {@link #createMap()} can be started while the tiles of the map are still being downloaded. In this
+	 * case reading a tile that has not been downloaded yet blocks until it is available. Implementations should only
+	 * return <code>true</code> if they read the tiles row by row - the order in which the tiles are downloaded.
+	 * 
+	 * @return <code>true</code> if streaming map creation is supported (default <code>false</code>)
+	 * @see Settings#streamingMapCreation
+	 */
+	public boolean supportsStreamingMapCreation() {
+		return false;
+	}
+
+	/**
+	 * Indicates if multiple maps of the atlas can be downloaded and created concurrently. Implementations should only
+	 * return <code>true</code> if every map is written to its own files and the atlas or layer wide files are written
+	 * in {@link #finishLayerCreation()} or {@link #finishAtlasCreation()} without depending on map specific state.
+	 * 
+	 * @return <code>true</code> if parallel map creation is supported (default <code>false</code>)
+	 * @see Settings#parallelMapCreationCount
+	 * @see #createParallelInstance()
+	 */
+	public boolean supportsParallelMapCreation() {
+		return false;
+	}
+
+	/**
+	 * Creates a copy of this instance for initializing and creating one map concurrently to other maps. The atlas and
+	 * layer specific fields are shared with this instance (shallow copy).
+	 * 
+	 * @return the new instance
+	 * @see #supportsParallelMapCreation()
+	 */
+	public AtlasCreator createParallelInstance() {
+		try {
+			return (AtlasCreator) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Checks if the user has aborted atlas creation and if <code>true</code> an {@link InterruptedException} is thrown.
 	 * 
@@ -203,7 +246,7 @@ public abstract class AtlasCreator {
 		pauseResumeHandler.pauseWait();
 	}
 
-	public AtlasProgress getAtlasProgress() {
+	public MapProgress getAtlasProgress() {
 		return atlasProgress;
 	}
 
@@ -235,6 +278,15 @@ public abstract class AtlasCreator {
 		return mapDlTileProvider;
 	}
 
+	/**
+	 * @return the order in which {@link osmcd.program.atlascreators.impl.MapTileBuilder} reads the tiles of the current
+	 *         map for creating custom tiles as specified by {@link #getParameters()}
+	 */
+	protected TileAccessPlan getCustomTileAccessPlan() {
+		return TileAccessPlan.customTiles(xMin, yMin, xMax, yMax, tileSize, parameters.getWidth(),
+				parameters.getHeight());
+	}
+
 	/**
 	 * Tests all maps of the currently active atlas if a custom tile image format has been specified and if the
 	 * specified format is equal to the <code>allowedFormat</code>.
@@ -139,6 +139,11 @@ public class CacheBox extends AtlasCreator {
 		createTiles();
 	}
 
+	@Override
+	public boolean supportsStreamingMapCreation() {
+		return true;
+	}
+
 	protected void createTiles() throws InterruptedException, MapCreationException {
 		atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
 
@@ -26,7 +26,7 @@ import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.annotations.SupportedParameters;
 import osmcd.program.atlascreators.impl.MapTileBuilder;
 import osmcd.program.atlascreators.impl.MapTileWriter;
-import osmcd.program.atlascreators.tileprovider.CacheTileProvider;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSpace;
@@ -62,9 +62,10 @@ public class CacheWolf extends Ozi {
 	protected void createTiles() throws InterruptedException, MapCreationException {
 		MapTileWriter mapTileWriter;
 
-		CacheTileProvider ctp = new CacheTileProvider(mapDlTileProvider);
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(mapDlTileProvider,
+				getCustomTileAccessPlan());
 		try {
-			mapDlTileProvider = ctp;
+			mapDlTileProvider = ptp;
 			mapTileWriter = new CWFileTileWriter();
 			MapTileBuilder mapTileBuilder = new MapTileBuilder(this, mapTileWriter, true);
 			atlasProgress.initMapCreation(mapTileBuilder.getCustomTileCount());
@@ -72,7 +73,7 @@ public class CacheWolf extends Ozi {
 		} catch (IOException e) {
 			throw new MapCreationException(map, e);
 		} finally {
-			ctp.cleanup();
+			ptp.cleanup();
 		}
 	}
 
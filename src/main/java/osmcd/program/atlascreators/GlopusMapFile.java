@@ -92,6 +92,14 @@ public class GlopusMapFile extends TrekBuddy {
 		}
 	}
 
+	/**
+	 * All maps of a layer are written to the same file.
+	 */
+	@Override
+	public boolean supportsParallelMapCreation() {
+		return false;
+	}
+
 	@Override
 	public void createAtlasTbaFile(String name) {
 	}
@@ -24,17 +24,21 @@ import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Locale;
 
 import osmcd.exceptions.AtlasTestException;
 import osmcd.mapsources.mapspace.MercatorPower2MapSpace;
 import osmcd.program.annotations.AtlasCreatorName;
+import osmcd.program.interfaces.AtlasInterface;
 import osmcd.program.interfaces.LayerInterface;
 import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSpace;
+import osmcd.program.model.Settings;
 import osmcd.program.model.TileImageParameters;
 import osmcd.program.model.TileImageType;
+import osmcd.utilities.Utilities;
 
 /**
  * https://github.com/mapbox/mbtiles-spec/tree/master/1.1
@@ -46,6 +50,18 @@ public class MBTiles extends RMapsSQLite {
 	private static final String TABLE_TILES = "CREATE TABLE IF NOT EXISTS tiles (zoom_level integer, tile_column integer, tile_row integer, tile_data blob);";
 	private static final String INDEX_TILES = "CREATE INDEX IF NOT EXISTS tiles_idx on tiles (zoom_level, tile_column, tile_row)";
 	private static final String TABLE_METADATA = "CREATE TABLE IF NOT EXISTS metadata (name text, value text);";
+	// Deduplicated layout: each distinct tile image is stored once in "images", "map" references it by its hash and
+	// "tiles" is a view providing the standard MBTiles table for readers
+	private static final String TABLE_MAP = "CREATE TABLE IF NOT EXISTS map (zoom_level integer, tile_column integer, tile_row integer, tile_id text);";
+	private static final String INDEX_MAP = "CREATE UNIQUE INDEX IF NOT EXISTS map_index on map (zoom_level, tile_column, tile_row)";
+	private static final String TABLE_IMAGES = "CREATE TABLE IF NOT EXISTS images (tile_data blob, tile_id text);";
+	private static final String INDEX_IMAGES = "CREATE UNIQUE INDEX IF NOT EXISTS images_id on images (tile_id)";
+	private static final String VIEW_TILES = "CREATE VIEW IF NOT EXISTS tiles AS SELECT map.zoom_level AS zoom_level, "
+			+ "map.tile_column AS tile_column, map.tile_row AS tile_row, images.tile_data AS tile_data "
+			+ "FROM map JOIN images ON images.tile_id = map.tile_id;";
+	private static final String INSERT_MAP_SQL = "INSERT or REPLACE INTO map (tile_column,tile_row,zoom_level,tile_id) VALUES (?,?,?,?)";
+	private static final String INSERT_IMAGE_SQL = "INSERT or IGNORE INTO images (tile_id,tile_data) VALUES (?,?)";
+
 	private static final String INSERT_METADATA = "INSERT INTO metadata (name,value) VALUES (?,?);";
 	private static final String INDEX_METADATA = "CREATE UNIQUE INDEX IF NOT EXISTS metadata_idx  ON metadata (name);";
 
@@ -56,6 +72,16 @@ public class MBTiles extends RMapsSQLite {
 
 	private TileImageType atlasTileImageType;
 
+	private boolean deduplicate;
+
+	protected PreparedStatement imageStmt;
+
+	/**
+	 * Ids of the images already added to the "images" table of this atlas. Duplicate tiles only get a "map" entry -
+	 * their data is neither hashed nor copied by SQLite again.
+	 */
+	private HashSet<String> storedTileIds;
+
 	@Override
 	public boolean testMapSource(MapSource mapSource) {
 		return MercatorPower2MapSpace.INSTANCE_256.equals(mapSource.getMapSpace());
@@ -102,11 +128,27 @@ public class MBTiles extends RMapsSQLite {
 		super.openConnection();
 	}
 
+	@Override
+	public void startAtlasCreation(AtlasInterface atlas, File customAtlasDir) throws IOException, AtlasTestException,
+			InterruptedException {
+		deduplicate = Settings.getInstance().atlasFormatSpecificSettings.mbtilesDeduplicate;
+		storedTileIds = deduplicate ? new HashSet<String>() : null;
+		super.startAtlasCreation(atlas, customAtlasDir);
+	}
+
 	@Override
 	protected void initializeDB() throws SQLException {
 		Statement stat = conn.createStatement();
-		stat.executeUpdate(TABLE_TILES);
-		stat.executeUpdate(INDEX_TILES);
+		if (deduplicate) {
+			stat.executeUpdate(TABLE_MAP);
+			stat.executeUpdate(INDEX_MAP);
+			stat.executeUpdate(TABLE_IMAGES);
+			stat.executeUpdate(INDEX_IMAGES);
+			stat.executeUpdate(VIEW_TILES);
+		} else {
+			stat.executeUpdate(TABLE_TILES);
+			stat.executeUpdate(INDEX_TILES);
+		}
 		stat.executeUpdate(TABLE_METADATA);
 		stat.executeUpdate(INDEX_METADATA);
 		stat.close();
@@ -160,12 +202,29 @@ public class MBTiles extends RMapsSQLite {
 		} catch (SQLException e) {
 			throw new IOException(e);
 		}
+		storedTileIds = null;
 		super.finishAtlasCreation();
 	}
 
 	@Override
 	protected String getTileInsertSQL() {
-		return INSERT_SQL;
+		return deduplicate ? INSERT_MAP_SQL : INSERT_SQL;
+	}
+
+	@Override
+	protected void prepareTileStatements() throws SQLException {
+		super.prepareTileStatements();
+		if (deduplicate)
+			imageStmt = conn.prepareStatement(INSERT_IMAGE_SQL);
+	}
+
+	@Override
+	protected void executeTileBatch() throws SQLException {
+		if (deduplicate) {
+			imageStmt.executeBatch();
+			imageStmt.clearBatch();
+		}
+		super.executeTileBatch();
 	}
 
 	@Override
@@ -174,7 +233,17 @@ public class MBTiles extends RMapsSQLite {
 		prepStmt.setInt(1, x);
 		prepStmt.setInt(2, y);
 		prepStmt.setInt(3, z);
-		prepStmt.setBytes(4, tileData);
+		if (deduplicate) {
+			String tileId = Utilities.sha256Hex(tileData);
+			prepStmt.setString(4, tileId);
+			if (storedTileIds.add(tileId)) {
+				imageStmt.setString(1, tileId);
+				imageStmt.setBytes(2, tileData);
+				imageStmt.addBatch();
+			}
+		} else {
+			prepStmt.setBytes(4, tileData);
+		}
 		prepStmt.addBatch();
 	}
 
@@ -31,7 +31,7 @@ import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.annotations.SupportedParameters;
 import osmcd.program.atlascreators.impl.MapTileBuilder;
 import osmcd.program.atlascreators.impl.MapTileWriter;
-import osmcd.program.atlascreators.tileprovider.CacheTileProvider;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.LayerInterface;
 import osmcd.program.interfaces.MapInterface;
@@ -68,15 +68,16 @@ public class Maplorer extends AtlasCreator {
 	protected void createCustomTiles() throws InterruptedException, MapCreationException {
 		log.debug("Starting map creation using custom parameters: " + parameters);
 
-		CacheTileProvider ctp = new CacheTileProvider(mapDlTileProvider);
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(mapDlTileProvider,
+				getCustomTileAccessPlan());
 		try {
-			mapDlTileProvider = ctp;
+			mapDlTileProvider = ptp;
 
 			MapTileBuilder mapTileBuilder = new MapTileBuilder(this, mapTileWriter, true);
 			atlasProgress.initMapCreation(mapTileBuilder.getCustomTileCount());
 			mapTileBuilder.createTiles();
 		} finally {
-			ctp.cleanup();
+			ptp.cleanup();
 		}
 	}
 
@@ -29,7 +29,7 @@ import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.annotations.SupportedParameters;
 import osmcd.program.atlascreators.impl.MapTileBuilder;
 import osmcd.program.atlascreators.impl.MapTileWriter;
-import osmcd.program.atlascreators.tileprovider.CacheTileProvider;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.LayerInterface;
 import osmcd.program.interfaces.MapInterface;
@@ -92,16 +92,17 @@ public class NFComPass extends AtlasCreator {
 			throw new MapCreationException(map, e);
 		}
 		createKalFile(map);
-		CacheTileProvider ctp = new CacheTileProvider(mapDlTileProvider);
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(mapDlTileProvider,
+				getCustomTileAccessPlan());
 		try {
-			mapDlTileProvider = ctp;
+			mapDlTileProvider = ptp;
 
 			MapTileBuilder mapTileBuilder = new MapTileBuilder(this, new TileImagePngDataWriter(),
 					new NFCompassTileWriter(), true);
 			atlasProgress.initMapCreation(mapTileBuilder.getCustomTileCount());
 			mapTileBuilder.createTiles();
 		} finally {
-			ctp.cleanup();
+			ptp.cleanup();
 		}
 
 	}
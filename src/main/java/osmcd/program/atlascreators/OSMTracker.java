@@ -32,6 +32,7 @@ import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.model.TileImageParameters.Name;
+import osmcd.program.model.TileOrder;
 import osmcd.utilities.Utilities;
 
 /**
@@ -63,7 +64,10 @@ public class OSMTracker extends AtlasCreator {
 		mapDir = new File(atlasDir, map.getMapSource().getName());
 		tileType = mapSource.getTileImageType().getFileExt();
 		if (parameters != null) {
-			mapDlTileProvider = new ConvertedRawTileProvider(mapDlTileProvider, parameters.getFormat());
+			// The tiles are requested in the preferred read order (see createTiles()) and can be converted ahead
+			TileOrder.Iterator readOrder = mapDlTileProvider.getPreferredReadOrder().iterate(xMin, yMin, xMax,
+					yMax);
+			mapDlTileProvider = new ConvertedRawTileProvider(mapDlTileProvider, parameters.getFormat(), readOrder);
 			tileType = parameters.getFormat().getFileExt();
 		}
 	}
@@ -79,8 +83,12 @@ public class OSMTracker extends AtlasCreator {
 		atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
 		ImageIO.setUseCache(false);
 
-		for (int x = xMin; x <= xMax; x++) {
-			for (int y = yMin; y <= yMax; y++) {
+		// Each tile is written separately, therefore we can read the tiles in the order preferred by the tile provider
+		TileOrder.Iterator tiles = mapDlTileProvider.getPreferredReadOrder().iterate(xMin, yMin, xMax, yMax);
+		try {
+			while (tiles.next()) {
+				int x = tiles.getX();
+				int y = tiles.getY();
 				checkUserAbort();
 				atlasProgress.incMapCreationProgress();
 				try {
@@ -91,6 +99,9 @@ public class OSMTracker extends AtlasCreator {
 					throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
 				}
 			}
+		} finally {
+			if (mapDlTileProvider instanceof ConvertedRawTileProvider)
+				((ConvertedRawTileProvider) mapDlTileProvider).cleanup();
 		}
 	}
 
@@ -31,7 +31,7 @@ import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.annotations.SupportedParameters;
 import osmcd.program.atlascreators.impl.MapTileBuilder;
 import osmcd.program.atlascreators.impl.MapTileWriter;
-import osmcd.program.atlascreators.tileprovider.CacheTileProvider;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.LayerInterface;
 import osmcd.program.interfaces.MapInterface;
@@ -150,6 +150,11 @@ public class OruxMaps extends AtlasCreator {
 		mapName = String.format("%s %02d", currentLayer.getName(), map.getZoom());
 	}
 
+	@Override
+	public boolean supportsParallelMapCreation() {
+		return true;
+	}
+
 	@Override
 	public void createMap() throws MapCreationException, InterruptedException {
 
@@ -170,15 +175,16 @@ public class OruxMaps extends AtlasCreator {
 
 	protected void createTiles() throws InterruptedException, MapCreationException {
 
-		CacheTileProvider ctp = new CacheTileProvider(mapDlTileProvider);
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(mapDlTileProvider,
+				getCustomTileAccessPlan());
 		try {
-			mapDlTileProvider = ctp;
+			mapDlTileProvider = ptp;
 
 			OruxMapTileBuilder mapTileBuilder = new OruxMapTileBuilder(this, new OruxMapTileWriter());
 			atlasProgress.initMapCreation(mapTileBuilder.getCustomTileCount());
 			mapTileBuilder.createTiles();
 		} finally {
-			ctp.cleanup();
+			ptp.cleanup();
 		}
 	}
 
@@ -29,7 +29,7 @@ import osmcd.exceptions.AtlasTestException;
 import osmcd.exceptions.MapCreationException;
 import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.atlascreators.impl.MapTileWriter;
-import osmcd.program.atlascreators.tileprovider.CacheTileProvider;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
 import osmcd.program.interfaces.AtlasInterface;
 import osmcd.program.interfaces.LayerInterface;
 import osmcd.program.interfaces.RequiresSQLite;
@@ -140,6 +140,14 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 		stat.close();
 	}
 
+	/**
+	 * All maps are written to the same database and calibration file.
+	 */
+	@Override
+	public boolean supportsParallelMapCreation() {
+		return false;
+	}
+
 	@Override
 	public void createMap() throws MapCreationException, InterruptedException {
 
@@ -164,9 +172,10 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 	@Override
 	protected void createTiles() throws InterruptedException, MapCreationException {
 
-		CacheTileProvider ctp = new CacheTileProvider(mapDlTileProvider);
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(mapDlTileProvider,
+				getCustomTileAccessPlan());
 		try {
-			mapDlTileProvider = ctp;
+			mapDlTileProvider = ptp;
 			MapTileWriter mtw = new OruxMapTileWriterDB();
 			OruxMapTileBuilder mapTileBuilder = new OruxMapTileBuilder(this, mtw);
 			// customTileCount = mapTileBuilder.getCustomTileCount();
@@ -176,7 +185,7 @@ public class OruxMapsSqlite extends OruxMaps implements RequiresSQLite {
 		} catch (IOException e) {
 			throw new MapCreationException(map, e);
 		} finally {
-			ctp.cleanup();
+			ptp.cleanup();
 		}
 	}
 
@@ -21,15 +21,23 @@ package osmcd.program.atlascreators;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
 
+import osmcd.exceptions.AtlasTestException;
+import osmcd.exceptions.MapCreationException;
 import osmcd.program.annotations.AtlasCreatorName;
-import osmcd.program.atlascreators.impl.gemf.GEMFFileCreator;
+import osmcd.program.atlascreators.impl.MapTileWriter;
+import osmcd.program.atlascreators.impl.gemf.GEMFArchiveWriter;
+import osmcd.program.atlascreators.tileprovider.TileProvider;
+import osmcd.program.interfaces.AtlasInterface;
+import osmcd.program.interfaces.MapInterface;
 
 /**
  * AtlasCreator implementation to create a GEMF archive file. For details about the format, please see the link in
- * {@link GEMFFileCreator}.
+ * {@link GEMFArchiveWriter}.
+ * <p>
+ * The tiles are written directly into the archive. Each map source used in the atlas becomes a separate source in the
+ * archive.
+ * </p>
  * 
  * @author M. Reiter
  * 
@@ -39,16 +47,57 @@ public class OsmdroidGEMF extends OSMTracker {
 
 	private static final String GEMF_FILE_EXTENSION = ".gemf";
 
+	protected GEMFArchiveWriter gemfWriter = null;
+
+	protected String sourceName = null;
+
 	@Override
-	public void finishAtlasCreation() throws IOException, InterruptedException {
-		List<File> tileFolders = new LinkedList<File>();
-		tileFolders.add(mapDir);
+	public void startAtlasCreation(AtlasInterface atlas, File customAtlasDir) throws AtlasTestException, IOException,
+			InterruptedException {
+		super.startAtlasCreation(atlas, customAtlasDir);
+		gemfWriter = new GEMFArchiveWriter(new File(atlasDir, atlas.getName() + GEMF_FILE_EXTENSION));
+		mapTileWriter = new GEMFTileWriter();
+	}
 
-		String gemfLocation = new File(atlasDir, atlas.getName() + GEMF_FILE_EXTENSION).toString();
+	@Override
+	public void initializeMap(MapInterface map, TileProvider mapTileProvider) {
+		super.initializeMap(map, mapTileProvider);
+		sourceName = map.getMapSource().getName();
+	}
 
-		new GEMFFileCreator(gemfLocation, tileFolders, log);
+	@Override
+	public void createMap() throws MapCreationException, InterruptedException {
+		createTiles();
+	}
 
+	@Override
+	public void abortAtlasCreation() throws IOException {
+		if (gemfWriter != null)
+			gemfWriter.abort();
+		gemfWriter = null;
+		super.abortAtlasCreation();
+	}
+
+	@Override
+	public void finishAtlasCreation() throws IOException, InterruptedException {
+		if (gemfWriter == null)
+			return; // Creation already aborted
+		try {
+			gemfWriter.close();
+		} finally {
+			gemfWriter = null;
+		}
 		super.finishAtlasCreation();
 	}
 
-}
\ No newline at end of file
+	private class GEMFTileWriter implements MapTileWriter {
+
+		public void writeTile(int tilex, int tiley, String tileType, byte[] tileData) throws IOException {
+			gemfWriter.addTile(sourceName, zoom, tilex, tiley, tileData);
+		}
+
+		public void finalizeMap() throws IOException {
+		}
+
+	}
+}
@@ -24,7 +24,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.LinkedList;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -37,6 +43,8 @@ import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSpace;
 import osmcd.program.interfaces.MapSpace.ProjectionCategory;
+import osmcd.program.model.Settings;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 import osmcd.utilities.Utilities;
 import osmcd.utilities.geo.GeoUtils;
 import osmcd.utilities.imageio.PngXxlWriter;
@@ -73,6 +81,16 @@ public class Ozi extends AtlasCreator {
 		writeMapFile();
 	}
 
+	@Override
+	public boolean supportsStreamingMapCreation() {
+		return true;
+	}
+
+	@Override
+	public boolean supportsParallelMapCreation() {
+		return true;
+	}
+
 	protected void writeMapFile() {
 		FileOutputStream fout = null;
 		try {
@@ -198,6 +216,10 @@ public class Ozi extends AtlasCreator {
 	/**
 	 * Writes the large picture (tile) line by line. Each line has the full width of the map and the height of one tile
 	 * (256 pixels).
+	 * <p>
+	 * Depending on {@link Settings#customTileProcessingThreads} the tile lines are composed and compressed on multiple
+	 * threads. The number of threads is limited so that the tile lines in progress fit into half of the available heap.
+	 * </p>
 	 */
 	protected void createTiles() throws InterruptedException, MapCreationException {
 		atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
@@ -205,39 +227,121 @@ public class Ozi extends AtlasCreator {
 
 		int width = (xMax - xMin + 1) * tileSize;
 		int height = (yMax - yMin + 1) * tileSize;
-		int tileLineHeight = tileSize;
+
+		int threadCount = Settings.getInstance().customTileProcessingThreads;
+		if (threadCount <= 0)
+			threadCount = Runtime.getRuntime().availableProcessors();
+		// Up to threadCount lines are composed, threadCount + 1 lines are compressed at the same time
+		long lineImageSize = 4L * width * tileSize;
+		long maxThreadsByMemory = (Runtime.getRuntime().maxMemory() / 2 / lineImageSize - 1) / 2;
+		threadCount = (int) Math.max(1, Math.min(threadCount, maxThreadsByMemory));
+		if (yMax == yMin)
+			threadCount = 1;
 
 		FileOutputStream fileOs = null;
-		Color backgroundColor = mapSource.getBackgroundColor();
+		PngXxlWriter pngWriter = null;
 		try {
 			fileOs = new FileOutputStream(new File(layerDir, mapName + ".png"));
-			PngXxlWriter pngWriter = new PngXxlWriter(width, height, fileOs);
+			pngWriter = new PngXxlWriter(width, height, fileOs, threadCount);
+			if (threadCount > 1)
+				writeTileLinesParallel(pngWriter, width, threadCount);
+			else
+				writeTileLinesSequential(pngWriter, width);
+			pngWriter.finish();
+		} catch (IOException e) {
+			throw new MapCreationException(map, e);
+		} finally {
+			if (pngWriter != null)
+				pngWriter.dispose();
+			Utilities.closeStream(fileOs);
+		}
+	}
 
+	private void writeTileLinesSequential(PngXxlWriter pngWriter, int width) throws InterruptedException,
+			MapCreationException, IOException {
+		for (int y = yMin; y <= yMax; y++)
+			pngWriter.writeTileLine(createTileLine(y, width, true));
+	}
+
+	/**
+	 * Composes the tile lines on <code>threadCount</code> worker threads. The tile lines are handed over to the
+	 * {@link PngXxlWriter} on the calling thread from top to bottom.
+	 */
+	private void writeTileLinesParallel(PngXxlWriter pngWriter, final int width, int threadCount)
+			throws InterruptedException, MapCreationException, IOException {
+		log.debug("Creating map image using " + threadCount + " threads");
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+				DelayedInterruptThread.createThreadFactory());
+		LinkedList<Future<BufferedImage>> pendingLines = new LinkedList<Future<BufferedImage>>();
+		int tilesPerLine = xMax - xMin + 1;
+		try {
 			for (int y = yMin; y <= yMax; y++) {
-				BufferedImage lineImage = new BufferedImage(width, tileLineHeight, BufferedImage.TYPE_INT_RGB);
-				Graphics2D graphics = lineImage.createGraphics();
-				try {
-					graphics.setColor(backgroundColor);
-					graphics.fillRect(0, 0, width, tileLineHeight);
-					int lineX = 0;
-					for (int x = xMin; x <= xMax; x++) {
-						checkUserAbort();
-						atlasProgress.incMapCreationProgress();
-						BufferedImage tile = mapDlTileProvider.getTileImage(x, y);
-						if (tile != null)
-							graphics.drawImage(tile, lineX, 0, backgroundColor, null);
-						lineX += tileSize;
+				checkUserAbort();
+				final int tileY = y;
+				pendingLines.add(executor.submit(new Callable<BufferedImage>() {
+
+					public BufferedImage call() throws Exception {
+						return createTileLine(tileY, width, false);
 					}
-				} finally {
-					graphics.dispose();
+				}));
+				if (pendingLines.size() >= threadCount) {
+					pngWriter.writeTileLine(getTileLine(pendingLines.removeFirst()));
+					atlasProgress.incMapCreationProgress(tilesPerLine);
 				}
-				pngWriter.writeTileLine(lineImage);
 			}
-			pngWriter.finish();
-		} catch (IOException e) {
-			throw new MapCreationException(map, e);
+			while (!pendingLines.isEmpty()) {
+				checkUserAbort();
+				pngWriter.writeTileLine(getTileLine(pendingLines.removeFirst()));
+				atlasProgress.incMapCreationProgress(tilesPerLine);
+			}
 		} finally {
-			Utilities.closeStream(fileOs);
+			executor.shutdownNow();
+		}
+	}
+
+	private BufferedImage getTileLine(Future<BufferedImage> future) throws InterruptedException, MapCreationException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			throw new MapCreationException("Error creating tile line: " + cause.getMessage(), map, cause);
+		}
+	}
+
+	/**
+	 * Composes one line of tiles with the full width of the map.
+	 * 
+	 * @param y
+	 *            tile y coordinate of the line
+	 * @param updateProgress
+	 *            if <code>true</code> the user abort is checked and the progress is updated per tile (only allowed on
+	 *            the atlas thread)
+	 */
+	protected BufferedImage createTileLine(int y, int width, boolean updateProgress) throws InterruptedException,
+			IOException {
+		Color backgroundColor = mapSource.getBackgroundColor();
+		BufferedImage lineImage = new BufferedImage(width, tileSize, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = lineImage.createGraphics();
+		try {
+			graphics.setColor(backgroundColor);
+			graphics.fillRect(0, 0, width, tileSize);
+			int lineX = 0;
+			for (int x = xMin; x <= xMax; x++) {
+				if (updateProgress) {
+					checkUserAbort();
+					atlasProgress.incMapCreationProgress();
+				} else if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				BufferedImage tile = mapDlTileProvider.getTileImage(x, y);
+				if (tile != null)
+					graphics.drawImage(tile, lineX, 0, backgroundColor, null);
+				lineX += tileSize;
+			}
+		} finally {
+			graphics.dispose();
 		}
+		return lineImage;
 	}
 }
@@ -24,9 +24,18 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Insets;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 import javax.swing.JComponent;
@@ -36,6 +45,9 @@ import osmcd.exceptions.MapCreationException;
 import osmcd.gui.mapview.ScaleBar;
 import osmcd.gui.mapview.WgsGrid;
 import osmcd.mapsources.mapspace.MercatorPower2MapSpace;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
+import osmcd.program.atlascreators.tileprovider.TileAccessPlan;
+import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.LayerInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSpace;
@@ -44,6 +56,8 @@ import osmcd.program.model.Settings;
 import osmcd.program.model.SettingsPaperAtlas;
 import osmcd.program.model.SettingsWgsGrid;
 import osmcd.program.model.UnitSystem;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
+import osmcd.utilities.MyMath;
 import osmcd.utilities.Utilities;
 
 public abstract class PaperAtlas extends AtlasCreator {
@@ -51,25 +65,57 @@ public abstract class PaperAtlas extends AtlasCreator {
 	private static final Font PAGE_NUMBER_FONT = new Font(Font.SANS_SERIF, Font.BOLD, 24), LABEL_FONT = new Font(
 			Font.SANS_SERIF, Font.BOLD, 12);
 
-	private static final Color LABEL_BACKGROUND = new Color(0, 127, 0), LABEL_FOREGROUND = Color.WHITE,
-			IMAGE_BACKGROUND = new Color(0, 0, 0, 0);
+	private static final Color LABEL_BACKGROUND = new Color(0, 127, 0), LABEL_FOREGROUND = Color.WHITE;
 
 	private static final String UP = " \u2191", DOWN = " \u2193";
 
-	protected static class Page {
-		protected final BufferedImage image;
-		protected final int number, width, height;
+	/**
+	 * Position and size of a page and of the tiles covered by it. All values are pixels of the (scaled) map.
+	 */
+	protected static class PageLayout {
+
+		public final int number, row, col, rows, cols;
+
+		/**
+		 * Size of the map area of the page
+		 */
+		public final Dimension size;
 
-		protected Page(int number, BufferedImage image) {
+		/**
+		 * Size of the page image: map area plus insets
+		 */
+		public final int imageWidth, imageHeight;
+
+		/**
+		 * Top left tile of the page and the position of the page's top left corner inside of it
+		 */
+		public final int firstTileX, firstTileY, firstTileXOffset, firstTileYOffset;
+
+		/**
+		 * Number of tiles covered by the page horizontally and vertically
+		 */
+		public final int tilesInRow, tilesInCol;
+
+		protected PageLayout(int number, int row, int col, int rows, int cols, Dimension size, Insets insets,
+				int firstTileX, int firstTileY, int firstTileXOffset, int firstTileYOffset, int scaledTileSize) {
 			this.number = number;
-			this.image = image;
-			this.width = image.getWidth();
-			this.height = image.getHeight();
+			this.row = row;
+			this.col = col;
+			this.rows = rows;
+			this.cols = cols;
+			this.size = size;
+			this.imageWidth = size.width + insets.left + insets.right;
+			this.imageHeight = size.height + insets.top + insets.bottom;
+			this.firstTileX = firstTileX;
+			this.firstTileY = firstTileY;
+			this.firstTileXOffset = firstTileXOffset;
+			this.firstTileYOffset = firstTileYOffset;
+			this.tilesInCol = (size.height + firstTileYOffset - 1) / scaledTileSize + 1;
+			this.tilesInRow = (size.width + firstTileXOffset - 1) / scaledTileSize + 1;
 		}
 	}
 
-	private final JComponent dummy = new JPanel();
-	private final WgsGrid wgsGrid;
+	private final SettingsWgsGrid sWgsGrid;
 	private final int overlap;
 	private final Insets insets = new Insets(0, 0, 0, 0);
 
@@ -77,6 +123,8 @@ public abstract class PaperAtlas extends AtlasCreator {
 
 	private int tileImageScale = 1;
 
+	private Image compassImage = null;
+
 	private File layerFolder;
 	// base: page Size整数倍区域，
 	// bottom：最底下的不能被page Height整除的区域
@@ -90,12 +138,11 @@ public abstract class PaperAtlas extends AtlasCreator {
 		overlap = (int) UnitSystem.pointsToPixels(s.overlap, s.dpi);
 
 		if (s.wgsEnabled) {
-			SettingsWgsGrid sWgsGrid = Settings.getInstance().wgsGrid.clone();
+			sWgsGrid = Settings.getInstance().wgsGrid.clone();
 			sWgsGrid.enabled = s.wgsEnabled;
 			sWgsGrid.density = s.wgsDensity;
-			wgsGrid = new WgsGrid(sWgsGrid, dummy);
 		} else {
-			wgsGrid = null;
+			sWgsGrid = null;
 		}
 
 		if (usePadding) {
@@ -201,127 +248,236 @@ public abstract class PaperAtlas extends AtlasCreator {
 		return tileImageScale;
 	}
 
-	protected abstract void processPage(BufferedImage image, int pageNumber) throws MapCreationException;
+	/**
+	 * Creates the output of one page. In order to keep the memory usage independent of paper size and resolution
+	 * implementations should not render the complete page into one image but e.g. render it in horizontal bands via
+	 * {@link #renderBand(PageLayout, BufferedImage, int, Color)} or place the tiles individually.
+	 */
+	protected abstract void processPage(PageLayout page) throws MapCreationException, InterruptedException;
+
+	/**
+	 * @return <code>true</code> if {@link #processPage(PageLayout)} may be called concurrently for different pages
+	 */
+	protected boolean supportsParallelPageProcessing() {
+		return false;
+	}
+
+	protected int getScaledTileSize() {
+		return tileSize * tileImageScale;
+	}
 
 	private void processPages(final int ROWS, final int COLS) throws MapCreationException, InterruptedException {
+		// The tiles are read page by page, each page covering a block of tiles
+		int scaledTileSize = getScaledTileSize();
+		TileAccessPlan plan = TileAccessPlan.blocks(xMin, yMin, xMax, yMax, MyMath.divCeil(base.width, scaledTileSize),
+				MyMath.divCeil(base.height, scaledTileSize));
+		TileProvider tileProvider = mapDlTileProvider;
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(tileProvider, plan);
 		try {
+			mapDlTileProvider = ptp;
+			List<PageLayout> pages = new ArrayList<PageLayout>(ROWS * COLS);
+			for (int row = 0; row < ROWS; row++)
+				for (int col = 0; col < COLS; col++)
+					pages.add(createPageLayout(row, col, ROWS, COLS));
+			atlasProgress.initMapCreation(pages.size());
+
+			int threadCount = Settings.getInstance().customTileProcessingThreads;
+			if (threadCount <= 0)
+				threadCount = Runtime.getRuntime().availableProcessors();
+			if (threadCount > 1 && pages.size() > 1 && supportsParallelPageProcessing())
+				processPagesParallel(pages, Math.min(threadCount, pages.size()));
+			else {
+				for (PageLayout page : pages) {
+					checkUserAbort();
+					processPage(page);
+					atlasProgress.incMapCreationProgress();
+				}
+			}
+		} finally {
+			mapDlTileProvider = tileProvider;
+			ptp.cleanup();
+		}
+	}
 
-			atlasProgress.initMapCreation(ROWS * COLS * 2);
-			for (int row = 0; row < ROWS; row++) {
-				for (int col = 0; col < COLS; col++) {
-					log.trace(String.format("cal=%d row=%d", col, row));
-
-					// Choose image
-					Dimension size;
-
-					boolean firstRow = row == 0;
-					boolean lastRow = row + 1 == ROWS;
-					boolean lastCol = col + 1 == COLS;
-					if (corner != null && lastRow && lastCol) {
-						size = new Dimension(corner);
-					} else if (bottom != null && lastRow) {
-						size = new Dimension(bottom);
-					} else if (right != null && lastCol) {
-						size = new Dimension(right);
-					} else {
-						size = new Dimension(base);
-					}
+	private void processPagesParallel(List<PageLayout> pages, int threadCount) throws MapCreationException,
+			InterruptedException {
+		log.debug("Creating " + pages.size() + " pages using " + threadCount + " threads");
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+				DelayedInterruptThread.createThreadFactory());
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>(pages.size());
+			for (final PageLayout page : pages) {
+				results.add(executor.submit(new Callable<Void>() {
 
-					// Compute values
-					int pageXMin = col * base.width - col * overlap;
-					int pageYMin = row * base.height - row * overlap;
-					int firstTileX = pageXMin / (tileSize * tileImageScale) + xMin;
-					int firstTileY = pageYMin / (tileSize * tileImageScale) + yMin;
-					int firstTileXOffset = pageXMin % (tileSize * tileImageScale);
-					int firstTileYOffset = pageYMin % (tileSize * tileImageScale);
-					int tilesInCol = (size.height + firstTileYOffset - 1) / (tileSize * tileImageScale) + 1;
-					int tilesInRow = (size.width + firstTileXOffset - 1) / (tileSize * tileImageScale) + 1;
-
-					// Create image and graphics
-					int imageWidth = size.width + insets.left + insets.right;
-					int imageHeight = size.height + insets.top + insets.bottom;
-					BufferedImage image = Utilities.safeCreateBufferedImage(imageWidth, imageHeight,
-							BufferedImage.TYPE_4BYTE_ABGR);
-					Graphics2D g = image.createGraphics();
-					g.translate(insets.left, insets.top);
-					g.clipRect(0, 0, size.width, size.height);
-					// Paint image
-
-					g.setBackground(IMAGE_BACKGROUND);
-					g.clearRect(0, 0, size.width, size.height);
-					g.translate(-firstTileXOffset, -firstTileYOffset);
-					for (int tileRow = 0; tileRow < tilesInCol; tileRow++) {
-						for (int tileCol = 0; tileCol < tilesInRow; tileCol++) {
-							int tileX = firstTileX + tileCol;
-							int tileY = firstTileY + tileRow;
-							int x = tileCol * tileSize * tileImageScale;
-							int y = tileRow * tileSize * tileImageScale;
-							BufferedImage tile = mapDlTileProvider.getTileImage(tileX, tileY);
-							if (tile != null)
-								g.drawImage(tile, x, y, tileSize * tileImageScale, tileSize * tileImageScale, null);
-						}
+					public Void call() throws Exception {
+						processPage(page);
+						return null;
 					}
-					g.translate(firstTileXOffset, firstTileYOffset);
-
-					// Paint additions
-					dummy.setSize(size);
-					Point tlc = new Point(firstTileX * tileSize * tileImageScale + firstTileXOffset, firstTileY
-							* tileSize * tileImageScale + firstTileYOffset);
-					if (s.wgsEnabled)
-						wgsGrid.paintWgsGrid(g, mapSource.getMapSpace(), tlc, zoom);
-					if (s.scaleBar)
-						ScaleBar.paintScaleBar(dummy, g, mapSource.getMapSpace(), tlc, zoom);
-					if (s.compass) {
-						Image compassRaw = ImageIO.read(Utilities.loadResourceAsStream("images/compass.png"));
-						Image compass = compassRaw.getScaledInstance(150, 150, Image.SCALE_SMOOTH);
-						g.drawImage(compass, 0, 0, null);
-					}
-					if (s.pageNumbers) {
-						g.setBackground(LABEL_BACKGROUND);
-						g.setColor(LABEL_FOREGROUND);
-
-						String pageNumber = " " + getPageNumber(row, col, ROWS, COLS) + " ";
-						g.setFont(PAGE_NUMBER_FONT);
-						FontMetrics fontMetrics = g.getFontMetrics();
-						int fontHeight = fontMetrics.getHeight();
-						int pageNumberStringWidth = fontMetrics.stringWidth(pageNumber);
-						g.clearRect(0, 0, pageNumberStringWidth, fontHeight);
-						g.drawString(pageNumber, 0, fontHeight - fontMetrics.getDescent());
-
-						int centerX = size.width / 2;
-						g.setFont(LABEL_FONT);
-						fontMetrics = g.getFontMetrics();
-						fontHeight = fontMetrics.getHeight();
-
-						if (!firstRow) {
-							String text = UP + getPageNumber(row - 1, col, ROWS, COLS) + " ";
-							int stringWidth = fontMetrics.stringWidth(text);
-							g.clearRect(centerX - stringWidth / 2, 8, stringWidth, fontHeight);
-							g.drawString(text, centerX - stringWidth / 2, 8 + fontHeight - fontMetrics.getDescent());
-						}
-						if (!lastRow) {
-							String text = DOWN + getPageNumber(row + 1, col, ROWS, COLS) + " ";
-							int stringWidth = fontMetrics.stringWidth(text);
-
-							g.clearRect(centerX - stringWidth / 2, size.height - 32 - fontHeight, stringWidth,
-									fontHeight);
-							g.drawString(text, centerX - stringWidth / 2, size.height - 32 - fontMetrics.getDescent());
-						}
-					}
-					g.dispose();
-
-					// Process image
-					atlasProgress.incMapCreationProgress();
-					checkUserAbort();
-					processPage(image, getPageNumber(row, col, ROWS, COLS));
-					atlasProgress.incMapCreationProgress();
-					checkUserAbort();
+				}));
+			}
+			for (Future<Void> result : results) {
+				checkUserAbort();
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof MapCreationException)
+						throw (MapCreationException) cause;
+					if (cause instanceof InterruptedException)
+						throw (InterruptedException) cause;
+					throw new MapCreationException(map, cause);
 				}
+				atlasProgress.incMapCreationProgress();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private PageLayout createPageLayout(int row, int col, int ROWS, int COLS) {
+		log.trace(String.format("cal=%d row=%d", col, row));
+
+		// Choose image
+		Dimension size;
+
+		boolean lastRow = row + 1 == ROWS;
+		boolean lastCol = col + 1 == COLS;
+		if (corner != null && lastRow && lastCol) {
+			size = new Dimension(corner);
+		} else if (bottom != null && lastRow) {
+			size = new Dimension(bottom);
+		} else if (right != null && lastCol) {
+			size = new Dimension(right);
+		} else {
+			size = new Dimension(base);
+		}
+
+		// Compute values
+		int scaledTileSize = getScaledTileSize();
+		int pageXMin = col * base.width - col * overlap;
+		int pageYMin = row * base.height - row * overlap;
+		int firstTileX = pageXMin / scaledTileSize + xMin;
+		int firstTileY = pageYMin / scaledTileSize + yMin;
+		int firstTileXOffset = pageXMin % scaledTileSize;
+		int firstTileYOffset = pageYMin % scaledTileSize;
+		return new PageLayout(getPageNumber(row, col, ROWS, COLS), row, col, ROWS, COLS, size, insets, firstTileX,
+				firstTileY, firstTileXOffset, firstTileYOffset, scaledTileSize);
+	}
+
+	/**
+	 * Renders the horizontal band of the page image starting at line <code>bandY</code> into <code>band</code>. Only
+	 * the tiles intersecting the band are painted. The band image has to be as wide as the page image.
+	 * 
+	 * @param background
+	 *            color of the insets and of map areas without tiles
+	 */
+	protected void renderBand(PageLayout page, BufferedImage band, int bandY, Color background) throws IOException {
+		Graphics2D g = band.createGraphics();
+		try {
+			g.setBackground(background);
+			g.clearRect(0, 0, band.getWidth(), band.getHeight());
+			g.translate(0, -bandY);
+			paintPage(g, page, new Rectangle(0, bandY, band.getWidth(), band.getHeight()), background);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * @param region
+	 *            part of the page image to be painted (in page image coordinates)
+	 */
+	private void paintPage(Graphics2D g, PageLayout page, Rectangle region, Color background) throws IOException {
+		g.translate(insets.left, insets.top);
+		g.clipRect(0, 0, page.size.width, page.size.height);
+		g.setBackground(background);
+		g.clearRect(0, 0, page.size.width, page.size.height);
+		region = new Rectangle(region.x - insets.left, region.y - insets.top, region.width, region.height);
+		int scaledTileSize = getScaledTileSize();
+		for (int tileRow = 0; tileRow < page.tilesInCol; tileRow++) {
+			int y = tileRow * scaledTileSize - page.firstTileYOffset;
+			if (y >= region.y + region.height || y + scaledTileSize <= region.y)
+				continue;
+			for (int tileCol = 0; tileCol < page.tilesInRow; tileCol++) {
+				int x = tileCol * scaledTileSize - page.firstTileXOffset;
+				if (x >= region.x + region.width || x + scaledTileSize <= region.x)
+					continue;
+				BufferedImage tile = mapDlTileProvider.getTileImage(page.firstTileX + tileCol, page.firstTileY
+						+ tileRow);
+				if (tile != null)
+					g.drawImage(tile, x, y, scaledTileSize, scaledTileSize, null);
+			}
+		}
+		paintAdditions(g, page);
+	}
+
+	/**
+	 * Paints WGS grid, scale bar, compass and page numbers as configured. The origin of <code>g</code> has to be the
+	 * top left corner of the page's map area. Safe to be called concurrently for different pages.
+	 */
+	protected void paintAdditions(Graphics2D g, PageLayout page) throws IOException {
+		Dimension size = page.size;
+		// Scale bar and WGS grid take the page size from a component - one per page as the grid is not thread-safe
+		JComponent dummy = new JPanel();
+		dummy.setSize(size);
+		int scaledTileSize = getScaledTileSize();
+		Point tlc = new Point(page.firstTileX * scaledTileSize + page.firstTileXOffset, page.firstTileY
+				* scaledTileSize + page.firstTileYOffset);
+		if (s.wgsEnabled)
+			new WgsGrid(sWgsGrid, dummy).paintWgsGrid(g, mapSource.getMapSpace(), tlc, zoom);
+		if (s.scaleBar)
+			ScaleBar.paintScaleBar(dummy, g, mapSource.getMapSpace(), tlc, zoom);
+		if (s.compass)
+			g.drawImage(getCompassImage(), 0, 0, null);
+		if (s.pageNumbers) {
+			boolean firstRow = page.row == 0;
+			boolean lastRow = page.row + 1 == page.rows;
+			g.setBackground(LABEL_BACKGROUND);
+			g.setColor(LABEL_FOREGROUND);
+
+			String pageNumber = " " + page.number + " ";
+			g.setFont(PAGE_NUMBER_FONT);
+			FontMetrics fontMetrics = g.getFontMetrics();
+			int fontHeight = fontMetrics.getHeight();
+			int pageNumberStringWidth = fontMetrics.stringWidth(pageNumber);
+			g.clearRect(0, 0, pageNumberStringWidth, fontHeight);
+			g.drawString(pageNumber, 0, fontHeight - fontMetrics.getDescent());
+
+			int centerX = size.width / 2;
+			g.setFont(LABEL_FONT);
+			fontMetrics = g.getFontMetrics();
+			fontHeight = fontMetrics.getHeight();
+
+			if (!firstRow) {
+				String text = UP + getPageNumber(page.row - 1, page.col, page.rows, page.cols) + " ";
+				int stringWidth = fontMetrics.stringWidth(text);
+				g.clearRect(centerX - stringWidth / 2, 8, stringWidth, fontHeight);
+				g.drawString(text, centerX - stringWidth / 2, 8 + fontHeight - fontMetrics.getDescent());
+			}
+			if (!lastRow) {
+				String text = DOWN + getPageNumber(page.row + 1, page.col, page.rows, page.cols) + " ";
+				int stringWidth = fontMetrics.stringWidth(text);
+
+				g.clearRect(centerX - stringWidth / 2, size.height - 32 - fontHeight, stringWidth, fontHeight);
+				g.drawString(text, centerX - stringWidth / 2, size.height - 32 - fontMetrics.getDescent());
 			}
-		} catch (IOException e) {
-			throw new MapCreationException(map, e);
 		}
+	}
 
+	private synchronized Image getCompassImage() throws IOException {
+		if (compassImage == null) {
+			BufferedImage compassRaw = ImageIO.read(Utilities.loadResourceAsStream("images/compass.png"));
+			BufferedImage compass = new BufferedImage(150, 150, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = compass.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+				g.drawImage(compassRaw, 0, 0, 150, 150, null);
+			} finally {
+				g.dispose();
+			}
+			compassImage = compass;
+		}
+		return compassImage;
 	}
 
 	private int getPageNumber(int row, int col, int ROWS, int COLS) {
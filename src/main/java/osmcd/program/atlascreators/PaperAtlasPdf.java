@@ -17,28 +17,60 @@
 package osmcd.program.atlascreators;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
 
 import osmcd.exceptions.MapCreationException;
 import osmcd.program.ProgramInfo;
 import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.model.UnitSystem;
+import osmcd.utilities.Utilities;
 
 import com.itextpdf.text.BadElementException;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfContentByte;
 import com.itextpdf.text.pdf.PdfWriter;
 
+/**
+ * Creates one PDF document per map. Instead of rendering each page into one large image the map tiles are placed
+ * individually as image XObjects and the page additions (grid, scale bar, labels) are drawn as vector graphics.
+ * Tiles with identical image data are embedded only once, the original tile data (e.g. JPEG) is embedded without
+ * decoding whenever iText supports the format.
+ */
 @AtlasCreatorName(value = "Paper Atlas (PDF)")
 public class PaperAtlasPdf extends PaperAtlas {
 
+	/**
+	 * Maximum number of tile images kept for reuse
+	 */
+	private static final int TILE_IMAGE_CACHE_SIZE = 512;
+
 	private Document document;
 
+	private PdfWriter pdfWriter;
+
+	/**
+	 * Tile images already added to the document by the SHA-256 of their data
+	 */
+	private final LinkedHashMap<String, Image> tileImages = new LinkedHashMap<String, Image>(
+			TILE_IMAGE_CACHE_SIZE + 1, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, Image> eldest) {
+			return size() > TILE_IMAGE_CACHE_SIZE;
+		}
+	};
+
 	public PaperAtlasPdf() {
 		super(false);
 	}
@@ -50,7 +82,6 @@ public class PaperAtlasPdf extends PaperAtlas {
 		float top = (float) s.marginTop;
 		float bottom = (float) s.marginBottom;
 		Document document = new Document(r, left, right, top, bottom);
-		PdfWriter pdfWriter;
 		try {
 			pdfFile.createNewFile();
 			pdfWriter = PdfWriter.getInstance(document, new FileOutputStream(pdfFile));
@@ -84,44 +115,97 @@ public class PaperAtlasPdf extends PaperAtlas {
 				new MapCreationException(map, e);
 			}
 			document = null;
+			pdfWriter = null;
+			tileImages.clear();
 		}
 	}
 
 	@Override
-	protected void processPage(BufferedImage image, int pageNumber) throws MapCreationException {
-		int imageWidth = image.getWidth();
-		int imageHeight = image.getHeight();
-
+	protected void processPage(PageLayout page) throws MapCreationException, InterruptedException {
 		if (document == null) {
-			double width = UnitSystem.pixelsToPoints(imageWidth, s.dpi);
-			double height = UnitSystem.pixelsToPoints(imageHeight, s.dpi);
+			double width = UnitSystem.pixelsToPoints(page.imageWidth, s.dpi);
+			double height = UnitSystem.pixelsToPoints(page.imageHeight, s.dpi);
 			width += s.marginLeft + s.marginRight;
 			height += s.marginTop + s.marginBottom;
 			Rectangle r = new Rectangle((float) width, (float) height);
 			document = createDocument(r);
 		}
 
-		Image iTextImage;
+		float left = document.left();
+		float top = document.top();
+		float mapWidth = toPoints(page.size.width);
+		float mapHeight = toPoints(page.size.height);
+		int scaledTileSize = getScaledTileSize();
+		float tileSizePoints = toPoints(scaledTileSize);
+
+		PdfContentByte cb = pdfWriter.getDirectContent();
 		try {
-			iTextImage = Image.getInstance(image, Color.WHITE);
-		} catch (BadElementException e) {
-			throw new MapCreationException(map, e);
+			cb.saveState();
+			cb.rectangle(left, top - mapHeight, mapWidth, mapHeight);
+			cb.clip();
+			cb.newPath();
+			for (int tileRow = 0; tileRow < page.tilesInCol; tileRow++) {
+				checkUserAbort();
+				for (int tileCol = 0; tileCol < page.tilesInRow; tileCol++) {
+					Image tile = getTileImage(page.firstTileX + tileCol, page.firstTileY + tileRow);
+					if (tile == null)
+						continue;
+					float x = left + toPoints(tileCol * scaledTileSize - page.firstTileXOffset);
+					float y = top - toPoints(tileRow * scaledTileSize - page.firstTileYOffset) - tileSizePoints;
+					cb.addImage(tile, tileSizePoints, 0, 0, tileSizePoints, x, y);
+				}
+			}
+			cb.restoreState();
+
+			Rectangle pageSize = document.getPageSize();
+			Graphics2D g = cb.createGraphics(pageSize.getWidth(), pageSize.getHeight());
+			try {
+				// PdfGraphics2D has its origin in the upper left corner of the page, one unit is one point
+				g.translate(left, pageSize.getHeight() - top);
+				double scale = UnitSystem.pixelsToPoints(1, s.dpi);
+				g.scale(scale, scale);
+				g.clipRect(0, 0, page.size.width, page.size.height);
+				paintAdditions(g, page);
+			} finally {
+				g.dispose();
+			}
 		} catch (IOException e) {
 			throw new MapCreationException(map, e);
-		}
-		iTextImage.setCompressionLevel(s.compression);
-		iTextImage.setDpi(s.dpi, s.dpi);
-
-		float width = (float) UnitSystem.pixelsToPoints(imageWidth, s.dpi);
-		float height = (float) UnitSystem.pixelsToPoints(imageHeight, s.dpi);
-		iTextImage.scaleAbsolute(width, height);
-
-		try {
-			document.add(iTextImage);
 		} catch (DocumentException e) {
 			throw new MapCreationException(map, e);
 		}
 		document.newPage();
 	}
 
+	/**
+	 * @return the iText image of the tile - the same instance for tiles with identical data so that iText writes the
+	 *         image only once - or <code>null</code> if the tile does not exist
+	 */
+	private Image getTileImage(int x, int y) throws IOException, BadElementException {
+		byte[] data = mapDlTileProvider.getTileData(x, y);
+		if (data == null)
+			return null;
+		String key = Utilities.sha256Hex(data);
+		Image image = tileImages.get(key);
+		if (image != null)
+			return image;
+		try {
+			image = Image.getInstance(data);
+		} catch (Exception e) {
+			// image format not supported by iText - use the decoded tile image
+			log.trace("Tile data can not be embedded directly: " + e.getMessage());
+			BufferedImage tile = mapDlTileProvider.getTileImage(x, y);
+			if (tile == null)
+				return null;
+			image = Image.getInstance(tile, Color.WHITE);
+		}
+		image.setCompressionLevel(s.compression);
+		tileImages.put(key, image);
+		return image;
+	}
+
+	private float toPoints(int pixels) {
+		return (float) UnitSystem.pixelsToPoints(pixels, s.dpi);
+	}
+
 }
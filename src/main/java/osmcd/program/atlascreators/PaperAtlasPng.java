@@ -16,20 +16,33 @@
  ******************************************************************************/
 package osmcd.program.atlascreators;
 
+import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.DecimalFormat;
 
-import javax.imageio.ImageIO;
-
 import osmcd.exceptions.MapCreationException;
 import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.utilities.Utilities;
+import osmcd.utilities.imageio.PngXxlWriter;
 
+/**
+ * Writes each page as PNG image. The pages are rendered in horizontal bands which are directly streamed into the PNG
+ * file, therefore the memory usage does not depend on paper size and resolution. Multiple pages are created
+ * concurrently if {@link osmcd.program.model.Settings#customTileProcessingThreads} allows it.
+ */
 @AtlasCreatorName(value = "Paper Atlas (PNG)")
 public class PaperAtlasPng extends PaperAtlas {
 
+	/**
+	 * Maximum number of pixels of one band
+	 */
+	private static final int BAND_PIXELS = 4 * 1024 * 1024;
+
 	private final DecimalFormat decimalFormat = new DecimalFormat("#000");
 
 	private File mapFolder;
@@ -51,13 +64,41 @@ public class PaperAtlasPng extends PaperAtlas {
 	}
 
 	@Override
-	protected void processPage(BufferedImage image, int pageNumber) throws MapCreationException {
-		String fileName = decimalFormat.format(pageNumber) + ".png";
+	protected boolean supportsParallelPageProcessing() {
+		return true;
+	}
+
+	@Override
+	protected void processPage(PageLayout page) throws MapCreationException, InterruptedException {
+		String fileName;
+		// DecimalFormat is not thread-safe
+		synchronized (decimalFormat) {
+			fileName = decimalFormat.format(page.number) + ".png";
+		}
 		File file = new File(mapFolder, fileName);
+		OutputStream out = null;
+		PngXxlWriter pngWriter = null;
 		try {
-			ImageIO.write(image, "PNG", file);
+			out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+			pngWriter = new PngXxlWriter(page.imageWidth, page.imageHeight, out);
+			int bandHeight = Math.max(1, Math.min(page.imageHeight, BAND_PIXELS / page.imageWidth));
+			BufferedImage band = null;
+			for (int bandY = 0; bandY < page.imageHeight; bandY += bandHeight) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				int height = Math.min(bandHeight, page.imageHeight - bandY);
+				if (band == null || band.getHeight() != height)
+					band = new BufferedImage(page.imageWidth, height, BufferedImage.TYPE_INT_RGB);
+				renderBand(page, band, bandY, Color.WHITE);
+				pngWriter.writeTileLine(band);
+			}
+			pngWriter.finish();
 		} catch (IOException e) {
 			throw new MapCreationException(map, e);
+		} finally {
+			if (pngWriter != null)
+				pngWriter.dispose();
+			Utilities.closeStream(out);
 		}
 	}
 }
@@ -173,7 +173,7 @@ public class RMapsSQLite extends AtlasCreator implements RequiresSQLite {
 			int tilesWritten = 0;
 			Runtime r = Runtime.getRuntime();
 			long heapMaxSize = r.maxMemory();
-			prepStmt = conn.prepareStatement(getTileInsertSQL());
+			prepareTileStatements();
 			for (int x = xMin; x <= xMax; x++) {
 				for (int y = yMin; y <= yMax; y++) {
 					checkUserAbort();
@@ -188,8 +188,7 @@ public class RMapsSQLite extends AtlasCreator implements RequiresSQLite {
 							batchTileCount++;
 							if ((heapAvailable < HEAP_MIN) || (batchTileCount >= MAX_BATCH_SIZE)) {
 								log.trace("Executing batch containing " + batchTileCount + " tiles");
-								prepStmt.executeBatch();
-								prepStmt.clearBatch();
+								executeTileBatch();
 								System.gc();
 								conn.commit();
 								atlasProgress.incMapCreationProgress(batchTileCount);
@@ -201,8 +200,7 @@ public class RMapsSQLite extends AtlasCreator implements RequiresSQLite {
 					}
 				}
 			}
-			prepStmt.executeBatch();
-			prepStmt.clearBatch();
+			executeTileBatch();
 			System.gc();
 			if (tilesWritten > 0)
 				updateTileMetaInfo();
@@ -214,6 +212,25 @@ public class RMapsSQLite extends AtlasCreator implements RequiresSQLite {
 		}
 	}
 
+	/**
+	 * Prepares the statement(s) used by {@link #writeTile(int, int, int, byte[])}.
+	 * 
+	 * @throws SQLException
+	 */
+	protected void prepareTileStatements() throws SQLException {
+		prepStmt = conn.prepareStatement(getTileInsertSQL());
+	}
+
+	/**
+	 * Executes all tile inserts added by {@link #writeTile(int, int, int, byte[])} since the last call.
+	 * 
+	 * @throws SQLException
+	 */
+	protected void executeTileBatch() throws SQLException {
+		prepStmt.executeBatch();
+		prepStmt.clearBatch();
+	}
+
 	protected void updateTileMetaInfo() throws SQLException {
 		Statement stat = conn.createStatement();
 		ResultSet rs = stat.executeQuery(RMAPS_INFO_MAX_SQL);
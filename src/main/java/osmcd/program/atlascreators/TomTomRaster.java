@@ -103,6 +103,11 @@ public class TomTomRaster extends AtlasCreator {
 		}
 	}
 
+	@Override
+	public boolean supportsStreamingMapCreation() {
+		return true;
+	}
+
 	protected void createImage() throws InterruptedException, MapCreationException {
 
 		atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
@@ -35,7 +35,7 @@ import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.annotations.SupportedParameters;
 import osmcd.program.atlascreators.impl.MapTileBuilder;
 import osmcd.program.atlascreators.impl.MapTileWriter;
-import osmcd.program.atlascreators.tileprovider.CacheTileProvider;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.AtlasInterface;
 import osmcd.program.interfaces.LayerInterface;
@@ -163,6 +163,15 @@ public class TrekBuddy extends AtlasCreator
 		}
 	}
 
+	/**
+	 * Every map is written to its own map directory.
+	 */
+	@Override
+	public boolean supportsParallelMapCreation()
+	{
+		return true;
+	}
+
 	protected MapTileWriter createMapTileWriter() throws IOException
 	{
 		return new FileTileWriter();
@@ -180,10 +189,11 @@ public class TrekBuddy extends AtlasCreator
 	{
 		log.debug("Starting map creation using custom parameters: " + parameters);
 
-		CacheTileProvider ctp = new CacheTileProvider(mapDlTileProvider);
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(mapDlTileProvider,
+				getCustomTileAccessPlan());
 		try
 		{
-			mapDlTileProvider = ctp;
+			mapDlTileProvider = ptp;
 
 			MapTileBuilder mapTileBuilder = new MapTileBuilder(this, mapTileWriter, true);
 			atlasProgress.initMapCreation(mapTileBuilder.getCustomTileCount());
@@ -191,7 +201,7 @@ public class TrekBuddy extends AtlasCreator
 		}
 		finally
 		{
-			ctp.cleanup();
+			ptp.cleanup();
 		}
 	}
 
@@ -23,19 +23,24 @@
  */
 package osmcd.program.atlascreators;
 
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -46,22 +51,35 @@ import osmcd.exceptions.MapCreationException;
 import osmcd.mapsources.mapspace.MercatorPower2MapSpace;
 import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.annotations.SupportedParameters;
+import osmcd.program.atlascreators.impl.TileWorkerPool;
 import osmcd.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import osmcd.program.interfaces.LayerInterface;
 import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSpace;
-import osmcd.program.interfaces.TileImageDataWriter;
 import osmcd.program.interfaces.MapSpace.ProjectionCategory;
+import osmcd.program.model.Settings;
 import osmcd.program.model.TileImageFormat;
 import osmcd.program.model.TileImageType;
 import osmcd.program.model.TileImageParameters.Name;
 import osmcd.program.tiledatawriter.TileImageJpegDataWriter;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 import osmcd.utilities.Utilities;
 
 /**
  * 
  * Creates one RMAP file per layer.
+ * <p>
+ * The zoom levels of the RMAP file that are not covered by a map of the layer are generated from the next higher
+ * resolution level while that level is written: the tiles are decoded and reduced to half size on worker threads (see
+ * {@link Settings#customTileProcessingThreads}), four half sized tiles are combined into one tile of the lower level
+ * (quad-tree reduction). The reduction works column by column, therefore only two tile columns per generated level
+ * are held in memory.
+ * </p>
+ * <p>
+ * All data is appended to the file through a buffer. The file header and the offset tables of the zoom levels are
+ * written as placeholders and patched when the layer is finished.
+ * </p>
  * 
  * @author Luka Logar
  * @author r_x
@@ -73,6 +91,17 @@ public class TwoNavRMAP extends AtlasCreator {
 
 	private RmapFile rmapFile = null;
 
+	/**
+	 * Worker threads and JPEG writers for generating the zoom levels not covered by a map
+	 */
+	private TileWorkerPool workers = null;
+	private int threadCount = 1;
+
+	/**
+	 * Generated tiles waiting to be written, in the order they have been submitted
+	 */
+	private LinkedList<PendingTile> pendingTiles = new LinkedList<PendingTile>();
+
 	private class ZoomLevel {
 
 		private int index = 0;
@@ -85,104 +114,292 @@ public class TwoNavRMAP extends AtlasCreator {
 		private int zoom = 0;
 		private boolean dl = false;
 
+		/**
+		 * Column of this (generated) level currently being reduced from the source level and the two source columns
+		 * (left and right half) it is made of
+		 */
+		private int pendingColumn = -1;
+		private List<Future<ReducedTile>> leftSourceColumn = null;
+		private List<Future<ReducedTile>> rightSourceColumn = null;
+
+		/**
+		 * Writes the zoom level header including the offset table. The first call appends the header at the current
+		 * file position, subsequent calls update it in place.
+		 */
 		private void writeHeader() throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(16 + 8 * xTiles * yTiles).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(width);
+			header.putInt(-height);
+			header.putInt(xTiles);
+			header.putInt(yTiles);
+			if (jpegOffsets == null) {
+				jpegOffsets = new long[xTiles][yTiles];
+			}
+			for (int y = 0; y < yTiles; y++) {
+				for (int x = 0; x < xTiles; x++) {
+					header.putLong(jpegOffsets[x][y]);
+				}
+			}
+			header.flip();
 			if (offset == 0) {
 				offset = rmapFile.getFilePointer();
+				rmapFile.write(header);
 			} else {
-				rmapFile.seek(offset);
+				rmapFile.patch(offset, header);
 			}
 			log.trace(String.format("Writing ZoomLevel %d (%dx%d pixels, %dx%d tiles) header at offset %d", index,
 					width, height, xTiles, yTiles, offset));
-			rmapFile.writeIntI(width);
-			rmapFile.writeIntI(-height);
-			rmapFile.writeIntI(xTiles);
-			rmapFile.writeIntI(yTiles);
-			if (jpegOffsets == null) {
-				jpegOffsets = new long[xTiles][yTiles];
+		}
+
+		private void writeTile(int x, int y, byte[] tileData) throws IOException {
+			jpegOffsets[x][y] = rmapFile.getFilePointer();
+			rmapFile.writeIntI(7);
+			rmapFile.writeIntI(tileData.length);
+			rmapFile.write(tileData);
+		}
+
+		/**
+		 * @return the next lower resolution level if it has to be generated from this level, otherwise
+		 *         <code>null</code>
+		 */
+		private ZoomLevel getGeneratedLevel() {
+			if (index + 1 < rmapFile.zoomLevels.length && !rmapFile.zoomLevels[index + 1].dl) {
+				return rmapFile.zoomLevels[index + 1];
 			}
+			return null;
+		}
+
+		/**
+		 * Adds a column of half sized tiles of the source level (the next higher resolution level). Two source
+		 * columns make up one column of this level.
+		 */
+		private void addSourceColumn(int sourceX, List<Future<ReducedTile>> column) {
+			int x = sourceX / 2;
+			if ((pendingColumn >= 0) && (pendingColumn != x)) {
+				reduceColumn();
+			}
+			pendingColumn = x;
+			if (sourceX % 2 == 0) {
+				leftSourceColumn = column;
+			} else {
+				rightSourceColumn = column;
+			}
+			if ((sourceX % 2 == 1) || (sourceX + 1 >= rmapFile.zoomLevels[index - 1].xTiles)) {
+				reduceColumn();
+			}
+		}
+
+		/**
+		 * Reduces the remaining source columns of this and all following generated levels.
+		 */
+		private void flushColumns() {
+			if (pendingColumn >= 0) {
+				reduceColumn();
+			}
+			ZoomLevel next = getGeneratedLevel();
+			if (next != null) {
+				next.flushColumns();
+			}
+		}
+
+		private void reduceColumn() {
+			int x = pendingColumn;
+			List<Future<ReducedTile>> left = leftSourceColumn;
+			List<Future<ReducedTile>> right = rightSourceColumn;
+			pendingColumn = -1;
+			leftSourceColumn = null;
+			rightSourceColumn = null;
+			if (x >= xTiles) {
+				return;
+			}
+			ZoomLevel next = getGeneratedLevel();
+			List<Future<ReducedTile>> column = newColumn(yTiles);
 			for (int y = 0; y < yTiles; y++) {
-				for (int x = 0; x < xTiles; x++) {
-					rmapFile.writeLongI(jpegOffsets[x][y]);
+				Future<ReducedTile> q11 = getSourceTile(left, 2 * y);
+				if (q11 == null) {
+					log.error(String.format("Missing source tile for ZoomLevel %d tile (%d,%d)", index, x, y));
+					continue;
 				}
+				Future<ReducedTile> tile = workers.submit(new ReductionTask(q11, getSourceTile(right, 2 * y),
+						getSourceTile(left, 2 * y + 1), getSourceTile(right, 2 * y + 1), next != null));
+				column.set(y, tile);
+				pendingTiles.add(new PendingTile(this, x, y, tile));
+			}
+			if (next != null) {
+				next.addSourceColumn(x, column);
 			}
 		}
 
-		private BufferedImage loadJpegAtOffset(long offset) throws IOException {
-			if (offset == 0) {
-				throw new IOException("offset == 0");
-			}
-			rmapFile.seek(offset);
-			int TagId = rmapFile.readIntI();
-			if (TagId != 7) {
-				throw new IOException("TagId != 7");
-			}
-			int TagLen = rmapFile.readIntI();
-			byte[] jpegImageBuf = new byte[TagLen];
-			rmapFile.readFully(jpegImageBuf);
-			ByteArrayInputStream input = new ByteArrayInputStream(jpegImageBuf);
-			return ImageIO.read(input);
-		}
-
-		private byte[] getTileData(TileImageDataWriter writer, ZoomLevel source, int x, int y) throws IOException {
-			log.trace(String.format("Shrinking jpegs (%d,%d,%d - %d,%d,%d)", source.index, x, y, source.index,
-					(x + 1 < source.xTiles) ? x + 1 : x, (y + 1 < source.yTiles) ? y + 1 : y));
-			BufferedImage bi11 = loadJpegAtOffset(source.jpegOffsets[x][y]);
-			BufferedImage bi21 = (x + 1 < source.xTiles) ? loadJpegAtOffset(source.jpegOffsets[x + 1][y]) : null;
-			BufferedImage bi12 = (y + 1 < source.yTiles) ? loadJpegAtOffset(source.jpegOffsets[x][y + 1]) : null;
-			BufferedImage bi22 = (x + 1 < source.xTiles) && (y + 1 < source.yTiles) ? loadJpegAtOffset(source.jpegOffsets[x + 1][y + 1])
-					: null;
+		private Future<ReducedTile> getSourceTile(List<Future<ReducedTile>> column, int y) {
+			if ((column == null) || (y >= column.size())) {
+				return null;
+			}
+			return column.get(y);
+		}
+	}
+
+	/**
+	 * @return a column of <code>yTiles</code> tiles, all of them <code>null</code> until they are submitted
+	 */
+	private static List<Future<ReducedTile>> newColumn(int yTiles) {
+		List<Future<ReducedTile>> column = new ArrayList<Future<ReducedTile>>(yTiles);
+		for (int y = 0; y < yTiles; y++) {
+			column.add(null);
+		}
+		return column;
+	}
+
+	/**
+	 * Result of the reduction of one tile: the encoded tile (if it is part of a generated level) and the tile reduced
+	 * to half size (if the next lower level is generated from it)
+	 */
+	private static class ReducedTile {
+
+		private final byte[] tileData;
+		private final BufferedImage halfImage;
+
+		private ReducedTile(byte[] tileData, BufferedImage halfImage) {
+			this.tileData = tileData;
+			this.halfImage = halfImage;
+		}
+	}
+
+	private static class PendingTile {
+
+		private final ZoomLevel level;
+		private final int x;
+		private final int y;
+		private final Future<ReducedTile> result;
+
+		private PendingTile(ZoomLevel level, int x, int y, Future<ReducedTile> result) {
+			this.level = level;
+			this.x = x;
+			this.y = y;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * Decodes a tile of a downloaded level and reduces it to half size.
+	 */
+	private static class DecodeTask implements Callable<ReducedTile> {
+
+		private final byte[] tileData;
+
+		private DecodeTask(byte[] tileData) {
+			this.tileData = tileData;
+		}
+
+		public ReducedTile call() throws Exception {
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(tileData));
+			if (image == null) {
+				throw new IOException("Unable to decode tile image");
+			}
+			return new ReducedTile(null, halveImage(image));
+		}
+	}
+
+	/**
+	 * Combines the four half sized source tiles (the right and lower ones are missing at the border of the source
+	 * level) to one tile, encodes it and reduces it to half size for the next generated level.
+	 */
+	private class ReductionTask implements Callable<ReducedTile> {
+
+		private final Future<ReducedTile> q11;
+		private final Future<ReducedTile> q21;
+		private final Future<ReducedTile> q12;
+		private final Future<ReducedTile> q22;
+		private final boolean halve;
+
+		private ReductionTask(Future<ReducedTile> q11, Future<ReducedTile> q21, Future<ReducedTile> q12,
+				Future<ReducedTile> q22, boolean halve) {
+			this.q11 = q11;
+			this.q21 = q21;
+			this.q12 = q12;
+			this.q22 = q22;
+			this.halve = halve;
+		}
+
+		public ReducedTile call() throws Exception {
+			BufferedImage bi11 = q11.get().halfImage;
+			BufferedImage bi21 = (q21 != null) ? q21.get().halfImage : null;
+			BufferedImage bi12 = (q12 != null) ? q12.get().halfImage : null;
+			BufferedImage bi22 = (q22 != null) ? q22.get().halfImage : null;
 			int biWidth = bi11.getWidth() + (bi21 != null ? bi21.getWidth() : 0);
 			int biHeight = bi11.getHeight() + (bi12 != null ? bi12.getHeight() : 0);
-			BufferedImage bi = new BufferedImage(biWidth, biHeight, BufferedImage.TYPE_3BYTE_BGR);
-			Graphics2D g = bi.createGraphics();
-			g.drawImage(bi11, 0, 0, null);
+			BufferedImage bi = new BufferedImage(biWidth, biHeight, BufferedImage.TYPE_INT_RGB);
+			int[] pixels = getPixels(bi);
+			copyPixels(bi11, pixels, biWidth, 0, 0);
 			if (bi21 != null) {
-				g.drawImage(bi21, bi11.getWidth(), 0, null);
+				copyPixels(bi21, pixels, biWidth, bi11.getWidth(), 0);
 			}
 			if (bi12 != null) {
-				g.drawImage(bi12, 0, bi11.getHeight(), null);
+				copyPixels(bi12, pixels, biWidth, 0, bi11.getHeight());
 			}
 			if (bi22 != null) {
-				g.drawImage(bi22, bi11.getWidth(), bi11.getHeight(), null);
+				copyPixels(bi22, pixels, biWidth, bi11.getWidth(), bi11.getHeight());
 			}
-			AffineTransformOp op = new AffineTransformOp(new AffineTransform(0.5, 0, 0, 0.5, 0, 0),
-					AffineTransformOp.TYPE_BILINEAR);
-			BufferedImage biOut = new BufferedImage(biWidth / 2, biHeight / 2, BufferedImage.TYPE_3BYTE_BGR);
-			op.filter(bi, biOut);
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream(biOut.getWidth() * biOut.getHeight() * 4);
-			writer.processImage(biOut, buffer);
-			g.dispose();
-			return buffer.toByteArray();
+			return new ReducedTile(workers.encode(bi), halve ? halveImage(bi) : null);
 		}
+	}
 
-		private void shrinkFrom(ZoomLevel source) {
-			try {
-				TileImageDataWriter writer = new TileImageJpegDataWriter(0.9);
-				writer.initialize();
-				writeHeader();
-				atlasProgress.initMapCreation(xTiles * yTiles);
-				for (int x = 0; x < xTiles; x++) {
-					for (int y = 0; y < yTiles; y++) {
-						checkUserAbort();
-						atlasProgress.incMapCreationProgress();
-						jpegOffsets[x][y] = rmapFile.getFilePointer();
-						byte[] tileData = getTileData(writer, source, 2 * x, 2 * y);
-						rmapFile.seek(jpegOffsets[x][y]);
-						log.trace(String.format("Writing shrunken jpeg (%d,%d,%d) at offset %d", index, x, y,
-								jpegOffsets[x][y]));
-						rmapFile.writeIntI(7);
-						rmapFile.writeIntI(tileData.length);
-						rmapFile.write(tileData);
-						tileData = null;
-					}
-				}
-			} catch (Exception e) {
-				log.error("Failed generating ZoomLevel " + index + ": " + e.getMessage());
+	private static int[] getPixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	private static void copyPixels(BufferedImage src, int[] dest, int destWidth, int xOffset, int yOffset) {
+		int[] srcPixels = getPixels(src);
+		int width = Math.min(src.getWidth(), destWidth - xOffset);
+		for (int y = 0; y < src.getHeight(); y++) {
+			System.arraycopy(srcPixels, y * src.getWidth(), dest, (yOffset + y) * destWidth + xOffset, width);
+		}
+	}
+
+	/**
+	 * Reduces the image to half of its size by averaging 2x2 pixel blocks.
+	 * 
+	 * @return {@link BufferedImage#TYPE_INT_RGB} image
+	 */
+	private static BufferedImage halveImage(BufferedImage image) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int[] src = image.getRGB(0, 0, w, h, null, 0, w);
+		int halfWidth = Math.max(1, w / 2);
+		int halfHeight = Math.max(1, h / 2);
+		BufferedImage half = new BufferedImage(halfWidth, halfHeight, BufferedImage.TYPE_INT_RGB);
+		int[] dest = getPixels(half);
+		for (int y = 0; y < halfHeight; y++) {
+			int row0 = Math.min(2 * y, h - 1) * w;
+			int row1 = Math.min(2 * y + 1, h - 1) * w;
+			int destRow = y * halfWidth;
+			for (int x = 0; x < halfWidth; x++) {
+				int x0 = Math.min(2 * x, w - 1);
+				int x1 = Math.min(2 * x + 1, w - 1);
+				int p00 = src[row0 + x0];
+				int p01 = src[row0 + x1];
+				int p10 = src[row1 + x0];
+				int p11 = src[row1 + x1];
+				// red and blue are averaged in one step
+				int rb = (p00 & 0xff00ff) + (p01 & 0xff00ff) + (p10 & 0xff00ff) + (p11 & 0xff00ff) + 0x020002;
+				int g = (p00 & 0x00ff00) + (p01 & 0x00ff00) + (p10 & 0x00ff00) + (p11 & 0x00ff00) + 0x000200;
+				dest[destRow + x] = ((rb >>> 2) & 0xff00ff) | ((g >>> 2) & 0x00ff00);
 			}
 		}
+		return half;
 	}
 
-	private class RmapFile extends RandomAccessFile {
+	/**
+	 * RMAP file writer. All data is appended through a little endian buffer, already written parts of the file can be
+	 * updated by {@link #patch(long, ByteBuffer)}.
+	 */
+	private class RmapFile {
+
+		private static final int BUFFER_SIZE = 256 * 1024;
+
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private long position = 0;
 
 		private String name = "";
 		private int width = 0;
@@ -196,71 +413,130 @@ public class TwoNavRMAP extends AtlasCreator {
 		private long mapDataOffset = 0;
 		private ZoomLevel zoomLevels[] = null;
 
-		private RmapFile(File file) throws FileNotFoundException {
-			super(file, "rw");
+		private RmapFile(File file) throws IOException {
+			this.file = new RandomAccessFile(file, "rw");
+			this.file.setLength(0);
+			this.channel = this.file.getChannel();
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
 			this.name = file.getName();
 		}
 
-		private int readIntI() throws IOException {
-			int ch1 = this.read();
-			int ch2 = this.read();
-			int ch3 = this.read();
-			int ch4 = this.read();
-			if ((ch1 | ch2 | ch3 | ch4) < 0) {
-				throw new IOException();
-			}
-			return ((ch4 << 24) + (ch3 << 16) + (ch2 << 8) + (ch1 << 0));
+		private long getFilePointer() {
+			return position;
 		}
 
 		private void writeIntI(int i) throws IOException {
-			write((i >>> 0) & 0xFF);
-			write((i >>> 8) & 0xFF);
-			write((i >>> 16) & 0xFF);
-			write((i >>> 24) & 0xFF);
+			if (buffer.remaining() < 4) {
+				flush();
+			}
+			buffer.putInt(i);
+			position += 4;
 		}
 
 		private void writeLongI(long l) throws IOException {
-			write((int) (l >>> 0) & 0xFF);
-			write((int) (l >>> 8) & 0xFF);
-			write((int) (l >>> 16) & 0xFF);
-			write((int) (l >>> 24) & 0xFF);
-			write((int) (l >>> 32) & 0xFF);
-			write((int) (l >>> 40) & 0xFF);
-			write((int) (l >>> 48) & 0xFF);
-			write((int) (l >>> 56) & 0xFF);
+			if (buffer.remaining() < 8) {
+				flush();
+			}
+			buffer.putLong(l);
+			position += 8;
+		}
+
+		private void write(byte[] data) throws IOException {
+			write(ByteBuffer.wrap(data));
+		}
+
+		private void write(ByteBuffer data) throws IOException {
+			int length = data.remaining();
+			if (length > buffer.remaining()) {
+				flush();
+				if (length > buffer.capacity()) {
+					while (data.hasRemaining()) {
+						channel.write(data);
+					}
+					position += length;
+					return;
+				}
+			}
+			buffer.put(data);
+			position += length;
+		}
+
+		/**
+		 * Overwrites already written data starting at <code>offset</code>.
+		 */
+		private void patch(long offset, ByteBuffer data) throws IOException {
+			flush();
+			while (data.hasRemaining()) {
+				offset += channel.write(data, offset);
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				Utilities.closeFile(file);
+			}
+		}
+
+		private void discard() throws IOException {
+			buffer.clear();
+			try {
+				file.setLength(0);
+			} finally {
+				Utilities.closeFile(file);
+			}
 		}
 
+		/**
+		 * Writes the file header. The first call has to be made before anything else is written to the file,
+		 * subsequent calls update the header in place.
+		 */
 		private void writeHeader() throws IOException {
 			log.trace("Writing rmap header");
 			if (zoomLevels == null) {
 				throw new IOException("zoomLevels == null");
 			}
-			seek(0);
-			write("CompeGPSRasterImage".getBytes());
-			writeIntI(10);
-			writeIntI(7);
-			writeIntI(0);
-			writeIntI(width);
-			writeIntI(-height);
-			writeIntI(24);
-			writeIntI(1);
-			writeIntI(tileWidth);
-			writeIntI(tileHeight);
-			writeLongI(mapDataOffset);
-			writeIntI(0);
-			writeIntI(zoomLevels.length);
+			byte[] magic = "CompeGPSRasterImage".getBytes();
+			ByteBuffer header = ByteBuffer.allocate(magic.length + 9 * 4 + 8 + 4 + 4 + 8 * zoomLevels.length);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.put(magic);
+			header.putInt(10);
+			header.putInt(7);
+			header.putInt(0);
+			header.putInt(width);
+			header.putInt(-height);
+			header.putInt(24);
+			header.putInt(1);
+			header.putInt(tileWidth);
+			header.putInt(tileHeight);
+			header.putLong(mapDataOffset);
+			header.putInt(0);
+			header.putInt(zoomLevels.length);
 			for (int n = 0; n < zoomLevels.length; n++) {
-				writeLongI(zoomLevels[n].offset);
+				header.putLong(zoomLevels[n].offset);
+			}
+			header.flip();
+			if (position == 0) {
+				write(header);
+			} else {
+				patch(0, header);
 			}
 		}
 
 		private void writeMapInfo() throws IOException {
 			if (mapDataOffset == 0) {
 				mapDataOffset = getFilePointer();
-			} else {
-				seek(mapDataOffset);
 			}
-			log.trace("Writing MAP data at offset %d" + mapDataOffset);
+			log.trace("Writing MAP data at offset " + mapDataOffset);
 			StringBuffer sbMap = new StringBuffer();
 			sbMap.append("CompeGPS MAP File\r\n");
 			sbMap.append("<Header>\r\n");
@@ -294,9 +570,17 @@ public class TwoNavRMAP extends AtlasCreator {
 			sbMap.append(String.format(polyLine, 2, width, height));
 			sbMap.append(String.format(polyLine, 3, 0, height));
 			sbMap.append("</MainPolygonBitmap>\r\n");
-			writeIntI(1);
-			writeIntI(sbMap.length());
-			write(sbMap.toString().getBytes());
+			byte[] mapInfo = sbMap.toString().getBytes();
+			ByteBuffer data = ByteBuffer.allocate(8 + mapInfo.length).order(ByteOrder.LITTLE_ENDIAN);
+			data.putInt(1);
+			data.putInt(mapInfo.length);
+			data.put(mapInfo);
+			data.flip();
+			if (mapDataOffset == getFilePointer()) {
+				write(data);
+			} else {
+				patch(mapDataOffset, data);
+			}
 		}
 	}
 
@@ -451,17 +735,27 @@ public class TwoNavRMAP extends AtlasCreator {
 			if (index == rmapFile.zoomLevels.length) {
 				throw new MapCreationException("Map not found in the zoomLevels list", map);
 			}
+			ZoomLevel level = rmapFile.zoomLevels[index];
+			ZoomLevel generatedLevel = level.getGeneratedLevel();
+			int tileCount = (xMax - xMin + 1) * (yMax - yMin + 1);
 			try {
-				rmapFile.zoomLevels[index].writeHeader();
+				level.writeHeader();
+				for (ZoomLevel l = generatedLevel; l != null; l = l.getGeneratedLevel()) {
+					l.writeHeader();
+					tileCount += l.xTiles * l.yTiles;
+				}
 			} catch (IOException e) {
 				throw new MapCreationException("rmapFile.zoomLevels[Index].writeHeader() failed: " + e.getMessage(),
 						map, e);
 			}
+			if (generatedLevel != null) {
+				startWorkers();
+			}
 
 			int tilex = 0;
 			int tiley = 0;
 
-			atlasProgress.initMapCreation((xMax - xMin + 1) * (yMax - yMin + 1));
+			atlasProgress.initMapCreation(tileCount);
 
 			if ((map.getMapSource().getTileImageType() != TileImageType.JPG) || (map.getParameters() != null)) {
 				// Tiles have to be converted to jpeg format
@@ -473,47 +767,103 @@ public class TwoNavRMAP extends AtlasCreator {
 
 			ImageIO.setUseCache(false);
 			byte[] emptyTileData = Utilities.createEmptyTileData(mapSource);
+			// Wait for the generated tiles if more than this number is pending
+			int maxPendingTiles = 2 * level.yTiles + 4 * threadCount;
 			for (int x = xMin; x <= xMax; x++) {
 				tiley = 0;
+				List<Future<ReducedTile>> column = (generatedLevel != null) ? newColumn(level.yTiles) : null;
 				for (int y = yMin; y <= yMax; y++) {
 					checkUserAbort();
 					atlasProgress.incMapCreationProgress();
 					try {
-						// Remember offset to tile
-						rmapFile.zoomLevels[index].jpegOffsets[tilex][tiley] = rmapFile.getFilePointer();
 						byte[] sourceTileData = mapDlTileProvider.getTileData(x, y);
-						if (sourceTileData != null) {
-							rmapFile.writeIntI(7);
-							rmapFile.writeIntI(sourceTileData.length);
-							rmapFile.write(sourceTileData);
-						} else {
+						if (sourceTileData == null) {
 							log.trace(String.format("Tile x=%d y=%d not found in tile archive - creating default",
 									tilex, tiley));
-							rmapFile.writeIntI(7);
-							rmapFile.writeIntI(emptyTileData.length);
-							rmapFile.write(emptyTileData);
+							sourceTileData = emptyTileData;
+						}
+						level.writeTile(tilex, tiley, sourceTileData);
+						if ((column != null) && (tiley < column.size())) {
+							column.set(tiley, workers.submit(new DecodeTask(sourceTileData)));
 						}
 					} catch (IOException e) {
 						throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
 					}
 					tiley++;
 				}
+				if (column != null) {
+					generatedLevel.addSourceColumn(tilex, column);
+					writePendingTiles(maxPendingTiles);
+				}
 				tilex++;
 			}
+			if (generatedLevel != null) {
+				generatedLevel.flushColumns();
+				writePendingTiles(0);
+			}
 
 		} catch (MapCreationException e) {
 			throw e;
+		} catch (InterruptedException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new MapCreationException(map, e);
 		}
 	}
 
+	private void startWorkers() {
+		if (workers != null) {
+			return;
+		}
+		threadCount = TileWorkerPool.getConfiguredThreadCount();
+		workers = new TileWorkerPool(new TileImageJpegDataWriter(0.9), threadCount,
+				DelayedInterruptThread.createThreadFactory());
+	}
+
+	private void stopWorkers() {
+		if (workers == null) {
+			return;
+		}
+		workers.shutdown();
+		workers = null;
+		pendingTiles.clear();
+	}
+
+	/**
+	 * Writes generated tiles (in the order they have been submitted) until no more than <code>maxPending</code>
+	 * tiles are pending.
+	 */
+	private void writePendingTiles(int maxPending) throws IOException, InterruptedException {
+		while (pendingTiles.size() > maxPending) {
+			checkUserAbort();
+			PendingTile tile = pendingTiles.removeFirst();
+			ReducedTile result;
+			try {
+				result = tile.result.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof InterruptedException) {
+					throw (InterruptedException) cause;
+				}
+				throw new IOException("Failed generating ZoomLevel " + tile.level.index + ": " + cause.getMessage(),
+						cause);
+			}
+			log.trace(String.format("Writing shrunken jpeg (%d,%d,%d) at offset %d", tile.level.index, tile.x,
+					tile.y, rmapFile.getFilePointer()));
+			tile.level.writeTile(tile.x, tile.y, result.tileData);
+			atlasProgress.incMapCreationProgress();
+		}
+	}
+
 	@Override
 	public void abortAtlasCreation() throws IOException {
-		try {
-			rmapFile.setLength(0);
-		} finally {
-			Utilities.closeFile(rmapFile);
+		stopWorkers();
+		if (rmapFile != null) {
+			try {
+				rmapFile.discard();
+			} finally {
+				rmapFile = null;
+			}
 		}
 		super.abortAtlasCreation();
 	}
@@ -526,19 +876,21 @@ public class TwoNavRMAP extends AtlasCreator {
 					if (n == 0) {
 						throw new IOException("Missing top level map");
 					}
-					rmapFile.zoomLevels[n].shrinkFrom(rmapFile.zoomLevels[n - 1]);
+					log.error("ZoomLevel " + n + " has not been generated");
 				}
 			}
 			rmapFile.writeMapInfo();
-			rmapFile.writeHeader();
 			for (int n = 0; n < rmapFile.zoomLevels.length; n++) {
 				rmapFile.zoomLevels[n].writeHeader();
 			}
+			rmapFile.writeHeader();
 			rmapFile.close();
 		} catch (IOException e) {
 			log.error("Failed writing rmap file \"" + rmapFile.name + "\": " + e.getMessage(), e);
 			abortAtlasCreation();
 			throw e;
+		} finally {
+			stopWorkers();
 		}
 		rmapFile = null;
 		super.finishLayerCreation();
@@ -21,7 +21,6 @@ import java.io.File;
 import osmcd.exceptions.AtlasTestException;
 import osmcd.program.annotations.AtlasCreatorName;
 import osmcd.program.annotations.SupportedParameters;
-import osmcd.program.atlascreators.tileprovider.ConvertedRawTileProvider;
 import osmcd.program.atlascreators.tileprovider.PngTileProvider;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.LayerInterface;
@@ -64,10 +63,9 @@ public class Viewranger extends OSMTracker {
 		super.initializeMap(map, mapTileProvider);
 		mapDir = new File(atlasDir, map.getLayer().getName());
 		tileType = "";
+		// With parameters the tiles have already been wrapped into a ConvertedRawTileProvider by OSMTracker
 		if (parameters == null)
 			mapDlTileProvider = new PngTileProvider(mapDlTileProvider);
-		else
-			mapDlTileProvider = new ConvertedRawTileProvider(mapDlTileProvider, parameters.getFormat());
 	}
 
 }
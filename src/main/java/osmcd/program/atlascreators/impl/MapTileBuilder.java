@@ -20,18 +20,26 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
 
 import org.apache.log4j.Logger;
 
 import osmcd.exceptions.MapCreationException;
+import osmcd.gui.AtlasProgress;
+import osmcd.gui.AtlasProgress.MapProgress;
 import osmcd.program.atlascreators.AtlasCreator;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.TileImageDataWriter;
 import osmcd.program.model.TileImageParameters;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 import osmcd.utilities.MyMath;
 
 public class MapTileBuilder {
@@ -131,11 +139,6 @@ public class MapTileBuilder {
 	}
 
 	public void createTiles() throws MapCreationException, InterruptedException {
-
-		// Absolute positions
-		int xAbsPos = xStart;
-		int yAbsPos = yStart;
-
 		log.trace("tile size: " + realWidth + " * " + realHeight);
 		log.trace("X: from " + xStart + " to " + xEnd);
 		log.trace("Y: from " + yStart + " to " + yEnd);
@@ -143,6 +146,27 @@ public class MapTileBuilder {
 		// We don't work with large images, therefore we can disable the (file)
 		// cache of ImageIO. This will speed up the creation process a bit
 		ImageIO.setUseCache(false);
+
+		int threadCount = TileWorkerPool.getConfiguredThreadCount();
+
+		long start = System.currentTimeMillis();
+		if (threadCount > 1 && customTileCount > 1)
+			createTilesParallel(threadCount);
+		else
+			createTilesSequential();
+		long duration = Math.max(1, System.currentTimeMillis() - start);
+		log.info(String.format("Created %d custom tiles in %.1f seconds (%.1f tiles/s, %d thread(s))",
+				customTileCount, duration / 1000.0, customTileCount * 1000.0 / duration, threadCount));
+	}
+
+	/**
+	 * Paints, encodes and writes all custom tiles one after another on the calling thread.
+	 */
+	protected void createTilesSequential() throws MapCreationException, InterruptedException {
+		// Absolute positions
+		int xAbsPos = xStart;
+		int yAbsPos = yStart;
+
 		ByteArrayOutputStream buf = new ByteArrayOutputStream(32768);
 		tileImageDataWriter.initialize();
 		int currentTileHeight = realHeight;
@@ -159,7 +183,7 @@ public class MapTileBuilder {
 					if (useRealTileSize)
 						currentTileWidth = Math.min(realWidth, xEnd - xAbsPos + 1);
 					atlasCreator.checkUserAbort();
-					atlasCreator.getAtlasProgress().incMapCreationProgress();
+					incMapCreationProgress();
 					BufferedImage tileImage = new BufferedImage(currentTileWidth, currentTileHeight,
 							BufferedImage.TYPE_3BYTE_BGR);
 					buf.reset();
@@ -185,6 +209,81 @@ public class MapTileBuilder {
 		}
 	}
 
+	/**
+	 * Paints and encodes the custom tiles concurrently on <code>threadCount</code> worker threads. Each worker uses its
+	 * own {@link TileImageDataWriter} instance. The encoded tiles are handed over to the {@link MapTileWriter} on the
+	 * calling thread in the same order as in {@link #createTilesSequential()} (row by row). The number of encoded tiles
+	 * waiting to be written is limited to <code>2 * threadCount</code>.
+	 */
+	protected void createTilesParallel(int threadCount) throws MapCreationException, InterruptedException {
+		log.debug("Creating " + customTileCount + " custom tiles using " + threadCount + " threads");
+		TileWorkerPool workers = new TileWorkerPool(tileImageDataWriter, threadCount, new WorkerThreadFactory());
+		LinkedList<CustomTileJob> pendingJobs = new LinkedList<CustomTileJob>();
+		int maxPendingJobs = 2 * threadCount;
+		int currentTileHeight = realHeight;
+		int currentTileWidth = realWidth;
+		try {
+			String tileType = tileImageDataWriter.getType().getFileExt();
+			int tiley = 0;
+			int yAbsPos = yStart;
+			while (yAbsPos < yEnd) {
+				int tilex = 0;
+				int xAbsPos = xStart;
+				if (useRealTileSize)
+					currentTileHeight = Math.min(realHeight, yEnd - yAbsPos + 1);
+				while (xAbsPos < xEnd) {
+					if (useRealTileSize)
+						currentTileWidth = Math.min(realWidth, xEnd - xAbsPos + 1);
+					atlasCreator.checkUserAbort();
+					CustomTileJob job = new CustomTileJob(workers, tilex, tiley, xAbsPos, yAbsPos, currentTileWidth,
+							currentTileHeight);
+					job.result = workers.submit(job);
+					pendingJobs.add(job);
+					if (pendingJobs.size() >= maxPendingJobs)
+						writeCustomTile(pendingJobs.removeFirst(), tileType);
+
+					tilex++;
+					xAbsPos += realWidth;
+				}
+				tiley++;
+				yAbsPos += realHeight;
+			}
+			while (!pendingJobs.isEmpty()) {
+				atlasCreator.checkUserAbort();
+				writeCustomTile(pendingJobs.removeFirst(), tileType);
+			}
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	private void writeCustomTile(CustomTileJob job, String tileType) throws MapCreationException,
+			InterruptedException {
+		byte[] tileData;
+		try {
+			tileData = job.result.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw new MapCreationException("Error creating tile image: " + cause.getMessage(), map, cause);
+		}
+		incMapCreationProgress();
+		try {
+			mapTileWriter.writeTile(job.tilex, job.tiley, tileType, tileData);
+		} catch (IOException e) {
+			throw new MapCreationException("Error writing tile image: " + e.getMessage(), map, e);
+		}
+	}
+
+	/**
+	 * Updates the progress display - if any. Tiles may be created without an {@link AtlasProgress} window (e.g. by the
+	 * benchmarks).
+	 */
+	private void incMapCreationProgress() {
+		MapProgress atlasProgress = atlasCreator.getAtlasProgress();
+		if (atlasProgress != null)
+			atlasProgress.incMapCreationProgress();
+	}
+
 	protected void prepareTile(Graphics2D graphics) {
 		graphics.setColor(mapSource.getBackgroundColor());
 		graphics.fillRect(0, 0, realWidth, realHeight);
@@ -236,23 +335,78 @@ public class MapTileBuilder {
 	private int cachePos = 0;
 
 	private BufferedImage loadOriginalMapTile(int xTile, int yTile) throws Exception {
-		for (CachedTile ct : cache) {
-			if (ct == null)
-				continue;
-			if (ct.xTile == xTile && ct.yTile == yTile) {
-				// log.trace("cache hit");
-				return ct.image;
+		synchronized (cache) {
+			for (CachedTile ct : cache) {
+				if (ct == null)
+					continue;
+				if (ct.xTile == xTile && ct.yTile == yTile) {
+					// log.trace("cache hit");
+					return ct.image;
+				}
 			}
 		}
 		// log.trace("cache miss");
 		BufferedImage image = mapDlTileProvider.getTileImage(xTile, yTile);
 		if (image == null)
 			return null;
-		cache[cachePos] = new CachedTile(image, xTile, yTile);
-		cachePos = (cachePos + 1) % cache.length;
+		synchronized (cache) {
+			cache[cachePos] = new CachedTile(image, xTile, yTile);
+			cachePos = (cachePos + 1) % cache.length;
+		}
 		return image;
 	}
 
+	/**
+	 * Paints and encodes one custom tile on a worker thread.
+	 */
+	private class CustomTileJob implements Callable<byte[]> {
+
+		final TileWorkerPool workers;
+		final int tilex;
+		final int tiley;
+		final int xAbsPos;
+		final int yAbsPos;
+		final int width;
+		final int height;
+
+		Future<byte[]> result;
+
+		public CustomTileJob(TileWorkerPool workers, int tilex, int tiley, int xAbsPos, int yAbsPos, int width,
+				int height) {
+			this.workers = workers;
+			this.tilex = tilex;
+			this.tiley = tiley;
+			this.xAbsPos = xAbsPos;
+			this.yAbsPos = yAbsPos;
+			this.width = width;
+			this.height = height;
+		}
+
+		public byte[] call() throws Exception {
+			BufferedImage tileImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+			Graphics2D graphics = tileImage.createGraphics();
+			try {
+				prepareTile(graphics);
+				paintCustomTile(graphics, xAbsPos, yAbsPos);
+			} finally {
+				graphics.dispose();
+			}
+			return workers.encode(tileImage);
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private int threadNum = 1;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new DelayedInterruptThread(r, "MapTileBuilder worker " + (threadNum++));
+			t.setDaemon(true);
+			return t;
+		}
+
+	}
+
 	private static class CachedTile {
 		BufferedImage image;
 		int xTile;
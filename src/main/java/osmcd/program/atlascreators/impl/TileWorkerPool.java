@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.atlascreators.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.interfaces.TileImageDataWriter;
+import osmcd.program.model.Settings;
+
+/**
+ * Fixed number of worker threads for painting and encoding tiles concurrently. An initialized
+ * {@link TileImageDataWriter} is not thread-safe, therefore the pool holds one writer per thread. A task borrows a
+ * writer via {@link #takeWriter()} and hands it back via {@link #returnWriter(TileImageDataWriter)} or simply uses
+ * {@link #encode(BufferedImage)}.
+ */
+public class TileWorkerPool {
+
+	private static final Logger log = Logger.getLogger(TileWorkerPool.class);
+
+	private final int threadCount;
+	private final BlockingQueue<TileImageDataWriter> writers;
+	private final ExecutorService executor;
+
+	/**
+	 * @return number of threads configured via {@link Settings#customTileProcessingThreads} or the number of
+	 *         available processors if not configured
+	 */
+	public static int getConfiguredThreadCount() {
+		int threadCount = Settings.getInstance().customTileProcessingThreads;
+		if (threadCount <= 0)
+			threadCount = Runtime.getRuntime().availableProcessors();
+		return threadCount;
+	}
+
+	/**
+	 * 
+	 * @param writer
+	 *            template the writers of the worker threads are duplicated from
+	 * @param threadCount
+	 * @param threadFactory
+	 */
+	public TileWorkerPool(TileImageDataWriter writer, int threadCount, ThreadFactory threadFactory) {
+		this.threadCount = threadCount;
+		writers = new ArrayBlockingQueue<TileImageDataWriter>(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			TileImageDataWriter w = writer.duplicate();
+			w.initialize();
+			writers.add(w);
+		}
+		executor = Executors.newFixedThreadPool(threadCount, threadFactory);
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Blocks until a writer is available. The writer has to be handed back via
+	 * {@link #returnWriter(TileImageDataWriter)}.
+	 */
+	public TileImageDataWriter takeWriter() throws InterruptedException {
+		return writers.take();
+	}
+
+	public void returnWriter(TileImageDataWriter writer) {
+		writers.add(writer);
+	}
+
+	/**
+	 * Encodes the image using one of the pool's writers.
+	 * 
+	 * @param image
+	 * @return encoded image data
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public byte[] encode(BufferedImage image) throws IOException, InterruptedException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(32768);
+		TileImageDataWriter writer = takeWriter();
+		try {
+			writer.processImage(image, buf);
+		} finally {
+			returnWriter(writer);
+		}
+		return buf.toByteArray();
+	}
+
+	/**
+	 * Interrupts the worker threads and waits for their termination. The writers are only disposed if all workers
+	 * have terminated - otherwise a worker may still be using one.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		boolean terminated = false;
+		try {
+			terminated = executor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!terminated) {
+			log.warn("Tile worker threads did not terminate - writers are not disposed");
+			return;
+		}
+		for (TileImageDataWriter writer : writers)
+			writer.dispose();
+		writers.clear();
+	}
+
+}
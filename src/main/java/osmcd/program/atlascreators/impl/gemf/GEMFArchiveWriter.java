@@ -0,0 +1,441 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.atlascreators.impl.gemf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import osmcd.utilities.Utilities;
+
+/**
+ * Writes a GEMF archive while the tiles are created.
+ * 
+ * Reference about GEMF format: https://sites.google.com/site/abudden/android-map-store
+ * <p>
+ * The tile data is appended to temporary data segments in the order the tiles are added. Only a compact index (tile
+ * key, data offset and length in primitive arrays) is kept in memory. On {@link #close()} the ranges are computed from
+ * the index, the header and index are written to the archive file and the data segments are attached: the first
+ * segment is appended to the archive file, all further segments are renamed to the additional archive files (
+ * <code>test.gemf-1</code>, <code>test.gemf-2</code>, ...). A tile never spans two archive files.
+ * </p>
+ * <p>
+ * A tile that is added a second time (e.g. by overlapping maps of the same map source and zoom level) is ignored.
+ * </p>
+ * 
+ * Based on the GEMFFile.java class of osmdroid by A. S. Budden and Erik Burrows.
+ */
+public class GEMFArchiveWriter {
+
+	private static final Logger log = Logger.getLogger(GEMFArchiveWriter.class);
+
+	public static final long DEFAULT_FILE_SIZE_LIMIT = 1 * 1024 * 1024 * 1024; // 1GB
+
+	private static final int VERSION = 4;
+	private static final int TILE_SIZE = 256;
+
+	private static final int U32_SIZE = 4;
+	private static final int U64_SIZE = 8;
+
+	private static final int SEGMENT_BUFFER_SIZE = 65536;
+
+	/*
+	 * Layout of the tile key (from the most significant bit): 8 bit source index, 5 bit zoom, 25 bit x, 25 bit y. The
+	 * natural order of the keys is therefore source, zoom, x, y.
+	 */
+	private static final int COORD_BITS = 25;
+	private static final int ZOOM_BITS = 5;
+	private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+	private static final int ZOOM_MASK = (1 << ZOOM_BITS) - 1;
+	private static final int MAX_SOURCES = 1 << (63 - ZOOM_BITS - 2 * COORD_BITS);
+
+	private final File gemfFile;
+	private final long fileSizeLimit;
+
+	private final Map<String, Integer> sources = new LinkedHashMap<String, Integer>();
+	private final TileIndex index = new TileIndex();
+
+	private final List<File> segments = new ArrayList<File>();
+	private OutputStream segmentOut = null;
+	private long segmentSize = 0;
+	private long dataSize = 0;
+
+	private boolean closed = false;
+
+	public GEMFArchiveWriter(File gemfFile) {
+		this(gemfFile, DEFAULT_FILE_SIZE_LIMIT);
+	}
+
+	/**
+	 * @param gemfFile
+	 *            the (first) archive file
+	 * @param fileSizeLimit
+	 *            maximum data size of each archive file
+	 */
+	public GEMFArchiveWriter(File gemfFile, long fileSizeLimit) {
+		this.gemfFile = gemfFile;
+		this.fileSizeLimit = fileSizeLimit;
+	}
+
+	/**
+	 * Appends the tile data to the archive.
+	 * 
+	 * @param source
+	 *            name of the source (map source) the tile belongs to
+	 * @param zoom
+	 * @param x
+	 * @param y
+	 * @param tileData
+	 *            encoded tile image
+	 * @return <code>false</code> if the archive already contains the tile
+	 * @throws IOException
+	 */
+	public synchronized boolean addTile(String source, int zoom, int x, int y, byte[] tileData) throws IOException {
+		if (closed)
+			throw new IllegalStateException("GEMF archive has already been closed");
+		long key = tileKey(getSourceIndex(source), zoom, x, y);
+		if (index.find(key) >= 0)
+			return false;
+		if (segmentOut == null || (segmentSize > 0 && segmentSize + tileData.length > fileSizeLimit))
+			startSegment();
+		segmentOut.write(tileData);
+		index.add(key, dataSize, tileData.length);
+		segmentSize += tileData.length;
+		dataSize += tileData.length;
+		return true;
+	}
+
+	public synchronized int getTileCount() {
+		return index.size;
+	}
+
+	/**
+	 * Writes header and index and completes the archive file(s).
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		closeSegment();
+
+		List<GEMFRange> ranges = buildRanges();
+
+		// Calculate size of header for computation of data offsets
+		long sourceListSize = 0;
+		for (String source : sources.keySet())
+			sourceListSize += U32_SIZE + U32_SIZE + source.getBytes("UTF-8").length;
+		long offset = U32_SIZE + // GEMF Version
+				U32_SIZE + // Tile size
+				U32_SIZE + // Number of sources
+				sourceListSize + //
+				U32_SIZE + // Number of ranges
+				ranges.size() * (long) ((U32_SIZE * 6) + U64_SIZE);
+
+		// Calculate offset for each range in the data set
+		for (GEMFRange range : ranges) {
+			range.offset = offset;
+			offset += range.getTileCount() * (long) (U32_SIZE + U64_SIZE);
+		}
+		final long headerSize = offset;
+
+		FileOutputStream fileOut = new FileOutputStream(gemfFile);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, SEGMENT_BUFFER_SIZE));
+			out.writeInt(VERSION);
+			out.writeInt(TILE_SIZE);
+
+			// Write source list
+			out.writeInt(sources.size());
+			for (Map.Entry<String, Integer> source : sources.entrySet()) {
+				byte[] name = source.getKey().getBytes("UTF-8");
+				out.writeInt(source.getValue());
+				out.writeInt(name.length);
+				out.write(name);
+			}
+
+			// Write range objects
+			out.writeInt(ranges.size());
+			for (GEMFRange range : ranges) {
+				out.writeInt(range.zoom);
+				out.writeInt(range.xMin);
+				out.writeInt(range.xMax);
+				out.writeInt(range.yMin);
+				out.writeInt(range.yMax);
+				out.writeInt(range.sourceIndex);
+				out.writeLong(range.offset);
+			}
+
+			// Write file offset list
+			for (GEMFRange range : ranges) {
+				for (int x = range.xMin; x <= range.xMax; x++) {
+					for (int y = range.yMin; y <= range.yMax; y++) {
+						int entry = index.find(tileKey(range.sourceIndex, range.zoom, x, y));
+						out.writeLong(headerSize + index.offsets[entry]);
+						out.writeInt(index.lengths[entry]);
+					}
+				}
+			}
+			out.flush();
+			if (out.size() != headerSize)
+				throw new IOException("Invalid GEMF header size: " + out.size() + " expected: " + headerSize);
+
+			// Attach the tile data
+			if (segments.size() > 0)
+				appendFile(fileOut.getChannel(), segments.get(0));
+		} finally {
+			Utilities.closeStream(fileOut);
+		}
+		for (int i = 1; i < segments.size(); i++) {
+			File archiveFile = new File(gemfFile.getPath() + "-" + i);
+			if (archiveFile.exists() && !archiveFile.delete())
+				throw new IOException("Unable to delete existing file " + archiveFile);
+			if (!segments.get(i).renameTo(archiveFile))
+				throw new IOException("Unable to rename " + segments.get(i) + " to " + archiveFile);
+		}
+		if (segments.size() > 0)
+			segments.get(0).delete();
+		log.debug(String.format("GEMF archive %s: %d tiles, %d ranges, %d file(s)", gemfFile.getName(), index.size,
+				ranges.size(), Math.max(1, segments.size())));
+	}
+
+	/**
+	 * Discards the archive including all temporary data.
+	 */
+	public synchronized void abort() {
+		closed = true;
+		Utilities.closeStream(segmentOut);
+		segmentOut = null;
+		for (File segment : segments)
+			segment.delete();
+		gemfFile.delete();
+	}
+
+	private int getSourceIndex(String source) {
+		Integer sourceIndex = sources.get(source);
+		if (sourceIndex == null) {
+			if (sources.size() >= MAX_SOURCES)
+				throw new IllegalArgumentException("Too many sources for GEMF archive");
+			sourceIndex = sources.size();
+			sources.put(source, sourceIndex);
+		}
+		return sourceIndex;
+	}
+
+	private void startSegment() throws IOException {
+		closeSegment();
+		File segment = new File(gemfFile.getPath() + ".data" + segments.size() + ".tmp");
+		segments.add(segment);
+		segmentOut = new BufferedOutputStream(new FileOutputStream(segment), SEGMENT_BUFFER_SIZE);
+		segmentSize = 0;
+	}
+
+	private void closeSegment() throws IOException {
+		if (segmentOut == null)
+			return;
+		try {
+			segmentOut.close();
+		} finally {
+			segmentOut = null;
+		}
+	}
+
+	private static void appendFile(FileChannel out, File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel inChannel = in.getChannel();
+			long size = inChannel.size();
+			long pos = 0;
+			while (pos < size)
+				pos += inChannel.transferTo(pos, size - pos, out);
+		} finally {
+			Utilities.closeStream(in);
+		}
+	}
+
+	/**
+	 * Builds the ranges from the sorted tile keys. Each column (source, zoom, x) is split into runs of contiguous y
+	 * values. A run is added to the range of the previous column if that range covers exactly the same y values,
+	 * otherwise a new range is started. Therefore the ranges cover exactly the tiles in the archive.
+	 */
+	protected List<GEMFRange> buildRanges() {
+		long[] keys = index.getSortedKeys();
+		List<GEMFRange> ranges = new ArrayList<GEMFRange>();
+		// The ranges ending in the previous column, ordered by y
+		List<GEMFRange> previousColumn = new ArrayList<GEMFRange>();
+		List<GEMFRange> currentColumn = new ArrayList<GEMFRange>();
+		int i = 0;
+		while (i < keys.length) {
+			long column = keys[i] >>> COORD_BITS;
+			int x = (int) (column & COORD_MASK);
+			int zoom = (int) (column >>> COORD_BITS) & ZOOM_MASK;
+			int sourceIndex = (int) (column >>> (COORD_BITS + ZOOM_BITS));
+			int previousPos = 0;
+			while (i < keys.length && (keys[i] >>> COORD_BITS) == column) {
+				int yMin = (int) (keys[i++] & COORD_MASK);
+				int yMax = yMin;
+				while (i < keys.length && (keys[i] >>> COORD_BITS) == column && (keys[i] & COORD_MASK) == yMax + 1) {
+					yMax++;
+					i++;
+				}
+				while (previousPos < previousColumn.size() && previousColumn.get(previousPos).yMin < yMin)
+					previousPos++;
+				GEMFRange range = null;
+				if (previousPos < previousColumn.size()) {
+					range = previousColumn.get(previousPos);
+					if (range.yMin != yMin || range.yMax != yMax || range.xMax != x - 1 || range.zoom != zoom
+							|| range.sourceIndex != sourceIndex)
+						range = null;
+				}
+				if (range == null) {
+					range = new GEMFRange(sourceIndex, zoom, x, yMin, yMax);
+					ranges.add(range);
+				} else
+					range.xMax = x;
+				currentColumn.add(range);
+			}
+			List<GEMFRange> tmp = previousColumn;
+			previousColumn = currentColumn;
+			currentColumn = tmp;
+			currentColumn.clear();
+		}
+		return ranges;
+	}
+
+	private static long tileKey(int sourceIndex, int zoom, int x, int y) {
+		if (zoom < 0 || zoom > ZOOM_MASK || x < 0 || x > COORD_MASK || y < 0 || y > COORD_MASK)
+			throw new IllegalArgumentException(String.format("Invalid tile z=%d x=%d y=%d", zoom, x, y));
+		return ((((long) sourceIndex << ZOOM_BITS) | zoom) << (2 * COORD_BITS)) | ((long) x << COORD_BITS) | y;
+	}
+
+	/**
+	 * Represents a range of stored tiles within the archive.
+	 */
+	protected static class GEMFRange {
+		final int sourceIndex;
+		final int zoom;
+		final int xMin;
+		int xMax;
+		final int yMin;
+		final int yMax;
+		long offset;
+
+		public GEMFRange(int sourceIndex, int zoom, int x, int yMin, int yMax) {
+			this.sourceIndex = sourceIndex;
+			this.zoom = zoom;
+			this.xMin = x;
+			this.xMax = x;
+			this.yMin = yMin;
+			this.yMax = yMax;
+		}
+
+		public int getTileCount() {
+			return (xMax - xMin + 1) * (yMax - yMin + 1);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("GEMF Range: source=%d, zoom=%d, x=%d-%d, y=%d-%d, offset=0x%08X", sourceIndex, zoom,
+					xMin, xMax, yMin, yMax, offset);
+		}
+	}
+
+	/**
+	 * Tile index based on primitive arrays: key, data offset and data length of each tile plus an open addressing
+	 * hash table (linear probing) for looking up the tiles by key.
+	 */
+	private static class TileIndex {
+
+		private static final int INITIAL_CAPACITY = 1024;
+
+		long[] keys = new long[INITIAL_CAPACITY];
+		long[] offsets = new long[INITIAL_CAPACITY];
+		int[] lengths = new int[INITIAL_CAPACITY];
+		int size = 0;
+
+		/**
+		 * Entry number + 1 - <code>0</code> marks an empty slot
+		 */
+		private int[] table = new int[2 * INITIAL_CAPACITY];
+
+		/**
+		 * @return entry number or <code>-1</code> if not present
+		 */
+		public int find(long key) {
+			int mask = table.length - 1;
+			int slot = hash(key) & mask;
+			while (true) {
+				int entry = table[slot];
+				if (entry == 0)
+					return -1;
+				if (keys[entry - 1] == key)
+					return entry - 1;
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		public void add(long key, long offset, int length) {
+			if (size == keys.length) {
+				int capacity = 2 * keys.length;
+				keys = Arrays.copyOf(keys, capacity);
+				offsets = Arrays.copyOf(offsets, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+			}
+			keys[size] = key;
+			offsets[size] = offset;
+			lengths[size] = length;
+			size++;
+			if (2 * size > table.length) {
+				table = new int[2 * table.length];
+				for (int i = 0; i < size; i++)
+					insert(i);
+			} else
+				insert(size - 1);
+		}
+
+		private void insert(int entry) {
+			int mask = table.length - 1;
+			int slot = hash(keys[entry]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = entry + 1;
+		}
+
+		public long[] getSortedKeys() {
+			long[] sortedKeys = Arrays.copyOf(keys, size);
+			Arrays.sort(sortedKeys);
+			return sortedKeys;
+		}
+
+		private static int hash(long key) {
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+		}
+	}
+}
@@ -16,9 +16,9 @@
  ******************************************************************************/
 package osmcd.program.atlascreators.impl.rmp;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 
@@ -27,11 +27,14 @@ import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSpace;
+import osmcd.program.model.Settings;
 import osmcd.utilities.collections.SoftHashMap;
 
 /**
  * CalibratedImage that gets its data from a set of other CalibratedImage2
- * 
+ * <p>
+ * Sub-images may be requested concurrently by multiple threads.
+ * </p>
  */
 public class MultiImage {
 
@@ -41,6 +44,7 @@ public class MultiImage {
 	private final MapSource mapSource;
 	private final int zoom;
 	private final TileProvider tileProvider;
+	private final boolean bilinear;
 	private SoftHashMap<TileKey, OsmcbTile> cache;
 
 	public MultiImage(MapSource mapSource, TileProvider tileProvider, MapInterface map) {
@@ -48,6 +52,7 @@ public class MultiImage {
 		this.tileProvider = tileProvider;
 		this.zoom = map.getZoom();
 		this.map = map;
+		this.bilinear = Settings.getInstance().rmpBilinearResampling;
 		cache = new SoftHashMap<TileKey, OsmcbTile>(400);
 	}
 
@@ -64,31 +69,35 @@ public class MultiImage {
 		int yMin = mapSource.getMapSpace().cLatToY(-area.getNorth(), zoom) / tilesize;
 
 		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
 
-		Graphics2D graph = result.createGraphics();
 		try {
-			graph.setColor(Color.WHITE);
-			graph.fillRect(0, 0, width, height);
+			Arrays.fill(pixels, 0xFFFFFF);
 
 			for (int x = xMin; x <= xMax; x++) {
 				for (int y = yMin; y <= yMax; y++) {
-					TileKey key = new TileKey(x, y);
-					OsmcbTile image = cache.get(key);
-					if (image == null) {
-						image = new OsmcbTile(tileProvider, mapSpace, x, y, zoom);
-						cache.put(key, image);
-					}
-					image.drawSubImage(area, result);
+					OsmcbTile image = getTile(mapSpace, x, y);
+					image.drawSubImage(area, pixels, width, height, bilinear);
 				}
 			}
 		} catch (Throwable t) {
 			throw new MapCreationException(map, t);
-		} finally {
-			graph.dispose();
 		}
 		return result;
 	}
 
+	private OsmcbTile getTile(MapSpace mapSpace, int x, int y) {
+		TileKey key = new TileKey(x, y);
+		synchronized (cache) {
+			OsmcbTile image = cache.get(key);
+			if (image == null) {
+				image = new OsmcbTile(tileProvider, mapSpace, x, y, zoom);
+				cache.put(key, image);
+			}
+			return image;
+		}
+	}
+
 	protected static class TileKey {
 		int x;
 		int y;
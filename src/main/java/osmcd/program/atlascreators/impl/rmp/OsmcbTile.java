@@ -19,11 +19,12 @@ package osmcd.program.atlascreators.impl.rmp;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
 
 import org.apache.log4j.Logger;
 
+import osmcd.program.atlascreators.impl.rmp.SubImageResampler.SampleTable;
 import osmcd.program.atlascreators.tileprovider.TileProvider;
 import osmcd.program.interfaces.MapSpace;
 
@@ -31,10 +32,13 @@ import osmcd.program.interfaces.MapSpace;
 public class OsmcbTile {
 	private static final Logger log = Logger.getLogger(OsmcbTile.class);
 
+	private static final int TILE_SIZE = 256;
+
 	private final TileProvider tileProvider;
 	private final int tilex;
 	private final int tiley;
 	private BufferedImage image;
+	private int[] pixels;
 
 	private BoundingRect boundingRect;
 
@@ -57,9 +61,11 @@ public class OsmcbTile {
 	}
 
 	/**
-	 * Returns the image of the tile. Creates on if necessary
+	 * Returns the image of the tile converted to {@link BufferedImage#TYPE_INT_RGB}. Loads it if necessary. The same
+	 * tile may be requested by multiple threads rendering neighboring sub-images, therefore the image is only loaded
+	 * once.
 	 */
-	public BufferedImage getImage() {
+	public synchronized BufferedImage getImage() {
 
 		/* --- Load image if none is present --- */
 		if (image == null)
@@ -68,14 +74,38 @@ public class OsmcbTile {
 		return image;
 	}
 
+	/**
+	 * @return the RGB pixels of the tile image (256 x 256) or <code>null</code> if the tile is not available
+	 */
+	protected synchronized int[] getPixels() {
+		if (pixels == null) {
+			BufferedImage rgbImage = getImage();
+			if (rgbImage != null)
+				pixels = ((DataBufferInt) rgbImage.getRaster().getDataBuffer()).getData();
+		}
+		return pixels;
+	}
+
 	private BufferedImage loadImage() {
+		BufferedImage tileImage;
 		try {
-			image = tileProvider.getTileImage(tilex, tiley);
+			tileImage = tileProvider.getTileImage(tilex, tiley);
 		} catch (IOException e) {
 			log.error("", e);
-			image = createBlack(256, 256);
+			return createBlack(TILE_SIZE, TILE_SIZE);
 		}
-		return image;
+		if (tileImage == null)
+			return null;
+		BufferedImage rgbImage = createBlack(TILE_SIZE, TILE_SIZE);
+
+		/* --- Convert it to RGB color space --- */
+		Graphics graphics = rgbImage.createGraphics();
+		try {
+			graphics.drawImage(tileImage, 0, 0, null);
+		} finally {
+			graphics.dispose();
+		}
+		return rgbImage;
 	}
 
 	/**
@@ -91,95 +121,55 @@ public class OsmcbTile {
 		return img;
 	}
 
-	public void drawSubImage(BoundingRect dest_area, BufferedImage dest_image) {
-		BufferedImage src_image;
-		WritableRaster src_graph, dst_graph;
-		BoundingRect src_area;
-		int maxx, maxy;
-		double src_c_x, src_c_y;
-		int pix_x, pix_y;
-		BufferedImage imageBuffer;
-		Graphics graphics;
-		int[] pixel = new int[3];
+	/**
+	 * Draws the part of this tile that overlaps <code>dest_area</code> into the destination image. Source and
+	 * destination do not have exactly the same zoom level, so the source image has to be compressed or expanded to
+	 * match the destination image.
+	 * 
+	 * @param dest_area
+	 *            area covered by the destination image
+	 * @param dest_image
+	 *            destination image of type {@link BufferedImage#TYPE_INT_RGB}
+	 * @param bilinear
+	 *            <code>true</code> for bilinear interpolation, <code>false</code> for nearest neighbor sampling
+	 */
+	public void drawSubImage(BoundingRect dest_area, BufferedImage dest_image, boolean bilinear) {
+		int[] dest = ((DataBufferInt) dest_image.getRaster().getDataBuffer()).getData();
+		drawSubImage(dest_area, dest, dest_image.getWidth(), dest_image.getHeight(), bilinear);
+	}
 
+	public void drawSubImage(BoundingRect dest_area, int[] dest, int width, int height, boolean bilinear) {
 		/* --- Get the coordination rectangle of the source image --- */
-		src_area = boundingRect;
+		BoundingRect src_area = boundingRect;
 
-		/* --- Get Graphics context --- */
-		src_image = getImage();
-
-		if (src_image == null)
+		SampleTable columns = new SampleTable(dest_area.getWest(), dest_area.getEast(), width, src_area.getWest(),
+				src_area.getEast(), TILE_SIZE, bilinear);
+		if (columns.isEmpty())
+			return;
+		SampleTable rows = new SampleTable(dest_area.getNorth(), dest_area.getSouth(), height, src_area.getNorth(),
+				src_area.getSouth(), TILE_SIZE, bilinear);
+		if (rows.isEmpty())
 			return;
 
-		/* --- Convert it to RGB color space --- */
-		imageBuffer = new BufferedImage(src_image.getWidth(), src_image.getHeight(),
-				BufferedImage.TYPE_INT_RGB);
-		graphics = imageBuffer.createGraphics();
-		try {
-			graphics.drawImage(src_image, 0, 0, null);
-		} finally {
-			graphics.dispose();
-		}
-		src_graph = imageBuffer.getRaster();
-		dst_graph = dest_image.getRaster();
-
-		/*
-		 * --- Iterate over all pixels of the destination image. Unfortunately
-		 * we need this technique because source and dest do not have exactly
-		 * the same zoom level, so the source image has to be compressed or
-		 * expanded to match the destination image ---
-		 */
-		maxx = dest_image.getWidth();
-		maxy = dest_image.getHeight();
-		for (int y = 0; y < maxy; y++) {
-
-			/* --- Calculate the y-coordinate of the current line --- */
-			src_c_y = dest_area.getNorth() + (dest_area.getSouth() - dest_area.getNorth()) * y
-					/ maxy;
-
-			/* --- Calculate the pixel line of the source image --- */
-			pix_y = (int) ((src_c_y - src_area.getNorth()) * 256
-					/ (src_area.getSouth() - src_area.getNorth()) + 0.5);
-
-			/* --- Ignore line that are out of the source area --- */
-			if (pix_y < 0 || pix_y > 255)
-				continue;
-
-			// log.trace("scale factor y: " + (pix_y / (double) y));
-
-			for (int x = 0; x < maxx; x++) {
-				/* --- Calculate the x-coordinate of the current row --- */
-				src_c_x = dest_area.getWest() + (dest_area.getEast() - dest_area.getWest()) * x
-						/ maxx;
-
-				/* --- Calculate the pixel row of the source image --- */
-				pix_x = (int) ((src_c_x - src_area.getWest()) * 256
-						/ (src_area.getEast() - src_area.getWest()) + 0.5);
-
-				/* --- Ignore the row if it is outside the source area --- */
-				if (pix_x < 0 || pix_x > 255)
-					continue;
-
-				/* --- Transfer the pixel --- */
-				src_graph.getPixel(pix_x, pix_y, pixel);
-				dst_graph.setPixel(x, y, pixel);
-			}
-		}
+		int[] src = getPixels();
+		if (src == null)
+			return;
+		SubImageResampler.resample(src, TILE_SIZE, dest, width, columns, rows, bilinear);
 	}
 
 	public int getImageHeight() {
 		/* --- A tile is always 256 pixels high --- */
-		return 256;
+		return TILE_SIZE;
 	}
 
 	public int getImageWidth() {
 		/* --- A tile is always 256 pixels wide --- */
-		return 256;
+		return TILE_SIZE;
 	}
 
 	public BufferedImage getSubImage(BoundingRect area, int width, int height) {
 		BufferedImage result = createBlack(width, height);
-		drawSubImage(area, result);
+		drawSubImage(area, result, false);
 		return result;
 	}
 
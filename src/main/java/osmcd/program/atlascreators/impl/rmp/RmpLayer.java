@@ -26,14 +26,22 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
-import osmcd.gui.AtlasProgress;
+import osmcd.gui.AtlasProgress.MapProgress;
 import osmcd.program.atlascreators.AtlasCreator;
+import osmcd.program.atlascreators.impl.TileWorkerPool;
 import osmcd.program.atlascreators.impl.rmp.interfaces.RmpFileEntry;
+import osmcd.program.interfaces.TileImageDataWriter;
+import osmcd.program.model.Settings;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 
 
 /**
@@ -52,7 +60,7 @@ public class RmpLayer {
 	 * Constructor
 	 */
 	public RmpLayer(AtlasCreator atlasCreator) {
-		tiles = new LinkedList<Tiledata>();
+		tiles = new ArrayList<Tiledata>();
 		this.atlasCreator = atlasCreator;
 	}
 
@@ -275,22 +283,95 @@ public class RmpLayer {
 			return name;
 		}
 
+		/**
+		 * Writes all tiles. Depending on {@link Settings#customTileProcessingThreads} the tiles (sub-images) are
+		 * rendered and encoded on multiple threads. The tiles are independent of each other but have to be written in
+		 * the order of the tile list.
+		 */
 		public void writeFileContent(OutputStream os) throws IOException, InterruptedException {
 			BufferedOutputStream bos = new BufferedOutputStream(os, 32768);
 			/* --- Number of tiles --- */
 			RmpTools.writeValue(bos, tiles.size(), 4);
 
-			AtlasProgress atlasProgress = atlasCreator.getAtlasProgress();
+			int threadCount = TileWorkerPool.getConfiguredThreadCount();
+
 			/* --- The tiles --- */
+			if (threadCount > 1 && tiles.size() > 1)
+				writeTilesParallel(bos, threadCount);
+			else
+				writeTilesSequential(bos);
+			bos.flush();
+		}
+
+		private void writeTilesSequential(OutputStream os) throws IOException, InterruptedException {
+			MapProgress atlasProgress = atlasCreator.getAtlasProgress();
 			int x = 0;
 			int xMax = tiles.size();
 			for (Tiledata tile : tiles) {
-				tile.writeTileData(bos);
+				tile.writeTileData(os);
 				atlasCreator.checkUserAbort();
 
 				atlasProgress.setMapCreationProgress((1000 * x++ / xMax));
 			}
-			bos.flush();
+		}
+
+		/**
+		 * Renders and encodes the tiles on <code>threadCount</code> worker threads, each using its own
+		 * {@link TileImageDataWriter}. The number of encoded tiles waiting to be written is limited to
+		 * <code>2 * threadCount</code>.
+		 */
+		private void writeTilesParallel(OutputStream os, int threadCount) throws IOException, InterruptedException {
+			log.debug("Creating " + tiles.size() + " rmp tiles using " + threadCount + " threads");
+			final TileWorkerPool workers = new TileWorkerPool(tiles.get(0).getWriter(), threadCount,
+					DelayedInterruptThread.createThreadFactory());
+			LinkedList<Future<byte[]>> pendingTiles = new LinkedList<Future<byte[]>>();
+			int maxPendingTiles = 2 * threadCount;
+			MapProgress atlasProgress = atlasCreator.getAtlasProgress();
+			int x = 0;
+			int xMax = tiles.size();
+			try {
+				for (final Tiledata tile : tiles) {
+					atlasCreator.checkUserAbort();
+					pendingTiles.add(workers.submit(new Callable<byte[]>() {
+
+						public byte[] call() throws Exception {
+							TileImageDataWriter writer = workers.takeWriter();
+							try {
+								return tile.createTileData(writer);
+							} finally {
+								workers.returnWriter(writer);
+							}
+						}
+					}));
+					if (pendingTiles.size() >= maxPendingTiles) {
+						writeTile(os, tiles.get(x), pendingTiles.removeFirst());
+						atlasProgress.setMapCreationProgress((1000 * x++ / xMax));
+					}
+				}
+				while (!pendingTiles.isEmpty()) {
+					atlasCreator.checkUserAbort();
+					writeTile(os, tiles.get(x), pendingTiles.removeFirst());
+					atlasProgress.setMapCreationProgress((1000 * x++ / xMax));
+				}
+			} finally {
+				workers.shutdown();
+			}
+		}
+
+		private void writeTile(OutputStream os, Tiledata tile, Future<byte[]> tileData) throws IOException,
+				InterruptedException {
+			byte[] data;
+			try {
+				data = tileData.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof InterruptedException)
+					throw (InterruptedException) cause;
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				throw new IOException(cause);
+			}
+			tile.writeTileData(os, data);
 		}
 
 		@Override
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.atlascreators.impl.rmp;
+
+/**
+ * Resamples the pixels of a source tile into a destination image that covers a different (but overlapping) area.
+ * Both images are handled as <code>int[]</code> RGB pixel arrays as provided by a
+ * {@link java.awt.image.DataBufferInt} of a {@link java.awt.image.BufferedImage#TYPE_INT_RGB} image.
+ * <p>
+ * The mapping between destination and source pixels is computed once per column and once per row (see
+ * {@link SampleTable}). Pixels of the destination that are located outside of the source area are not touched, so
+ * that multiple source tiles can be drawn into the same destination image.
+ * </p>
+ */
+public class SubImageResampler {
+
+	/**
+	 * Mapping of the destination pixel columns (or rows) to the source pixel columns (or rows).
+	 */
+	public static class SampleTable {
+
+		/**
+		 * Source index for nearest neighbor sampling or <code>-1</code> if the destination pixel lies outside of the
+		 * source area.
+		 */
+		final int[] index;
+
+		/**
+		 * First and second source index and the weight (0..256) of the second one for bilinear sampling. Only
+		 * present if the table has been created for bilinear sampling.
+		 */
+		final int[] first;
+		final int[] second;
+		final int[] weight;
+
+		/**
+		 * Position of the first and last destination pixel that lie inside the source area (or <code>-1</code> if
+		 * none).
+		 */
+		final int start;
+		final int end;
+
+		/**
+		 * @param destStart
+		 *            coordinate of the first destination pixel
+		 * @param destEnd
+		 *            coordinate of the end of the destination area
+		 * @param destSize
+		 *            number of destination pixels
+		 * @param srcStart
+		 *            coordinate of the first source pixel
+		 * @param srcEnd
+		 *            coordinate of the end of the source area
+		 * @param srcSize
+		 *            number of source pixels
+		 * @param bilinear
+		 */
+		public SampleTable(double destStart, double destEnd, int destSize, double srcStart, double srcEnd,
+				int srcSize, boolean bilinear) {
+			index = new int[destSize];
+			if (bilinear) {
+				first = new int[destSize];
+				second = new int[destSize];
+				weight = new int[destSize];
+			} else {
+				first = null;
+				second = null;
+				weight = null;
+			}
+			int startPos = -1;
+			int endPos = -1;
+			int srcMax = srcSize - 1;
+			for (int i = 0; i < destSize; i++) {
+				double c = destStart + (destEnd - destStart) * i / destSize;
+				double u = (c - srcStart) * srcSize / (srcEnd - srcStart);
+				int idx = (int) Math.floor(u + 0.5);
+				if (idx < 0 || idx > srcMax) {
+					index[i] = -1;
+					continue;
+				}
+				index[i] = idx;
+				if (startPos < 0)
+					startPos = i;
+				endPos = i;
+				if (!bilinear)
+					continue;
+				int i0 = (int) Math.floor(u);
+				int w = (int) ((u - i0) * 256);
+				if (i0 < 0) {
+					i0 = 0;
+					w = 0;
+				} else if (i0 >= srcMax) {
+					i0 = srcMax;
+					w = 0;
+				}
+				first[i] = i0;
+				second[i] = Math.min(i0 + 1, srcMax);
+				weight[i] = w;
+			}
+			start = startPos;
+			end = endPos;
+		}
+
+		public boolean isEmpty() {
+			return start < 0;
+		}
+
+	}
+
+	/**
+	 * Draws the source pixels into the destination pixel array.
+	 * 
+	 * @param src
+	 *            source RGB pixels
+	 * @param srcWidth
+	 *            width (scan line length) of the source image
+	 * @param dest
+	 *            destination RGB pixels
+	 * @param destWidth
+	 *            width (scan line length) of the destination image
+	 * @param columns
+	 *            mapping of the destination columns
+	 * @param rows
+	 *            mapping of the destination rows
+	 * @param bilinear
+	 *            <code>true</code>: bilinear interpolation, <code>false</code>: nearest neighbor (the tables have to
+	 *            be created with the same setting)
+	 */
+	public static void resample(int[] src, int srcWidth, int[] dest, int destWidth, SampleTable columns,
+			SampleTable rows, boolean bilinear) {
+		if (columns.isEmpty() || rows.isEmpty())
+			return;
+		int xStart = columns.start;
+		int xEnd = columns.end;
+		int[] colIndex = columns.index;
+		if (!bilinear) {
+			for (int y = rows.start; y <= rows.end; y++) {
+				int srcY = rows.index[y];
+				if (srcY < 0)
+					continue;
+				int srcRow = srcY * srcWidth;
+				int destRow = y * destWidth;
+				for (int x = xStart; x <= xEnd; x++) {
+					int srcX = colIndex[x];
+					if (srcX >= 0)
+						dest[destRow + x] = src[srcRow + srcX];
+				}
+			}
+			return;
+		}
+		int[] col0 = columns.first;
+		int[] col1 = columns.second;
+		int[] colWeight = columns.weight;
+		for (int y = rows.start; y <= rows.end; y++) {
+			if (rows.index[y] < 0)
+				continue;
+			int srcRow0 = rows.first[y] * srcWidth;
+			int srcRow1 = rows.second[y] * srcWidth;
+			int wy = rows.weight[y];
+			int destRow = y * destWidth;
+			for (int x = xStart; x <= xEnd; x++) {
+				if (colIndex[x] < 0)
+					continue;
+				int x0 = col0[x];
+				int x1 = col1[x];
+				int wx = colWeight[x];
+				int top = interpolate(src[srcRow0 + x0], src[srcRow0 + x1], wx);
+				int bottom = interpolate(src[srcRow1 + x0], src[srcRow1 + x1], wx);
+				dest[destRow + x] = interpolate(top, bottom, wy);
+			}
+		}
+	}
+
+	/**
+	 * Linear interpolation between two RGB pixels. Red and blue are calculated together in one step.
+	 * 
+	 * @param p0
+	 * @param p1
+	 * @param w
+	 *            weight of <code>p1</code> (0..256)
+	 * @return interpolated RGB pixel
+	 */
+	static int interpolate(int p0, int p1, int w) {
+		if (w == 0 || p0 == p1)
+			return p0;
+		int iw = 256 - w;
+		int rb = ((p0 & 0xff00ff) * iw + (p1 & 0xff00ff) * w) >>> 8;
+		int g = ((p0 & 0x00ff00) * iw + (p1 & 0x00ff00) * w) >>> 8;
+		return (rb & 0xff00ff) | (g & 0x00ff00);
+	}
+
+}
@@ -17,40 +17,198 @@
 package osmcd.program.atlascreators.tileprovider;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.imageio.ImageIO;
-
-import osmcd.program.interfaces.TileImageDataWriter;
+import osmcd.program.model.Settings;
 import osmcd.program.model.TileImageFormat;
+import osmcd.program.model.TileOrder;
+import osmcd.program.tiledatawriter.TileImageTranscoder;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
 
 /**
- * Loads a tile from the underlying {@link TileProvider}, loads the tile to memory, converts it to the desired
- * {@link TileImageFormat} and returns the binary representation of the image in the specified format.
+ * Loads a tile from the underlying {@link TileProvider}, converts it to the desired {@link TileImageFormat} and
+ * returns the binary representation of the image in the specified format. Tiles already in the desired format are
+ * returned unchanged (see {@link TileImageTranscoder}).
+ * 
+ * If the order in which the tiles are going to be requested is known, the following tiles are converted ahead of the
+ * requests by a pool of worker threads. Requests that do not follow the order are converted by the requesting thread.
  */
 public class ConvertedRawTileProvider extends FilterTileProvider {
 
-	private TileImageDataWriter writer;
+	private final TileImageTranscoder transcoder;
+
+	private final TileOrder.Iterator readOrder;
+	private final int lookahead;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Conversions scheduled ahead of the requests, in read order. Guarded by its own monitor.
+	 */
+	private final LinkedHashMap<Long, Future<byte[]>> scheduled = new LinkedHashMap<Long, Future<byte[]>>();
+
+	private final AtomicLong tileCount = new AtomicLong();
+	private final AtomicLong passThroughCount = new AtomicLong();
+	private final long startTime = System.currentTimeMillis();
 
 	public ConvertedRawTileProvider(TileProvider tileProvider, TileImageFormat tileImageFormat) {
+		this(tileProvider, tileImageFormat, null);
+	}
+
+	/**
+	 * @param tileProvider
+	 * @param tileImageFormat
+	 * @param readOrder
+	 *            the order in which the tiles are going to be requested or <code>null</code> if unknown
+	 */
+	public ConvertedRawTileProvider(TileProvider tileProvider, TileImageFormat tileImageFormat,
+			TileOrder.Iterator readOrder) {
+		this(tileProvider, tileImageFormat, readOrder, Settings.getInstance().tilePrefetchLookahead, Settings
+				.getInstance().customTileProcessingThreads);
+	}
+
+	/**
+	 * @param lookahead
+	 *            maximum number of tiles converted ahead of the requests
+	 * @param threadCount
+	 *            number of worker threads; <code>1</code> converts the tiles on the requesting thread,
+	 *            <code>0</code> uses one thread per available processor
+	 */
+	public ConvertedRawTileProvider(TileProvider tileProvider, TileImageFormat tileImageFormat,
+			TileOrder.Iterator readOrder, int lookahead, int threadCount) {
 		super(tileProvider);
-		writer = tileImageFormat.getDataWriter();
-		writer.initialize();
-		ImageIO.setUseCache(false);
+		transcoder = new TileImageTranscoder(tileImageFormat);
+		if (threadCount <= 0)
+			threadCount = Runtime.getRuntime().availableProcessors();
+		this.lookahead = Math.max(0, lookahead);
+		if (readOrder != null && threadCount > 1 && this.lookahead > 0) {
+			this.readOrder = readOrder;
+			executor = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		} else {
+			this.readOrder = null;
+			executor = null;
+		}
 	}
 
 	public byte[] getTileData(int x, int y) throws IOException {
-		BufferedImage image = getTileImage(x, y);
-		if (image == null)
-			return null;
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream(32000);
-		writer.processImage(image, buffer);
-		return buffer.toByteArray();
+		if (executor == null)
+			return convertTile(x, y);
+		Future<byte[]> result;
+		synchronized (scheduled) {
+			scheduleTiles();
+			result = scheduled.remove(tileKey(x, y));
+		}
+		if (result == null)
+			return convertTile(x, y);
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for tile x=" + x + " y=" + y);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Schedules the next tiles of the read order until <code>lookahead</code> conversions are pending. If the
+	 * requests do not follow the read order the pending conversions are not consumed and the scheduling stops. Has to
+	 * be called while holding the monitor of {@link #scheduled}.
+	 */
+	private void scheduleTiles() {
+		while (scheduled.size() < lookahead && readOrder.next()) {
+			final int x = readOrder.getX();
+			final int y = readOrder.getY();
+			FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+				public byte[] call() throws Exception {
+					return convertTile(x, y);
+				}
+			});
+			scheduled.put(tileKey(x, y), task);
+			executor.execute(task);
+		}
+	}
+
+	protected byte[] convertTile(int x, int y) throws IOException {
+		byte[] result;
+		if (useRawTileData()) {
+			byte[] data = tileProvider.getTileData(x, y);
+			result = transcoder.transcode(data);
+			if (result != null && result == data)
+				passThroughCount.incrementAndGet();
+		} else {
+			BufferedImage image = getTileImage(x, y);
+			if (image == null)
+				return null;
+			result = transcoder.encode(image);
+		}
+		tileCount.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * @return <code>true</code> if the encoded tiles of the underlying tile provider are converted,
+	 *         <code>false</code> if the tiles are taken from {@link #getTileImage(int, int)}
+	 */
+	protected boolean useRawTileData() {
+		return !tileProvider.preferTileImageUsage();
 	}
 
 	public boolean preferTileImageUsage() {
 		return true;
 	}
 
+	/**
+	 * Stops the worker threads and logs the conversion statistics.
+	 */
+	public void cleanup() {
+		if (executor != null)
+			executor.shutdownNow();
+		synchronized (scheduled) {
+			scheduled.clear();
+		}
+		long count = tileCount.get();
+		if (count > 0) {
+			double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+			log.info(String.format("Tile conversion to %s: %d tiles in %.1f s (%.1f tiles/s), %d passed through",
+					transcoder.getFormat().name(), count, seconds, count / seconds, passThroughCount.get()));
+		}
+	}
+
+	private static Long tileKey(int x, int y) {
+		return Long.valueOf(((long) x << 32) | (y & 0xFFFFFFFFL));
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private static int threadNum = 1;
+
+		public Thread newThread(Runnable r) {
+			Thread t;
+			synchronized (WorkerThreadFactory.class) {
+				t = new DelayedInterruptThread(r, "TileConverter " + (threadNum++));
+			}
+			t.setDaemon(true);
+			return t;
+		}
+
+	}
 }
@@ -17,8 +17,8 @@
 package osmcd.program.atlascreators.tileprovider;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.imageio.ImageIO;
 
@@ -27,40 +27,48 @@ import org.apache.log4j.Logger;
 import osmcd.program.interfaces.MapInterface;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.model.TileImageType;
-import osmcd.utilities.tar.TarIndex;
+import osmcd.program.model.TileOrder;
+import osmcd.utilities.stream.ByteBufferInputStream;
+import osmcd.utilities.tilearchive.MappedTileArchive;
 
 public class DownloadedTileProvider implements TileProvider {
 
 	private static final Logger log = Logger.getLogger(DownloadedTileProvider.class);
 
-	public static final String TILE_FILENAME_PATTERN = "x%dy%d";
-
-	protected final TarIndex tarIndex;
+	protected final MappedTileArchive tileArchive;
 	protected final MapInterface map;
 	protected final TileImageType mapTileType;
 
-	public DownloadedTileProvider(TarIndex tarIndex, MapInterface map) {
-		this.tarIndex = tarIndex;
+	public DownloadedTileProvider(MappedTileArchive tileArchive, MapInterface map) {
+		this.tileArchive = tileArchive;
 		this.map = map;
 		this.mapTileType = map.getMapSource().getTileImageType();
 	}
 
 	public byte[] getTileData(int x, int y) throws IOException {
 		log.trace("Reading tile x=" + x + " y=" + y);
-		return tarIndex.getEntryContent(String.format(TILE_FILENAME_PATTERN, x, y));
+		return tileArchive.getTileData(x, y);
 	}
 
 	public BufferedImage getTileImage(int x, int y) throws IOException {
-		byte[] unconvertedTileData = getTileData(x, y);
+		// Decode directly from the memory mapped archive
+		ByteBuffer unconvertedTileData = tileArchive.getTileBuffer(x, y);
 		if (unconvertedTileData == null)
 			return null;
-		return ImageIO.read(new ByteArrayInputStream(unconvertedTileData));
+		return ImageIO.read(new ByteBufferInputStream(unconvertedTileData));
 	}
 
 	public boolean preferTileImageUsage() {
 		return false;
 	}
 
+	/**
+	 * @return the order the tiles have been downloaded into the tile archive
+	 */
+	public TileOrder getPreferredReadOrder() {
+		return tileArchive.getTileOrder();
+	}
+
 	public MapSource getMapSource() {
 		return map.getMapSource();
 	}
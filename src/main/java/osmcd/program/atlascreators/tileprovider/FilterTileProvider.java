@@ -22,6 +22,7 @@ import java.io.IOException;
 import org.apache.log4j.Logger;
 
 import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.TileOrder;
 
 /**
  * Base implementation of an {@link TileProvider} that changes somehow the images, e.g. combines two layers to one or
@@ -50,4 +51,8 @@ public abstract class FilterTileProvider implements TileProvider {
 		return tileProvider.getMapSource();
 	}
 
+	public TileOrder getPreferredReadOrder() {
+		return tileProvider.getPreferredReadOrder();
+	}
+
 }
@@ -57,4 +57,9 @@ public class GpxPainterTileProvider extends ConvertedRawTileProvider {
 		return image;
 	}
 
+	@Override
+	protected boolean useRawTileData() {
+		return false;
+	}
+
 }
@@ -22,6 +22,7 @@ import java.io.IOException;
 import osmcd.exceptions.TileException;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSource.LoadMethod;
+import osmcd.program.model.TileOrder;
 
 /**
  * A {@link TileProvider} implementation that retrieves all tiles directly from the {@link MapSource}.
@@ -71,6 +72,13 @@ public class MapSourceProvider implements TileProvider {
 		return false;
 	}
 
+	/**
+	 * Tiles are loaded from the tile store or downloaded on demand - there is no preferred order.
+	 */
+	public TileOrder getPreferredReadOrder() {
+		return TileOrder.ROW_MAJOR;
+	}
+
 	public MapSource getMapSource() {
 		return mapSource;
 	}
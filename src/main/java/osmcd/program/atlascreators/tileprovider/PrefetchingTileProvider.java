@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.atlascreators.tileprovider;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.Settings;
+import osmcd.program.model.TileOrder;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
+
+/**
+ * A tile image cache that loads and decodes the tiles ahead of the requests. The order in which the tiles are going
+ * to be requested is specified by a {@link TileAccessPlan}. Whenever a tile is requested the following
+ * <code>lookahead</code> tiles of the plan are loaded by a small pool of worker threads. Requests that do not follow
+ * the plan are served as well, they are just not prefetched.
+ * 
+ * The memory used by the cache is limited by the size of the decoded pixel data. The least recently used tiles are
+ * evicted first.
+ */
+public class PrefetchingTileProvider implements TileProvider {
+
+	private static final Logger log = Logger.getLogger(PrefetchingTileProvider.class);
+
+	/**
+	 * Upper limit for the decoded pixel data held in the cache. Additionally limited to 1/8 of the maximum heap size.
+	 */
+	private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Estimated memory overhead of a cache entry in bytes
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	protected final TileProvider tileProvider;
+
+	private final TileAccessPlan plan;
+	private final int lookahead;
+	private final long maxCacheBytes;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Cache in access order; all fields below are guarded by the cache's monitor
+	 */
+	private final LinkedHashMap<Long, CachedTile> cache = new LinkedHashMap<Long, CachedTile>(128, 0.75f, true);
+	private long cacheBytes = 0;
+
+	/**
+	 * Plan position of the latest request that followed the plan
+	 */
+	private int cursor = -1;
+
+	/**
+	 * Plan position up to which the tiles have been scheduled for prefetching
+	 */
+	private int prefetchedUpTo = -1;
+
+	private long requestCount = 0;
+	private long hitCount = 0;
+	private long pendingHitCount = 0;
+	private long prefetchCount = 0;
+
+	public PrefetchingTileProvider(TileProvider tileProvider, TileAccessPlan plan) {
+		this(tileProvider, plan, Settings.getInstance().tilePrefetchLookahead,
+				Settings.getInstance().tilePrefetchThreads);
+	}
+
+	/**
+	 * @param tileProvider
+	 * @param plan
+	 *            expected order of the tile requests
+	 * @param lookahead
+	 *            number of tiles to load ahead of the current position in the plan
+	 * @param threadCount
+	 *            number of worker threads loading the tiles. <code>0</code> disables prefetching, the tiles are then
+	 *            only cached.
+	 */
+	public PrefetchingTileProvider(TileProvider tileProvider, TileAccessPlan plan, int lookahead, int threadCount) {
+		this.tileProvider = tileProvider;
+		this.plan = plan;
+		this.lookahead = Math.max(0, lookahead);
+		this.maxCacheBytes = Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 8);
+		if (threadCount > 0 && this.lookahead > 0) {
+			executor = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		} else
+			executor = null;
+		log.debug("Tile prefetching: " + plan + ", lookahead=" + this.lookahead + ", threads=" + threadCount);
+	}
+
+	public boolean preferTileImageUsage() {
+		return true;
+	}
+
+	public TileOrder getPreferredReadOrder() {
+		return tileProvider.getPreferredReadOrder();
+	}
+
+	public BufferedImage getTileImage(int x, int y) throws IOException {
+		CachedTile tile;
+		boolean loadTile = false;
+		synchronized (cache) {
+			requestCount++;
+			Long key = tileKey(x, y);
+			tile = cache.get(key);
+			if (tile == null) {
+				log.trace(String.format("Cache miss: x=%d y=%d", x, y));
+				tile = new CachedTile(x, y);
+				cache.put(key, tile);
+				loadTile = true;
+			} else if (tile.isDone())
+				hitCount++;
+			else
+				pendingHitCount++;
+			advance(x, y);
+		}
+		// Cache misses are loaded by the requesting thread
+		if (loadTile)
+			tile.run();
+		return tile.getImage();
+	}
+
+	public byte[] getTileData(int x, int y) throws IOException {
+		return tileProvider.getTileData(x, y);
+	}
+
+	public MapSource getMapSource() {
+		return tileProvider.getMapSource();
+	}
+
+	/**
+	 * Updates the position in the access plan and schedules the following tiles for loading. Has to be called while
+	 * holding the cache monitor.
+	 */
+	private void advance(int x, int y) {
+		int tileCount = plan.getTileCount();
+		int index = -1;
+		// usually the requested tile is one of the next tiles in the plan
+		int searchEnd = Math.min(cursor + lookahead, tileCount - 1);
+		for (int i = cursor + 1; i <= searchEnd; i++) {
+			if (plan.getX(i) == x && plan.getY(i) == y) {
+				index = i;
+				break;
+			}
+		}
+		if (index < 0)
+			index = plan.indexOf(x, y);
+		if (index < 0)
+			return;
+		if (index > cursor)
+			cursor = index;
+		else if (index < cursor - lookahead) {
+			// The creator restarted somewhere before - follow it
+			cursor = index;
+			prefetchedUpTo = index;
+		}
+		if (executor == null)
+			return;
+		int end = Math.min(cursor + lookahead, tileCount - 1);
+		for (int i = Math.max(prefetchedUpTo, cursor) + 1; i <= end; i++) {
+			if (cacheBytes >= maxCacheBytes)
+				// cache is full - retried with the next request
+				return;
+			int px = plan.getX(i);
+			int py = plan.getY(i);
+			Long key = tileKey(px, py);
+			if (!cache.containsKey(key)) {
+				CachedTile tile = new CachedTile(px, py);
+				cache.put(key, tile);
+				executor.execute(tile);
+				prefetchCount++;
+			}
+			prefetchedUpTo = i;
+		}
+	}
+
+	/**
+	 * Called when a tile has been loaded. Has to be called while holding the cache monitor.
+	 */
+	private void tileLoaded(CachedTile tile, BufferedImage image, boolean failed) {
+		if (failed) {
+			// Do not keep errors, a later request will try again
+			if (cache.get(tileKey(tile.x, tile.y)) == tile)
+				cache.remove(tileKey(tile.x, tile.y));
+			return;
+		}
+		tile.bytes = ENTRY_OVERHEAD;
+		if (image != null)
+			tile.bytes += (long) image.getWidth() * image.getHeight()
+					* Math.max(1, image.getColorModel().getPixelSize() / 8);
+		cacheBytes += tile.bytes;
+		Iterator<CachedTile> it = cache.values().iterator();
+		while (cacheBytes > maxCacheBytes && it.hasNext()) {
+			CachedTile t = it.next();
+			if (t.isDone() && t != tile) {
+				cacheBytes -= t.bytes;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return fraction of the tile requests served from the cache (including tiles that were still being loaded)
+	 */
+	public double getHitRate() {
+		synchronized (cache) {
+			if (requestCount == 0)
+				return 0;
+			return (double) (hitCount + pendingHitCount) / requestCount;
+		}
+	}
+
+	public void cleanup() {
+		if (executor != null)
+			executor.shutdownNow();
+		synchronized (cache) {
+			if (requestCount > 0)
+				log.info(String.format("Tile prefetching: %d requests, %.1f%% hit rate "
+						+ "(%d hits, %d while loading, %d misses), %d tiles prefetched", requestCount,
+						100.0 * (hitCount + pendingHitCount) / requestCount, hitCount, pendingHitCount, requestCount
+								- hitCount - pendingHitCount, prefetchCount));
+			cache.clear();
+			cacheBytes = 0;
+		}
+	}
+
+	private static Long tileKey(int x, int y) {
+		return Long.valueOf(((long) x << 32) | (y & 0xFFFFFFFFL));
+	}
+
+	private class CachedTile extends FutureTask<BufferedImage> {
+
+		final int x;
+		final int y;
+
+		/**
+		 * Estimated memory usage, valid after loading
+		 */
+		long bytes = 0;
+
+		public CachedTile(final int x, final int y) {
+			super(new Callable<BufferedImage>() {
+
+				public BufferedImage call() throws Exception {
+					return tileProvider.getTileImage(x, y);
+				}
+			});
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		protected void done() {
+			BufferedImage image = null;
+			boolean failed = false;
+			try {
+				image = get();
+			} catch (Exception e) {
+				failed = true;
+			}
+			synchronized (cache) {
+				tileLoaded(this, image, failed);
+			}
+		}
+
+		public BufferedImage getImage() throws IOException {
+			try {
+				return get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for tile x=" + x + " y=" + y);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new IOException(cause);
+			}
+		}
+
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private static int threadNum = 1;
+
+		public Thread newThread(Runnable r) {
+			Thread t;
+			synchronized (WorkerThreadFactory.class) {
+				t = new DelayedInterruptThread(r, "TilePrefetcher " + (threadNum++));
+			}
+			t.setDaemon(true);
+			return t;
+		}
+
+	}
+}
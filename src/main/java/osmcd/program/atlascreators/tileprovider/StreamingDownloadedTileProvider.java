@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.atlascreators.tileprovider;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import osmcd.program.interfaces.MapInterface;
+import osmcd.utilities.tilearchive.MappedTileArchive;
+
+/**
+ * {@link DownloadedTileProvider} that reads from a tile archive which is still being filled by the download jobs. A
+ * request for a tile that has not been downloaded yet blocks until the tile is available or the download of the map is
+ * complete.
+ */
+public class StreamingDownloadedTileProvider extends DownloadedTileProvider {
+
+	public StreamingDownloadedTileProvider(MappedTileArchive tileArchive, MapInterface map) {
+		super(tileArchive, map);
+	}
+
+	@Override
+	public byte[] getTileData(int x, int y) throws IOException {
+		if (!waitForTile(x, y))
+			return null;
+		return super.getTileData(x, y);
+	}
+
+	@Override
+	public BufferedImage getTileImage(int x, int y) throws IOException {
+		if (!waitForTile(x, y))
+			return null;
+		return super.getTileImage(x, y);
+	}
+
+	protected boolean waitForTile(int x, int y) throws IOException {
+		try {
+			return tileArchive.waitForTile(x, y);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for tile x=" + x + " y=" + y);
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.atlascreators.tileprovider;
+
+/**
+ * Describes the order in which an atlas creator is going to request the tiles of a map from its {@link TileProvider}.
+ * The tile range is divided into blocks of <code>blockWidth</code> x <code>blockHeight</code> tiles. The blocks are
+ * visited row by row and the tiles inside of each block again row by row. Row-major and column-major order are the
+ * special cases of blocks spanning a whole row or column.
+ * 
+ * The plan maps each tile to its position in the access sequence and vice versa. It is used by the
+ * {@link PrefetchingTileProvider} for loading the tiles ahead of the requests.
+ */
+public class TileAccessPlan {
+
+	private final int xMin;
+	private final int yMin;
+	private final int width;
+	private final int height;
+	private final int blockWidth;
+	private final int blockHeight;
+
+	public static TileAccessPlan rowMajor(int xMin, int yMin, int xMax, int yMax) {
+		return new TileAccessPlan(xMin, yMin, xMax, yMax, xMax - xMin + 1, 1);
+	}
+
+	public static TileAccessPlan columnMajor(int xMin, int yMin, int xMax, int yMax) {
+		return new TileAccessPlan(xMin, yMin, xMax, yMax, 1, yMax - yMin + 1);
+	}
+
+	public static TileAccessPlan blocks(int xMin, int yMin, int xMax, int yMax, int blockWidth, int blockHeight) {
+		return new TileAccessPlan(xMin, yMin, xMax, yMax, blockWidth, blockHeight);
+	}
+
+	/**
+	 * Access plan for painting custom tiles of <code>customTileWidth</code> x <code>customTileHeight</code> pixels
+	 * row by row out of map tiles of <code>tileSize</code> pixels (as done by
+	 * {@link osmcd.program.atlascreators.impl.MapTileBuilder}).
+	 */
+	public static TileAccessPlan customTiles(int xMin, int yMin, int xMax, int yMax, int tileSize,
+			int customTileWidth, int customTileHeight) {
+		int blockWidth = Math.max(1, Math.round((float) customTileWidth / tileSize));
+		int blockHeight = Math.max(1, Math.round((float) customTileHeight / tileSize));
+		return blocks(xMin, yMin, xMax, yMax, blockWidth, blockHeight);
+	}
+
+	protected TileAccessPlan(int xMin, int yMin, int xMax, int yMax, int blockWidth, int blockHeight) {
+		if (xMax < xMin || yMax < yMin)
+			throw new IllegalArgumentException("Empty tile range");
+		this.xMin = xMin;
+		this.yMin = yMin;
+		this.width = xMax - xMin + 1;
+		this.height = yMax - yMin + 1;
+		this.blockWidth = Math.max(1, Math.min(blockWidth, width));
+		this.blockHeight = Math.max(1, Math.min(blockHeight, height));
+	}
+
+	/**
+	 * @return number of tiles in the access sequence
+	 */
+	public int getTileCount() {
+		return width * height;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return position of the tile in the access sequence or <code>-1</code> if the tile is not part of the plan
+	 */
+	public int indexOf(int x, int y) {
+		int rx = x - xMin;
+		int ry = y - yMin;
+		if (rx < 0 || ry < 0 || rx >= width || ry >= height)
+			return -1;
+		int blockRow = ry / blockHeight;
+		int blockCol = rx / blockWidth;
+		int rowHeight = Math.min(blockHeight, height - blockRow * blockHeight);
+		int colWidth = Math.min(blockWidth, width - blockCol * blockWidth);
+		int index = blockRow * blockHeight * width;
+		index += blockCol * blockWidth * rowHeight;
+		return index + (ry - blockRow * blockHeight) * colWidth + (rx - blockCol * blockWidth);
+	}
+
+	/**
+	 * @param index
+	 *            position in the access sequence
+	 * @return tile x coordinate
+	 */
+	public int getX(int index) {
+		int blockRow = index / (blockHeight * width);
+		int rowHeight = Math.min(blockHeight, height - blockRow * blockHeight);
+		int rem = index - blockRow * blockHeight * width;
+		int blockCol = rem / (blockWidth * rowHeight);
+		int colWidth = Math.min(blockWidth, width - blockCol * blockWidth);
+		rem -= blockCol * blockWidth * rowHeight;
+		return xMin + blockCol * blockWidth + rem % colWidth;
+	}
+
+	/**
+	 * @param index
+	 *            position in the access sequence
+	 * @return tile y coordinate
+	 */
+	public int getY(int index) {
+		int blockRow = index / (blockHeight * width);
+		int rowHeight = Math.min(blockHeight, height - blockRow * blockHeight);
+		int rem = index - blockRow * blockHeight * width;
+		int blockCol = rem / (blockWidth * rowHeight);
+		int colWidth = Math.min(blockWidth, width - blockCol * blockWidth);
+		rem -= blockCol * blockWidth * rowHeight;
+		return yMin + blockRow * blockHeight + rem / colWidth;
+	}
+
+	@Override
+	public String toString() {
+		return "TileAccessPlan [" + width + "x" + height + " tiles, blocks of " + blockWidth + "x" + blockHeight + "]";
+	}
+
+}
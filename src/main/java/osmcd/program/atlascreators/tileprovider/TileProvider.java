@@ -20,6 +20,7 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.TileOrder;
 
 public interface TileProvider {
 
@@ -36,4 +37,13 @@ public interface TileProvider {
 	 * @return
 	 */
 	public boolean preferTileImageUsage();
+
+	/**
+	 * Read order hint: the order in which the tiles can be read most efficiently, e.g. because they have been
+	 * downloaded and stored in this order. Consumers that are free to choose the order in which they process the tiles
+	 * should use it.
+	 * 
+	 * @return preferred read order (never <code>null</code>)
+	 */
+	public TileOrder getPreferredReadOrder();
 }
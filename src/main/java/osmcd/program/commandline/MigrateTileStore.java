@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.commandline;
+
+import osmcd.program.interfaces.CommandLineAction;
+import osmcd.program.tilestore.TileStore;
+import osmcd.program.tilestore.sqlite.BerkeleyDbMigration;
+import osmcd.program.tilestore.sqlite.SQLiteTileStore;
+import osmcd.utilities.GUIExceptionHandler;
+
+/**
+ * Copies all tiles of the Berkeley DB tile stores into the SQLite tile store and terminates the application.
+ */
+public class MigrateTileStore implements CommandLineAction {
+
+	@Override
+	public void runBeforeMainGUI() {
+		TileStore tileStore = TileStore.getInstance();
+		if (!(tileStore instanceof SQLiteTileStore)) {
+			System.err.println("Error: The SQLite tile store is not enabled.");
+			System.err.println("Set \"tileStoreType\" to \"SQLITE\" in settings.xml and try again.");
+			System.exit(1);
+		}
+		try {
+			BerkeleyDbMigration migration = new BerkeleyDbMigration((SQLiteTileStore) tileStore);
+			migration.migrateAll();
+			System.out.println("Migrated " + migration.getTileCount() + " tiles of " + migration.getStoreCount()
+					+ " tile stores.");
+			tileStore.closeAll();
+			System.exit(0);
+		} catch (Exception e) {
+			GUIExceptionHandler.processException(e);
+			System.exit(1);
+		}
+	}
+
+	@Override
+	public void runMainGUI() {
+	}
+
+	@Override
+	public boolean showSplashScreen() {
+		return false;
+	}
+
+	@Override
+	public boolean showMainGUI() {
+		return false;
+	}
+
+}
@@ -26,26 +26,31 @@ import osmcd.exceptions.StopAllDownloadsException;
 import osmcd.exceptions.UnrecoverableDownloadException;
 import osmcd.program.JobDispatcher;
 import osmcd.program.JobDispatcher.Job;
-import osmcd.program.atlascreators.tileprovider.DownloadedTileProvider;
 import osmcd.program.interfaces.DownloadJobListener;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSource.LoadMethod;
-import osmcd.utilities.tar.TarIndexedArchive;
+import osmcd.utilities.tilearchive.MappedTileArchive;
 
 public class DownloadJob implements Job {
 
 	static Logger log = Logger.getLogger(DownloadJob.class);
 
+	/**
+	 * Maximum number of reschedules because of overload responses (HTTP 429/503) - in addition to the regular retries
+	 */
+	static final int MAX_OVERLOAD_RETRIES = 10;
+
 	int errorCounter = 0;
+	int overloadCounter = 0;
 
 	final MapSource mapSource;
 	final int xValue;
 	final int yValue;
 	final int zoomValue;
-	final TarIndexedArchive tileArchive;
+	final MappedTileArchive tileArchive;
 	final DownloadJobListener listener;
 
-	public DownloadJob(MapSource mapSource, int xValue, int yValue, int zoomValue, TarIndexedArchive tileArchive,
+	public DownloadJob(MapSource mapSource, int xValue, int yValue, int zoomValue, MappedTileArchive tileArchive,
 			DownloadJobListener listener) {
 		this.mapSource = mapSource;
 		this.xValue = xValue;
@@ -60,12 +65,8 @@ public class DownloadJob implements Job {
 			// Thread.sleep(1500);
 			listener.jobStarted();
 			byte[] tileData = mapSource.getTileData(zoomValue, xValue, yValue, LoadMethod.DEFAULT);
-			String tileFileName = String.format(DownloadedTileProvider.TILE_FILENAME_PATTERN, xValue, yValue);
-			if (tileArchive != null) {
-				synchronized (tileArchive) {
-					tileArchive.writeFileFromData(tileFileName, tileData);
-				}
-			}
+			if (tileArchive != null)
+				tileArchive.writeTile(xValue, yValue, tileData);
 			listener.jobFinishedSuccessfully(tileData.length);
 		} catch (UnrecoverableDownloadException e) {
 			listener.jobFinishedWithError(false);
@@ -88,6 +89,16 @@ public class DownloadJob implements Job {
 	}
 
 	private void processError(JobDispatcher dispatcher, Exception e) {
+		if (isOverloadError(e) && overloadCounter < MAX_OVERLOAD_RETRIES) {
+			// The server asked us to slow down - the HostRateController delays all requests to the server, therefore
+			// the job is rescheduled without counting it as a failed try
+			overloadCounter++;
+			listener.jobFinishedWithError(true);
+			log.debug("Download of tile z" + zoomValue + "_x" + xValue + "_y" + yValue
+					+ " rejected by overloaded server: \"" + e.getMessage() + "\" - rescheduling download job");
+			dispatcher.addErrorJob(this);
+			return;
+		}
 		errorCounter++;
 		// Reschedule job to try it later again
 		if (errorCounter <= listener.getMaxDownloadRetries()) {
@@ -102,6 +113,12 @@ public class DownloadJob implements Job {
 		}
 	}
 
+	private static boolean isOverloadError(Exception e) {
+		if (!(e instanceof DownloadFailedException))
+			return false;
+		return HostRateController.isOverloadResponse(((DownloadFailedException) e).getHttpResponseCode());
+	}
+
 	@Override
 	public String toString() {
 		return "DownloadJob x=" + xValue + " y=" + yValue + " z=" + zoomValue;
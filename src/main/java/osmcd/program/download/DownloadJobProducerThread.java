@@ -20,11 +20,11 @@ import java.util.Enumeration;
 
 import org.apache.log4j.Logger;
 
-import osmcd.program.AtlasThread;
 import osmcd.program.JobDispatcher;
 import osmcd.program.JobDispatcher.Job;
+import osmcd.program.interfaces.DownloadJobListener;
 import osmcd.program.interfaces.DownloadableElement;
-import osmcd.utilities.tar.TarIndexedArchive;
+import osmcd.utilities.tilearchive.MappedTileArchive;
 
 
 /**
@@ -39,10 +39,10 @@ public class DownloadJobProducerThread extends Thread {
 
 	final Enumeration<Job> jobEnumerator;
 
-	public DownloadJobProducerThread(AtlasThread atlasThread, JobDispatcher downloadJobDispatcher,
-			TarIndexedArchive tileArchive, DownloadableElement de) {
+	public DownloadJobProducerThread(DownloadJobListener listener, JobDispatcher downloadJobDispatcher,
+			MappedTileArchive tileArchive, DownloadableElement de) {
 		this.downloadJobDispatcher = downloadJobDispatcher;
-		jobEnumerator = de.getDownloadJobs(tileArchive, atlasThread);
+		jobEnumerator = de.getDownloadJobs(tileArchive, listener);
 		start();
 	}
 
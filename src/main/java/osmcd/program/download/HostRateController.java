@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.download.http.TileHttpResponse;
+import osmcd.program.model.Settings;
+
+/**
+ * Adapts the number of concurrent tile requests to one host to the load the server can sustain (AIMD - additive
+ * increase, multiplicative decrease):
+ * <ul>
+ * <li>Every response with a latency near the best latency seen for the host increases the limit by
+ * <code>1/limit</code> - about one request per round trip of all currently allowed requests.</li>
+ * <li>Rising latency and failed requests (timeouts, connection errors) decrease the limit by
+ * {@link #DECREASE_FACTOR}, at most once per smoothed latency interval.</li>
+ * <li>HTTP 429 and 503 responses halve the limit and stop all requests to the host until the delay given by the
+ * <code>Retry-After</code> header (or {@link #DEFAULT_BACKOFF}) has passed.</li>
+ * </ul>
+ * The limit ranges from one request to {@link Settings#httpMaxConnectionsPerHost}. The download threads of the
+ * {@link osmcd.program.JobDispatcher} remain the overall upper bound.
+ */
+public class HostRateController {
+
+	private static final Logger log = Logger.getLogger(HostRateController.class);
+
+	/**
+	 * The host is considered as congested if the smoothed latency exceeds the best latency by this factor
+	 */
+	public static final double CONGESTION_FACTOR = 3.0;
+
+	public static final double DECREASE_FACTOR = 0.75;
+
+	/**
+	 * Delay in milliseconds after an overload response without <code>Retry-After</code> header
+	 */
+	public static final long DEFAULT_BACKOFF = 2000;
+
+	/**
+	 * Maximum accepted <code>Retry-After</code> delay in milliseconds
+	 */
+	public static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+	private static final HashMap<String, HostRateController> CONTROLLERS = new HashMap<String, HostRateController>();
+
+	private final String host;
+	private final int maxLimit;
+
+	private double limit;
+	private int active = 0;
+	private long blockedUntil = 0;
+
+	private double smoothedLatency = -1;
+	private double bestLatency = -1;
+	private long lastDecrease = 0;
+
+	private long requestCount = 0;
+	private long overloadCount = 0;
+
+	/**
+	 * @param url
+	 * @return the controller for the host of <code>url</code> or <code>null</code> if the adaptive download
+	 *         concurrency is disabled (see {@link Settings#adaptiveDownloadConcurrency})
+	 */
+	public static HostRateController getInstance(URL url) {
+		Settings s = Settings.getInstance();
+		if (!s.adaptiveDownloadConcurrency)
+			return null;
+		String host = url.getHost().toLowerCase();
+		synchronized (CONTROLLERS) {
+			HostRateController controller = CONTROLLERS.get(host);
+			if (controller == null) {
+				int maxLimit = Math.max(1, s.httpMaxConnectionsPerHost);
+				controller = new HostRateController(host, Math.min(s.downloadThreadCount, maxLimit), maxLimit);
+				CONTROLLERS.put(host, controller);
+			}
+			return controller;
+		}
+	}
+
+	/**
+	 * @param host
+	 *            used for logging only
+	 * @param initialLimit
+	 * @param maxLimit
+	 */
+	public HostRateController(String host, int initialLimit, int maxLimit) {
+		this.host = host;
+		this.maxLimit = Math.max(1, maxLimit);
+		this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+	}
+
+	/**
+	 * @param responseCode
+	 * @return <code>true</code> if the server signals with <code>responseCode</code> that it is overloaded or that we
+	 *         are sending too many requests
+	 */
+	public static boolean isOverloadResponse(int responseCode) {
+		return responseCode == 429 || responseCode == HttpURLConnection.HTTP_UNAVAILABLE;
+	}
+
+	/**
+	 * Blocks until a request to the host is allowed. Every call has to be followed by exactly one call of
+	 * {@link #release(TileHttpResponse, long)} or {@link #release(int, long, long)}.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (true) {
+			long delay = blockedUntil - System.currentTimeMillis();
+			if (delay > 0)
+				wait(delay);
+			else if (active >= (int) limit)
+				wait();
+			else
+				break;
+		}
+		active++;
+		requestCount++;
+	}
+
+	/**
+	 * @param response
+	 *            the received response or <code>null</code> if the request failed
+	 * @param latency
+	 *            time in milliseconds between sending the request and receiving the complete response
+	 */
+	public void release(TileHttpResponse response, long latency) {
+		if (response == null)
+			release(-1, -1, latency);
+		else
+			release(response.getResponseCode(), response.getRetryAfter(), latency);
+	}
+
+	/**
+	 * @param responseCode
+	 *            the HTTP response code or <code>-1</code> if the request failed
+	 * @param retryAfter
+	 *            delay requested by the server in milliseconds or <code>-1</code>
+	 * @param latency
+	 *            time in milliseconds between sending the request and receiving the complete response
+	 */
+	public synchronized void release(int responseCode, long retryAfter, long latency) {
+		active--;
+		long now = System.currentTimeMillis();
+		if (isOverloadResponse(responseCode)) {
+			overloadCount++;
+			long delay = (retryAfter >= 0) ? Math.min(retryAfter, MAX_BACKOFF) : DEFAULT_BACKOFF;
+			blockedUntil = Math.max(blockedUntil, now + delay);
+			limit = Math.max(1, limit / 2);
+			lastDecrease = now;
+			log.debug("Host " + host + " is overloaded (HTTP " + responseCode + "): limit " + getLimit()
+					+ ", pausing for " + delay + " ms");
+		} else if (responseCode < 0) {
+			decrease(now);
+		} else {
+			updateLatency(latency);
+			if (smoothedLatency > CONGESTION_FACTOR * bestLatency)
+				decrease(now);
+			else if (limit < maxLimit && active >= (int) limit - 1)
+				// Only grow while the current limit is actually used
+				limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+		notifyAll();
+	}
+
+	private void updateLatency(long latency) {
+		double l = Math.max(1, latency);
+		if (smoothedLatency < 0) {
+			smoothedLatency = l;
+			bestLatency = l;
+			return;
+		}
+		smoothedLatency += (l - smoothedLatency) / 8;
+		// The best latency slowly follows the smoothed latency upwards so that a permanent change of the server's
+		// response time is not considered as congestion forever
+		if (l < bestLatency)
+			bestLatency = l;
+		else
+			bestLatency += (smoothedLatency - bestLatency) / 256;
+	}
+
+	private void decrease(long now) {
+		// Decrease at most once per latency interval - the responses of requests sent before the last decrease do not
+		// reflect it yet
+		if (now - lastDecrease < Math.max(smoothedLatency, 100))
+			return;
+		lastDecrease = now;
+		limit = Math.max(1, limit * DECREASE_FACTOR);
+		log.trace("Host " + host + " congested: limit " + getLimit());
+	}
+
+	/**
+	 * @return the number of concurrent requests currently allowed
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return the remaining time in milliseconds all requests to the host are paused because of an overload response
+	 */
+	public synchronized long getRemainingBackoff() {
+		return Math.max(0, blockedUntil - System.currentTimeMillis());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return host + ": limit=" + getLimit() + " active=" + active + " requests=" + requestCount + " overloaded="
+				+ overloadCount;
+	}
+
+}
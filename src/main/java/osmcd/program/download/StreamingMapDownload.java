@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.AtlasThread;
+import osmcd.program.JobDispatcher;
+import osmcd.program.atlascreators.tileprovider.StreamingDownloadedTileProvider;
+import osmcd.program.interfaces.DownloadableElement;
+import osmcd.program.interfaces.MapInterface;
+import osmcd.utilities.tilearchive.MappedTileArchive;
+
+/**
+ * Downloads all tiles of one map into a temporary {@link MappedTileArchive} on a separate thread. In contrast to the
+ * regular download performed by {@link AtlasThread#createMap(MapInterface)} the map creation can already start while
+ * the tiles are being downloaded (see {@link StreamingDownloadedTileProvider}).
+ * <p>
+ * A successor download registered via {@link #startAfterCompletion(StreamingMapDownload)} is started as soon as this
+ * download is complete, therefore the download of the next map overlaps with the creation of the current map.
+ * </p>
+ */
+public class StreamingMapDownload extends Thread {
+
+	private static final Logger log = Logger.getLogger(StreamingMapDownload.class);
+
+	private final AtlasThread atlasThread;
+	private final JobDispatcher downloadJobDispatcher;
+	private final MapInterface map;
+	private final MappedTileArchive tileArchive;
+
+	private DownloadJobProducerThread djp = null;
+	private StreamingMapDownload successor = null;
+	private boolean completed = false;
+	private boolean cancelled = false;
+
+	public StreamingMapDownload(AtlasThread atlasThread, JobDispatcher downloadJobDispatcher, MapInterface map,
+			MappedTileArchive tileArchive) {
+		super("StreamingMapDownload " + map.getName());
+		this.atlasThread = atlasThread;
+		this.downloadJobDispatcher = downloadJobDispatcher;
+		this.map = map;
+		this.tileArchive = tileArchive;
+	}
+
+	@Override
+	public void run() {
+		try {
+			synchronized (this) {
+				if (cancelled)
+					return;
+				djp = new DownloadJobProducerThread(atlasThread, downloadJobDispatcher, tileArchive,
+						(DownloadableElement) map);
+			}
+			while (djp.isAlive() || (downloadJobDispatcher.getWaitingJobCount() > 0)
+					|| downloadJobDispatcher.isAtLeastOneWorkerActive()) {
+				Thread.sleep(200);
+			}
+			log.debug("All download jobs of map \"" + map.getName() + "\" have been completed");
+		} catch (InterruptedException e) {
+			log.debug("Download of map \"" + map.getName() + "\" interrupted");
+		} finally {
+			tileArchive.setComplete();
+			StreamingMapDownload next;
+			synchronized (this) {
+				completed = true;
+				next = successor;
+			}
+			if (next != null && !isInterrupted())
+				next.start();
+		}
+	}
+
+	/**
+	 * Registers the download to be started after this download has completed. If this download has already completed
+	 * <code>next</code> is started immediately.
+	 * 
+	 * @param next
+	 */
+	public void startAfterCompletion(StreamingMapDownload next) {
+		synchronized (this) {
+			if (!completed) {
+				successor = next;
+				return;
+			}
+		}
+		next.start();
+	}
+
+	/**
+	 * Stops generating new download jobs for this map and removes the waiting jobs from the queue. Download jobs
+	 * currently processed are finished. Has no effect if the download has already completed (then the job queue may
+	 * already contain jobs of the successor download).
+	 */
+	public synchronized void cancel() {
+		if (completed)
+			return;
+		cancelled = true;
+		if (djp != null)
+			djp.cancel();
+		downloadJobDispatcher.cancelOutstandingJobs();
+	}
+
+	/**
+	 * Waits until all download jobs of this map have been finished. Does nothing if the download has never been started.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void waitForCompletion() throws InterruptedException {
+		if (getState() != State.NEW)
+			join();
+	}
+
+	public MapInterface getMap() {
+		return map;
+	}
+
+	public MappedTileArchive getTileArchive() {
+		return tileArchive;
+	}
+
+}
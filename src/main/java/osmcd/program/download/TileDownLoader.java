@@ -20,11 +20,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import osmcd.exceptions.DownloadFailedException;
 import osmcd.exceptions.UnrecoverableDownloadException;
+import osmcd.program.download.http.AsyncTileHttpClient;
+import osmcd.program.download.http.TileHttpRequest;
+import osmcd.program.download.http.TileHttpResponse;
 import osmcd.program.interfaces.HttpMapSource;
 import osmcd.program.interfaces.MapSourceListener;
 import osmcd.program.interfaces.MapSpace;
@@ -153,20 +160,20 @@ public class TileDownLoader {
 		log.trace("Downloading " + conn.getURL());
 
 		prepareConnection(conn);
-		conn.connect();
+		TileHttpResponse response = executeRequest(conn);
 
-		int code = conn.getResponseCode();
-		byte[] data = loadBodyDataInBuffer(conn);
+		int code = response.getResponseCode();
+		byte[] data = response.getData();
 
 		if (code != HttpURLConnection.HTTP_OK)
-			throw new DownloadFailedException(conn, code);
+			throw new DownloadFailedException(response);
 		
-		checkContentType(conn, data);
-		checkContentLength(conn, data);
+		checkContentType(response, data);
+		checkContentLength(response, data);
 		
-		String eTag = conn.getHeaderField("ETag");
-		long timeLastModified = conn.getLastModified();
-		long timeExpires = conn.getExpiration();
+		String eTag = response.getETag();
+		long timeLastModified = response.getLastModified();
+		long timeExpires = response.getExpiration();
 
 		Utilities.checkForInterruption();
 		TileImageType imageType = Utilities.getImageType(data);
@@ -235,33 +242,33 @@ public class TileDownLoader {
 		}
 		}
 
-		conn.connect();
+		TileHttpResponse response = executeRequest(conn);
 
 		Settings s = Settings.getInstance();
 
-		int code = conn.getResponseCode();
+		int code = response.getResponseCode();
 
 		if (conditionalRequest && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
 			// Data unchanged on server
 			if (s.tileStoreEnabled) {
-				tile.update(conn.getExpiration());
+				tile.update(response.getExpiration());
 				TileStore.getInstance().putTile(tile, mapSource);
 			}
 			if (log.isTraceEnabled())
 				log.trace("Data unchanged on server: " + mapSource + " " + tile);
 			return null;
 		}
-		byte[] data = loadBodyDataInBuffer(conn);
+		byte[] data = response.getData();
 
 		if (code != HttpURLConnection.HTTP_OK)
-			throw new DownloadFailedException(conn, code);
+			throw new DownloadFailedException(response);
 
-		checkContentType(conn, data);
-		checkContentLength(conn, data);
+		checkContentType(response, data);
+		checkContentLength(response, data);
 
-		String eTag = conn.getHeaderField("ETag");
-		long timeLastModified = conn.getLastModified();
-		long timeExpires = conn.getExpiration();
+		String eTag = response.getETag();
+		long timeLastModified = response.getLastModified();
+		long timeExpires = response.getExpiration();
 
 		Utilities.checkForInterruption();
 		TileImageType imageType = Utilities.getImageType(data);
@@ -290,6 +297,74 @@ public class TileDownLoader {
 		return (expiredTime < System.currentTimeMillis());
 	}
 
+	/**
+	 * Sends the request prepared in <code>conn</code> and reads the complete response. If enabled via
+	 * {@link Settings#asyncTileDownload} and possible the request is executed by the {@link AsyncTileHttpClient} (using
+	 * a persistent connection), otherwise by <code>conn</code> itself. The number of concurrent requests to the same
+	 * host is controlled by its {@link HostRateController}.
+	 * 
+	 * @param conn
+	 *            a not yet connected connection
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected static TileHttpResponse executeRequest(HttpURLConnection conn) throws IOException,
+			InterruptedException {
+		HostRateController rateController = HostRateController.getInstance(conn.getURL());
+		if (rateController == null)
+			return executeRequestDirect(conn);
+		rateController.acquire();
+		TileHttpResponse response = null;
+		long start = System.currentTimeMillis();
+		try {
+			response = executeRequestDirect(conn);
+			return response;
+		} finally {
+			rateController.release(response, System.currentTimeMillis() - start);
+		}
+	}
+
+	private static TileHttpResponse executeRequestDirect(HttpURLConnection conn) throws IOException,
+			InterruptedException {
+		AsyncTileHttpClient client = useAsyncClient(conn) ? AsyncTileHttpClient.getInstance() : null;
+		if (client != null) {
+			TileHttpResponse response = client.execute(TileHttpRequest.fromConnection(conn));
+			if (log.isTraceEnabled()) {
+				byte[] data = response.getData();
+				log.trace("Retrieved " + (data != null ? data.length : 0) + " bytes for a HTTP "
+						+ response.getResponseCode());
+			}
+			return response;
+		}
+		conn.connect();
+		int code = conn.getResponseCode();
+		byte[] data = null;
+		if (!"HEAD".equals(conn.getRequestMethod()) && code != HttpURLConnection.HTTP_NOT_MODIFIED)
+			data = loadBodyDataInBuffer(conn);
+		return TileHttpResponse.fromConnection(conn, data);
+	}
+
+	/**
+	 * The {@link AsyncTileHttpClient} is not used for <code>https</code>, via proxy and if the download bandwidth is
+	 * limited.
+	 */
+	private static boolean useAsyncClient(HttpURLConnection conn) {
+		Settings s = Settings.getInstance();
+		if (!s.asyncTileDownload || !AsyncTileHttpClient.isSupported(conn.getURL()))
+			return false;
+		if (Thread.currentThread() instanceof MapSourceListener && s.getBandwidthLimit() > 0)
+			return false;
+		try {
+			List<Proxy> proxies = ProxySelector.getDefault().select(conn.getURL().toURI());
+			if (!proxies.isEmpty() && proxies.get(0).type() != Proxy.Type.DIRECT)
+				return false;
+		} catch (URISyntaxException e) {
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Reads all available data from the input stream of <code>conn</code> and returns it as byte array. If no input
 	 * data is available the method returns <code>null</code>.
@@ -333,7 +408,8 @@ public class TileDownLoader {
 	/**
 	 * Performs a <code>HEAD</code> request for retrieving the <code>LastModified</code> header value.
 	 */
-	protected static boolean isTileNewer(TileStoreEntry tile, HttpMapSource mapSource) throws IOException {
+	protected static boolean isTileNewer(TileStoreEntry tile, HttpMapSource mapSource) throws IOException,
+			InterruptedException {
 		long oldLastModified = tile.getTimeLastModified();
 		if (oldLastModified <= 0) {
 			log.warn("Tile age comparison not possible: " + "tile in tilestore does not contain lastModified attribute");
@@ -342,13 +418,14 @@ public class TileDownLoader {
 		HttpURLConnection conn = mapSource.getTileUrlConnection(tile.getZoom(), tile.getX(), tile.getY());
 		conn.setRequestMethod("HEAD");
 		conn.setRequestProperty("Accept", ACCEPT);
-		long newLastModified = conn.getLastModified();
+		long newLastModified = executeRequest(conn).getLastModified();
 		if (newLastModified == 0)
 			return true;
 		return (newLastModified > oldLastModified);
 	}
 
-	protected static boolean hasTileETag(TileStoreEntry tile, HttpMapSource mapSource) throws IOException {
+	protected static boolean hasTileETag(TileStoreEntry tile, HttpMapSource mapSource) throws IOException,
+			InterruptedException {
 		String eTag = tile.geteTag();
 		if (eTag == null || eTag.length() == 0) {
 			log.warn("ETag check not possible: " + "tile in tilestore does not contain ETag attribute");
@@ -357,7 +434,7 @@ public class TileDownLoader {
 		HttpURLConnection conn = mapSource.getTileUrlConnection(tile.getZoom(), tile.getX(), tile.getY());
 		conn.setRequestMethod("HEAD");
 		conn.setRequestProperty("Accept", ACCEPT);
-		String onlineETag = conn.getHeaderField("ETag");
+		String onlineETag = executeRequest(conn).getETag();
 		if (onlineETag == null || onlineETag.length() == 0)
 			return true;
 		return (onlineETag.equals(eTag));
@@ -374,8 +451,9 @@ public class TileDownLoader {
 		conn.setRequestProperty("Accept", ACCEPT);
 	}
 
-	protected static void checkContentType(HttpURLConnection conn, byte[] data) throws UnrecoverableDownloadException {
-		String contentType = conn.getContentType();
+	protected static void checkContentType(TileHttpResponse response, byte[] data)
+			throws UnrecoverableDownloadException {
+		String contentType = response.getContentType();
 		if (contentType != null) {
 			contentType = contentType.toLowerCase();
 			if (!contentType.startsWith("image/")) {
@@ -391,12 +469,13 @@ public class TileDownLoader {
 	/**
 	 * Check if the retrieved data length is equal to the header value Content-Length
 	 * 
-	 * @param conn
+	 * @param response
 	 * @param data
 	 * @throws UnrecoverableDownloadException
 	 */
-	protected static void checkContentLength(HttpURLConnection conn, byte[] data) throws UnrecoverableDownloadException {
-		int len = conn.getContentLength();
+	protected static void checkContentLength(TileHttpResponse response, byte[] data)
+			throws UnrecoverableDownloadException {
+		int len = response.getContentLength();
 		if (len < 0)
 			return;
 		if (data.length != len)
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.model.Settings;
+
+/**
+ * Non-blocking HTTP/1.1 client for downloading tiles. All connections are served by one I/O thread using a
+ * {@link Selector}, so requests submitted via {@link #submit(TileHttpRequest)} do not occupy a thread while they are
+ * in flight. Connections are kept alive and reused per host - up to {@link Settings#httpMaxConnectionsPerHost}
+ * connections are opened to the same host, further requests are queued until a connection becomes free.
+ * <p>
+ * The {@link osmcd.program.download.TileDownLoader} uses the blocking {@link #execute(TileHttpRequest)}, therefore
+ * for tile downloads the client currently only provides the connection reuse (see
+ * {@link Settings#asyncTileDownload}).
+ * </p>
+ * <p>
+ * Only plain <code>http</code> without proxy is supported - see {@link #isSupported(URL)}.
+ * </p>
+ */
+public class AsyncTileHttpClient {
+
+	private static final Logger log = Logger.getLogger(AsyncTileHttpClient.class);
+
+	/**
+	 * Idle connections are closed after this time (milliseconds)
+	 */
+	private static final long IDLE_TIMEOUT = 15000;
+
+	private static final int MAX_REDIRECTS = 5;
+
+	private static AsyncTileHttpClient INSTANCE = null;
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final HashMap<String, HostConnectionPool> pools = new HashMap<String, HostConnectionPool>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(65536);
+	private final Thread ioThread;
+
+	/**
+	 * @return the shared client instance or <code>null</code> if it could not be started
+	 */
+	public static synchronized AsyncTileHttpClient getInstance() {
+		if (INSTANCE == null) {
+			try {
+				INSTANCE = new AsyncTileHttpClient();
+			} catch (IOException e) {
+				log.error("Unable to start the asynchronous HTTP client", e);
+			}
+		}
+		return INSTANCE;
+	}
+
+	protected AsyncTileHttpClient() throws IOException {
+		selector = Selector.open();
+		ioThread = new Thread("AsyncTileHttpClient") {
+			@Override
+			public void run() {
+				ioLoop();
+			}
+		};
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+
+	/**
+	 * @return <code>true</code> if requests for <code>url</code> can be executed by this client
+	 */
+	public static boolean isSupported(URL url) {
+		return "http".equalsIgnoreCase(url.getProtocol());
+	}
+
+	/**
+	 * Submits the request for asynchronous execution. Redirects are not followed.
+	 */
+	public TileHttpExchange submit(TileHttpRequest request) throws IOException {
+		if (!isSupported(request.getUrl()))
+			throw new IOException("Unsupported protocol: " + request.getUrl());
+		// Resolve the host name on the calling thread - the I/O thread must not block
+		InetSocketAddress address = new InetSocketAddress(request.getHost(), request.getPort());
+		if (address.isUnresolved())
+			throw new UnknownHostException(request.getHost());
+		final TileHttpExchange exchange = new TileHttpExchange(this, request, address);
+		runOnIoThread(new Runnable() {
+			public void run() {
+				try {
+					dispatch(exchange);
+				} catch (Throwable t) {
+					exchangeFailed(exchange, t);
+				}
+			}
+		});
+		return exchange;
+	}
+
+	/**
+	 * Executes the request and waits for the response. Redirects to <code>http</code> URLs are followed if
+	 * {@link TileHttpRequest#isFollowRedirects()} is set; other redirects are returned as response like
+	 * {@link java.net.HttpURLConnection} does.
+	 */
+	public TileHttpResponse execute(TileHttpRequest request) throws IOException, InterruptedException {
+		for (int redirects = 0;; redirects++) {
+			TileHttpExchange exchange = submit(request);
+			TileHttpResponse response;
+			try {
+				response = exchange.get();
+			} catch (InterruptedException e) {
+				exchange.cancel();
+				throw e;
+			}
+			if (!response.isRedirect() || !request.isFollowRedirects() || redirects >= MAX_REDIRECTS)
+				return response;
+			URL target = new URL(request.getUrl(), response.getHeaderField("Location"));
+			if (!isSupported(target))
+				return response;
+			log.trace("Redirect " + request.getUrl() + " -> " + target);
+			request = request.redirect(target);
+		}
+	}
+
+	void cancel(final TileHttpExchange exchange) {
+		runOnIoThread(new Runnable() {
+			public void run() {
+				if (exchange.isDone())
+					return;
+				try {
+					HttpConnection c = exchange.connection;
+					if (c != null) {
+						// The response has not been received completely - the connection can not be reused
+						c.exchange = null;
+						exchange.connection = null;
+						closeConnection(c);
+						dispatchWaiting(c.pool);
+					} else {
+						HostConnectionPool pool = pools.get(hostKey(exchange.request));
+						if (pool != null)
+							pool.waiting.remove(exchange);
+					}
+				} catch (Throwable t) {
+					log.error("Unexpected error while cancelling " + exchange, t);
+				} finally {
+					exchange.fail(new InterruptedIOException("Request cancelled"));
+				}
+			}
+		});
+	}
+
+	private void runOnIoThread(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	private void ioLoop() {
+		while (true) {
+			try {
+				selector.select(200);
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (Throwable t) {
+						// The tasks handle their errors themselves - this is only the last resort
+						log.error("Unexpected error in I/O thread task", t);
+					}
+				}
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					HttpConnection c = (HttpConnection) key.attachment();
+					try {
+						if (key.isValid() && key.isConnectable())
+							finishConnect(c);
+						if (key.isValid() && key.isWritable())
+							write(c);
+						if (key.isValid() && key.isReadable())
+							read(c);
+					} catch (IOException e) {
+						connectionFailed(c, e, true);
+					} catch (Throwable t) {
+						log.error("Unexpected error on connection " + c, t);
+						connectionFailed(c, toIOException(t), false);
+					}
+				}
+				checkTimeouts();
+			} catch (Throwable t) {
+				log.error("Unexpected error in I/O thread", t);
+			}
+		}
+	}
+
+	private static String hostKey(TileHttpRequest request) {
+		return request.getHost() + ":" + request.getPort();
+	}
+
+	private void dispatch(TileHttpExchange exchange) {
+		if (exchange.cancelled || exchange.isDone())
+			return;
+		String hostKey = hostKey(exchange.request);
+		HostConnectionPool pool = pools.get(hostKey);
+		if (pool == null) {
+			pool = new HostConnectionPool(hostKey);
+			pools.put(hostKey, pool);
+		}
+		HttpConnection c = pool.idle.poll();
+		if (c != null)
+			startExchange(c, exchange);
+		else if (pool.connections.size() < getMaxConnectionsPerHost())
+			openConnection(pool, exchange);
+		else
+			pool.waiting.add(exchange);
+	}
+
+	private void dispatchWaiting(HostConnectionPool pool) {
+		while (!pool.waiting.isEmpty() && pool.connections.size() < getMaxConnectionsPerHost()) {
+			TileHttpExchange exchange = pool.waiting.poll();
+			if (!exchange.isDone())
+				openConnection(pool, exchange);
+		}
+	}
+
+	private int getMaxConnectionsPerHost() {
+		return Math.max(1, Settings.getInstance().httpMaxConnectionsPerHost);
+	}
+
+	private void openConnection(HostConnectionPool pool, TileHttpExchange exchange) {
+		HttpConnection c = null;
+		try {
+			SocketChannel channel = SocketChannel.open();
+			c = new HttpConnection(pool, channel);
+			pool.connections.add(c);
+			startExchange(c, exchange);
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			if (channel.connect(exchange.address)) {
+				c.connecting = false;
+				c.key = channel.register(selector, SelectionKey.OP_WRITE, c);
+				c.deadline = deadline(exchange.request.getReadTimeout());
+			} else {
+				c.key = channel.register(selector, SelectionKey.OP_CONNECT, c);
+				c.deadline = deadline(exchange.request.getConnectTimeout());
+			}
+			log.trace("Opened connection " + c);
+		} catch (IOException e) {
+			if (c != null)
+				connectionFailed(c, e, false);
+			else
+				exchange.fail(e);
+		}
+	}
+
+	private void startExchange(HttpConnection c, TileHttpExchange exchange) {
+		c.exchange = exchange;
+		exchange.connection = c;
+		c.requestCount++;
+		c.requestData = ByteBuffer.wrap(exchange.request.encode());
+		c.parser = new HttpResponseParser(exchange.request.isHeadRequest());
+		if (!c.connecting) {
+			c.key.interestOps(SelectionKey.OP_WRITE);
+			c.deadline = deadline(exchange.request.getReadTimeout());
+		}
+	}
+
+	private void finishConnect(HttpConnection c) throws IOException {
+		if (!c.channel.finishConnect())
+			return;
+		c.connecting = false;
+		c.key.interestOps(SelectionKey.OP_WRITE);
+		if (c.exchange != null)
+			c.deadline = deadline(c.exchange.request.getReadTimeout());
+	}
+
+	private void write(HttpConnection c) throws IOException {
+		c.channel.write(c.requestData);
+		if (!c.requestData.hasRemaining())
+			c.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void read(HttpConnection c) throws IOException {
+		readBuffer.clear();
+		int n = c.channel.read(readBuffer);
+		if (c.exchange == null) {
+			// Idle connection: the server closed it or sent unexpected data
+			closeConnection(c);
+			return;
+		}
+		if (n < 0) {
+			if (c.parser.endOfStream())
+				complete(c, false);
+			else
+				throw new IOException("Connection closed by server");
+			return;
+		}
+		c.deadline = deadline(c.exchange.request.getReadTimeout());
+		readBuffer.flip();
+		if (c.parser.feed(readBuffer))
+			complete(c, c.parser.isKeepAlive() && !readBuffer.hasRemaining());
+	}
+
+	private void complete(HttpConnection c, boolean keepAlive) {
+		TileHttpExchange exchange = c.exchange;
+		c.exchange = null;
+		exchange.connection = null;
+		exchange.complete(c.parser.getResponse(exchange.request.getUrl()));
+		if (!keepAlive) {
+			closeConnection(c);
+			dispatchWaiting(c.pool);
+			return;
+		}
+		TileHttpExchange next = c.pool.waiting.poll();
+		while (next != null && next.isDone())
+			next = c.pool.waiting.poll();
+		if (next != null) {
+			startExchange(c, next);
+		} else {
+			c.deadline = System.currentTimeMillis() + IDLE_TIMEOUT;
+			// Stay interested in reading for detecting a connection closed by the server
+			c.key.interestOps(SelectionKey.OP_READ);
+			c.pool.idle.addFirst(c);
+		}
+	}
+
+	/**
+	 * @param retry
+	 *            repeat the request on a new connection if it failed on a reused connection before any response
+	 *            data was received (the server may have closed the idle connection in the meantime)
+	 */
+	private void connectionFailed(HttpConnection c, IOException e, boolean retry) {
+		TileHttpExchange exchange = c.exchange;
+		boolean retryRequest = retry && exchange != null && !exchange.retried && c.isReused()
+				&& !c.parser.isDataReceived();
+		closeConnection(c);
+		if (exchange != null) {
+			exchange.connection = null;
+			if (retryRequest) {
+				log.trace("Retrying " + exchange + " on a new connection: " + e);
+				exchange.retried = true;
+				dispatch(exchange);
+			} else
+				exchange.fail(e);
+		}
+		dispatchWaiting(c.pool);
+	}
+
+	/**
+	 * Fails the exchange after an unexpected (non I/O) error so that the waiting thread does not hang. The connection
+	 * assigned to the exchange is closed as its state is unknown.
+	 */
+	private void exchangeFailed(TileHttpExchange exchange, Throwable t) {
+		log.error("Unexpected error while processing " + exchange, t);
+		HttpConnection c = exchange.connection;
+		if (c != null)
+			connectionFailed(c, toIOException(t), false);
+		else if (!exchange.isDone())
+			exchange.fail(toIOException(t));
+	}
+
+	private static IOException toIOException(Throwable t) {
+		if (t instanceof IOException)
+			return (IOException) t;
+		return new IOException("Unexpected error: " + t, t);
+	}
+
+	private void closeConnection(HttpConnection c) {
+		if (c.closed)
+			return;
+		c.closed = true;
+		if (c.key != null)
+			c.key.cancel();
+		closeChannel(c.channel);
+		c.pool.connections.remove(c);
+		c.pool.idle.remove(c);
+		log.trace("Closed connection " + c);
+	}
+
+	private void checkTimeouts() {
+		long now = System.currentTimeMillis();
+		for (HostConnectionPool pool : pools.values()) {
+			if (pool.connections.isEmpty())
+				continue;
+			for (HttpConnection c : new ArrayList<HttpConnection>(pool.connections)) {
+				if (c.deadline <= 0 || c.deadline > now)
+					continue;
+				if (c.exchange == null)
+					closeConnection(c);
+				else
+					connectionFailed(c, new SocketTimeoutException(c.connecting ? "connect timed out"
+							: "Read timed out"), false);
+			}
+		}
+	}
+
+	private static long deadline(int timeout) {
+		return (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+	}
+
+	private static void closeChannel(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download.http;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * The open connections and the queued requests of one host/port. Only accessed by the I/O thread of the
+ * {@link AsyncTileHttpClient}.
+ */
+class HostConnectionPool {
+
+	final String hostKey;
+
+	/**
+	 * All open connections - idle or in use
+	 */
+	final ArrayList<HttpConnection> connections = new ArrayList<HttpConnection>();
+
+	/**
+	 * Idle connections - the most recently used first
+	 */
+	final LinkedList<HttpConnection> idle = new LinkedList<HttpConnection>();
+
+	/**
+	 * Requests waiting for a free connection
+	 */
+	final LinkedList<TileHttpExchange> waiting = new LinkedList<TileHttpExchange>();
+
+	HostConnectionPool(String hostKey) {
+		this.hostKey = hostKey;
+	}
+
+	@Override
+	public String toString() {
+		return hostKey;
+	}
+
+}
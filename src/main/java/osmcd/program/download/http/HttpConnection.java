@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download.http;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A persistent HTTP connection managed by the {@link AsyncTileHttpClient}. All fields are only accessed by the I/O
+ * thread.
+ */
+class HttpConnection {
+
+	final HostConnectionPool pool;
+	final SocketChannel channel;
+	SelectionKey key;
+
+	boolean connecting = true;
+	boolean closed = false;
+
+	/**
+	 * Number of requests started on this connection
+	 */
+	int requestCount = 0;
+
+	/**
+	 * The exchange currently processed or <code>null</code> if the connection is idle
+	 */
+	TileHttpExchange exchange = null;
+	ByteBuffer requestData;
+	HttpResponseParser parser;
+
+	/**
+	 * Point in time (milliseconds) at which the connect/read timeout or the idle timeout expires, <code>0</code> =
+	 * never
+	 */
+	long deadline = 0;
+
+	HttpConnection(HostConnectionPool pool, SocketChannel channel) {
+		this.pool = pool;
+		this.channel = channel;
+	}
+
+	/**
+	 * @return <code>true</code> if the current request is not the first one sent over this connection
+	 */
+	boolean isReused() {
+		return requestCount > 1;
+	}
+
+	@Override
+	public String toString() {
+		return "HttpConnection " + pool + " #" + requestCount;
+	}
+
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Incremental parser for a HTTP/1.x response. The data received from a non-blocking channel is passed in via
+ * {@link #feed(ByteBuffer)} in arbitrary portions. Supports bodies delimited by <code>Content-Length</code>, chunked
+ * transfer encoding and end of stream.
+ */
+class HttpResponseParser {
+
+	private static final int MAX_HEADER_SIZE = 65536;
+
+	private enum State {
+		STATUS_LINE, HEADER, BODY_LENGTH, BODY_UNTIL_CLOSE, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, TRAILER, DONE
+	};
+
+	private final boolean headRequest;
+
+	private State state = State.STATUS_LINE;
+	private final StringBuilder line = new StringBuilder(128);
+	private int headerSize = 0;
+	private boolean dataReceived = false;
+
+	private String httpVersion;
+	private int responseCode;
+	private Map<String, String> headers = TileHttpResponse.createHeaderMap();
+	private ByteArrayOutputStream body = null;
+	private long remaining;
+
+	public HttpResponseParser(boolean headRequest) {
+		this.headRequest = headRequest;
+	}
+
+	/**
+	 * Processes the available bytes of <code>buf</code>. Bytes following the end of the response remain in the
+	 * buffer.
+	 * 
+	 * @return <code>true</code> if the response is complete
+	 * @throws ProtocolException
+	 *             in case of a malformed response
+	 */
+	public boolean feed(ByteBuffer buf) throws ProtocolException {
+		if (buf.hasRemaining())
+			dataReceived = true;
+		while (buf.hasRemaining() && state != State.DONE) {
+			switch (state) {
+			case STATUS_LINE:
+			case HEADER:
+			case CHUNK_SIZE:
+			case CHUNK_DATA_END:
+			case TRAILER:
+				if (readLine(buf))
+					processLine();
+				break;
+			case BODY_LENGTH:
+			case CHUNK_DATA: {
+				int len = (int) Math.min(remaining, buf.remaining());
+				copyBody(buf, len);
+				remaining -= len;
+				if (remaining == 0)
+					state = (state == State.BODY_LENGTH) ? State.DONE : State.CHUNK_DATA_END;
+				break;
+			}
+			case BODY_UNTIL_CLOSE:
+				copyBody(buf, buf.remaining());
+				break;
+			}
+		}
+		return state == State.DONE;
+	}
+
+	/**
+	 * Signals that the server has closed the connection.
+	 * 
+	 * @return <code>true</code> if the response is complete
+	 */
+	public boolean endOfStream() {
+		if (state == State.BODY_UNTIL_CLOSE)
+			state = State.DONE;
+		return state == State.DONE;
+	}
+
+	public boolean isComplete() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * @return <code>true</code> if at least one byte of the response has been received
+	 */
+	public boolean isDataReceived() {
+		return dataReceived;
+	}
+
+	/**
+	 * @return <code>true</code> if the connection can be used for another request after the response is complete
+	 */
+	public boolean isKeepAlive() {
+		if (state == State.BODY_UNTIL_CLOSE)
+			return false;
+		String connection = headers.get("Connection");
+		if ("HTTP/1.0".equals(httpVersion))
+			return "keep-alive".equalsIgnoreCase(connection);
+		return !"close".equalsIgnoreCase(connection);
+	}
+
+	public TileHttpResponse getResponse(URL url) {
+		byte[] data = (body != null && body.size() > 0) ? body.toByteArray() : null;
+		return new TileHttpResponse(url, responseCode, headers, data);
+	}
+
+	private void copyBody(ByteBuffer buf, int len) {
+		if (body == null)
+			body = new ByteArrayOutputStream(Math.max(1024, (int) Math.min(remaining, 1 << 20)));
+		if (buf.hasArray()) {
+			body.write(buf.array(), buf.arrayOffset() + buf.position(), len);
+			buf.position(buf.position() + len);
+		} else {
+			byte[] tmp = new byte[len];
+			buf.get(tmp);
+			body.write(tmp, 0, len);
+		}
+	}
+
+	/**
+	 * Reads until the end of the current line.
+	 * 
+	 * @return <code>true</code> if a complete line (without line terminator) is in {@link #line}
+	 */
+	private boolean readLine(ByteBuffer buf) throws ProtocolException {
+		while (buf.hasRemaining()) {
+			char c = (char) (buf.get() & 0xFF);
+			if (++headerSize > MAX_HEADER_SIZE)
+				throw new ProtocolException("Response header too large");
+			if (c == '\n') {
+				int len = line.length();
+				if (len > 0 && line.charAt(len - 1) == '\r')
+					line.setLength(len - 1);
+				return true;
+			}
+			line.append(c);
+		}
+		return false;
+	}
+
+	private void processLine() throws ProtocolException {
+		String s = line.toString();
+		line.setLength(0);
+		switch (state) {
+		case STATUS_LINE:
+			if (s.length() == 0)
+				// tolerate empty lines before the status line
+				return;
+			parseStatusLine(s);
+			state = State.HEADER;
+			break;
+		case HEADER:
+			if (s.length() > 0) {
+				int colon = s.indexOf(':');
+				if (colon <= 0)
+					throw new ProtocolException("Invalid header line: " + s);
+				String name = s.substring(0, colon).trim();
+				String value = s.substring(colon + 1).trim();
+				// the last value of a header wins - except for a repeated Content-Length
+				if (!headers.containsKey(name) || !"Content-Length".equalsIgnoreCase(name))
+					headers.put(name, value);
+			} else
+				headerComplete();
+			break;
+		case CHUNK_SIZE: {
+			int ext = s.indexOf(';');
+			String size = (ext >= 0 ? s.substring(0, ext) : s).trim();
+			try {
+				remaining = Long.parseLong(size, 16);
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("Invalid chunk size: " + s);
+			}
+			if (remaining < 0)
+				throw new ProtocolException("Invalid chunk size: " + s);
+			headerSize = 0;
+			state = (remaining == 0) ? State.TRAILER : State.CHUNK_DATA;
+			break;
+		}
+		case CHUNK_DATA_END:
+			if (s.length() > 0)
+				throw new ProtocolException("Invalid chunk end");
+			state = State.CHUNK_SIZE;
+			break;
+		case TRAILER:
+			if (s.length() == 0)
+				state = State.DONE;
+			break;
+		}
+	}
+
+	private void parseStatusLine(String s) throws ProtocolException {
+		// HTTP/1.1 200 OK
+		String[] parts = s.split(" ", 3);
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+			throw new ProtocolException("Invalid status line: " + s);
+		httpVersion = parts[0];
+		try {
+			responseCode = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new ProtocolException("Invalid status line: " + s);
+		}
+	}
+
+	private void headerComplete() throws ProtocolException {
+		if (responseCode >= 100 && responseCode < 200) {
+			// Interim response (e.g. 100 Continue) - the final response follows
+			headers = TileHttpResponse.createHeaderMap();
+			state = State.STATUS_LINE;
+			return;
+		}
+		headerSize = 0;
+		if (headRequest || responseCode == 204 || responseCode == 304) {
+			state = State.DONE;
+			return;
+		}
+		String transferEncoding = headers.get("Transfer-Encoding");
+		if (transferEncoding != null && !"identity".equalsIgnoreCase(transferEncoding)) {
+			if (!transferEncoding.toLowerCase().endsWith("chunked"))
+				throw new ProtocolException("Unsupported transfer encoding: " + transferEncoding);
+			state = State.CHUNK_SIZE;
+			return;
+		}
+		String contentLength = headers.get("Content-Length");
+		if (contentLength != null) {
+			try {
+				remaining = Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("Invalid content length: " + contentLength);
+			}
+			state = (remaining > 0) ? State.BODY_LENGTH : State.DONE;
+			return;
+		}
+		state = State.BODY_UNTIL_CLOSE;
+	}
+
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request submitted to the {@link AsyncTileHttpClient} and its (future) response.
+ */
+public class TileHttpExchange {
+
+	/**
+	 * Time a request may spend in addition to its connect and read timeouts, e.g. waiting for a free connection to
+	 * the host (milliseconds)
+	 */
+	private static final long MAX_QUEUE_TIME = 60000;
+
+	/**
+	 * Upper limit for {@link #get()} if the request has no connect or read timeout (milliseconds)
+	 */
+	private static final long MAX_WAIT_WITHOUT_TIMEOUT = 300000;
+
+	private final AsyncTileHttpClient client;
+	final TileHttpRequest request;
+	final InetSocketAddress address;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile TileHttpResponse response = null;
+	private volatile IOException error = null;
+	volatile boolean cancelled = false;
+
+	/**
+	 * The connection currently processing this exchange - only accessed by the I/O thread
+	 */
+	HttpConnection connection = null;
+
+	/**
+	 * Set if the request has been repeated because a reused connection was closed by the server - only accessed by
+	 * the I/O thread
+	 */
+	boolean retried = false;
+
+	TileHttpExchange(AsyncTileHttpClient client, TileHttpRequest request, InetSocketAddress address) {
+		this.client = client;
+		this.request = request;
+		this.address = address;
+	}
+
+	public TileHttpRequest getRequest() {
+		return request;
+	}
+
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Waits until the response has been received completely. The waiting time is limited by the request timeouts plus
+	 * {@link #MAX_QUEUE_TIME} - if no response has been received by then the request is cancelled.
+	 * 
+	 * @throws IOException
+	 *             if the request failed or timed out
+	 */
+	public TileHttpResponse get() throws IOException, InterruptedException {
+		long maxWait = getMaxWait();
+		if (!done.await(maxWait, TimeUnit.MILLISECONDS)) {
+			cancel();
+			throw new SocketTimeoutException("No response within " + maxWait + " ms: " + request);
+		}
+		return getResult();
+	}
+
+	private long getMaxWait() {
+		int connectTimeout = request.getConnectTimeout();
+		int readTimeout = request.getReadTimeout();
+		if (connectTimeout <= 0 || readTimeout <= 0)
+			return MAX_WAIT_WITHOUT_TIMEOUT;
+		return connectTimeout + readTimeout + MAX_QUEUE_TIME;
+	}
+
+	/**
+	 * @return the response or <code>null</code> if it has not been received within the specified time
+	 */
+	public TileHttpResponse get(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		if (!done.await(timeout, unit))
+			return null;
+		return getResult();
+	}
+
+	private TileHttpResponse getResult() throws IOException {
+		if (error != null)
+			throw error;
+		return response;
+	}
+
+	/**
+	 * Aborts the request. The connection used for it is closed.
+	 */
+	public void cancel() {
+		if (isDone())
+			return;
+		cancelled = true;
+		client.cancel(this);
+	}
+
+	void complete(TileHttpResponse response) {
+		this.response = response;
+		done.countDown();
+	}
+
+	void fail(IOException error) {
+		this.error = error;
+		done.countDown();
+	}
+
+	@Override
+	public String toString() {
+		return request.toString();
+	}
+
+}
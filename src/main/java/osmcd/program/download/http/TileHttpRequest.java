@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download.http;
+
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A <code>GET</code> or <code>HEAD</code> request executed by the {@link AsyncTileHttpClient}.
+ */
+public class TileHttpRequest {
+
+	private final URL url;
+	private final String method;
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private int connectTimeout = 10000;
+	private int readTimeout = 10000;
+	private boolean followRedirects = true;
+
+	public TileHttpRequest(URL url, String method) {
+		this.url = url;
+		this.method = method;
+	}
+
+	/**
+	 * Creates a request equivalent to the (not yet connected) <code>conn</code>: URL, request method, request
+	 * properties, <code>If-Modified-Since</code>, timeouts and redirect handling are taken over.
+	 */
+	public static TileHttpRequest fromConnection(HttpURLConnection conn) {
+		TileHttpRequest request = new TileHttpRequest(conn.getURL(), conn.getRequestMethod());
+		for (Map.Entry<String, List<String>> entry : conn.getRequestProperties().entrySet()) {
+			String key = entry.getKey();
+			List<String> values = entry.getValue();
+			if (key == null || values == null || values.isEmpty())
+				continue;
+			request.setHeader(key, values.get(0));
+		}
+		if (conn.getIfModifiedSince() > 0)
+			request.setHeader("If-Modified-Since", formatHttpDate(conn.getIfModifiedSince()));
+		request.connectTimeout = conn.getConnectTimeout();
+		request.readTimeout = conn.getReadTimeout();
+		request.followRedirects = conn.getInstanceFollowRedirects();
+		return request;
+	}
+
+	/**
+	 * @return a copy of this request for the redirect target <code>newUrl</code>
+	 */
+	public TileHttpRequest redirect(URL newUrl) {
+		TileHttpRequest request = new TileHttpRequest(newUrl, method);
+		request.headers.putAll(headers);
+		request.connectTimeout = connectTimeout;
+		request.readTimeout = readTimeout;
+		request.followRedirects = followRedirects;
+		return request;
+	}
+
+	public URL getUrl() {
+		return url;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public boolean isHeadRequest() {
+		return "HEAD".equals(method);
+	}
+
+	public String getHost() {
+		return url.getHost().toLowerCase();
+	}
+
+	public int getPort() {
+		int port = url.getPort();
+		return (port >= 0) ? port : url.getDefaultPort();
+	}
+
+	public void setHeader(String name, String value) {
+		headers.put(name, value);
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return connect timeout in milliseconds, <code>0</code> = infinite
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return read timeout in milliseconds, <code>0</code> = infinite
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public boolean isFollowRedirects() {
+		return followRedirects;
+	}
+
+	public void setFollowRedirects(boolean followRedirects) {
+		this.followRedirects = followRedirects;
+	}
+
+	/**
+	 * @return the HTTP/1.1 request header as sent over the wire
+	 */
+	byte[] encode() {
+		StringBuilder sb = new StringBuilder(256);
+		String file = url.getFile();
+		if (file.length() == 0)
+			file = "/";
+		sb.append(method).append(' ').append(file).append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(url.getHost());
+		if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort())
+			sb.append(':').append(url.getPort());
+		sb.append("\r\n");
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			String name = header.getKey();
+			if ("Host".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name))
+				continue;
+			sb.append(name).append(": ").append(header.getValue()).append("\r\n");
+		}
+		sb.append("\r\n");
+		try {
+			return sb.toString().getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static String formatHttpDate(long time) {
+		SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return sdf.format(new Date(time));
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + url;
+	}
+
+}
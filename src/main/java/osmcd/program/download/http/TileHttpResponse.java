@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.download.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Status, header fields and body of a HTTP response - either received by the {@link AsyncTileHttpClient} or read from
+ * a {@link HttpURLConnection}. The accessor methods behave like their {@link HttpURLConnection} counterparts.
+ */
+public class TileHttpResponse {
+
+	private static final String[] DATE_FORMATS = { "EEE, dd MMM yyyy HH:mm:ss zzz", // RFC 1123
+			"EEEE, dd-MMM-yy HH:mm:ss zzz", // RFC 850
+			"EEE MMM d HH:mm:ss yyyy" // ANSI C asctime()
+	};
+
+	private final URL url;
+	private final int responseCode;
+	private final Map<String, String> headers;
+	private final byte[] data;
+
+	TileHttpResponse(URL url, int responseCode, Map<String, String> headers, byte[] data) {
+		this.url = url;
+		this.responseCode = responseCode;
+		this.headers = headers;
+		this.data = data;
+	}
+
+	/**
+	 * @param data
+	 *            the already retrieved body data or <code>null</code>
+	 */
+	public static TileHttpResponse fromConnection(HttpURLConnection conn, byte[] data) throws IOException {
+		int code = conn.getResponseCode();
+		Map<String, String> headers = createHeaderMap();
+		for (String key : conn.getHeaderFields().keySet()) {
+			if (key != null)
+				headers.put(key, conn.getHeaderField(key));
+		}
+		return new TileHttpResponse(conn.getURL(), code, headers, data);
+	}
+
+	static Map<String, String> createHeaderMap() {
+		return new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+	}
+
+	public URL getUrl() {
+		return url;
+	}
+
+	public int getResponseCode() {
+		return responseCode;
+	}
+
+	/**
+	 * @return the response body or <code>null</code> if the response had no or an empty body
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public String getHeaderField(String name) {
+		return headers.get(name);
+	}
+
+	public Map<String, String> getHeaderFields() {
+		return headers;
+	}
+
+	public String getContentType() {
+		return headers.get("Content-Type");
+	}
+
+	/**
+	 * @return the value of the <code>Content-Length</code> header or <code>-1</code> if not present
+	 */
+	public int getContentLength() {
+		String len = headers.get("Content-Length");
+		if (len == null)
+			return -1;
+		try {
+			return Integer.parseInt(len.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public String getETag() {
+		return headers.get("ETag");
+	}
+
+	/**
+	 * @return the value of the <code>Last-Modified</code> header or <code>0</code> if not present
+	 */
+	public long getLastModified() {
+		return getHeaderFieldDate("Last-Modified", 0);
+	}
+
+	/**
+	 * @return the value of the <code>Expires</code> header or <code>0</code> if not present
+	 */
+	public long getExpiration() {
+		return getHeaderFieldDate("Expires", 0);
+	}
+
+	/**
+	 * @return the delay in milliseconds requested by the <code>Retry-After</code> header (in seconds or as HTTP date)
+	 *         or <code>-1</code> if not present or invalid
+	 */
+	public long getRetryAfter() {
+		String value = headers.get("Retry-After");
+		if (value == null)
+			return -1;
+		value = value.trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+		}
+		long date = parseHttpDate(value, -1);
+		if (date < 0)
+			return -1;
+		return Math.max(0, date - System.currentTimeMillis());
+	}
+
+	public long getHeaderFieldDate(String name, long defaultValue) {
+		String value = headers.get(name);
+		if (value == null)
+			return defaultValue;
+		return parseHttpDate(value.trim(), defaultValue);
+	}
+
+	/**
+	 * @return <code>true</code> for the response codes 301, 302, 303 and 307 with a <code>Location</code> header
+	 */
+	public boolean isRedirect() {
+		switch (responseCode) {
+		case HttpURLConnection.HTTP_MOVED_PERM:
+		case HttpURLConnection.HTTP_MOVED_TEMP:
+		case HttpURLConnection.HTTP_SEE_OTHER:
+		case 307:
+			return headers.get("Location") != null;
+		default:
+			return false;
+		}
+	}
+
+	public static long parseHttpDate(String value, long defaultValue) {
+		for (String format : DATE_FORMATS) {
+			SimpleDateFormat sdf = new SimpleDateFormat(format, Locale.US);
+			sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+			try {
+				return sdf.parse(value).getTime();
+			} catch (ParseException e) {
+			}
+		}
+		return defaultValue;
+	}
+
+	@Override
+	public String toString() {
+		return "HTTP " + responseCode + " " + url;
+	}
+
+}
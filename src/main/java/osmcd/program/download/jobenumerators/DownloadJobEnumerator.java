@@ -25,10 +25,17 @@ import osmcd.program.interfaces.DownloadJobListener;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.TileFilter;
 import osmcd.program.model.Map;
-import osmcd.utilities.tar.TarIndexedArchive;
+import osmcd.program.model.Settings;
+import osmcd.program.model.TileOrder;
+import osmcd.utilities.tilearchive.MappedTileArchive;
 
 /**
  * Enumerates / creates the download jobs for a regular rectangle single layer map.
+ * <p>
+ * The tiles are enumerated in the {@link TileOrder} of the tile archive (or {@link Settings#downloadTileOrder} if the
+ * tiles are only downloaded into the tile store). Space filling curves keep neighboring tiles close together in the
+ * archive, in the tile store and in the request sequence sent to the tile server.
+ * </p>
  */
 public class DownloadJobEnumerator implements Enumeration<Job> {
 
@@ -39,13 +46,13 @@ public class DownloadJobEnumerator implements Enumeration<Job> {
 	final protected int yMax;
 	final protected int zoom;
 	final protected MapSource mapSource;
-	final protected TarIndexedArchive tileArchive;
+	final protected MappedTileArchive tileArchive;
+	final protected TileOrder.Iterator tileIterator;
 
-	protected int x, y;
 	protected Job nextJob;
 
 	/**
-	 * This enumerator is the unfolded version for two encapsulated loops:
+	 * This enumerator is the unfolded version for two encapsulated loops (in case of {@link TileOrder#ROW_MAJOR}):
 	 * 
 	 * <pre>
 	 * for (int y = yMin; y &lt;= yMax; y++) {
@@ -59,7 +66,7 @@ public class DownloadJobEnumerator implements Enumeration<Job> {
 	 * @param tileArchive
 	 * @param listener
 	 */
-	public DownloadJobEnumerator(Map map, MapSource mapSource, TarIndexedArchive tileArchive,
+	public DownloadJobEnumerator(Map map, MapSource mapSource, MappedTileArchive tileArchive,
 			DownloadJobListener listener) {
 		this.tileFilter = map.getTileFilter();
 		this.listener = listener;
@@ -73,12 +80,11 @@ public class DownloadJobEnumerator implements Enumeration<Job> {
 		this.zoom = map.getZoom();
 		this.tileArchive = tileArchive;
 		this.mapSource = mapSource;
-		y = yMin;
-		x = xMin;
+		TileOrder order = (tileArchive != null) ? tileArchive.getTileOrder() : Settings.getInstance().downloadTileOrder;
+		tileIterator = order.iterate(xMin, yMin, xMax, yMax);
 
-		nextJob = new DownloadJob(mapSource, x, y, zoom, tileArchive, listener);
-		if (!tileFilter.testTile(x, y, zoom, mapSource))
-			nextElement();
+		nextJob = null;
+		nextElement();
 	}
 
 	public boolean hasMoreElements() {
@@ -87,20 +93,15 @@ public class DownloadJobEnumerator implements Enumeration<Job> {
 
 	public Job nextElement() {
 		Job job = nextJob;
-		boolean filter = false;
-		do {
-			x++;
-			if (x > xMax) {
-				y++;
-				x = xMin;
-				if (y > yMax) {
-					nextJob = null;
-					return job;
-				}
+		nextJob = null;
+		while (tileIterator.next()) {
+			int x = tileIterator.getX();
+			int y = tileIterator.getY();
+			if (tileFilter.testTile(x, y, zoom, mapSource)) {
+				nextJob = new DownloadJob(mapSource, x, y, zoom, tileArchive, listener);
+				break;
 			}
-			filter = tileFilter.testTile(x, y, zoom, mapSource);
-		} while (!filter);
-		nextJob = new DownloadJob(mapSource, x, y, zoom, tileArchive, listener);
+		}
 		return job;
 	}
 }
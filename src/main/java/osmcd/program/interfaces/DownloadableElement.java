@@ -19,7 +19,7 @@ package osmcd.program.interfaces;
 import java.util.Enumeration;
 
 import osmcd.program.JobDispatcher.Job;
-import osmcd.utilities.tar.TarIndexedArchive;
+import osmcd.utilities.tilearchive.MappedTileArchive;
 
 
 /**
@@ -40,7 +40,7 @@ public interface DownloadableElement {
 	 *         download one map tile from the providing web server (or from the
 	 *         tile cache).
 	 */
-	public Enumeration<Job> getDownloadJobs(TarIndexedArchive tileArchive,
+	public Enumeration<Job> getDownloadJobs(MappedTileArchive tileArchive,
 			DownloadJobListener listener);
 	
 }
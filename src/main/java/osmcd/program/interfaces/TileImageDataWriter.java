@@ -45,4 +45,12 @@ public interface TileImageDataWriter {
 	
 	public TileImageType getType();
 
+	/**
+	 * Creates a new, not yet initialized writer instance with the same settings as this one. An initialized writer is
+	 * not thread-safe, therefore each thread that encodes images concurrently requires its own instance.
+	 * 
+	 * @return new writer instance - {@link #initialize()} has to be called before use
+	 */
+	public TileImageDataWriter duplicate();
+
 }
@@ -43,7 +43,7 @@ import osmcd.program.interfaces.TileFilter;
 import osmcd.program.interfaces.ToolTipProvider;
 import osmcd.program.tilefilter.DummyTileFilter;
 import osmcd.utilities.I18nUtils;
-import osmcd.utilities.tar.TarIndexedArchive;
+import osmcd.utilities.tilearchive.MappedTileArchive;
 
 public class Map implements MapInterface, ToolTipProvider, CapabilityDeletable, TreeNode, DownloadableElement
 {
@@ -367,7 +367,7 @@ public class Map implements MapInterface, ToolTipProvider, CapabilityDeletable,
 		calculateRuntimeValues();
 	}
 
-	public Enumeration<Job> getDownloadJobs(TarIndexedArchive tileArchive, DownloadJobListener listener)
+	public Enumeration<Job> getDownloadJobs(MappedTileArchive tileArchive, DownloadJobListener listener)
 	{
 		return new DownloadJobEnumerator(this, mapSource, tileArchive, listener);
 	}
@@ -37,6 +37,7 @@ import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.MapSpace;
 import osmcd.program.interfaces.TileFilter;
 import osmcd.program.tilefilter.PolygonTileFilter;
+import osmcd.program.tilefilter.PolygonTileRaster;
 import osmcd.utilities.I18nUtils;
 import osmcd.utilities.MyMath;
 
@@ -46,6 +47,7 @@ public class MapPolygon extends Map {
 	@XmlElement
 	protected Polygon polygon;
 	protected long calculatedTileCount = -1;
+	protected PolygonTileRaster tileRaster = null;
 
 	protected MapPolygon() {
 	}
@@ -174,21 +176,7 @@ public class MapPolygon extends Map {
 	}
 
 	protected void internalCalculateTilesToDownload() {
-		int tileSize = mapSource.getMapSpace().getTileSize();
-		double tileSizeD = tileSize;
-		int xMin = minTileCoordinate.x;
-		int xMax = maxTileCoordinate.x;
-		int yMin = minTileCoordinate.y;
-		int yMax = maxTileCoordinate.y;
-
-		int count = 0;
-		for (int x = xMin; x <= xMax; x += tileSize) {
-			for (int y = yMin; y <= yMax; y += tileSize) {
-				if (polygon.intersects(x, y, tileSizeD, tileSizeD))
-					count++;
-			}
-		}
-		calculatedTileCount = count;
+		calculatedTileCount = getTileRaster().getTileCount();
 	}
 
 	@Override
@@ -220,6 +208,15 @@ public class MapPolygon extends Map {
 		return polygon;
 	}
 
+	/**
+	 * @return the tile spans covered by the polygon, computed on first access
+	 */
+	public synchronized PolygonTileRaster getTileRaster() {
+		if (tileRaster == null)
+			tileRaster = new PolygonTileRaster(polygon, mapSource.getMapSpace().getTileSize());
+		return tileRaster;
+	}
+
 	public TileFilter getTileFilter() {
 		return new PolygonTileFilter(this);
 	}
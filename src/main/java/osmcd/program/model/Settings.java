@@ -53,6 +53,9 @@ import osmcd.gui.panels.JCoordinatesPanel;
 import osmcd.mapsources.MapSourcesManager;
 import osmcd.program.DirectoryManager;
 import osmcd.program.ProgramInfo;
+import osmcd.program.download.http.AsyncTileHttpClient;
+import osmcd.program.tilestore.TileStoreType;
+import osmcd.program.tilestore.TileStoreWriteMode;
 import osmcd.utilities.I18nUtils;
 import osmcd.utilities.Utilities;
 import osmcd.utilities.stream.ThrottledInputStream;
@@ -80,6 +83,17 @@ public class Settings {
 
 	public boolean tileStoreEnabled = true;
 
+	/**
+	 * Trade-off between throughput and durability when writing downloaded tiles to the tile store. The write-behind
+	 * modes lose the queued tiles on a crash and therefore have to be enabled explicitly.
+	 */
+	public TileStoreWriteMode tileStoreWriteMode = TileStoreWriteMode.DIRECT;
+
+	/**
+	 * Database backend used for the tile store. Changes take effect after a restart.
+	 */
+	public TileStoreType tileStoreType = TileStoreType.BERKELEY_DB;
+
 	/**
 	 * Mapview related settings
 	 */
@@ -96,6 +110,11 @@ public class Settings {
 	@XmlElement(nillable = false)
 	public String mapviewMapSource = null;
 
+	/**
+	 * Maximum memory in MiB used by the map view for caching decoded tile images
+	 */
+	public int mapviewTileCacheSize = 128;
+
 	public String elementName = null;
 
 	private String userAgent = null;
@@ -103,6 +122,49 @@ public class Settings {
 	public int downloadThreadCount = 2;
 	public int downloadRetryCount = 1;
 
+	/**
+	 * Number of threads used for painting and encoding custom sized tiles and for composing and compressing the map
+	 * images of OziExplorer like formats and the sub-images of Magellan RMP atlases as well as for converting tiles to
+	 * another image format. A value of <code>1</code> processes all tiles sequentially on the atlas thread,
+	 * <code>0</code> uses one thread per available processor.
+	 */
+	public int customTileProcessingThreads = 1;
+
+	/**
+	 * Resample the map tiles of Magellan RMP atlases using bilinear interpolation instead of nearest neighbor sampling.
+	 */
+	public boolean rmpBilinearResampling = false;
+
+	/**
+	 * Number of tiles loaded and decoded ahead of the atlas creator by the
+	 * {@link osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider}.
+	 */
+	public int tilePrefetchLookahead = 32;
+
+	/**
+	 * Number of threads used for prefetching tiles. <code>0</code> disables prefetching.
+	 */
+	public int tilePrefetchThreads = 2;
+
+	/**
+	 * Start the map creation while the tiles of the map are still being downloaded and download the next map while the
+	 * current one is created. Only used for atlas formats that support it.
+	 */
+	public boolean streamingMapCreation = false;
+
+	/**
+	 * Number of maps downloaded and created concurrently. Only used for atlas formats that support it, takes precedence
+	 * over {@link #streamingMapCreation}. The download threads are divided between the concurrent maps. A value of
+	 * <code>1</code> creates the maps one after the other.
+	 */
+	public int parallelMapCreationCount = 1;
+
+	/**
+	 * Order in which the tiles of a map are downloaded. Not used for streaming map creation which always downloads the
+	 * tiles row by row (see {@link #streamingMapCreation}).
+	 */
+	public TileOrder downloadTileOrder = TileOrder.HILBERT;
+
 	private boolean customTileProcessing = false;
 	private Dimension tileSize = new Dimension(256, 256);
 	private TileImageFormat tileImageFormat = TileImageFormat.PNG;
@@ -136,6 +198,26 @@ public class Settings {
 	 */
 	public int httpReadTimeout = 10;
 
+	/**
+	 * Download tiles from <code>http</code> map sources via the {@link AsyncTileHttpClient}, which keeps persistent
+	 * connections per host. Each download thread still waits for its request, therefore the number of requests in
+	 * flight is limited by the number of download threads as before. Tiles of <code>https</code> map sources,
+	 * downloads via proxy and bandwidth limited atlas downloads always use {@link java.net.HttpURLConnection}
+	 * (disabled by default).
+	 */
+	public boolean asyncTileDownload = false;
+
+	/**
+	 * Maximum number of connections opened by the {@link AsyncTileHttpClient} to the same host
+	 */
+	public int httpMaxConnectionsPerHost = 8;
+
+	/**
+	 * Adapt the number of concurrent requests to each tile server to its latency and to overload responses (HTTP 429
+	 * and 503 including <code>Retry-After</code>), see {@link osmcd.program.download.HostRateController}
+	 */
+	public boolean adaptiveDownloadConcurrency = true;
+
 	/**
 	 * Maximum expiration (in milliseconds) acceptable. If a server sets an expiration time larger than this value it is
 	 * truncated to this value on next download.
@@ -176,6 +258,12 @@ public class Settings {
 
 		@XmlElement
 		public Integer garminCustomMaxMapCount = 100;
+
+		/**
+		 * Write MBTiles atlases using the "map" and "images" tables so that identical tiles are stored only once
+		 */
+		@XmlElement
+		public Boolean mbtilesDeduplicate = false;
 	}
 
 	public final MainWindowSettings mainWindow = new MainWindowSettings();
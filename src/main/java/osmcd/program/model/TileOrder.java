@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.model;
+
+/**
+ * Order in which the tiles of a rectangular tile region are enumerated, e.g. for downloading.
+ * <p>
+ * The space filling curves ({@link #HILBERT}, {@link #Z_ORDER}) keep tiles that are close to each other in two
+ * dimensions close to each other in the enumeration. For non-square regions the region is split into squares along its
+ * longer side and the curve is applied to one square after the other.
+ * </p>
+ */
+public enum TileOrder {
+
+	/**
+	 * Row by row, from left to right
+	 */
+	ROW_MAJOR,
+
+	/**
+	 * Morton order (recursive "Z" pattern)
+	 */
+	Z_ORDER,
+
+	/**
+	 * Hilbert curve - consecutive tiles are always neighbors (within a square)
+	 */
+	HILBERT;
+
+	/**
+	 * Creates an iterator over all tiles of the specified region (inclusive).
+	 */
+	public Iterator iterate(int xMin, int yMin, int xMax, int yMax) {
+		if (this == ROW_MAJOR)
+			return new RowMajorIterator(xMin, yMin, xMax, yMax);
+		return new CurveIterator(this, xMin, yMin, xMax, yMax);
+	}
+
+	/**
+	 * Allocation free iterator over tile coordinates:
+	 * 
+	 * <pre>
+	 * TileOrder.Iterator it = order.iterate(xMin, yMin, xMax, yMax);
+	 * while (it.next()) {
+	 * 	process(it.getX(), it.getY());
+	 * }
+	 * </pre>
+	 */
+	public static abstract class Iterator {
+
+		protected int x;
+		protected int y;
+
+		/**
+		 * Moves to the next tile.
+		 * 
+		 * @return <code>false</code> if all tiles have been enumerated
+		 */
+		public abstract boolean next();
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+	}
+
+	private static class RowMajorIterator extends Iterator {
+
+		private final int xMin;
+		private final int xMax;
+		private final int yMax;
+
+		public RowMajorIterator(int xMin, int yMin, int xMax, int yMax) {
+			this.xMin = xMin;
+			this.xMax = xMax;
+			this.yMax = yMax;
+			x = xMin - 1;
+			y = yMin;
+		}
+
+		@Override
+		public boolean next() {
+			if (xMin > xMax || y > yMax)
+				return false;
+			x++;
+			if (x > xMax) {
+				x = xMin;
+				y++;
+			}
+			return y <= yMax;
+		}
+	}
+
+	/**
+	 * Walks the region in squares of <code>size x size</code> tiles (<code>size</code> is the smallest power of two not
+	 * smaller than the shorter side of the region). Within each square the curve index is decoded step by step, indices
+	 * outside of the region are skipped.
+	 */
+	private static class CurveIterator extends Iterator {
+
+		private final boolean hilbert;
+		private final int xMin;
+		private final int yMin;
+		private final int xMax;
+		private final int yMax;
+		/**
+		 * <code>true</code> if the region is higher than wide: the squares are stacked vertically and the curve is
+		 * transposed so that consecutive squares connect
+		 */
+		private final boolean vertical;
+		private final int size;
+		private final long squareLength;
+		private final int squareCount;
+
+		private int square = 0;
+		private long d = -1;
+
+		public CurveIterator(TileOrder order, int xMin, int yMin, int xMax, int yMax) {
+			this.hilbert = (order == HILBERT);
+			this.xMin = xMin;
+			this.yMin = yMin;
+			this.xMax = xMax;
+			this.yMax = yMax;
+			int width = xMax - xMin + 1;
+			int height = yMax - yMin + 1;
+			vertical = height > width;
+			int shortSide = Math.max(1, Math.min(width, height));
+			int longSide = Math.max(width, height);
+			int s = 1;
+			while (s < shortSide)
+				s <<= 1;
+			size = s;
+			squareLength = (long) s * s;
+			squareCount = (width <= 0 || height <= 0) ? 0 : (longSide + s - 1) / s;
+		}
+
+		@Override
+		public boolean next() {
+			while (square < squareCount) {
+				d++;
+				if (d >= squareLength) {
+					square++;
+					d = -1;
+					continue;
+				}
+				if (hilbert)
+					hilbertToXY(d);
+				else
+					mortonToXY(d);
+				// (x, y) relative to the square, (x along the long side)
+				int along = square * size + x;
+				int across = y;
+				int tx, ty;
+				if (vertical) {
+					tx = xMin + across;
+					ty = yMin + along;
+				} else {
+					tx = xMin + along;
+					ty = yMin + across;
+				}
+				if (tx <= xMax && ty <= yMax) {
+					x = tx;
+					y = ty;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Hilbert curve index to coordinates. The curve starts at (0,0) and ends at (size-1,0), therefore the squares
+		 * connect along the x axis.
+		 */
+		private void hilbertToXY(long d) {
+			int rx, ry;
+			long t = d;
+			int hx = 0;
+			int hy = 0;
+			for (int s = 1; s < size; s <<= 1) {
+				rx = (int) (1 & (t >>> 1));
+				ry = (int) (1 & (t ^ rx));
+				// rotate
+				if (ry == 0) {
+					if (rx == 1) {
+						hx = s - 1 - hx;
+						hy = s - 1 - hy;
+					}
+					int tmp = hx;
+					hx = hy;
+					hy = tmp;
+				}
+				hx += s * rx;
+				hy += s * ry;
+				t >>>= 2;
+			}
+			x = hx;
+			y = hy;
+		}
+
+		private void mortonToXY(long d) {
+			int mx = 0;
+			int my = 0;
+			for (int bit = 0; (1L << (2 * bit)) < squareLength; bit++) {
+				mx |= (int) ((d >>> (2 * bit)) & 1) << bit;
+				my |= (int) ((d >>> (2 * bit + 1)) & 1) << bit;
+			}
+			x = mx;
+			y = my;
+		}
+	}
+
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import osmcd.optional.JavaAdvancedImaging;
+import osmcd.program.interfaces.TileImageDataWriter;
 
 public class TileImagePng8DataWriter extends TileImagePngDataWriter {
 
@@ -33,4 +34,9 @@ public class TileImagePng8DataWriter extends TileImagePngDataWriter {
 		super.processImage(image2, out);
 	}
 
+	@Override
+	public TileImageDataWriter duplicate() {
+		return new TileImagePng8DataWriter();
+	}
+
 }
@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tiledatawriter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import osmcd.program.interfaces.TileImageDataWriter;
+import osmcd.program.model.TileImageFormat;
+import osmcd.program.model.TileImageType;
+import osmcd.utilities.Utilities;
+
+/**
+ * Converts encoded tiles to a {@link TileImageFormat}. Tiles that are already stored in the target format are passed
+ * through unchanged:
+ * <ul>
+ * <li>any PNG for {@link TileImageFormat#PNG}</li>
+ * <li>palette PNGs with a bit depth of up to 8 (or 4) bits for the 8 (or 4) bit PNG formats</li>
+ * <li>JPEGs with an estimated quality not above the target quality for the JPEG formats - re-encoding them would only
+ * add compression artifacts</li>
+ * </ul>
+ * 
+ * All other tiles are decoded and encoded again. Each thread uses its own image readers, data writer and buffers which
+ * are reused for all tiles; if the decoder supports it the tiles are decoded into a reused opaque RGB image. Therefore
+ * an instance can be used by several threads concurrently.
+ */
+public class TileImageTranscoder {
+
+	/**
+	 * Sum of the standard JPEG luminance quantization table (ITU T.81 Annex K.1)
+	 */
+	private static final int STD_LUMINANCE_SUM = 3688;
+
+	private final TileImageFormat format;
+
+	/**
+	 * Maximum quality (0..100) of JPEG tiles that are passed through, <code>-1</code> if the target format is not JPEG
+	 */
+	private final int passThroughJpegQuality;
+
+	/**
+	 * Maximum bit depth of palette PNG tiles that are passed through, <code>-1</code> if the target format is not a
+	 * palette PNG format and <code>0</code> for full color PNG
+	 */
+	private final int passThroughPngBitDepth;
+
+	private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+
+		@Override
+		protected Worker initialValue() {
+			return new Worker();
+		}
+	};
+
+	public TileImageTranscoder(TileImageFormat format) {
+		this.format = format;
+		ImageIO.setUseCache(false);
+		TileImageDataWriter writer = format.getDataWriter();
+		if (writer instanceof TileImageJpegDataWriter) {
+			float quality = ((TileImageJpegDataWriter) writer).getJpegCompressionLevel();
+			passThroughJpegQuality = Math.round(quality * 100);
+		} else
+			passThroughJpegQuality = -1;
+		if (writer instanceof TileImagePng8DataWriter)
+			passThroughPngBitDepth = 8;
+		else if (writer instanceof TileImagePng4DataWriter)
+			passThroughPngBitDepth = 4;
+		else if (writer instanceof TileImagePngDataWriter)
+			passThroughPngBitDepth = 0;
+		else
+			passThroughPngBitDepth = -1;
+	}
+
+	public TileImageFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @param tileData
+	 *            encoded tile, may be <code>null</code>
+	 * @return the tile in the target format or <code>null</code> if <code>tileData</code> is <code>null</code>. The
+	 *         returned array may be <code>tileData</code> itself.
+	 */
+	public byte[] transcode(byte[] tileData) throws IOException {
+		if (tileData == null)
+			return null;
+		TileImageType type = Utilities.getImageType(tileData);
+		if (isTargetFormat(tileData, type))
+			return tileData;
+		return workers.get().transcode(tileData, type);
+	}
+
+	/**
+	 * Encodes an already decoded tile.
+	 */
+	public byte[] encode(BufferedImage image) throws IOException {
+		return workers.get().encode(image);
+	}
+
+	/**
+	 * @return <code>true</code> if the tile can be used without conversion
+	 */
+	public boolean isTargetFormat(byte[] tileData, TileImageType type) {
+		if (type == TileImageType.JPG)
+			return passThroughJpegQuality >= 0 && estimateJpegQuality(tileData) <= passThroughJpegQuality;
+		if (type == TileImageType.PNG) {
+			if (passThroughPngBitDepth == 0)
+				return true;
+			if (passThroughPngBitDepth < 0 || tileData.length < 26)
+				return false;
+			// IHDR chunk: bit depth at offset 24, color type at offset 25 (3 = palette)
+			int bitDepth = tileData[24] & 0xFF;
+			int colorType = tileData[25] & 0xFF;
+			return colorType == 3 && bitDepth <= passThroughPngBitDepth;
+		}
+		return false;
+	}
+
+	/**
+	 * Estimates the libjpeg quality setting (1..100) a JPEG image has been encoded with by comparing its luminance
+	 * quantization table with the standard table. Encoders using non-standard tables (or none at all) result in rough
+	 * estimates.
+	 * 
+	 * @return the estimated quality or <code>Integer.MAX_VALUE</code> if no luminance table could be found
+	 */
+	public static int estimateJpegQuality(byte[] jpegData) {
+		int pos = 2;
+		while (pos + 4 <= jpegData.length) {
+			if ((jpegData[pos] & 0xFF) != 0xFF)
+				break;
+			int marker = jpegData[pos + 1] & 0xFF;
+			if (marker == 0xFF) {
+				// fill byte
+				pos++;
+				continue;
+			}
+			if (marker == 0xDA || marker == 0xD9)
+				// start of scan or end of image - the tables precede the first scan
+				break;
+			int length = ((jpegData[pos + 2] & 0xFF) << 8) | (jpegData[pos + 3] & 0xFF);
+			int segmentEnd = Math.min(pos + 2 + length, jpegData.length);
+			if (marker == 0xDB) {
+				int p = pos + 4;
+				while (p < segmentEnd) {
+					int precision = (jpegData[p] & 0xFF) >> 4;
+					int tableId = jpegData[p] & 0x0F;
+					p++;
+					int entrySize = (precision == 0) ? 1 : 2;
+					if (p + 64 * entrySize > segmentEnd)
+						break;
+					if (tableId == 0) {
+						int sum = 0;
+						for (int i = 0; i < 64; i++, p += entrySize)
+							sum += (entrySize == 1) ? jpegData[p] & 0xFF
+									: ((jpegData[p] & 0xFF) << 8) | (jpegData[p + 1] & 0xFF);
+						return qualityFromScale(100.0 * sum / STD_LUMINANCE_SUM);
+					}
+					p += 64 * entrySize;
+				}
+			}
+			pos += 2 + length;
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Inverse of libjpeg's <code>jpeg_quality_scaling()</code>
+	 */
+	private static int qualityFromScale(double scale) {
+		double quality;
+		if (scale <= 100.0)
+			quality = (200.0 - scale) / 2.0;
+		else
+			quality = 5000.0 / scale;
+		return (int) Math.max(1, Math.min(100, Math.round(quality)));
+	}
+
+	/**
+	 * Per-thread transcoding state
+	 */
+	private class Worker {
+
+		private final TileImageDataWriter writer;
+
+		private final EnumMap<TileImageType, ImageReader> readers = new EnumMap<TileImageType, ImageReader>(
+				TileImageType.class);
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(32768);
+
+		/**
+		 * Decoding target reused for consecutive tiles of the same size and type
+		 */
+		private BufferedImage destination = null;
+
+		public Worker() {
+			writer = format.getDataWriter().duplicate();
+			writer.initialize();
+		}
+
+		public byte[] transcode(byte[] tileData, TileImageType type) throws IOException {
+			ImageReader reader = (type != null) ? getReader(type) : null;
+			BufferedImage image;
+			if (reader != null)
+				image = decode(reader, tileData);
+			else
+				image = ImageIO.read(new ByteArrayInputStream(tileData));
+			if (image == null)
+				throw new IOException("Unable to decode tile image");
+			return encode(image);
+		}
+
+		public byte[] encode(BufferedImage image) throws IOException {
+			buffer.reset();
+			writer.processImage(image, buffer);
+			return buffer.toByteArray();
+		}
+
+		private BufferedImage decode(ImageReader reader, byte[] tileData) throws IOException {
+			ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(tileData));
+			try {
+				reader.setInput(in, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				ImageTypeSpecifier spec = getOpaqueRgbType(reader);
+				if (spec != null) {
+					int width = reader.getWidth(0);
+					int height = reader.getHeight(0);
+					if (destination == null || destination.getWidth() != width || destination.getHeight() != height
+							|| destination.getType() != spec.getBufferedImageType())
+						destination = spec.createBufferedImage(width, height);
+					param.setDestination(destination);
+				}
+				return reader.read(0, param);
+			} finally {
+				reader.setInput(null);
+				in.close();
+			}
+		}
+
+		private ImageReader getReader(TileImageType type) {
+			ImageReader reader = readers.get(type);
+			if (reader == null && !readers.containsKey(type)) {
+				Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName(type.getFileExt());
+				reader = it.hasNext() ? it.next() : null;
+				readers.put(type, reader);
+			}
+			return reader;
+		}
+
+		/**
+		 * @return an opaque RGB image type offered by the reader for the current image or <code>null</code>
+		 */
+		private ImageTypeSpecifier getOpaqueRgbType(ImageReader reader) throws IOException {
+			Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+			while (types.hasNext()) {
+				ImageTypeSpecifier spec = types.next();
+				int type = spec.getBufferedImageType();
+				if (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_INT_RGB)
+					return spec;
+			}
+			return null;
+		}
+
+	}
+}
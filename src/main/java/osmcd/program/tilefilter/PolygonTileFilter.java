@@ -22,29 +22,33 @@ import osmcd.program.interfaces.MapSource;
 import osmcd.program.interfaces.TileFilter;
 import osmcd.program.model.MapPolygon;
 
+/**
+ * Filters all tiles that do not intersect the polygon. The test is performed on the precomputed
+ * {@link PolygonTileRaster} of the polygon.
+ */
 public class PolygonTileFilter implements TileFilter {
 
-	private final Polygon polygon;
-	private final int tileSize;
+	private final PolygonTileRaster raster;
 	private final int polygonZoom;
 
 	public PolygonTileFilter(MapPolygon map) {
-		this(map.getPolygon(), map.getZoom(), map.getMapSource());
+		this(map.getTileRaster(), map.getZoom());
 	}
 
 	public PolygonTileFilter(Polygon polygon, int polygonZoom, MapSource mapSource) {
+		this(new PolygonTileRaster(polygon, mapSource.getMapSpace().getTileSize()), polygonZoom);
+	}
+
+	public PolygonTileFilter(PolygonTileRaster raster, int polygonZoom) {
 		super();
-		this.polygon = polygon;
+		this.raster = raster;
 		this.polygonZoom = polygonZoom;
-		this.tileSize = mapSource.getMapSpace().getTileSize();
 	}
 
 	public boolean testTile(int x, int y, int zoom, MapSource mapSource) {
 		if (polygonZoom != zoom)
 			throw new RuntimeException("Wrong zoom level!");
-		int tileCoordinateX = x * tileSize;
-		int tileCoordinateY = y * tileSize;
-		return polygon.intersects(tileCoordinateX, tileCoordinateY, tileSize, tileSize);
+		return raster.contains(x, y);
 	}
 
 }
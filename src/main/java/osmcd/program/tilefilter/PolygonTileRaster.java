@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilefilter;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Rasterised representation of a {@link Polygon} on a tile grid. For every tile row the x-spans of all tiles touched
+ * by the polygon are precomputed so that testing a single tile is a binary search and the number of tiles can be
+ * summed up over the spans.
+ * 
+ * The raster is conservative: every tile whose interior intersects the polygon is contained, tiles that only share
+ * an edge or a corner with the polygon are not. Tiles crossed by the polygon outline are detected by clipping each
+ * edge against the tile row, tiles completely inside the polygon by an even-odd scan through the middle of the row.
+ */
+public class PolygonTileRaster {
+
+	private final int tileSize;
+	private final int minTileY;
+
+	/**
+	 * For each tile row starting with {@link #minTileY}: sorted and merged pairs of first/last tile x (inclusive)
+	 */
+	private final int[][] rowSpans;
+
+	private final long tileCount;
+
+	public PolygonTileRaster(Polygon polygon, int tileSize) {
+		this.tileSize = tileSize;
+		Rectangle bounds = polygon.getBounds();
+		if (polygon.npoints < 3 || bounds.height == 0) {
+			minTileY = 0;
+			rowSpans = new int[0][];
+			tileCount = 0;
+			return;
+		}
+		minTileY = floorTile(bounds.y);
+		int maxTileY = ceilTile(bounds.y + bounds.height) - 1;
+		RowBuilder[] rows = new RowBuilder[maxTileY - minTileY + 1];
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = new RowBuilder();
+
+		int n = polygon.npoints;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			addEdge(rows, polygon.xpoints[i], polygon.ypoints[i], polygon.xpoints[j], polygon.ypoints[j]);
+		}
+
+		rowSpans = new int[rows.length][];
+		long count = 0;
+		for (int i = 0; i < rows.length; i++) {
+			rowSpans[i] = rows[i].build();
+			int[] spans = rowSpans[i];
+			for (int s = 0; s < spans.length; s += 2)
+				count += spans[s + 1] - spans[s] + 1;
+		}
+		tileCount = count;
+	}
+
+	private void addEdge(RowBuilder[] rows, double x1, double y1, double x2, double y2) {
+		if (y1 == y2) {
+			// horizontal edges lying on a row border do not touch the interior of any tile
+			if (y1 % tileSize == 0)
+				return;
+			addBoundary(rows[floorTile(y1) - minTileY], Math.min(x1, x2), Math.max(x1, x2));
+			return;
+		}
+		double yMin = Math.min(y1, y2);
+		double yMax = Math.max(y1, y2);
+		double slope = (x2 - x1) / (y2 - y1);
+		int rowEnd = ceilTile(yMax) - 1;
+		for (int row = floorTile(yMin); row <= rowEnd; row++) {
+			RowBuilder rb = rows[row - minTileY];
+			double rowTop = (double) row * tileSize;
+			double clipTop = Math.max(yMin, rowTop);
+			double clipBottom = Math.min(yMax, rowTop + tileSize);
+			double xa = x1 + (clipTop - y1) * slope;
+			double xb = x1 + (clipBottom - y1) * slope;
+			addBoundary(rb, Math.min(xa, xb), Math.max(xa, xb));
+			// half-open interval so that a vertex on the scan line is counted exactly once
+			double scanY = rowTop + tileSize / 2.0;
+			if (scanY >= yMin && scanY < yMax)
+				rb.addCrossing(x1 + (scanY - y1) * slope);
+		}
+	}
+
+	private void addBoundary(RowBuilder rb, double xMin, double xMax) {
+		int first = floorTile(xMin);
+		int last = ceilTile(xMax) - 1;
+		// A vertical edge exactly on a column border (first > last) touches no tile interior
+		if (first <= last)
+			rb.addSpan(first, last);
+	}
+
+	private int floorTile(double coordinate) {
+		return (int) Math.floor(coordinate / tileSize);
+	}
+
+	private int ceilTile(double coordinate) {
+		return (int) Math.ceil(coordinate / tileSize);
+	}
+
+	/**
+	 * @param tileX
+	 * @param tileY
+	 * @return <code>true</code> if the tile intersects the polygon
+	 */
+	public boolean contains(int tileX, int tileY) {
+		int row = tileY - minTileY;
+		if (row < 0 || row >= rowSpans.length)
+			return false;
+		int[] spans = rowSpans[row];
+		// binary search for the last span starting at or before tileX
+		int lo = 0;
+		int hi = spans.length / 2 - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (spans[mid * 2] <= tileX)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi >= 0 && tileX <= spans[hi * 2 + 1];
+	}
+
+	/**
+	 * @return number of tiles intersecting the polygon
+	 */
+	public long getTileCount() {
+		return tileCount;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	public int getMinTileY() {
+		return minTileY;
+	}
+
+	public int getMaxTileY() {
+		return minTileY + rowSpans.length - 1;
+	}
+
+	/**
+	 * @param tileY
+	 * @return pairs of first and last tile x (both inclusive) of all tiles in row <code>tileY</code> that intersect
+	 *         the polygon. Do not modify the returned array.
+	 */
+	public int[] getSpans(int tileY) {
+		int row = tileY - minTileY;
+		if (row < 0 || row >= rowSpans.length)
+			return new int[0];
+		return rowSpans[row];
+	}
+
+	private class RowBuilder {
+
+		private long[] spans = new long[8];
+		private int spanCount = 0;
+		private double[] crossings = new double[4];
+		private int crossingCount = 0;
+
+		void addSpan(int first, int last) {
+			if (spanCount == spans.length)
+				spans = Arrays.copyOf(spans, spanCount * 2);
+			// packed so that sorting the longs sorts the spans by their first tile
+			spans[spanCount++] = ((long) first << 32) | (last & 0xFFFFFFFFL);
+		}
+
+		void addCrossing(double x) {
+			if (crossingCount == crossings.length)
+				crossings = Arrays.copyOf(crossings, crossingCount * 2);
+			crossings[crossingCount++] = x;
+		}
+
+		int[] build() {
+			Arrays.sort(crossings, 0, crossingCount);
+			// even-odd rule: everything between two consecutive crossings is inside the polygon
+			for (int i = 0; i + 1 < crossingCount; i += 2)
+				addBoundary(this, crossings[i], crossings[i + 1]);
+			Arrays.sort(spans, 0, spanCount);
+			int[] merged = new int[spanCount * 2];
+			int m = 0;
+			for (int i = 0; i < spanCount; i++) {
+				int first = (int) (spans[i] >> 32);
+				int last = (int) spans[i];
+				if (m > 0 && first <= merged[m - 1] + 1) {
+					if (last > merged[m - 1])
+						merged[m - 1] = last;
+				} else {
+					merged[m++] = first;
+					merged[m++] = last;
+				}
+			}
+			return Arrays.copyOf(merged, m);
+		}
+	}
+
+}
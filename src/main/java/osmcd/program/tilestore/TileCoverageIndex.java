@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import osmcd.utilities.Utilities;
+
+/**
+ * In-memory summary of the tiles stored in one tile store: a sparse bitmap per zoom level organized in blocks of 64x64
+ * tiles. Each block knows the number of tiles it contains, therefore the coverage of large regions can be aggregated
+ * without touching every tile.
+ * <p>
+ * The index is updated by the tile store whenever a tile is written and is saved next to the tile store when the tile
+ * store is closed (see {@link #save(File)} and {@link #load(File)}).
+ * </p>
+ */
+public class TileCoverageIndex {
+
+	private static final Logger log = Logger.getLogger(TileCoverageIndex.class);
+
+	private static final int FILE_MAGIC = 0x54434931; // "TCI1"
+
+	private static final int MAX_ZOOM = 30;
+
+	static final int BLOCK_SHIFT = 6;
+	static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	/**
+	 * 64x64 tiles, one long per row
+	 */
+	private static class Block {
+		final long[] rows = new long[BLOCK_SIZE];
+		int count = 0;
+	}
+
+	private final Map<Long, Block>[] levels;
+	private final long[] tileCounts = new long[MAX_ZOOM + 1];
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TileCoverageIndex() {
+		levels = new Map[MAX_ZOOM + 1];
+		for (int z = 0; z <= MAX_ZOOM; z++)
+			levels[z] = new HashMap<Long, Block>();
+	}
+
+	private static long blockKey(int bx, int by) {
+		return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Marks the tile as stored.
+	 * 
+	 * @return <code>true</code> if the tile was not yet contained in the index
+	 */
+	public synchronized boolean add(int x, int y, int zoom) {
+		if (zoom < 0 || zoom > MAX_ZOOM || x < 0 || y < 0)
+			return false;
+		Long key = blockKey(x >>> BLOCK_SHIFT, y >>> BLOCK_SHIFT);
+		Block block = levels[zoom].get(key);
+		if (block == null) {
+			block = new Block();
+			levels[zoom].put(key, block);
+		}
+		long bit = 1L << (x & BLOCK_MASK);
+		int row = y & BLOCK_MASK;
+		if ((block.rows[row] & bit) != 0)
+			return false;
+		block.rows[row] |= bit;
+		block.count++;
+		tileCounts[zoom]++;
+		return true;
+	}
+
+	public synchronized boolean contains(int x, int y, int zoom) {
+		if (zoom < 0 || zoom > MAX_ZOOM || x < 0 || y < 0)
+			return false;
+		Block block = levels[zoom].get(blockKey(x >>> BLOCK_SHIFT, y >>> BLOCK_SHIFT));
+		if (block == null)
+			return false;
+		return (block.rows[y & BLOCK_MASK] & (1L << (x & BLOCK_MASK))) != 0;
+	}
+
+	/**
+	 * @return number of stored tiles of the specified zoom level
+	 */
+	public synchronized long getTileCount(int zoom) {
+		if (zoom < 0 || zoom > MAX_ZOOM)
+			return 0;
+		return tileCounts[zoom];
+	}
+
+	/**
+	 * Counts the stored tiles of zoom level <code>zoom</code> for each tile ("cell") of the coarser (or equal) zoom
+	 * level <code>cellZoom</code> within the specified cell region. A cell contains at most
+	 * <code>4^(zoom - cellZoom)</code> tiles.
+	 * 
+	 * @return number of stored tiles per cell, row by row (<code>(maxCellX - minCellX + 1)</code> cells per row)
+	 */
+	public synchronized int[] getCoverage(int zoom, int cellZoom, int minCellX, int minCellY, int maxCellX,
+			int maxCellY) {
+		if (cellZoom > zoom)
+			throw new IllegalArgumentException("Cell zoom " + cellZoom + " is larger than zoom " + zoom);
+		int width = maxCellX - minCellX + 1;
+		int height = maxCellY - minCellY + 1;
+		int[] counts = new int[width * height];
+		if (zoom < 0 || zoom > MAX_ZOOM || tileCounts[zoom] == 0)
+			return counts;
+		int shift = zoom - cellZoom;
+		Map<Long, Block> level = levels[zoom];
+
+		long minBlockX = ((long) minCellX << shift) >> BLOCK_SHIFT;
+		long minBlockY = ((long) minCellY << shift) >> BLOCK_SHIFT;
+		long maxBlockX = (((long) (maxCellX + 1) << shift) - 1) >> BLOCK_SHIFT;
+		long maxBlockY = (((long) (maxCellY + 1) << shift) - 1) >> BLOCK_SHIFT;
+		long regionBlocks = (maxBlockX - minBlockX + 1) * (maxBlockY - minBlockY + 1);
+		if (regionBlocks <= level.size()) {
+			for (long by = minBlockY; by <= maxBlockY; by++) {
+				for (long bx = minBlockX; bx <= maxBlockX; bx++) {
+					Block block = level.get(blockKey((int) bx, (int) by));
+					if (block != null)
+						addBlock(counts, block, (int) bx, (int) by, shift, minCellX, minCellY, width, height);
+				}
+			}
+		} else {
+			for (Map.Entry<Long, Block> entry : level.entrySet()) {
+				long key = entry.getKey();
+				int bx = (int) (key >>> 32);
+				int by = (int) key;
+				if (bx < minBlockX || bx > maxBlockX || by < minBlockY || by > maxBlockY)
+					continue;
+				addBlock(counts, entry.getValue(), bx, by, shift, minCellX, minCellY, width, height);
+			}
+		}
+		return counts;
+	}
+
+	private static void addBlock(int[] counts, Block block, int bx, int by, int shift, int minCellX, int minCellY,
+			int width, int height) {
+		int tileX0 = bx << BLOCK_SHIFT;
+		int tileY0 = by << BLOCK_SHIFT;
+		if (shift >= BLOCK_SHIFT) {
+			// The whole block lies within one cell
+			int cx = (tileX0 >>> shift) - minCellX;
+			int cy = (tileY0 >>> shift) - minCellY;
+			if (cx >= 0 && cx < width && cy >= 0 && cy < height)
+				counts[cy * width + cx] += block.count;
+			return;
+		}
+		for (int row = 0; row < BLOCK_SIZE; row++) {
+			long bits = block.rows[row];
+			if (bits == 0)
+				continue;
+			int cy = ((tileY0 + row) >>> shift) - minCellY;
+			if (cy < 0 || cy >= height)
+				continue;
+			int rowOffset = cy * width;
+			while (bits != 0) {
+				int col = Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int cx = ((tileX0 + col) >>> shift) - minCellX;
+				if (cx >= 0 && cx < width)
+					counts[rowOffset + cx]++;
+			}
+		}
+	}
+
+	/**
+	 * Writes the index to the specified file
+	 */
+	public synchronized void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try {
+			out.writeInt(FILE_MAGIC);
+			for (int z = 0; z <= MAX_ZOOM; z++) {
+				Map<Long, Block> level = levels[z];
+				out.writeInt(level.size());
+				for (Map.Entry<Long, Block> entry : level.entrySet()) {
+					out.writeLong(entry.getKey());
+					for (long row : entry.getValue().rows)
+						out.writeLong(row);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads an index previously written by {@link #save(File)}.
+	 * 
+	 * @return the loaded index or <code>null</code> if the file does not exist or is invalid
+	 */
+	public static TileCoverageIndex load(File file) {
+		if (!file.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+			if (in.readInt() != FILE_MAGIC)
+				throw new IOException("Invalid file header");
+			TileCoverageIndex index = new TileCoverageIndex();
+			for (int z = 0; z <= MAX_ZOOM; z++) {
+				int blockCount = in.readInt();
+				Map<Long, Block> level = index.levels[z];
+				for (int i = 0; i < blockCount; i++) {
+					long key = in.readLong();
+					Block block = new Block();
+					for (int row = 0; row < BLOCK_SIZE; row++) {
+						block.rows[row] = in.readLong();
+						block.count += Long.bitCount(block.rows[row]);
+					}
+					level.put(key, block);
+					index.tileCounts[z] += block.count;
+				}
+			}
+			return index;
+		} catch (IOException e) {
+			log.error("Failed to load tile coverage index " + file + ": " + e.getMessage());
+			return null;
+		} finally {
+			Utilities.closeStream(in);
+		}
+	}
+
+}
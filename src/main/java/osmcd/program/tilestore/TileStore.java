@@ -18,8 +18,13 @@ package osmcd.program.tilestore;
 
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 
 import javax.swing.JOptionPane;
 
@@ -30,7 +35,9 @@ import osmcd.program.DirectoryManager;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.model.Settings;
 import osmcd.program.tilestore.berkeleydb.BerkeleyDbTileStore;
+import osmcd.program.tilestore.sqlite.SQLiteTileStore;
 import osmcd.utilities.I18nUtils;
+import osmcd.utilities.Utilities;
 
 public abstract class TileStore {
 
@@ -40,11 +47,16 @@ public abstract class TileStore {
 
 	protected File tileStoreDir;
 
+	protected FileLock tileStoreLock = null;
+
 	public static synchronized void initialize() {
 		if (INSTANCE != null)
 			return;
 		try {
-			INSTANCE = new BerkeleyDbTileStore();
+			if (Settings.getInstance().tileStoreType == TileStoreType.SQLITE)
+				INSTANCE = new SQLiteTileStore();
+			else
+				INSTANCE = new BerkeleyDbTileStore();
 		} catch (TileStoreException e) {
 			String errMsg = I18nUtils.localizedStringForKey("msg_tile_store_access_conflict");
 			JOptionPane.showMessageDialog(null, errMsg,
@@ -67,6 +79,40 @@ public abstract class TileStore {
 		log.debug("Tile store path: " + tileStoreDir);
 	}
 
+	protected void acquireTileStoreLock() throws TileStoreException {
+		try {
+			// Get a file channel for the file
+			File file = new File(tileStoreDir, "lock");
+			if (!tileStoreDir.isDirectory())
+				try {
+					Utilities.mkDirs(tileStoreDir);
+				} catch (IOException e) {
+					throw new TileStoreException("Unable to create tile store directory: \"" + tileStoreDir.getPath()
+							+ "\"");
+				}
+			FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+
+			// Use the file channel to create a lock on the file.
+			// This method blocks until it can retrieve the lock.
+
+			// Try acquiring the lock without blocking. This method returns
+			// null or throws an exception if the file is already locked.
+			tileStoreLock = channel.tryLock();
+			if (tileStoreLock == null)
+				throw new TileStoreException("Unable to obtain tile store lock - "
+						+ "another instance of OpenSeaMap ChartBundler is running!");
+
+			// // Release the lock
+			// lock.release();
+			//
+			// // Close the file
+			// channel.close();
+		} catch (Exception e) {
+			log.error("", e);
+			throw new TileStoreException(e.getMessage(), e.getCause());
+		}
+	}
+
 	public abstract void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource) throws IOException;
 
 	public abstract void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource,
@@ -106,6 +152,107 @@ public abstract class TileStore {
 	 */
 	public abstract TileStoreInfo getStoreInfo(String mapSourceName) throws InterruptedException;
 
+	/**
+	 * Returns the coverage index of the tile store belonging to the specified map source. If the index is not yet
+	 * available it is built by scanning all tile keys - this may take a while on large tile stores. Afterwards the index
+	 * is kept up to date on every {@link #putTile(TileStoreEntry, MapSource)} and saved when the tile store is closed.
+	 * 
+	 * @param mapSource
+	 * @return the coverage index or <code>null</code> on error
+	 * @throws InterruptedException
+	 */
+	public abstract TileCoverageIndex getCoverageIndex(MapSource mapSource) throws InterruptedException;
+
+	/**
+	 * Lifecycle of the {@link TileCoverageIndex} of one opened tile store database: the index is loaded from the
+	 * coverage file when the database is opened, built via {@link #scanTiles(TileCoverageIndex)} on first use if it
+	 * could not be loaded, updated via {@link #add(int, int, int)} on every write and saved by {@link #save()} when the
+	 * database is closed.
+	 * 
+	 * @param <E>
+	 *            exception thrown by the database while scanning the tile keys
+	 */
+	protected abstract class StoreCoverage<E extends Exception> {
+
+		private final String storeName;
+		private final File coverageFile;
+
+		/**
+		 * Coverage index - <code>null</code> until it has been loaded or built
+		 */
+		private volatile TileCoverageIndex coverage;
+		private volatile boolean coverageComplete;
+
+		protected StoreCoverage(String storeName, File coverageFile) {
+			this.storeName = storeName;
+			this.coverageFile = coverageFile;
+			// The coverage file is only valid as long as the database is opened by us. It is rewritten on close.
+			coverage = TileCoverageIndex.load(coverageFile);
+			coverageComplete = (coverage != null);
+			coverageFile.delete();
+		}
+
+		/**
+		 * Adds all tiles stored in the database to the index.
+		 * 
+		 * @throws InterruptedException
+		 *             if the current thread has been interrupted while scanning
+		 */
+		protected abstract void scanTiles(TileCoverageIndex index) throws E, InterruptedException;
+
+		/**
+		 * Has to be called after writing the tile: an index built concurrently will find the tile while scanning
+		 */
+		public void add(int x, int y, int zoom) {
+			TileCoverageIndex c = coverage;
+			if (c != null)
+				c.add(x, y, zoom);
+		}
+
+		/**
+		 * Returns the coverage index, scanning all tile keys if it is not yet available.
+		 */
+		public synchronized TileCoverageIndex getIndex() throws E, InterruptedException {
+			if (coverageComplete)
+				return coverage;
+			log.debug("Building coverage index of tile store \"" + storeName + "\"");
+			long start = System.currentTimeMillis();
+			// The index is published before scanning, so that tiles written concurrently are not missed
+			TileCoverageIndex index = new TileCoverageIndex();
+			coverage = index;
+			boolean success = false;
+			try {
+				scanTiles(index);
+				success = true;
+			} catch (InterruptedException e) {
+				log.debug("Coverage index building aborted");
+				throw e;
+			} finally {
+				if (!success)
+					coverage = null;
+			}
+			coverageComplete = true;
+			log.debug("Coverage index of tile store \"" + storeName + "\" built in "
+					+ (System.currentTimeMillis() - start) + " ms");
+			return index;
+		}
+
+		/**
+		 * Saves the index to the coverage file - if it is complete.
+		 */
+		public void save() {
+			TileCoverageIndex c = coverage;
+			if (c == null || !coverageComplete)
+				return;
+			try {
+				c.save(coverageFile);
+			} catch (IOException e) {
+				log.error("Failed to save coverage index of tile store \"" + storeName + "\": " + e.getMessage());
+				coverageFile.delete();
+			}
+		}
+	}
+
 	/**
 	 * 
 	 * @param mapSource
@@ -115,11 +262,54 @@ public abstract class TileStore {
 	 * @return
 	 * @throws InterruptedException
 	 */
-	public abstract BufferedImage getCacheCoverage(MapSource mapSource, int zoom, Point tileNumMin, Point tileNumMax)
-			throws InterruptedException;
+	public BufferedImage getCacheCoverage(MapSource mapSource, int zoom, Point tileNumMin, Point tileNumMax)
+			throws InterruptedException {
+		TileCoverageIndex index = getCoverageIndex(mapSource);
+		if (index == null)
+			return null;
+		log.debug("Loading cache coverage for region " + tileNumMin + " " + tileNumMax + " of zoom level " + zoom);
+		int width = tileNumMax.x - tileNumMin.x + 1;
+		int height = tileNumMax.y - tileNumMin.y + 1;
+		byte ff = (byte) 0xFF;
+		byte[] colors = new byte[] { 120, 120, 120, 120, // alpha-gray
+				10, ff, 0, 120 // alpha-green
+		};
+		IndexColorModel colorModel = new IndexColorModel(2, 2, colors, 0, true);
+		BufferedImage image = null;
+		try {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+		} catch (Throwable e) {
+			log.error("Failed to create coverage image: " + e.toString());
+			return null;
+		}
+		WritableRaster raster = image.getRaster();
+		int[] counts = index.getCoverage(zoom, zoom, tileNumMin.x, tileNumMin.y, tileNumMax.x, tileNumMax.y);
+		int i = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (counts[i++] > 0)
+					raster.setSample(x, y, 0, 1);
+			}
+		}
+		return image;
+	}
 
 	public abstract void closeAll();
 
+	/**
+	 * @return directory containing the databases of all map sources
+	 */
+	public File getTileStoreDir() {
+		return tileStoreDir;
+	}
+
+	/**
+	 * @return <code>true</code> if tiles are currently put into the tile store faster than they can be written
+	 */
+	public boolean isWriteBacklogged() {
+		return false;
+	}
+
 	public abstract void putTile(TileStoreEntry tile, MapSource mapSource);
 
 	public abstract TileStoreEntry createNewEntry(int x, int y, int zoom, byte[] data, long timeLastModified,
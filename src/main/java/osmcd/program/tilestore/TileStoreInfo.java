@@ -19,12 +19,18 @@ package osmcd.program.tilestore;
 public class TileStoreInfo {
 
 	int tileCount;
+	int uniqueTileCount;
 	long storeSize;
 
 	public TileStoreInfo(long storeSize, int tileCount) {
+		this(storeSize, tileCount, tileCount);
+	}
+
+	public TileStoreInfo(long storeSize, int tileCount, int uniqueTileCount) {
 		super();
 		this.storeSize = storeSize;
 		this.tileCount = tileCount;
+		this.uniqueTileCount = uniqueTileCount;
 	}
 
 	/**
@@ -34,6 +40,22 @@ public class TileStoreInfo {
 		return tileCount;
 	}
 
+	/**
+	 * @return Number of distinct tile contents stored in the tile store
+	 */
+	public int getUniqueTileCount() {
+		return uniqueTileCount;
+	}
+
+	/**
+	 * @return average number of tiles sharing the same stored content (<code>1.0</code> if no tile is deduplicated)
+	 */
+	public double getDedupRatio() {
+		if (tileCount <= 0 || uniqueTileCount <= 0)
+			return 1.0;
+		return (double) tileCount / uniqueTileCount;
+	}
+
 	/**
 	 * @return store size in bytes
 	 */
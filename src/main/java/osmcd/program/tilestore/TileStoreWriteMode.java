@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore;
+
+/**
+ * Specifies how downloaded tiles are written to the {@link TileStore}.
+ */
+public enum TileStoreWriteMode {
+
+	/**
+	 * Each tile is written by the download thread that loaded it
+	 */
+	DIRECT,
+
+	/**
+	 * Tiles are queued and written in batches by a background thread. Best throughput, but tiles of the last batch may
+	 * be lost if the application terminates abnormally.
+	 */
+	WRITE_BEHIND,
+
+	/**
+	 * Same as {@link #WRITE_BEHIND} but the database log is synchronized to disk after each batch.
+	 */
+	WRITE_BEHIND_SYNC;
+
+}
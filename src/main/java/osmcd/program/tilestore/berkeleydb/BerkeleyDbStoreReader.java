@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.berkeleydb;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.tilestore.berkeleydb.TileDbEntry.TileDbKey;
+
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.persist.EntityCursor;
+import com.sleepycat.persist.EntityStore;
+import com.sleepycat.persist.PrimaryIndex;
+import com.sleepycat.persist.StoreConfig;
+
+/**
+ * Opens the tile database of one map source in read-only mode and iterates over all contained tiles. Used for
+ * migrating the tiles to a different tile store implementation. Does not require a {@link BerkeleyDbTileStore}
+ * instance.
+ */
+public class BerkeleyDbStoreReader {
+
+	private static final Logger log = Logger.getLogger(BerkeleyDbStoreReader.class);
+
+	private final Environment env;
+	private final EntityStore store;
+	private final PrimaryIndex<TileDbKey, TileDbEntry> tileIndex;
+	private final PrimaryIndex<String, TilePayload> payloadIndex;
+	private EntityCursor<TileDbEntry> cursor = null;
+
+	public BerkeleyDbStoreReader(File databaseDirectory) throws DatabaseException {
+		log.debug("Opening tile store db read-only: \"" + databaseDirectory + "\"");
+		EnvironmentConfig envConfig = new EnvironmentConfig();
+		envConfig.setTransactional(false);
+		envConfig.setReadOnly(true);
+		envConfig.setAllowCreate(false);
+		env = new Environment(databaseDirectory, envConfig);
+		try {
+			StoreConfig storeConfig = new StoreConfig();
+			storeConfig.setReadOnly(true);
+			storeConfig.setAllowCreate(false);
+			storeConfig.setTransactional(false);
+			storeConfig.setMutations(BerkeleyDbTileStore.createMutations());
+			store = new EntityStore(env, "TilesEntityStore", storeConfig);
+			tileIndex = store.getPrimaryIndex(TileDbKey.class, TileDbEntry.class);
+			payloadIndex = getPayloadIndex(store);
+		} catch (DatabaseException e) {
+			env.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the payload index or <code>null</code> if the database has been created by an older version without
+	 *         tile deduplication
+	 */
+	private static PrimaryIndex<String, TilePayload> getPayloadIndex(EntityStore store) {
+		try {
+			return store.getPrimaryIndex(String.class, TilePayload.class);
+		} catch (DatabaseException e) {
+			return null;
+		}
+	}
+
+	public long getTileCount() throws DatabaseException {
+		return tileIndex.count();
+	}
+
+	/**
+	 * @return the next tile or <code>null</code> if all tiles have been read
+	 * @throws DatabaseException
+	 */
+	public TileDbEntry next() throws DatabaseException {
+		if (cursor == null)
+			cursor = tileIndex.entities();
+		while (true) {
+			TileDbEntry tile = cursor.next();
+			if (tile == null || tile.getPayloadHash() == null)
+				return tile;
+			TilePayload payload = (payloadIndex != null) ? payloadIndex.get(tile.getPayloadHash()) : null;
+			if (payload != null) {
+				tile.setPayloadData(payload.getData());
+				return tile;
+			}
+			log.warn("Skipping tile " + tile.tileKey + ": payload is missing");
+		}
+	}
+
+	public void close() {
+		try {
+			if (cursor != null)
+				cursor.close();
+			store.close();
+		} catch (Exception e) {
+			log.error("", e);
+		}
+		try {
+			env.close();
+		} catch (Exception e) {
+			log.error("", e);
+		}
+	}
+
+}
@@ -16,15 +16,8 @@
  ******************************************************************************/
 package osmcd.program.tilestore.berkeleydb;
 
-import java.awt.Point;
-import java.awt.image.BufferedImage;
-import java.awt.image.IndexColorModel;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -35,9 +28,11 @@ import java.util.TreeMap;
 import osmcd.exceptions.TileStoreException;
 import osmcd.program.interfaces.MapSource;
 import osmcd.program.model.Settings;
+import osmcd.program.tilestore.TileCoverageIndex;
 import osmcd.program.tilestore.TileStore;
 import osmcd.program.tilestore.TileStoreEntry;
 import osmcd.program.tilestore.TileStoreInfo;
+import osmcd.program.tilestore.TileStoreWriteMode;
 import osmcd.program.tilestore.berkeleydb.TileDbEntry.TileDbKey;
 import osmcd.utilities.GUIExceptionHandler;
 import osmcd.utilities.Utilities;
@@ -66,12 +61,15 @@ public class BerkeleyDbTileStore extends TileStore {
 	 */
 	private static final int MAX_CONCURRENT_ENVIRONMENTS = 5;
 
+	/**
+	 * File in the database directory the {@link TileCoverageIndex} is saved to
+	 */
+	private static final String COVERAGE_FILE_NAME = "coverage.idx";
+
 	private EnvironmentConfig envConfig;
 
 	private Map<String, TileDatabase> tileDbMap;
 
-	private FileLock tileStoreLock = null;
-
 	private Mutations mutations;
 
 	public BerkeleyDbTileStore() throws TileStoreException {
@@ -87,7 +85,18 @@ public class BerkeleyDbTileStore extends TileStore {
 		envConfig.setSharedCache(true);
 		envConfig.setCachePercent(50);
 
-		mutations = new Mutations();
+		mutations = createMutations();
+
+		// for (Renamer r : mutations.getRenamers())
+		// log.debug(r.toString());
+		Runtime.getRuntime().addShutdownHook(new ShutdownThread(true));
+	}
+
+	/**
+	 * @return the class renamings required for opening tile databases created by older versions
+	 */
+	protected static Mutations createMutations() {
+		Mutations mutations = new Mutations();
 
 		String oldPackage1 = "tac.tilestore.berkeleydb";
 		String oldPackage2 = "tac.program.tilestore.berkeleydb";
@@ -99,44 +108,7 @@ public class BerkeleyDbTileStore extends TileStore {
 		mutations.addRenamer(new Renamer(oldPackage1 + key, 1, TileDbKey.class.getName()));
 		mutations.addRenamer(new Renamer(oldPackage2 + entry, 2, TileDbEntry.class.getName()));
 		mutations.addRenamer(new Renamer(oldPackage2 + key, 2, TileDbKey.class.getName()));
-
-		// for (Renamer r : mutations.getRenamers())
-		// log.debug(r.toString());
-		Runtime.getRuntime().addShutdownHook(new ShutdownThread(true));
-	}
-
-	protected void acquireTileStoreLock() throws TileStoreException {
-		try {
-			// Get a file channel for the file
-			File file = new File(tileStoreDir, "lock");
-			if (!tileStoreDir.isDirectory())
-				try {
-					Utilities.mkDirs(tileStoreDir);
-				} catch (IOException e) {
-					throw new TileStoreException("Unable to create tile store directory: \"" + tileStoreDir.getPath()
-							+ "\"");
-				}
-			FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
-
-			// Use the file channel to create a lock on the file.
-			// This method blocks until it can retrieve the lock.
-
-			// Try acquiring the lock without blocking. This method returns
-			// null or throws an exception if the file is already locked.
-			tileStoreLock = channel.tryLock();
-			if (tileStoreLock == null)
-				throw new TileStoreException("Unable to obtain tile store lock - "
-						+ "another instance of OpenSeaMap ChartBundler is running!");
-
-			// // Release the lock
-			// lock.release();
-			//
-			// // Close the file
-			// channel.close();
-		} catch (Exception e) {
-			log.error("", e);
-			throw new TileStoreException(e.getMessage(), e.getCause());
-		}
+		return mutations;
 	}
 
 	@Override
@@ -214,9 +186,19 @@ public class BerkeleyDbTileStore extends TileStore {
 
 	@Override
 	public TileStoreInfo getStoreInfo(String storeName) throws InterruptedException {
-		int tileCount = getNrOfTiles(storeName);
 		long storeSize = getStoreSize(storeName);
-		return new TileStoreInfo(storeSize, tileCount);
+		if (!getStoreDir(storeName).isDirectory())
+			return new TileStoreInfo(storeSize, 0);
+		try {
+			TileDatabase db = getTileDatabase(storeName);
+			long tileCount = db.entryCount();
+			long uniqueCount = db.uniqueEntryCount(tileCount);
+			db.close();
+			return new TileStoreInfo(storeSize, (int) tileCount, (int) uniqueCount);
+		} catch (DatabaseException e) {
+			log.error("", e);
+			return new TileStoreInfo(storeSize, -1);
+		}
 	}
 
 	@Override
@@ -352,12 +334,13 @@ public class BerkeleyDbTileStore extends TileStore {
 		}
 	}
 
-	public BufferedImage getCacheCoverage(MapSource mapSource, int zoom, Point tileNumMin, Point tileNumMax)
-			throws InterruptedException {
-		TileDatabase db;
+	@Override
+	public TileCoverageIndex getCoverageIndex(MapSource mapSource) throws InterruptedException {
 		try {
-			db = getTileDatabase(mapSource);
-			return db.getCacheCoverage(zoom, tileNumMin, tileNumMax);
+			TileDatabase db = getTileDatabase(mapSource);
+			if (db == null)
+				return null;
+			return db.getCoverageIndex();
 		} catch (DatabaseException e) {
 			log.error("", e);
 			return null;
@@ -382,6 +365,19 @@ public class BerkeleyDbTileStore extends TileStore {
 		}
 	}
 
+	@Override
+	public boolean isWriteBacklogged() {
+		if (tileDbMap == null)
+			return false;
+		synchronized (tileDbMap) {
+			for (TileDatabase db : tileDbMap.values()) {
+				if (db.writeQueue != null && db.writeQueue.isBacklogged())
+					return true;
+			}
+		}
+		return false;
+	}
+
 	public void closeAll() {
 		Thread t = new ShutdownThread(false);
 		t.start();
@@ -473,6 +469,9 @@ public class BerkeleyDbTileStore extends TileStore {
 		final Environment env;
 		final EntityStore store;
 		final PrimaryIndex<TileDbKey, TileDbEntry> tileIndex;
+		final DeduplicatingTileIndex dedupIndex;
+		final TileDbWriteBehindQueue writeQueue;
+		final StoreCoverage<DatabaseException> coverage;
 		boolean dbClosed = false;
 
 		long lastAccess;
@@ -501,7 +500,23 @@ public class BerkeleyDbTileStore extends TileStore {
 				storeConfig.setMutations(mutations);
 				store = new EntityStore(env, "TilesEntityStore", storeConfig);
 
-				tileIndex = store.getPrimaryIndex(TileDbKey.class, TileDbEntry.class);
+				dedupIndex = new DeduplicatingTileIndex(store);
+				tileIndex = dedupIndex.getTileIndex();
+
+				TileStoreWriteMode writeMode = Settings.getInstance().tileStoreWriteMode;
+				if (writeMode == TileStoreWriteMode.WRITE_BEHIND || writeMode == TileStoreWriteMode.WRITE_BEHIND_SYNC)
+					writeQueue = new TileDbWriteBehindQueue(mapSourceName, dedupIndex, env,
+							writeMode == TileStoreWriteMode.WRITE_BEHIND_SYNC);
+				else
+					writeQueue = null;
+
+				coverage = new StoreCoverage<DatabaseException>(mapSourceName, new File(storeDir, COVERAGE_FILE_NAME)) {
+
+					@Override
+					protected void scanTiles(TileCoverageIndex index) throws DatabaseException, InterruptedException {
+						scanTileKeys(index);
+					}
+				};
 			} finally {
 				if (t.interruptedWhilePaused())
 					close();
@@ -513,79 +528,83 @@ public class BerkeleyDbTileStore extends TileStore {
 			return dbClosed;
 		}
 
-		public long entryCount() throws DatabaseException {
-			return tileIndex.count();
+		public long entryCount() throws DatabaseException, InterruptedException {
+			if (writeQueue != null)
+				writeQueue.flush();
+			return dedupIndex.count();
+		}
+
+		/**
+		 * @param entryCount
+		 *            number of tiles as returned by {@link #entryCount()}
+		 * @return number of distinct tile contents
+		 */
+		public long uniqueEntryCount(long entryCount) throws DatabaseException {
+			return dedupIndex.uniqueCount(entryCount);
 		}
 
 		public void put(TileDbEntry tile) throws DatabaseException {
-			DelayedInterruptThread t = (DelayedInterruptThread) Thread.currentThread();
-			try {
-				t.pauseInterrupt();
-				tileIndex.put(tile);
-			} finally {
-				if (t.interruptedWhilePaused())
-					close();
-				t.resumeInterrupt();
+			if (writeQueue != null) {
+				try {
+					writeQueue.put(tile);
+				} catch (InterruptedException e) {
+					// Download has been aborted - the tile is not stored
+					Thread.currentThread().interrupt();
+					return;
+				}
+			} else {
+				DelayedInterruptThread t = (DelayedInterruptThread) Thread.currentThread();
+				try {
+					t.pauseInterrupt();
+					dedupIndex.put(tile);
+				} finally {
+					if (t.interruptedWhilePaused())
+						close();
+					t.resumeInterrupt();
+				}
 			}
+			coverage.add(tile.getX(), tile.getY(), tile.getZoom());
 		}
 
 		public boolean contains(TileDbKey key) throws DatabaseException {
-			return tileIndex.contains(key);
+			if (writeQueue != null && writeQueue.get(key) != null)
+				return true;
+			return dedupIndex.contains(key);
 		}
 
 		public TileDbEntry get(TileDbKey key) throws DatabaseException {
-			return tileIndex.get(key);
+			if (writeQueue != null) {
+				TileDbEntry tile = writeQueue.get(key);
+				if (tile != null)
+					return tile;
+			}
+			return dedupIndex.get(key);
 		}
 
 		public PrimaryIndex<TileDbKey, TileDbEntry> getTileIndex() {
 			return tileIndex;
 		}
 
-		public BufferedImage getCacheCoverage(int zoom, Point tileNumMin, Point tileNumMax) throws DatabaseException,
-				InterruptedException {
-			log.debug("Loading cache coverage for region " + tileNumMin + " " + tileNumMax + " of zoom level " + zoom);
-			DelayedInterruptThread t = (DelayedInterruptThread) Thread.currentThread();
-			int width = tileNumMax.x - tileNumMin.x + 1;
-			int height = tileNumMax.y - tileNumMin.y + 1;
-			byte ff = (byte) 0xFF;
-			byte[] colors = new byte[] { 120, 120, 120, 120, // alpha-gray
-					10, ff, 0, 120 // alpha-green
-			};
-			IndexColorModel colorModel = new IndexColorModel(2, 2, colors, 0, true);
-			BufferedImage image = null;
+		public TileCoverageIndex getCoverageIndex() throws DatabaseException, InterruptedException {
+			return coverage.getIndex();
+		}
+
+		private void scanTileKeys(TileCoverageIndex index) throws DatabaseException, InterruptedException {
+			if (writeQueue != null)
+				writeQueue.flush();
+			Thread t = Thread.currentThread();
+			EntityCursor<TileDbKey> cursor = tileIndex.keys();
 			try {
-				image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
-			} catch (Throwable e) {
-				log.error("Failed to create coverage image: " + e.toString());
-				image = null;
-				System.gc();
-				return null;
-			}
-			WritableRaster raster = image.getRaster();
-
-			// We are loading the coverage of the selected area column by column which is much faster than loading the
-			// whole region at once
-			for (int x = tileNumMin.x; x <= tileNumMax.x; x++) {
-				TileDbKey fromKey = new TileDbKey(x, tileNumMin.y, zoom);
-				TileDbKey toKey = new TileDbKey(x, tileNumMax.y, zoom);
-				EntityCursor<TileDbKey> cursor = tileIndex.keys(fromKey, true, toKey, true);
-				try {
-					TileDbKey key = cursor.next();
-					while (key != null) {
-						int pixelx = key.x - tileNumMin.x;
-						int pixely = key.y - tileNumMin.y;
-						raster.setSample(pixelx, pixely, 0, 1);
-						key = cursor.next();
-						if (t.isInterrupted()) {
-							log.debug("Cache coverage loading aborted");
-							throw new InterruptedException();
-						}
-					}
-				} finally {
-					cursor.close();
+				TileDbKey key = cursor.next();
+				while (key != null) {
+					index.add(key.x, key.y, key.zoom);
+					key = cursor.next();
+					if (t.isInterrupted())
+						throw new InterruptedException();
 				}
+			} finally {
+				cursor.close();
 			}
-			return image;
 		}
 
 		protected void purge() {
@@ -614,6 +633,10 @@ public class BerkeleyDbTileStore extends TileStore {
 			DelayedInterruptThread t = (DelayedInterruptThread) Thread.currentThread();
 			try {
 				t.pauseInterrupt();
+				if (writeQueue != null)
+					writeQueue.close();
+				if (coverage != null)
+					coverage.save();
 				try {
 					log.debug("Closing tile store db \"" + mapSourceName + "\"");
 					if (store != null)
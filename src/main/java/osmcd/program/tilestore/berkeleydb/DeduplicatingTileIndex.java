@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.berkeleydb;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.tilestore.berkeleydb.TileDbEntry.TileDbKey;
+import osmcd.utilities.Utilities;
+
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.persist.EntityCursor;
+import com.sleepycat.persist.EntityStore;
+import com.sleepycat.persist.PrimaryIndex;
+
+/**
+ * Content addressed storage of the tiles of one tile database. The data of each tile is stored once per distinct
+ * content as {@link TilePayload} identified by its SHA-256 hash. The {@link TileDbEntry} only contains the hash. Each
+ * payload has a reference counter ({@link TilePayloadRef}); a payload is deleted as soon as no tile references it
+ * anymore.
+ * 
+ * Tiles written by older versions contain their data inline and are returned unchanged.
+ */
+public class DeduplicatingTileIndex {
+
+	private static final Logger log = Logger.getLogger(DeduplicatingTileIndex.class);
+
+	private final PrimaryIndex<TileDbKey, TileDbEntry> tileIndex;
+	private final PrimaryIndex<String, TilePayload> payloadIndex;
+	private final PrimaryIndex<String, TilePayloadRef> refIndex;
+
+	public DeduplicatingTileIndex(EntityStore store) throws DatabaseException {
+		tileIndex = store.getPrimaryIndex(TileDbKey.class, TileDbEntry.class);
+		payloadIndex = store.getPrimaryIndex(String.class, TilePayload.class);
+		refIndex = store.getPrimaryIndex(String.class, TilePayloadRef.class);
+	}
+
+	public PrimaryIndex<TileDbKey, TileDbEntry> getTileIndex() {
+		return tileIndex;
+	}
+
+	/**
+	 * Stores the tile. Puts are serialized as updating the reference counters requires a read-modify-write cycle.
+	 * 
+	 * @param tile
+	 * @throws DatabaseException
+	 */
+	public synchronized void put(TileDbEntry tile) throws DatabaseException {
+		byte[] data = tile.getData();
+		String hash = Utilities.sha256Hex(data);
+		TileDbEntry old = tileIndex.get(tile.tileKey);
+		String oldHash = (old != null) ? old.getPayloadHash() : null;
+		if (!hash.equals(oldHash)) {
+			TilePayloadRef ref = refIndex.get(hash);
+			if (ref == null) {
+				payloadIndex.put(new TilePayload(hash, data));
+				ref = new TilePayloadRef(hash);
+			}
+			ref.increment();
+			refIndex.put(ref);
+			if (oldHash != null)
+				release(oldHash);
+		}
+		tileIndex.put(tile.createPayloadReference(hash));
+	}
+
+	private void release(String hash) throws DatabaseException {
+		TilePayloadRef ref = refIndex.get(hash);
+		if (ref == null)
+			return;
+		if (ref.decrement() > 0) {
+			refIndex.put(ref);
+		} else {
+			refIndex.delete(hash);
+			payloadIndex.delete(hash);
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return the tile including its data or <code>null</code> if the tile is not present
+	 * @throws DatabaseException
+	 */
+	public TileDbEntry get(TileDbKey key) throws DatabaseException {
+		TileDbEntry tile = tileIndex.get(key);
+		if (tile == null)
+			return null;
+		String hash = tile.getPayloadHash();
+		if (hash == null)
+			return tile;
+		TilePayload payload = payloadIndex.get(hash);
+		if (payload == null) {
+			// May happen if the tile has been overwritten concurrently or after an abnormal termination
+			log.warn("Payload " + hash + " of tile " + key + " is missing");
+			return null;
+		}
+		tile.setPayloadData(payload.getData());
+		return tile;
+	}
+
+	public boolean contains(TileDbKey key) throws DatabaseException {
+		return tileIndex.contains(key);
+	}
+
+	public long count() throws DatabaseException {
+		return tileIndex.count();
+	}
+
+	/**
+	 * @param tileCount
+	 *            number of tiles as returned by {@link #count()}
+	 * @return number of distinct tile contents: all payloads plus the tiles that still contain their data inline
+	 * @throws DatabaseException
+	 */
+	public long uniqueCount(long tileCount) throws DatabaseException {
+		long referencingTiles = 0;
+		EntityCursor<TilePayloadRef> cursor = refIndex.entities();
+		try {
+			TilePayloadRef ref = cursor.next();
+			while (ref != null) {
+				referencingTiles += ref.getRefCount();
+				ref = cursor.next();
+			}
+		} finally {
+			cursor.close();
+		}
+		return payloadIndex.count() + tileCount - referencingTiles;
+	}
+
+}
@@ -25,7 +25,7 @@ import com.sleepycat.persist.model.KeyField;
 import com.sleepycat.persist.model.Persistent;
 import com.sleepycat.persist.model.PrimaryKey;
 
-@Entity(version = 3)
+@Entity(version = 4)
 public class TileDbEntry implements TileStoreEntry {
 
 	@PrimaryKey
@@ -34,6 +34,12 @@ public class TileDbEntry implements TileStoreEntry {
 	private byte[] data;
 	private String eTag = null;
 
+	/**
+	 * SHA-256 hash of the tile data stored in a {@link TilePayload} or <code>null</code> if the data is stored inline
+	 * in {@link #data}
+	 */
+	private String payloadHash = null;
+
 	private long timeDownloaded;
 
 	private long timeLastModified;
@@ -58,6 +64,34 @@ public class TileDbEntry implements TileStoreEntry {
 		this.eTag = eTag;
 	}
 
+	/**
+	 * Creates the entry that is stored in the database instead of this one if the tile data is stored as
+	 * {@link TilePayload}.
+	 * 
+	 * @param hash
+	 *            hash of the tile data
+	 * @return copy of this entry without tile data
+	 */
+	TileDbEntry createPayloadReference(String hash) {
+		TileDbEntry ref = new TileDbEntry();
+		ref.tileKey = tileKey;
+		ref.data = null;
+		ref.eTag = eTag;
+		ref.timeDownloaded = timeDownloaded;
+		ref.timeLastModified = timeLastModified;
+		ref.timeExpires = timeExpires;
+		ref.payloadHash = hash;
+		return ref;
+	}
+
+	String getPayloadHash() {
+		return payloadHash;
+	}
+
+	void setPayloadData(byte[] data) {
+		this.data = data;
+	}
+
 	public void update(long timeExpires) {
 		timeDownloaded = System.currentTimeMillis();
 		this.timeExpires = timeExpires;
@@ -129,6 +163,19 @@ public class TileDbEntry implements TileStoreEntry {
 			this.zoom = zoom;
 		}
 
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TileDbKey))
+				return false;
+			TileDbKey key = (TileDbKey) obj;
+			return (x == key.x) && (y == key.y) && (zoom == key.zoom);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((zoom * 31) + x) * 31 + y;
+		}
+
 		@Override
 		public String toString() {
 			return "[x=" + x + ", y=" + y + ", zoom=" + zoom + "]";
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.berkeleydb;
+
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.tilestore.berkeleydb.TileDbEntry.TileDbKey;
+
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+
+/**
+ * Write-behind queue of one tile database. Tiles put into the queue are written by a background thread in batches. A
+ * batch is written as soon as it contains {@link #BATCH_MAX_TILES} tiles, {@link #BATCH_MAX_BYTES} bytes or the oldest
+ * tile has been waiting for {@link #BATCH_MAX_DELAY} milliseconds. Multiple writes of the same tile are coalesced.
+ * 
+ * If more than {@link #MAX_PENDING_BYTES} are waiting to be written {@link #put(TileDbEntry)} blocks the calling
+ * thread until the writer has caught up.
+ */
+public class TileDbWriteBehindQueue extends DelayedInterruptThread {
+
+	private static final Logger log = Logger.getLogger(TileDbWriteBehindQueue.class);
+
+	public static final int BATCH_MAX_TILES = 500;
+	public static final int BATCH_MAX_BYTES = 8 * 1024 * 1024;
+	public static final long BATCH_MAX_DELAY = 1000;
+	public static final int MAX_PENDING_BYTES = 32 * 1024 * 1024;
+
+	private final DeduplicatingTileIndex tileIndex;
+	private final Environment env;
+	private final boolean syncAfterBatch;
+
+	/**
+	 * Tiles waiting to be written
+	 */
+	private LinkedHashMap<TileDbKey, TileDbEntry> pending = new LinkedHashMap<TileDbKey, TileDbEntry>();
+
+	/**
+	 * Tiles currently written by the writer thread
+	 */
+	private LinkedHashMap<TileDbKey, TileDbEntry> writing = new LinkedHashMap<TileDbKey, TileDbEntry>();
+
+	private long pendingBytes = 0;
+	private long writingBytes = 0;
+	private long oldestPendingTime = 0;
+	private boolean flushRequested = false;
+	private boolean closed = false;
+
+	private long batchCount = 0;
+	private long tileCount = 0;
+
+	public TileDbWriteBehindQueue(String mapSourceName, DeduplicatingTileIndex tileIndex, Environment env,
+			boolean syncAfterBatch) {
+		super("TileDbWriter " + mapSourceName);
+		this.tileIndex = tileIndex;
+		this.env = env;
+		this.syncAfterBatch = syncAfterBatch;
+		setDaemon(true);
+		start();
+	}
+
+	/**
+	 * Queues the tile for writing. Blocks while the queue is full.
+	 * 
+	 * @param tile
+	 * @throws InterruptedException
+	 */
+	public synchronized void put(TileDbEntry tile) throws InterruptedException {
+		while (!closed && pendingBytes + writingBytes > MAX_PENDING_BYTES)
+			wait();
+		if (closed)
+			throw new IllegalStateException("Tile database writer has been closed");
+		TileDbEntry old = pending.put(tile.tileKey, tile);
+		if (old != null)
+			pendingBytes -= old.getData().length;
+		else if (pending.size() == 1)
+			oldestPendingTime = System.currentTimeMillis();
+		pendingBytes += tile.getData().length;
+		// Wake up the writer thread for starting the batch timer or if the batch is full
+		if (pending.size() == 1 || pending.size() >= BATCH_MAX_TILES || pendingBytes >= BATCH_MAX_BYTES)
+			notifyAll();
+	}
+
+	/**
+	 * @param key
+	 * @return the queued tile or <code>null</code> if no tile with the specified key is waiting to be written
+	 */
+	public synchronized TileDbEntry get(TileDbKey key) {
+		TileDbEntry tile = pending.get(key);
+		if (tile == null)
+			tile = writing.get(key);
+		return tile;
+	}
+
+	/**
+	 * @return <code>true</code> if the amount of queued tile data is so high that {@link #put(TileDbEntry)} will block
+	 */
+	public synchronized boolean isBacklogged() {
+		return pendingBytes + writingBytes > MAX_PENDING_BYTES;
+	}
+
+	/**
+	 * Blocks until all tiles queued until now have been written.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public synchronized void flush() throws InterruptedException {
+		flushRequested = true;
+		notifyAll();
+		while (isAlive() && (pending.size() > 0 || writing.size() > 0))
+			wait();
+	}
+
+	/**
+	 * Writes all queued tiles and terminates the writer thread.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+		try {
+			join();
+		} catch (InterruptedException e) {
+			log.error("Interrupted while waiting for the tile writer " + getName() + " to finish");
+		}
+		log.debug(getName() + " closed: " + tileCount + " tiles written in " + batchCount + " batches");
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				synchronized (this) {
+					writing.clear();
+					writingBytes = 0;
+					notifyAll();
+					while (!isBatchReady()) {
+						if (closed && pending.size() == 0)
+							return;
+						if (pending.size() == 0) {
+							// Nothing to write (or to flush) - sleep until the next tile is queued
+							flushRequested = false;
+							wait();
+							continue;
+						}
+						long wait = oldestPendingTime + BATCH_MAX_DELAY - System.currentTimeMillis();
+						if (wait > 0)
+							wait(wait);
+					}
+					LinkedHashMap<TileDbKey, TileDbEntry> batch = pending;
+					pending = writing;
+					writing = batch;
+					writingBytes = pendingBytes;
+					pendingBytes = 0;
+					flushRequested = false;
+				}
+				writeBatch();
+			}
+		} catch (InterruptedException e) {
+			log.error(getName() + " has been interrupted - tiles not yet written are lost");
+		} finally {
+			synchronized (this) {
+				closed = true;
+				pending.clear();
+				writing.clear();
+				pendingBytes = 0;
+				writingBytes = 0;
+				notifyAll();
+			}
+		}
+	}
+
+	private boolean isBatchReady() {
+		int count = pending.size();
+		if (count == 0)
+			return false;
+		return closed || flushRequested || count >= BATCH_MAX_TILES || pendingBytes >= BATCH_MAX_BYTES
+				|| System.currentTimeMillis() - oldestPendingTime >= BATCH_MAX_DELAY;
+	}
+
+	/**
+	 * Writes the content of {@link #writing}. The map is not modified by other threads while the batch is written.
+	 */
+	private void writeBatch() {
+		pauseInterrupt();
+		try {
+			for (TileDbEntry tile : writing.values())
+				tileIndex.put(tile);
+			if (syncAfterBatch)
+				env.sync();
+			batchCount++;
+			tileCount += writing.size();
+			if (log.isTraceEnabled())
+				log.trace(getName() + " wrote batch of " + writing.size() + " tiles (" + writingBytes + " bytes)");
+		} catch (DatabaseException e) {
+			log.error("Failed to write " + writing.size() + " tiles to tile store: " + e.getMessage(), e);
+		} finally {
+			resumeInterrupt();
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.berkeleydb;
+
+import com.sleepycat.persist.model.Entity;
+import com.sleepycat.persist.model.PrimaryKey;
+
+/**
+ * Tile data shared by all {@link TileDbEntry} instances with the same content. The number of referencing tiles is
+ * stored separately in {@link TilePayloadRef} so that it can be updated without rewriting the data.
+ */
+@Entity(version = 0)
+public class TilePayload {
+
+	@PrimaryKey
+	private String hash;
+
+	private byte[] data;
+
+	protected TilePayload() {
+		// required for deserialization
+	}
+
+	public TilePayload(String hash, byte[] data) {
+		this.hash = hash;
+		this.data = data;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.berkeleydb;
+
+import com.sleepycat.persist.model.Entity;
+import com.sleepycat.persist.model.PrimaryKey;
+
+/**
+ * Reference counter of a {@link TilePayload}
+ */
+@Entity(version = 0)
+public class TilePayloadRef {
+
+	@PrimaryKey
+	private String hash;
+
+	private int refCount;
+
+	protected TilePayloadRef() {
+		// required for deserialization
+	}
+
+	public TilePayloadRef(String hash) {
+		this.hash = hash;
+		this.refCount = 0;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public int getRefCount() {
+		return refCount;
+	}
+
+	public void increment() {
+		refCount++;
+	}
+
+	/**
+	 * @return the new reference count
+	 */
+	public int decrement() {
+		return --refCount;
+	}
+
+}
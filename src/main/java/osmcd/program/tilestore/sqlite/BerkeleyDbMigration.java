@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.sqlite;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.tilestore.TileStoreEntry;
+import osmcd.program.tilestore.berkeleydb.BerkeleyDbStoreReader;
+import osmcd.utilities.file.DirectoryFileFilter;
+
+/**
+ * Copies the tiles of all Berkeley DB tile stores (directories <code>db-&lt;map source name&gt;</code>) into the
+ * {@link SQLiteTileStore}. The Berkeley DB directories are not modified.
+ */
+public class BerkeleyDbMigration {
+
+	private static final Logger log = Logger.getLogger(BerkeleyDbMigration.class);
+
+	private static final int BATCH_SIZE = 1000;
+
+	private final SQLiteTileStore target;
+
+	private int storeCount = 0;
+	private long tileCount = 0;
+
+	public BerkeleyDbMigration(SQLiteTileStore target) {
+		this.target = target;
+	}
+
+	/**
+	 * Migrates all Berkeley DB tile stores found in the tile store directory. A store that fails to migrate is logged
+	 * and skipped.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void migrateAll() throws InterruptedException {
+		File[] dirs = target.getTileStoreDir().listFiles(new DirectoryFileFilter());
+		if (dirs == null)
+			return;
+		for (File dir : dirs) {
+			String name = dir.getName();
+			if (!name.startsWith("db-"))
+				continue;
+			try {
+				migrateStore(name.substring(3), dir);
+				storeCount++;
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				log.error("Migration of tile store \"" + dir + "\" failed: " + e.getMessage(), e);
+			}
+		}
+		log.info("Migrated " + tileCount + " tiles of " + storeCount + " tile stores");
+	}
+
+	protected void migrateStore(String storeName, File dir) throws Exception {
+		BerkeleyDbStoreReader reader = new BerkeleyDbStoreReader(dir);
+		try {
+			log.info("Migrating tile store \"" + storeName + "\" (" + reader.getTileCount() + " tiles)");
+			List<TileStoreEntry> batch = new ArrayList<TileStoreEntry>(BATCH_SIZE);
+			TileStoreEntry tile = reader.next();
+			while (tile != null) {
+				batch.add(new SQLiteTileEntry(tile.getX(), tile.getY(), tile.getZoom(), tile.getData(), tile
+						.getTimeDownloaded(), tile.getTimeLastModified(), tile.getTimeExpires(), tile.geteTag()));
+				if (batch.size() >= BATCH_SIZE) {
+					target.putTiles(storeName, batch);
+					tileCount += batch.size();
+					batch.clear();
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedException();
+				}
+				tile = reader.next();
+			}
+			if (batch.size() > 0) {
+				target.putTiles(storeName, batch);
+				tileCount += batch.size();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	public int getStoreCount() {
+		return storeCount;
+	}
+
+	public long getTileCount() {
+		return tileCount;
+	}
+
+}
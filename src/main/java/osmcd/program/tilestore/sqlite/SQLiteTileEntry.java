@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.sqlite;
+
+import java.util.Date;
+
+import osmcd.program.tilestore.TileStoreEntry;
+
+public class SQLiteTileEntry implements TileStoreEntry {
+
+	private final int x;
+	private final int y;
+	private final int zoom;
+
+	private final byte[] data;
+	private final String eTag;
+
+	private long timeDownloaded;
+
+	private final long timeLastModified;
+	private long timeExpires;
+
+	public SQLiteTileEntry(int x, int y, int zoom, byte[] data, long timeDownloaded, long timeLastModified,
+			long timeExpires, String eTag) {
+		if (data == null)
+			throw new NullPointerException("Tile data can not be null!");
+		this.x = x;
+		this.y = y;
+		this.zoom = zoom;
+		this.data = data;
+		this.timeDownloaded = timeDownloaded;
+		this.timeLastModified = timeLastModified;
+		this.timeExpires = timeExpires;
+		this.eTag = eTag;
+	}
+
+	public SQLiteTileEntry(int x, int y, int zoom, byte[] data, long timeLastModified, long timeExpires, String eTag) {
+		this(x, y, zoom, data, System.currentTimeMillis(), timeLastModified, timeExpires, eTag);
+	}
+
+	public void update(long timeExpires) {
+		timeDownloaded = System.currentTimeMillis();
+		this.timeExpires = timeExpires;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getZoom() {
+		return zoom;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public String geteTag() {
+		return eTag;
+	}
+
+	public long getTimeLastModified() {
+		return timeLastModified;
+	}
+
+	public long getTimeDownloaded() {
+		return timeDownloaded;
+	}
+
+	public long getTimeExpires() {
+		return timeExpires;
+	}
+
+	@Override
+	public String toString() {
+		String tlm = (timeLastModified <= 0) ? "-" : new Date(timeLastModified).toString();
+		String txp = (timeExpires <= 0) ? "-" : new Date(timeExpires).toString();
+		return String.format("Tile z%d/%d/%d dl[%s] lm[%s] exp[%s] eTag[%s]", zoom, x, y, new Date(timeDownloaded),
+				tlm, txp, eTag);
+	}
+
+}
@@ -0,0 +1,540 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.program.tilestore.sqlite;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import osmcd.exceptions.TileStoreException;
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.Settings;
+import osmcd.program.tilestore.TileCoverageIndex;
+import osmcd.program.tilestore.TileStore;
+import osmcd.program.tilestore.TileStoreEntry;
+import osmcd.program.tilestore.TileStoreInfo;
+import osmcd.utilities.Utilities;
+import osmcd.utilities.jdbc.SQLiteLoader;
+
+/**
+ * Tile store implementation that uses one SQLite database file per map source. The databases are used in WAL mode so
+ * that readers are not blocked by the download threads writing tiles. Every thread uses its own connection and
+ * prepared statements.
+ */
+public class SQLiteTileStore extends TileStore {
+
+	public static final String STORE_FILE_PREFIX = "sqlite-";
+	public static final String STORE_FILE_SUFFIX = ".db";
+
+	private static final String TABLE_DDL = "CREATE TABLE IF NOT EXISTS tiles (zoom INTEGER NOT NULL, "
+			+ "x INTEGER NOT NULL, y INTEGER NOT NULL, data BLOB NOT NULL, downloaded INTEGER, last_modified INTEGER, "
+			+ "expires INTEGER, etag TEXT, PRIMARY KEY (zoom, x, y))";
+	private static final String SELECT_SQL = "SELECT data, downloaded, last_modified, expires, etag FROM tiles "
+			+ "WHERE zoom=? AND x=? AND y=?";
+	private static final String CONTAINS_SQL = "SELECT 1 FROM tiles WHERE zoom=? AND x=? AND y=?";
+	private static final String INSERT_SQL = "INSERT OR REPLACE INTO tiles "
+			+ "(zoom, x, y, data, downloaded, last_modified, expires, etag) VALUES (?,?,?,?,?,?,?,?)";
+	// Only accesses the primary key index - the tile data is not read
+	private static final String COVERAGE_SQL = "SELECT zoom, x, y FROM tiles";
+	private static final String COUNT_SQL = "SELECT COUNT(*) FROM tiles";
+
+	private static final int BUSY_TIMEOUT = 30000;
+
+	private final Map<String, TileDatabase> tileDbMap;
+
+	public SQLiteTileStore() throws TileStoreException {
+		super();
+		try {
+			SQLiteLoader.loadSQLite();
+		} catch (SQLException e) {
+			throw new TileStoreException(SQLiteLoader.getMsgSqliteMissing(), e);
+		}
+		acquireTileStoreLock();
+		tileDbMap = new TreeMap<String, TileDatabase>();
+		Runtime.getRuntime().addShutdownHook(new Thread("SQLiteTileStoreShutdown") {
+
+			@Override
+			public void run() {
+				closeAll();
+				try {
+					tileStoreLock.release();
+				} catch (IOException e) {
+					log.error("", e);
+				}
+			}
+		});
+	}
+
+	@Override
+	public TileStoreEntry createNewEntry(int x, int y, int zoom, byte[] data, long timeLastModified, long timeExpires,
+			String eTag) {
+		return new SQLiteTileEntry(x, y, zoom, data, timeLastModified, timeExpires, eTag);
+	}
+
+	@Override
+	public TileStoreEntry createNewEmptyEntry(int x, int y, int zoom) {
+		long time = System.currentTimeMillis();
+		long timeExpires = time + Settings.getInstance().tileDefaultExpirationTime;
+		// We set the tile data to an empty array because we can not store null
+		return new SQLiteTileEntry(x, y, zoom, new byte[] {}, time, timeExpires, "");
+	}
+
+	protected TileDatabase getTileDatabase(String storeName) throws SQLException {
+		if (storeName == null)
+			return null;
+		synchronized (tileDbMap) {
+			TileDatabase db = tileDbMap.get(storeName);
+			if (db == null) {
+				db = new TileDatabase(storeName, getStoreFile(storeName));
+				tileDbMap.put(storeName, db);
+			}
+			return db;
+		}
+	}
+
+	@Override
+	public void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource) throws IOException {
+		putTileData(tileData, x, y, zoom, mapSource, -1, -1, null);
+	}
+
+	@Override
+	public void putTileData(byte[] tileData, int x, int y, int zoom, MapSource mapSource, long timeLastModified,
+			long timeExpires, String eTag) throws IOException {
+		putTile(new SQLiteTileEntry(x, y, zoom, tileData, timeLastModified, timeExpires, eTag), mapSource);
+	}
+
+	@Override
+	public void putTile(TileStoreEntry tile, MapSource mapSource) {
+		try {
+			if (log.isTraceEnabled())
+				log.trace("Saved " + mapSource.getName() + " " + tile);
+			getTileDatabase(mapSource.getName()).put(tile);
+		} catch (SQLException e) {
+			log.error("Faild to write tile to tile store \"" + mapSource.getName() + "\"", e);
+		}
+	}
+
+	/**
+	 * Writes all tiles in one transaction.
+	 * 
+	 * @param storeName
+	 * @param tiles
+	 * @throws SQLException
+	 */
+	public void putTiles(String storeName, List<TileStoreEntry> tiles) throws SQLException {
+		getTileDatabase(storeName).putAll(tiles);
+	}
+
+	@Override
+	public TileStoreEntry getTile(int x, int y, int zoom, MapSource mapSource) {
+		try {
+			TileStoreEntry tile = getTileDatabase(mapSource.getName()).get(x, y, zoom);
+			if (log.isTraceEnabled()) {
+				if (tile == null)
+					log.trace("Tile store cache miss: (x,y,z)" + x + "/" + y + "/" + zoom + " " + mapSource.getName());
+				else
+					log.trace("Loaded " + mapSource.getName() + " " + tile);
+			}
+			return tile;
+		} catch (SQLException e) {
+			log.error("failed to retrieve tile from tile store \"" + mapSource.getName() + "\"", e);
+			return null;
+		}
+	}
+
+	@Override
+	public boolean contains(int x, int y, int zoom, MapSource mapSource) {
+		try {
+			return getTileDatabase(mapSource.getName()).contains(x, y, zoom);
+		} catch (SQLException e) {
+			log.error("", e);
+			return false;
+		}
+	}
+
+	@Override
+	public void prepareTileStore(MapSource mapSource) {
+		try {
+			getTileDatabase(mapSource.getName());
+		} catch (SQLException e) {
+		}
+	}
+
+	@Override
+	public void clearStore(String storeName) {
+		synchronized (tileDbMap) {
+			TileDatabase db = tileDbMap.remove(storeName);
+			if (db != null)
+				db.close();
+			File dbFile = getStoreFile(storeName);
+			for (File f : getStoreFiles(dbFile)) {
+				if (f.exists() && !f.delete())
+					log.warn("Failed to delete " + f);
+			}
+			log.debug("Tilestore " + storeName + " cleared");
+		}
+	}
+
+	@Override
+	public String[] getAllStoreNames() {
+		File[] files = tileStoreDir.listFiles(new FileFilter() {
+
+			public boolean accept(File f) {
+				String name = f.getName();
+				return f.isFile() && name.startsWith(STORE_FILE_PREFIX) && name.endsWith(STORE_FILE_SUFFIX);
+			}
+		});
+		if (files == null)
+			return new String[0];
+		String[] result = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			result[i] = name.substring(STORE_FILE_PREFIX.length(), name.length() - STORE_FILE_SUFFIX.length());
+		}
+		return result;
+	}
+
+	@Override
+	public boolean storeExists(MapSource mapSource) {
+		return getStoreFile(mapSource.getName()).isFile();
+	}
+
+	@Override
+	public TileStoreInfo getStoreInfo(String storeName) throws InterruptedException {
+		File dbFile = getStoreFile(storeName);
+		if (!dbFile.isFile())
+			return new TileStoreInfo(0, 0);
+		int tileCount;
+		try {
+			tileCount = (int) getTileDatabase(storeName).entryCount();
+		} catch (SQLException e) {
+			log.error("", e);
+			tileCount = -1;
+		}
+		long storeSize = 0;
+		for (File f : getStoreFiles(dbFile))
+			storeSize += f.length();
+		return new TileStoreInfo(storeSize, tileCount);
+	}
+
+	@Override
+	public TileCoverageIndex getCoverageIndex(MapSource mapSource) throws InterruptedException {
+		try {
+			return getTileDatabase(mapSource.getName()).getCoverageIndex();
+		} catch (SQLException e) {
+			log.error("", e);
+			return null;
+		}
+	}
+
+	@Override
+	public void closeAll() {
+		log.debug("Closing all tile databases...");
+		synchronized (tileDbMap) {
+			for (TileDatabase db : tileDbMap.values())
+				db.close();
+			tileDbMap.clear();
+		}
+		log.debug("All tile databases has been closed");
+	}
+
+	/**
+	 * @param storeName
+	 * @return database file used for storing the tiles of the specified map source
+	 */
+	protected File getStoreFile(String storeName) {
+		return new File(tileStoreDir, STORE_FILE_PREFIX + storeName + STORE_FILE_SUFFIX);
+	}
+
+	/**
+	 * @param dbFile
+	 * @return the database file and the write ahead log, shared memory and coverage index files belonging to it
+	 */
+	protected File[] getStoreFiles(File dbFile) {
+		return new File[] { dbFile, new File(dbFile.getPath() + "-wal"), new File(dbFile.getPath() + "-shm"),
+				getCoverageFile(dbFile) };
+	}
+
+	/**
+	 * @param dbFile
+	 * @return file the {@link TileCoverageIndex} of the database is saved to
+	 */
+	protected File getCoverageFile(File dbFile) {
+		return new File(dbFile.getPath() + "-coverage");
+	}
+
+	protected static Connection openConnection(File dbFile) throws SQLException {
+		return DriverManager.getConnection("jdbc:sqlite:/" + dbFile.getAbsolutePath());
+	}
+
+	/**
+	 * Connection and prepared statements of one thread
+	 */
+	protected static class DbConnection {
+
+		final Connection conn;
+		final PreparedStatement selectStmt;
+		final PreparedStatement containsStmt;
+		final PreparedStatement insertStmt;
+		volatile boolean closed = false;
+
+		/**
+		 * The thread using this connection
+		 */
+		final Thread owner = Thread.currentThread();
+
+		public DbConnection(File dbFile) throws SQLException {
+			conn = openConnection(dbFile);
+			Statement stat = conn.createStatement();
+			try {
+				stat.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT);
+				stat.execute("PRAGMA synchronous = NORMAL");
+			} finally {
+				stat.close();
+			}
+			selectStmt = conn.prepareStatement(SELECT_SQL);
+			containsStmt = conn.prepareStatement(CONTAINS_SQL);
+			insertStmt = conn.prepareStatement(INSERT_SQL);
+		}
+
+		public synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			Utilities.closeStatement(selectStmt);
+			Utilities.closeStatement(containsStmt);
+			Utilities.closeStatement(insertStmt);
+			SQLiteLoader.closeConnection(conn);
+		}
+	}
+
+	protected class TileDatabase {
+
+		final String storeName;
+		final File dbFile;
+
+		/**
+		 * SQLite connections are not thread safe, therefore each thread gets it own connection
+		 */
+		final ThreadLocal<DbConnection> connection = new ThreadLocal<DbConnection>();
+
+		/**
+		 * All connections opened by any thread, required for closing the database. Connections of terminated threads are
+		 * closed when the next connection is opened.
+		 */
+		final List<DbConnection> allConnections = new ArrayList<DbConnection>();
+
+		boolean dbClosed = false;
+
+		final StoreCoverage<SQLException> coverage;
+
+		public TileDatabase(String storeName, File dbFile) throws SQLException {
+			log.debug("Opening tile store db: \"" + dbFile + "\"");
+			this.storeName = storeName;
+			this.dbFile = dbFile;
+			try {
+				Utilities.mkDirs(dbFile.getParentFile());
+			} catch (IOException e) {
+				throw new SQLException(e.getMessage(), e);
+			}
+			// The table has to exist before the per-thread connections can prepare their statements
+			Connection conn = openConnection(dbFile);
+			try {
+				Statement stat = conn.createStatement();
+				try {
+					// WAL mode is persistent and therefore has to be set only once
+					stat.execute("PRAGMA journal_mode = WAL");
+					stat.executeUpdate(TABLE_DDL);
+				} finally {
+					stat.close();
+				}
+			} finally {
+				SQLiteLoader.closeConnection(conn);
+			}
+			coverage = new StoreCoverage<SQLException>(storeName, getCoverageFile(dbFile)) {
+
+				@Override
+				protected void scanTiles(TileCoverageIndex index) throws SQLException, InterruptedException {
+					scanTileKeys(index);
+				}
+			};
+		}
+
+		protected DbConnection getConnection() throws SQLException {
+			DbConnection c = connection.get();
+			if (c != null && !c.closed)
+				return c;
+			synchronized (allConnections) {
+				if (dbClosed)
+					throw new SQLException("Tile store db \"" + storeName + "\" has been closed");
+				closeOrphanedConnections();
+				c = new DbConnection(dbFile);
+				allConnections.add(c);
+			}
+			connection.set(c);
+			return c;
+		}
+
+		/**
+		 * Closes the connections of threads that have terminated, e.g. the download threads of a previous atlas
+		 * creation. Has to be called while holding the monitor of {@link #allConnections}.
+		 */
+		private void closeOrphanedConnections() {
+			Iterator<DbConnection> it = allConnections.iterator();
+			while (it.hasNext()) {
+				DbConnection c = it.next();
+				if (!c.owner.isAlive()) {
+					c.close();
+					it.remove();
+				}
+			}
+		}
+
+		/**
+		 * @return number of connections currently opened for this database
+		 */
+		public int getConnectionCount() {
+			synchronized (allConnections) {
+				return allConnections.size();
+			}
+		}
+
+		public void put(TileStoreEntry tile) throws SQLException {
+			PreparedStatement ps = getConnection().insertStmt;
+			setInsertParameters(ps, tile);
+			ps.executeUpdate();
+			coverage.add(tile.getX(), tile.getY(), tile.getZoom());
+		}
+
+		public void putAll(List<TileStoreEntry> tiles) throws SQLException {
+			DbConnection c = getConnection();
+			c.conn.setAutoCommit(false);
+			try {
+				for (TileStoreEntry tile : tiles) {
+					setInsertParameters(c.insertStmt, tile);
+					c.insertStmt.addBatch();
+				}
+				c.insertStmt.executeBatch();
+				c.conn.commit();
+				for (TileStoreEntry tile : tiles)
+					coverage.add(tile.getX(), tile.getY(), tile.getZoom());
+			} catch (SQLException e) {
+				c.conn.rollback();
+				throw e;
+			} finally {
+				c.insertStmt.clearBatch();
+				c.conn.setAutoCommit(true);
+			}
+		}
+
+		private void setInsertParameters(PreparedStatement ps, TileStoreEntry tile) throws SQLException {
+			ps.setInt(1, tile.getZoom());
+			ps.setInt(2, tile.getX());
+			ps.setInt(3, tile.getY());
+			ps.setBytes(4, tile.getData());
+			ps.setLong(5, tile.getTimeDownloaded());
+			ps.setLong(6, tile.getTimeLastModified());
+			ps.setLong(7, tile.getTimeExpires());
+			ps.setString(8, tile.geteTag());
+		}
+
+		public TileStoreEntry get(int x, int y, int zoom) throws SQLException {
+			PreparedStatement ps = getConnection().selectStmt;
+			ps.setInt(1, zoom);
+			ps.setInt(2, x);
+			ps.setInt(3, y);
+			ResultSet rs = ps.executeQuery();
+			try {
+				if (!rs.next())
+					return null;
+				// getBytes() directly returns the blob copied from the SQLite result - no stream buffering
+				return new SQLiteTileEntry(x, y, zoom, rs.getBytes(1), rs.getLong(2), rs.getLong(3), rs.getLong(4),
+						rs.getString(5));
+			} finally {
+				rs.close();
+			}
+		}
+
+		public boolean contains(int x, int y, int zoom) throws SQLException {
+			PreparedStatement ps = getConnection().containsStmt;
+			ps.setInt(1, zoom);
+			ps.setInt(2, x);
+			ps.setInt(3, y);
+			ResultSet rs = ps.executeQuery();
+			try {
+				return rs.next();
+			} finally {
+				rs.close();
+			}
+		}
+
+		public long entryCount() throws SQLException {
+			Statement stat = getConnection().conn.createStatement();
+			try {
+				ResultSet rs = stat.executeQuery(COUNT_SQL);
+				return rs.next() ? rs.getLong(1) : 0;
+			} finally {
+				stat.close();
+			}
+		}
+
+		public TileCoverageIndex getCoverageIndex() throws SQLException, InterruptedException {
+			return coverage.getIndex();
+		}
+
+		private void scanTileKeys(TileCoverageIndex index) throws SQLException, InterruptedException {
+			Statement stat = getConnection().conn.createStatement();
+			try {
+				ResultSet rs = stat.executeQuery(COVERAGE_SQL);
+				Thread t = Thread.currentThread();
+				while (rs.next()) {
+					index.add(rs.getInt(2), rs.getInt(3), rs.getInt(1));
+					if (t.isInterrupted())
+						throw new InterruptedException();
+				}
+				rs.close();
+			} finally {
+				stat.close();
+			}
+		}
+
+		public void close() {
+			synchronized (allConnections) {
+				if (dbClosed)
+					return;
+				dbClosed = true;
+				log.debug("Closing tile store db \"" + storeName + "\"");
+				for (DbConnection c : allConnections)
+					c.close();
+				allConnections.clear();
+			}
+			coverage.save();
+		}
+
+	}
+}
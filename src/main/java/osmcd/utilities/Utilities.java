@@ -36,6 +36,8 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.channels.FileChannel;
 import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.ProtectionDomain;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -56,6 +58,7 @@ import javax.swing.Action;
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
 
 import osmcd.Main;
@@ -423,7 +426,8 @@ public class Utilities {
 	public static void mkDir(File dir) throws IOException {
 		if (dir.isDirectory())
 			return;
-		if (!dir.mkdir())
+		// The directory may have been created concurrently by another thread
+		if (!dir.mkdir() && !dir.isDirectory())
 			throw new IOException("Failed to create directory \"" + dir.getAbsolutePath() + "\"");
 	}
 
@@ -512,6 +516,30 @@ public class Utilities {
 		return buffer.toByteArray();
 	}
 
+	private static final ThreadLocal<MessageDigest> SHA256_DIGEST = new ThreadLocal<MessageDigest>() {
+
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	/**
+	 * Calculates the SHA-256 hash of <tt>data</tt>. This method is thread safe.
+	 * 
+	 * @param data
+	 * @return hash as lower case hexadecimal string (64 characters)
+	 */
+	public static String sha256Hex(byte[] data) {
+		MessageDigest md = SHA256_DIGEST.get();
+		md.reset();
+		return Hex.encodeHexString(md.digest(data));
+	}
+
 	/**
 	 * Fully reads data from <tt>in</tt> the read data is discarded.
 	 * 
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.utilities.imageio;
+
+import static osmcd.utilities.imageio.PngConstants.FILTER_TYPE_NONE;
+import static osmcd.utilities.imageio.PngConstants.IDAT;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compresses the image data of a {@link PngXxlWriter} concurrently (similar to <a
+ * href="http://zlib.net/pigz/">pigz</a>).
+ * <p>
+ * Each tile line is deflated by a raw {@link Deflater} on a worker thread. The deflater is primed with the last 32 KiB
+ * of the (uncompressed) preceding tile line and the compressed output is terminated by a sync flush. Therefore the
+ * compressed tile lines can be concatenated in their original order. The zlib header, the final empty deflate block and
+ * the Adler-32 checksum (combined from the checksums of all tile lines) are written by this class.
+ * </p>
+ * <p>
+ * Sync flushing is only available since Java 7 - see {@link #isSupported()}.
+ * </p>
+ */
+class ParallelImageDataWriter {
+
+	private static final Logger log = Logger.getLogger(ParallelImageDataWriter.class);
+
+	private static final int BUFFER_SIZE = 128 * 1024;
+
+	/**
+	 * Maximum size of the deflate window (and therefore of the preset dictionary)
+	 */
+	private static final int WINDOW_SIZE = 32768;
+
+	/**
+	 * zlib header: deflate with 32K window, maximum compression
+	 */
+	private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0xDA };
+
+	/**
+	 * <code>Deflater.SYNC_FLUSH</code> (Java 7)
+	 */
+	private static final int SYNC_FLUSH = 2;
+
+	/**
+	 * <code>Deflater.NO_FLUSH</code> (Java 7)
+	 */
+	private static final int NO_FLUSH = 0;
+
+	/**
+	 * <code>Deflater.deflate(byte[], int, int, int)</code> or <code>null</code> if the running Java version does not
+	 * support sync flushing.
+	 */
+	private static final Method DEFLATE_FLUSH_METHOD;
+
+	static {
+		Method m = null;
+		try {
+			m = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+		} catch (Exception e) {
+			log.debug("Parallel PNG compression not available: " + e);
+		}
+		DEFLATE_FLUSH_METHOD = m;
+	}
+
+	public static boolean isSupported() {
+		return DEFLATE_FLUSH_METHOD != null;
+	}
+
+	private final int width;
+	private final int maxPendingLines;
+	private final ThreadPoolExecutor executor;
+	private final LinkedList<Future<CompressedTileLine>> pendingLines = new LinkedList<Future<CompressedTileLine>>();
+
+	private final OutputStream idatStream;
+
+	private BufferedImage previousTileLine = null;
+	private long adler = 1;
+
+	/**
+	 * @param out
+	 *            PNG stream the IDAT chunks are written to
+	 * @param width
+	 *            width of the PNG image
+	 * @param threadCount
+	 *            number of compression threads
+	 */
+	public ParallelImageDataWriter(DataOutputStream out, int width, int threadCount) throws IOException {
+		this.width = width;
+		this.maxPendingLines = threadCount;
+		executor = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		idatStream = new BufferedOutputStream(new IdatChunkWriter(out), BUFFER_SIZE);
+		idatStream.write(ZLIB_HEADER);
+	}
+
+	/**
+	 * Queues the tile line for compression. The image must not be modified afterwards as it is also used as dictionary
+	 * for the following tile line.
+	 */
+	public void writeTileLine(BufferedImage tileLineImage) throws IOException {
+		pendingLines.add(executor.submit(new CompressTileLineJob(tileLineImage, previousTileLine)));
+		previousTileLine = tileLineImage;
+		if (pendingLines.size() >= maxPendingLines)
+			writeCompressedTileLine(pendingLines.removeFirst());
+	}
+
+	public void finish() throws IOException {
+		try {
+			while (!pendingLines.isEmpty())
+				writeCompressedTileLine(pendingLines.removeFirst());
+		} finally {
+			dispose();
+		}
+		// Final (empty) deflate block
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		try {
+			deflater.finish();
+			byte[] buf = new byte[16];
+			while (!deflater.finished()) {
+				int len = deflater.deflate(buf);
+				idatStream.write(buf, 0, len);
+			}
+		} finally {
+			deflater.end();
+		}
+		idatStream.write((int) (adler >>> 24) & 0xFF);
+		idatStream.write((int) (adler >>> 16) & 0xFF);
+		idatStream.write((int) (adler >>> 8) & 0xFF);
+		idatStream.write((int) adler & 0xFF);
+		idatStream.flush();
+	}
+
+	/**
+	 * Stops all compression threads. Tile lines not yet written are discarded.
+	 */
+	public void dispose() {
+		for (Future<CompressedTileLine> f : pendingLines)
+			f.cancel(true);
+		pendingLines.clear();
+		previousTileLine = null;
+		executor.shutdownNow();
+	}
+
+	private void writeCompressedTileLine(Future<CompressedTileLine> future) throws IOException {
+		CompressedTileLine line;
+		try {
+			line = future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while compressing PNG image data");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException("Error compressing PNG image data: " + cause.getMessage(), cause);
+		}
+		line.data.writeTo(idatStream);
+		adler = adler32Combine(adler, line.adler, line.rawLength);
+	}
+
+	/**
+	 * Combines the Adler-32 checksums of two consecutive data blocks (port of zlib's <code>adler32_combine()</code>).
+	 * 
+	 * @param adler1
+	 *            checksum of the first block
+	 * @param adler2
+	 *            checksum of the second block
+	 * @param len2
+	 *            length of the second block
+	 * @return checksum of both blocks
+	 */
+	static long adler32Combine(long adler1, long adler2, long len2) {
+		final long base = 65521;
+		long rem = len2 % base;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (rem * sum1) % base;
+		sum1 += (adler2 & 0xFFFF) + base - 1;
+		sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - rem;
+		if (sum1 >= base)
+			sum1 -= base;
+		if (sum1 >= base)
+			sum1 -= base;
+		if (sum2 >= (base << 1))
+			sum2 -= (base << 1);
+		if (sum2 >= base)
+			sum2 -= base;
+		return sum1 | (sum2 << 16);
+	}
+
+	private static int deflate(Deflater deflater, byte[] buf, int flush) throws IOException {
+		try {
+			return ((Integer) DEFLATE_FLUSH_METHOD.invoke(deflater, buf, 0, buf.length, flush)).intValue();
+		} catch (InvocationTargetException e) {
+			throw new IOException("Deflate failed: " + e.getCause(), e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IOException("Deflate failed: " + e, e);
+		}
+	}
+
+	private static class CompressedTileLine {
+		ByteArrayOutputStream data;
+		long adler;
+		long rawLength;
+	}
+
+	private class CompressTileLineJob implements Callable<CompressedTileLine> {
+
+		private final BufferedImage image;
+		private final BufferedImage previousImage;
+
+		public CompressTileLineJob(BufferedImage image, BufferedImage previousImage) {
+			this.image = image;
+			this.previousImage = previousImage;
+		}
+
+		public CompressedTileLine call() throws Exception {
+			int rowLength = 1 + 3 * width;
+			int height = image.getHeight();
+			Rectangle rect = new Rectangle(0, 0, width, 1);
+			byte[] lineBuf = new byte[3 * width];
+			byte[] row = new byte[rowLength];
+			byte[] buf = new byte[BUFFER_SIZE];
+			CompressedTileLine result = new CompressedTileLine();
+			result.data = new ByteArrayOutputStream(height * rowLength / 4);
+			Adler32 checksum = new Adler32();
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+			try {
+				if (previousImage != null)
+					setDictionary(deflater, rect, lineBuf);
+				for (int line = 0; line < height; line++) {
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedException();
+					byte[] lineData = PngXxlWriter.getLineData(image, line, rect, lineBuf);
+					row[0] = FILTER_TYPE_NONE;
+					System.arraycopy(lineData, 0, row, 1, rowLength - 1);
+					checksum.update(row);
+					deflater.setInput(row);
+					while (!deflater.needsInput()) {
+						int len = deflate(deflater, buf, NO_FLUSH);
+						result.data.write(buf, 0, len);
+					}
+				}
+				int len;
+				do {
+					len = deflate(deflater, buf, SYNC_FLUSH);
+					result.data.write(buf, 0, len);
+				} while (len == buf.length);
+			} finally {
+				deflater.end();
+			}
+			result.adler = checksum.getValue();
+			result.rawLength = (long) height * rowLength;
+			return result;
+		}
+
+		/**
+		 * Uses the last (up to) 32 KiB of the filtered rows of the previous tile line as preset dictionary.
+		 */
+		private void setDictionary(Deflater deflater, Rectangle rect, byte[] lineBuf) throws IOException {
+			int rowLength = lineBuf.length + 1;
+			int prevHeight = previousImage.getHeight();
+			int rows = Math.min(prevHeight, (WINDOW_SIZE + rowLength - 1) / rowLength);
+			byte[] dict = new byte[rows * rowLength];
+			int pos = 0;
+			for (int line = prevHeight - rows; line < prevHeight; line++) {
+				byte[] lineData = PngXxlWriter.getLineData(previousImage, line, rect, lineBuf);
+				dict[pos++] = FILTER_TYPE_NONE;
+				System.arraycopy(lineData, 0, dict, pos, lineData.length);
+				pos += lineData.length;
+			}
+			int len = Math.min(WINDOW_SIZE, dict.length);
+			deflater.setDictionary(dict, dict.length - len, len);
+		}
+	}
+
+	/**
+	 * Writes the compressed data as IDAT chunks
+	 */
+	private static class IdatChunkWriter extends OutputStream {
+
+		private final DataOutputStream out;
+		private final CRC32 crc = new CRC32();
+
+		public IdatChunkWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			crc.reset();
+			out.writeInt(len);
+			out.writeInt(IDAT);
+			out.write(b, off, len);
+			crc.update("IDAT".getBytes());
+			crc.update(b, off, len);
+			out.writeInt((int) crc.getValue());
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private int threadNum = 1;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "PNG compression worker " + (threadNum++));
+			t.setDaemon(true);
+			return t;
+		}
+
+	}
+
+}
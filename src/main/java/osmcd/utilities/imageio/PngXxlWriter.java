@@ -75,6 +75,14 @@ import javax.activation.UnsupportedDataTypeException;
  * Please note that this writer creates 24bit/truecolor PNGs. Transparency and
  * alpha masks are not supported.
  * </p>
+ * <p>
+ * If created with more than one thread the tile lines are compressed
+ * concurrently: each tile line is deflated independently (primed with the last
+ * 32 KiB of the preceding tile line as dictionary) and terminated by a sync
+ * flush, so that the compressed tile lines can be concatenated to one zlib
+ * stream. Parallel compression requires Java 7 or higher, on older Java
+ * versions the image data is compressed sequentially.
+ * </p>
  * Bases on the PNGWriter written by Matthias Mann - www.matthiasmann.de
  * 
  * @author r_x
@@ -89,6 +97,8 @@ public class PngXxlWriter {
 
 	ImageDataChunkWriter imageDataChunkWriter;
 
+	ParallelImageDataWriter parallelWriter = null;
+
 	/**
 	 * Creates an PNG writer instance for an image with the specified width and
 	 * height.
@@ -102,6 +112,25 @@ public class PngXxlWriter {
 	 * @throws IOException
 	 */
 	public PngXxlWriter(int width, int height, OutputStream os) throws IOException {
+		this(width, height, os, 1);
+	}
+
+	/**
+	 * Creates an PNG writer instance that compresses the image data using
+	 * <code>threadCount</code> threads.
+	 * 
+	 * @param width
+	 *            width of the PNG image to be written
+	 * @param height
+	 *            height of the PNG image to be written
+	 * @param os
+	 *            destination to write the PNG image data to
+	 * @param threadCount
+	 *            number of compression threads, <code>1</code> compresses
+	 *            on the calling thread
+	 * @throws IOException
+	 */
+	public PngXxlWriter(int width, int height, OutputStream os, int threadCount) throws IOException {
 		this.width = width;
 		this.height = height;
 		this.dos = new DataOutputStream(os);
@@ -117,7 +146,10 @@ public class PngXxlWriter {
 		cIHDR.writeByte(FILTER_SET_1);
 		cIHDR.writeByte(INTERLACE_NONE);
 		cIHDR.writeTo(dos);
-		imageDataChunkWriter = new ImageDataChunkWriter(dos);
+		if (threadCount > 1 && ParallelImageDataWriter.isSupported())
+			parallelWriter = new ParallelImageDataWriter(dos, width, threadCount);
+		else
+			imageDataChunkWriter = new ImageDataChunkWriter(dos);
 	}
 
 	/**
@@ -139,6 +171,11 @@ public class PngXxlWriter {
 			throw new UnsupportedDataTypeException(
 					"Image uses wrong color model. Only DirectColorModel is supported!");
 
+		if (parallelWriter != null) {
+			parallelWriter.writeTileLine(tileLineImage);
+			return;
+		}
+
 		// We process the image line by line, from head to bottom
 		Rectangle rect = new Rectangle(0, 0, tileLineWidth, 1);
 
@@ -146,37 +183,62 @@ public class PngXxlWriter {
 
 		byte[] curLine = new byte[width * 3];
 		for (int line = 0; line < tileLineHeight; line++) {
-			rect.y = line;
-			DataBuffer db = tileLineImage.getData(rect).getDataBuffer();
-			if (db.getNumBanks() > 1)
-				throw new UnsupportedDataTypeException("Image data has more than one data bank");
-			if (db instanceof DataBufferByte)
-				curLine = ((DataBufferByte) db).getData();
-			else if (db instanceof DataBufferInt) {
-				int[] intLine = ((DataBufferInt) db).getData();
-				int c = 0;
-				for (int i = 0; i < intLine.length; i++) {
-					int pixel = intLine[i];
-					curLine[c++] = (byte) (pixel >> 16 & 0xFF);
-					curLine[c++] = (byte) (pixel >> 8 & 0xFF);
-					curLine[c++] = (byte) (pixel & 0xFF);
-				}
-			} else
-				throw new UnsupportedDataTypeException(db.getClass().getName());
-
+			curLine = getLineData(tileLineImage, line, rect, curLine);
 			imageDataStream.write(FILTER_TYPE_NONE);
 			imageDataStream.write(curLine);
 		}
 	}
 
+	/**
+	 * Returns the RGB data of one line of the image.
+	 * 
+	 * @param rect
+	 *            rectangle of the image width and height 1 (reused)
+	 * @param curLine
+	 *            buffer for the line data (<code>3 * width</code>), may be
+	 *            replaced by the returned array
+	 */
+	static byte[] getLineData(BufferedImage image, int line, Rectangle rect, byte[] curLine) throws IOException {
+		rect.y = line;
+		DataBuffer db = image.getData(rect).getDataBuffer();
+		if (db.getNumBanks() > 1)
+			throw new UnsupportedDataTypeException("Image data has more than one data bank");
+		if (db instanceof DataBufferByte)
+			return ((DataBufferByte) db).getData();
+		else if (db instanceof DataBufferInt) {
+			int[] intLine = ((DataBufferInt) db).getData();
+			int c = 0;
+			for (int i = 0; i < intLine.length; i++) {
+				int pixel = intLine[i];
+				curLine[c++] = (byte) (pixel >> 16 & 0xFF);
+				curLine[c++] = (byte) (pixel >> 8 & 0xFF);
+				curLine[c++] = (byte) (pixel & 0xFF);
+			}
+			return curLine;
+		} else
+			throw new UnsupportedDataTypeException(db.getClass().getName());
+	}
+
 	public void finish() throws IOException {
-		imageDataChunkWriter.finish();
+		if (parallelWriter != null)
+			parallelWriter.finish();
+		else
+			imageDataChunkWriter.finish();
 		PngChunk cIEND = new PngChunk(IEND);
 		cIEND.writeTo(dos);
 		cIEND.close();
 		dos.flush();
 	}
 
+	/**
+	 * Releases the compression threads in case the image is not completed via
+	 * {@link #finish()} (e.g. on abort).
+	 */
+	public void dispose() {
+		if (parallelWriter != null)
+			parallelWriter.dispose();
+	}
+
 	static class ImageDataChunkWriter extends OutputStream {
 
 		DeflaterOutputStream dfos;
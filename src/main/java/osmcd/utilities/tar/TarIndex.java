@@ -38,7 +38,7 @@ public class TarIndex {
 		tarRAFile = new RandomAccessFile(tarFile, "r");
 	}
 
-	public byte[] getEntryContent(String entryName) throws IOException {
+	public synchronized byte[] getEntryContent(String entryName) throws IOException {
 		long off = tarIndex.getEntryOffset(entryName);
 		if (off < 0)
 			return null;
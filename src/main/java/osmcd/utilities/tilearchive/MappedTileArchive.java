@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package osmcd.utilities.tilearchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import osmcd.program.model.TileOrder;
+import osmcd.utilities.OSUtilities;
+import osmcd.utilities.OSUtilities.OperatingSystem;
+
+/**
+ * Temporary storage for the downloaded tiles of one map.
+ * <p>
+ * Tiles are appended to fixed size segment files via positional {@link FileChannel} writes. The write position is
+ * reserved with a compare-and-set on an {@link AtomicLong}, therefore any number of download threads can write
+ * concurrently without a common lock. The location of each tile is stored in a primitive index covering the tile
+ * rectangle of the map (offset and length packed into one <code>long</code> per tile).
+ * </p>
+ * <p>
+ * Tiles are read via read-only {@link MappedByteBuffer} slices of the segment files (no copy into a
+ * <code>byte[]</code> required). Reading is possible while the archive is still being written:
+ * {@link #waitForTile(int, int)} blocks until the tile has been written or the archive has been marked complete via
+ * {@link #setComplete()}.
+ * </p>
+ * <p>
+ * On Windows a file can not be deleted as long as it is mapped into memory and a mapping is only released when the
+ * buffer is garbage collected. Therefore on Windows the tiles are read via positional {@link FileChannel} reads
+ * instead.
+ * </p>
+ * <p>
+ * Note: An interrupt of a thread blocked in {@link #writeTile(int, int, byte[])} closes the underlying channel (see
+ * {@link java.nio.channels.InterruptibleChannel}). Therefore download threads should only be interrupted if the whole
+ * download is aborted.
+ * </p>
+ */
+public class MappedTileArchive {
+
+	private static final Logger log = Logger.getLogger(MappedTileArchive.class);
+
+	/**
+	 * Size of one segment file - each segment is mapped into memory as a whole for reading
+	 */
+	public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final int MAX_SEGMENTS = 4096;
+
+	private static final int LENGTH_BITS = 24;
+	private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+	private static final int MAX_TILE_SIZE = (int) LENGTH_MASK;
+
+	private final File tempDir;
+	private final String namePrefix;
+
+	private final int xMin;
+	private final int xMax;
+	private final int yMin;
+	private final int yMax;
+	private final int width;
+
+	/**
+	 * Per tile: <code>((offset + 1) &lt;&lt; LENGTH_BITS) | length</code>, <code>0</code> if the tile is not present.
+	 */
+	private final AtomicLongArray index;
+
+	private final AtomicLong writePos = new AtomicLong(0);
+	private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<Segment>(MAX_SEGMENTS);
+	private final AtomicInteger tileCount = new AtomicInteger(0);
+
+	/**
+	 * Number of threads currently blocked in {@link #waitForTile(int, int)}
+	 */
+	private final AtomicInteger waitingReaders = new AtomicInteger(0);
+
+	private volatile boolean complete = false;
+	private volatile boolean closed = false;
+
+	private TileOrder tileOrder = TileOrder.ROW_MAJOR;
+
+	/**
+	 * <code>true</code>: tiles are read from memory mapped segments, <code>false</code>: via positional reads
+	 */
+	private final boolean mapSegments;
+
+	/**
+	 * Memory mapped segments are used on all platforms except Windows.
+	 * 
+	 * @param tempDir
+	 *            directory the segment files are created in
+	 * @param namePrefix
+	 *            prefix of the segment file names
+	 * @param xMin
+	 * @param xMax
+	 * @param yMin
+	 * @param yMax
+	 *            tile rectangle (inclusive) of the map
+	 */
+	public MappedTileArchive(File tempDir, String namePrefix, int xMin, int xMax, int yMin, int yMax) {
+		this(tempDir, namePrefix, xMin, xMax, yMin, yMax, OSUtilities.detectOs() != OperatingSystem.Windows);
+	}
+
+	/**
+	 * 
+	 * @param tempDir
+	 *            directory the segment files are created in
+	 * @param namePrefix
+	 *            prefix of the segment file names
+	 * @param xMin
+	 * @param xMax
+	 * @param yMin
+	 * @param yMax
+	 *            tile rectangle (inclusive) of the map
+	 * @param mapSegments
+	 *            <code>true</code> read the tiles from memory mapped segments, <code>false</code> use positional
+	 *            reads
+	 */
+	public MappedTileArchive(File tempDir, String namePrefix, int xMin, int xMax, int yMin, int yMax,
+			boolean mapSegments) {
+		this.tempDir = tempDir;
+		this.namePrefix = namePrefix;
+		this.xMin = xMin;
+		this.xMax = xMax;
+		this.yMin = yMin;
+		this.yMax = yMax;
+		this.width = xMax - xMin + 1;
+		long size = (long) width * (long) (yMax - yMin + 1);
+		if (width <= 0 || size <= 0 || size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid tile range: x=" + xMin + ".." + xMax + " y=" + yMin + ".."
+					+ yMax);
+		index = new AtomicLongArray((int) size);
+		this.mapSegments = mapSegments;
+	}
+
+	/**
+	 * Stores the tile data. Can be called concurrently by any number of threads.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param data
+	 * @throws IOException
+	 */
+	public void writeTile(int x, int y, byte[] data) throws IOException {
+		int i = indexOf(x, y);
+		if (i < 0)
+			throw new IllegalArgumentException("Tile x=" + x + " y=" + y + " is outside of the archive");
+		if (closed)
+			throw new IOException("Tile archive has already been closed");
+		int len = data.length;
+		if (len > MAX_TILE_SIZE)
+			throw new IOException("Tile x=" + x + " y=" + y + " too large: " + len + " bytes");
+		long offset = reserve(len);
+		Segment segment = getSegment((int) (offset / SEGMENT_SIZE));
+		long pos = offset % SEGMENT_SIZE;
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		while (buf.hasRemaining())
+			pos += segment.channel.write(buf, pos);
+		if (index.getAndSet(i, ((offset + 1) << LENGTH_BITS) | len) == 0)
+			tileCount.incrementAndGet();
+		if (waitingReaders.get() > 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reserves <code>len</code> bytes in the current segment or at the beginning of the next segment if the remaining
+	 * space of the current segment is too small.
+	 * 
+	 * @param len
+	 * @return absolute offset of the reserved range
+	 */
+	private long reserve(int len) {
+		while (true) {
+			long current = writePos.get();
+			long start = current;
+			long segmentEnd = (current / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+			if (start + len > segmentEnd)
+				start = segmentEnd;
+			if (writePos.compareAndSet(current, start + len))
+				return start;
+		}
+	}
+
+	private Segment getSegment(int segmentIndex) throws IOException {
+		if (segmentIndex >= MAX_SEGMENTS)
+			throw new IOException("Maximum tile archive size exceeded");
+		Segment segment = segments.get(segmentIndex);
+		if (segment != null)
+			return segment;
+		synchronized (segments) {
+			segment = segments.get(segmentIndex);
+			if (segment == null) {
+				if (closed)
+					throw new IOException("Tile archive has already been closed");
+				segment = new Segment(File.createTempFile(namePrefix + segmentIndex + "_", ".tiles", tempDir));
+				segments.set(segmentIndex, segment);
+			}
+			return segment;
+		}
+	}
+
+	private int indexOf(int x, int y) {
+		if (x < xMin || x > xMax || y < yMin || y > yMax)
+			return -1;
+		return (y - yMin) * width + (x - xMin);
+	}
+
+	public boolean containsTile(int x, int y) {
+		int i = indexOf(x, y);
+		return (i >= 0) && (index.get(i) != 0);
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return read-only buffer containing the tile data or <code>null</code> if the tile is not present
+	 * @throws IOException
+	 */
+	public ByteBuffer getTileBuffer(int x, int y) throws IOException {
+		int i = indexOf(x, y);
+		if (i < 0)
+			return null;
+		long entry = index.get(i);
+		if (entry == 0)
+			return null;
+		long offset = (entry >>> LENGTH_BITS) - 1;
+		int len = (int) (entry & LENGTH_MASK);
+		Segment segment = segments.get((int) (offset / SEGMENT_SIZE));
+		if (segment == null)
+			throw new IOException("Tile archive has already been closed");
+		int pos = (int) (offset % SEGMENT_SIZE);
+		if (!mapSegments)
+			return ByteBuffer.wrap(segment.read(pos, len)).asReadOnlyBuffer();
+		ByteBuffer buf = segment.getMappedBuffer().duplicate();
+		buf.limit(pos + len);
+		buf.position(pos);
+		return buf.slice();
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return copy of the tile data or <code>null</code> if the tile is not present
+	 * @throws IOException
+	 */
+	public byte[] getTileData(int x, int y) throws IOException {
+		ByteBuffer buf = getTileBuffer(x, y);
+		if (buf == null)
+			return null;
+		byte[] data = new byte[buf.remaining()];
+		buf.get(data);
+		return data;
+	}
+
+	/**
+	 * Blocks until the tile has been written or the archive has been marked complete.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return <code>true</code> if the tile is present
+	 * @throws InterruptedException
+	 */
+	public boolean waitForTile(int x, int y) throws InterruptedException {
+		int i = indexOf(x, y);
+		if (i < 0)
+			return false;
+		if (index.get(i) != 0)
+			return true;
+		waitingReaders.incrementAndGet();
+		try {
+			synchronized (this) {
+				while (index.get(i) == 0) {
+					if (complete)
+						return false;
+					wait();
+				}
+				return true;
+			}
+		} finally {
+			waitingReaders.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Marks the archive as complete - no more tiles will be added. Wakes up all threads blocked in
+	 * {@link #waitForTile(int, int)}.
+	 */
+	public synchronized void setComplete() {
+		complete = true;
+		notifyAll();
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Sets the order in which the tiles will be downloaded into this archive - and therefore their order within the
+	 * segment files.
+	 */
+	public void setTileOrder(TileOrder tileOrder) {
+		this.tileOrder = tileOrder;
+	}
+
+	/**
+	 * @return the order the tiles are written in (default {@link TileOrder#ROW_MAJOR})
+	 */
+	public TileOrder getTileOrder() {
+		return tileOrder;
+	}
+
+	/**
+	 * @return number of tiles stored in the archive
+	 */
+	public int size() {
+		return tileCount.get();
+	}
+
+	/**
+	 * Closes and deletes all segment files. Segment files that can not be deleted because they are still mapped into
+	 * memory are deleted on exit.
+	 */
+	public void closeAndDelete() {
+		synchronized (segments) {
+			closed = true;
+		}
+		setComplete();
+		// Segments are created on demand by the writing threads, therefore a slot may be empty while a following
+		// slot is already in use.
+		for (int i = 0; i < MAX_SEGMENTS; i++) {
+			Segment segment = segments.getAndSet(i, null);
+			if (segment != null)
+				segment.closeAndDelete();
+		}
+	}
+
+	private static class Segment {
+
+		final File file;
+		final RandomAccessFile raFile;
+		final FileChannel channel;
+
+		private MappedByteBuffer mappedBuffer = null;
+
+		public Segment(File file) throws IOException {
+			this.file = file;
+			file.deleteOnExit();
+			raFile = new RandomAccessFile(file, "rw");
+			// Allocate the whole segment so that it can be mapped before it is completely written
+			raFile.setLength(SEGMENT_SIZE);
+			channel = raFile.getChannel();
+			log.trace("New tile archive segment: " + file);
+		}
+
+		public synchronized MappedByteBuffer getMappedBuffer() throws IOException {
+			if (mappedBuffer == null)
+				mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, SEGMENT_SIZE);
+			return mappedBuffer;
+		}
+
+		public byte[] read(int pos, int len) throws IOException {
+			byte[] data = new byte[len];
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, pos + buf.position()) < 0)
+					throw new IOException("Unexpected end of tile archive segment " + file);
+			}
+			return data;
+		}
+
+		public void closeAndDelete() {
+			synchronized (this) {
+				// The mapping is released as soon as the buffer has been garbage collected
+				mappedBuffer = null;
+			}
+			try {
+				raFile.close();
+			} catch (IOException e) {
+			}
+			if (!file.delete())
+				file.deleteOnExit();
+		}
+
+	}
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.download.http.AsyncTileHttpClient;
+import osmcd.program.download.http.TileHttpExchange;
+import osmcd.program.download.http.TileHttpRequest;
+import osmcd.program.download.http.TileHttpResponse;
+import osmcd.program.model.Settings;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncTileHttpClientTestCase extends TestCase {
+
+	private static final String ETAG = "\"abc\"";
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private AsyncTileHttpClient client;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+	@Override
+	protected void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+		executor = Executors.newFixedThreadPool(8);
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				String path = exchange.getRequestURI().getPath();
+				byte[] data = createData(path);
+				if (path.startsWith("/redirect")) {
+					exchange.getResponseHeaders().set("Location", "/tile/1");
+					exchange.sendResponseHeaders(302, -1);
+				} else if (path.startsWith("/slow")) {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+					}
+					exchange.sendResponseHeaders(200, data.length);
+					exchange.getResponseBody().write(data);
+				} else if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					exchange.getResponseHeaders().set("Content-Type", "image/png");
+					exchange.getResponseHeaders().set("ETag", ETAG);
+					if ("HEAD".equals(exchange.getRequestMethod())) {
+						exchange.sendResponseHeaders(200, -1);
+					} else if (path.startsWith("/chunked")) {
+						// length 0 = chunked transfer encoding
+						exchange.sendResponseHeaders(200, 0);
+						OutputStream out = exchange.getResponseBody();
+						for (int i = 0; i < data.length; i += 1000)
+							out.write(data, i, Math.min(1000, data.length - i));
+					} else {
+						exchange.sendResponseHeaders(200, data.length);
+						exchange.getResponseBody().write(data);
+					}
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+		client = AsyncTileHttpClient.getInstance();
+		assertNotNull(client);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	public void testGet() throws Exception {
+		TileHttpResponse response = client.execute(request("/tile/1", "GET"));
+		assertEquals(200, response.getResponseCode());
+		assertEquals("image/png", response.getContentType());
+		assertEquals(ETAG, response.getETag());
+		assertTrue(Arrays.equals(createData("/tile/1"), response.getData()));
+
+		response = client.execute(request("/chunked/7", "GET"));
+		assertEquals(200, response.getResponseCode());
+		assertTrue(Arrays.equals(createData("/chunked/7"), response.getData()));
+	}
+
+	public void testHeadAndConditionalGet() throws Exception {
+		TileHttpResponse response = client.execute(request("/tile/2", "HEAD"));
+		assertEquals(200, response.getResponseCode());
+		assertEquals(ETAG, response.getETag());
+		assertNull(response.getData());
+
+		TileHttpRequest request = request("/tile/2", "GET");
+		request.setHeader("If-None-Match", ETAG);
+		response = client.execute(request);
+		assertEquals(304, response.getResponseCode());
+		assertNull(response.getData());
+	}
+
+	public void testRedirect() throws Exception {
+		TileHttpResponse response = client.execute(request("/redirect", "GET"));
+		assertEquals(200, response.getResponseCode());
+		assertTrue(Arrays.equals(createData("/tile/1"), response.getData()));
+		assertEquals("/tile/1", response.getUrl().getPath());
+	}
+
+	public void testManyRequestsInFlight() throws Exception {
+		List<TileHttpExchange> exchanges = new ArrayList<TileHttpExchange>();
+		for (int i = 0; i < 200; i++)
+			exchanges.add(client.submit(request((i % 2 == 0 ? "/tile/" : "/chunked/") + i, "GET")));
+		for (int i = 0; i < exchanges.size(); i++) {
+			TileHttpResponse response = exchanges.get(i).get();
+			assertEquals(200, response.getResponseCode());
+			assertTrue(Arrays.equals(createData(exchanges.get(i).getRequest().getUrl().getPath()),
+					response.getData()));
+		}
+		assertEquals(200, requests.get());
+		// the connections are kept alive and reused
+		assertTrue(clientPorts.size() <= Settings.getInstance().httpMaxConnectionsPerHost);
+	}
+
+	public void testReadTimeout() throws Exception {
+		TileHttpRequest request = request("/slow", "GET");
+		request.setReadTimeout(200);
+		try {
+			client.execute(request);
+			fail("Read timeout expected");
+		} catch (SocketTimeoutException e) {
+		}
+	}
+
+	private TileHttpRequest request(String path, String method) throws IOException {
+		URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+		return new TileHttpRequest(url, method);
+	}
+
+	private static byte[] createData(String path) {
+		int seed = path.hashCode();
+		byte[] data = new byte[5000 + (seed & 0xFFF)];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * seed);
+		return data;
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(AsyncTileHttpClientTestCase.class);
+	}
+
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.tilestore.berkeleydb.DeduplicatingTileIndex;
+import osmcd.program.tilestore.berkeleydb.TileDbEntry;
+import osmcd.program.tilestore.berkeleydb.TileDbEntry.TileDbKey;
+import unittests.helper.TestTileData;
+
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.persist.EntityStore;
+import com.sleepycat.persist.StoreConfig;
+
+public class DeduplicatingTileIndexTestCase extends TestCase {
+
+	private File dbDir;
+	private Environment env;
+	private EntityStore store;
+	private DeduplicatingTileIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		dbDir = File.createTempFile("DedupTest", "");
+		dbDir.delete();
+		dbDir.mkdirs();
+		EnvironmentConfig envConfig = new EnvironmentConfig();
+		envConfig.setAllowCreate(true);
+		env = new Environment(dbDir, envConfig);
+		StoreConfig storeConfig = new StoreConfig();
+		storeConfig.setAllowCreate(true);
+		store = new EntityStore(env, "TilesEntityStore", storeConfig);
+		index = new DeduplicatingTileIndex(store);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		store.close();
+		env.close();
+		for (File f : dbDir.listFiles())
+			f.delete();
+		dbDir.delete();
+	}
+
+	public void testDeduplication() throws Exception {
+		byte[] blank = TestTileData.create(500, 0);
+		byte[] other = TestTileData.create(700, 1);
+		index.put(new TileDbEntry(1, 1, 10, blank));
+		index.put(new TileDbEntry(1, 2, 10, blank));
+		index.put(new TileDbEntry(1, 3, 10, blank));
+		index.put(new TileDbEntry(2, 1, 10, other));
+		assertEquals(4, index.count());
+		assertEquals(2, index.uniqueCount(4));
+		assertTrue(Arrays.equals(blank, index.get(new TileDbKey(1, 2, 10)).getData()));
+		assertTrue(Arrays.equals(other, index.get(new TileDbKey(2, 1, 10)).getData()));
+		assertNull(index.get(new TileDbKey(5, 5, 10)));
+	}
+
+	public void testOverwriteReleasesPayload() throws Exception {
+		byte[] data1 = TestTileData.create(500, 0);
+		byte[] data2 = TestTileData.create(500, 1);
+		index.put(new TileDbEntry(1, 1, 10, data1));
+		// Rewriting the same content must not change the reference count
+		index.put(new TileDbEntry(1, 1, 10, data1));
+		assertEquals(1, index.uniqueCount(1));
+		index.put(new TileDbEntry(1, 1, 10, data2));
+		assertEquals(1, index.count());
+		assertEquals(1, index.uniqueCount(1));
+		assertTrue(Arrays.equals(data2, index.get(new TileDbKey(1, 1, 10)).getData()));
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(DeduplicatingTileIndexTestCase.class);
+	}
+
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.atlascreators.impl.gemf.GEMFArchiveWriter;
+import unittests.helper.TestTileData;
+
+public class GEMFArchiveWriterTestCase extends TestCase {
+
+	private static final File TEMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+	private File gemfFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		gemfFile = File.createTempFile("GEMFArchiveWriterTest_", ".gemf", TEMP_DIR);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		gemfFile.delete();
+		for (int i = 1; i < 10; i++)
+			new File(gemfFile.getPath() + "-" + i).delete();
+	}
+
+	public void testRanges() throws Exception {
+		GEMFArchiveWriter writer = new GEMFArchiveWriter(gemfFile);
+		// Two rectangles in zoom 10 and a column with a gap in zoom 11, added in an arbitrary order
+		addTiles(writer, "source1", 10, 20, 22, 30, 31);
+		addTiles(writer, "source1", 10, 23, 23, 28, 29);
+		addTiles(writer, "source1", 11, 5, 5, 0, 1);
+		addTiles(writer, "source1", 11, 5, 5, 3, 3);
+		addTiles(writer, "source2", 10, 20, 20, 30, 30);
+		// Duplicate tile
+		assertFalse(writer.addTile("source1", 10, 21, 30, TestTileData.create(1, 1)));
+		assertEquals(6 + 2 + 2 + 1 + 1, writer.getTileCount());
+		writer.close();
+
+		GEMFReader reader = new GEMFReader(gemfFile);
+		assertEquals(2, reader.sourceCount);
+		assertEquals(5, reader.ranges.length);
+		assertEquals(12, reader.getTileCount());
+		checkTiles(reader, 0, 10, 20, 22, 30, 31);
+		checkTiles(reader, 0, 10, 23, 23, 28, 29);
+		checkTiles(reader, 0, 11, 5, 5, 0, 1);
+		checkTiles(reader, 0, 11, 5, 5, 3, 3);
+		checkTiles(reader, 1, 10, 20, 20, 30, 30);
+		assertNull(reader.getTile(0, 11, 5, 2));
+	}
+
+	public void testMultipleFiles() throws Exception {
+		GEMFArchiveWriter writer = new GEMFArchiveWriter(gemfFile, 500);
+		addTiles(writer, "source", 5, 0, 3, 0, 3);
+		writer.close();
+		assertTrue(new File(gemfFile.getPath() + "-3").isFile());
+		GEMFReader reader = new GEMFReader(gemfFile);
+		assertEquals(1, reader.ranges.length);
+		checkTiles(reader, 0, 5, 0, 3, 0, 3);
+	}
+
+	private static void addTiles(GEMFArchiveWriter writer, String source, int zoom, int xMin, int xMax, int yMin,
+			int yMax) throws IOException {
+		for (int x = xMin; x <= xMax; x++)
+			for (int y = yMin; y <= yMax; y++)
+				assertTrue(writer.addTile(source, zoom, x, y, TestTileData.create(100 + x * y, zoom + x + y)));
+	}
+
+	private static void checkTiles(GEMFReader reader, int source, int zoom, int xMin, int xMax, int yMin, int yMax)
+			throws IOException {
+		for (int x = xMin; x <= xMax; x++)
+			for (int y = yMin; y <= yMax; y++)
+				assertTrue(Arrays.equals(TestTileData.create(100 + x * y, zoom + x + y), reader.getTile(source, zoom, x, y)));
+	}
+
+	/**
+	 * Minimal GEMF reader - all archive files are read into memory.
+	 */
+	private static class GEMFReader {
+
+		int sourceCount;
+		int[][] ranges;
+		long[] rangeOffsets;
+		byte[] data;
+
+		public GEMFReader(File gemfFile) throws IOException {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			File file = gemfFile;
+			for (int i = 1; file.isFile(); i++) {
+				InputStream in = new FileInputStream(file);
+				byte[] buf = new byte[4096];
+				int read;
+				while ((read = in.read(buf)) > 0)
+					bout.write(buf, 0, read);
+				in.close();
+				file = new File(gemfFile.getPath() + "-" + i);
+			}
+			data = bout.toByteArray();
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			assertEquals(4, in.readInt());
+			assertEquals(256, in.readInt());
+			sourceCount = in.readInt();
+			for (int i = 0; i < sourceCount; i++) {
+				assertEquals(i, in.readInt());
+				in.skipBytes(in.readInt());
+			}
+			int rangeCount = in.readInt();
+			ranges = new int[rangeCount][];
+			rangeOffsets = new long[rangeCount];
+			for (int i = 0; i < rangeCount; i++) {
+				ranges[i] = new int[6];
+				for (int j = 0; j < 6; j++)
+					ranges[i][j] = in.readInt();
+				rangeOffsets[i] = in.readLong();
+			}
+		}
+
+		public int getTileCount() {
+			int count = 0;
+			for (int[] r : ranges)
+				count += (r[2] - r[1] + 1) * (r[4] - r[3] + 1);
+			return count;
+		}
+
+		public byte[] getTile(int source, int zoom, int x, int y) throws IOException {
+			for (int i = 0; i < ranges.length; i++) {
+				int[] r = ranges[i];
+				if (r[0] != zoom || r[5] != source || x < r[1] || x > r[2] || y < r[3] || y > r[4])
+					continue;
+				int entry = (x - r[1]) * (r[4] - r[3] + 1) + (y - r[3]);
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+				in.skipBytes((int) rangeOffsets[i] + entry * 12);
+				int offset = (int) in.readLong();
+				int length = in.readInt();
+				return Arrays.copyOfRange(data, offset, offset + length);
+			}
+			return null;
+		}
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(GEMFArchiveWriterTestCase.class);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.download.HostRateController;
+
+public class HostRateControllerTestCase extends TestCase {
+
+	public void testAdditiveIncrease() throws Exception {
+		HostRateController rc = new HostRateController("test", 2, 8);
+		assertEquals(2, rc.getLimit());
+		for (int i = 0; i < 200; i++) {
+			for (int j = 0; j < rc.getLimit(); j++)
+				rc.acquire();
+			for (int j = rc.getLimit(); j > 0; j--)
+				rc.release(200, -1, 50);
+		}
+		assertEquals(8, rc.getLimit());
+	}
+
+	public void testOverload() throws Exception {
+		HostRateController rc = new HostRateController("test", 8, 8);
+		rc.acquire();
+		rc.release(429, 500, 50);
+		assertEquals(4, rc.getLimit());
+		assertTrue(rc.getRemainingBackoff() > 0);
+		long start = System.currentTimeMillis();
+		rc.acquire();
+		assertTrue(System.currentTimeMillis() - start >= 400);
+		rc.release(200, -1, 50);
+	}
+
+	public void testLimitBlocks() throws Exception {
+		final HostRateController rc = new HostRateController("test", 1, 1);
+		rc.acquire();
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					rc.acquire();
+					rc.release(200, -1, 10);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		t.start();
+		t.join(200);
+		assertTrue(t.isAlive());
+		rc.release(200, -1, 10);
+		t.join(1000);
+		assertFalse(t.isAlive());
+	}
+
+	public void testCongestion() throws Exception {
+		HostRateController rc = new HostRateController("test", 8, 8);
+		rc.acquire();
+		rc.release(200, -1, 20);
+		for (int i = 0; i < 20; i++) {
+			rc.acquire();
+			rc.release(200, -1, 2000);
+		}
+		assertTrue(rc.getLimit() < 8);
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(HostRateControllerTestCase.class);
+	}
+
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.utilities.tilearchive.MappedTileArchive;
+import unittests.helper.TestTileData;
+
+public class MappedTileArchiveTestCase extends TestCase {
+
+	private static final File TEMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+	private MappedTileArchive archive;
+
+	@Override
+	protected void setUp() throws Exception {
+		archive = new MappedTileArchive(TEMP_DIR, "MappedTileArchiveTest_", 10, 19, 20, 24);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		archive.closeAndDelete();
+	}
+
+	public void testWriteRead() throws Exception {
+		assertNull(archive.getTileData(10, 20));
+		byte[] data1 = TestTileData.create(1000, 1);
+		byte[] data2 = TestTileData.create(5, 2);
+		archive.writeTile(10, 20, data1);
+		archive.writeTile(19, 24, data2);
+		assertEquals(2, archive.size());
+		assertTrue(Arrays.equals(data1, archive.getTileData(10, 20)));
+		assertTrue(Arrays.equals(data2, archive.getTileData(19, 24)));
+		ByteBuffer buf = archive.getTileBuffer(19, 24);
+		assertEquals(5, buf.remaining());
+		assertTrue(buf.isReadOnly());
+		assertNull(archive.getTileData(11, 20));
+		// outside of the archive's tile range
+		assertNull(archive.getTileData(9, 20));
+		assertFalse(archive.containsTile(20, 24));
+	}
+
+	public void testConcurrentWrite() throws Exception {
+		Thread[] threads = new Thread[5];
+		for (int i = 0; i < threads.length; i++) {
+			final int y = 20 + i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int x = 10; x <= 19; x++)
+							archive.writeTile(x, y, TestTileData.create(100 + x * y, x + y));
+					} catch (Exception e) {
+						fail(e.toString());
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals(50, archive.size());
+		for (int y = 20; y <= 24; y++)
+			for (int x = 10; x <= 19; x++)
+				assertTrue(Arrays.equals(TestTileData.create(100 + x * y, x + y), archive.getTileData(x, y)));
+	}
+
+	public void testWaitForTile() throws Exception {
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+					archive.writeTile(15, 22, TestTileData.create(10, 3));
+					archive.setComplete();
+				} catch (Exception e) {
+					fail(e.toString());
+				}
+			}
+		};
+		writer.start();
+		assertTrue(archive.waitForTile(15, 22));
+		assertFalse(archive.waitForTile(16, 22));
+		writer.join();
+	}
+
+	public void testPositionalRead() throws Exception {
+		MappedTileArchive unmapped = new MappedTileArchive(TEMP_DIR, "MappedTileArchiveTest_", 0, 3, 0, 3, false);
+		try {
+			byte[] data = TestTileData.create(3000, 7);
+			unmapped.writeTile(2, 3, data);
+			assertTrue(Arrays.equals(data, unmapped.getTileData(2, 3)));
+			ByteBuffer buf = unmapped.getTileBuffer(2, 3);
+			assertEquals(3000, buf.remaining());
+			assertTrue(buf.isReadOnly());
+			assertNull(unmapped.getTileData(3, 3));
+		} finally {
+			unmapped.closeAndDelete();
+		}
+	}
+
+	public void testCloseAndDelete() throws Exception {
+		File dir = File.createTempFile("MappedTileArchiveTest", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			MappedTileArchive a = new MappedTileArchive(dir, "MappedTileArchiveTest_", 0, 3, 0, 3);
+			a.writeTile(1, 1, TestTileData.create(100, 1));
+			assertNotNull(a.getTileBuffer(1, 1));
+			assertEquals(1, dir.listFiles().length);
+			a.closeAndDelete();
+			assertEquals(0, dir.listFiles().length);
+		} finally {
+			dir.delete();
+		}
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(MappedTileArchiveTestCase.class);
+	}
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.utilities.imageio.PngXxlWriter;
+
+public class PngXxlWriterTestCase extends TestCase {
+
+	private static final int WIDTH = 300;
+	private static final int LINE_HEIGHT = 64;
+	private static final int LINES = 7;
+
+	public void testSequential() throws Exception {
+		BufferedImage[] lines = createTileLines();
+		assertImage(lines, writePng(lines, 1));
+	}
+
+	public void testParallel() throws Exception {
+		BufferedImage[] lines = createTileLines();
+		assertImage(lines, writePng(lines, 3));
+	}
+
+	private static byte[] writePng(BufferedImage[] lines, int threadCount) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PngXxlWriter writer = new PngXxlWriter(WIDTH, LINES * LINE_HEIGHT, out, threadCount);
+		for (BufferedImage line : lines)
+			writer.writeTileLine(line);
+		writer.finish();
+		return out.toByteArray();
+	}
+
+	private static void assertImage(BufferedImage[] lines, byte[] png) throws Exception {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		assertEquals(WIDTH, image.getWidth());
+		assertEquals(LINES * LINE_HEIGHT, image.getHeight());
+		for (int i = 0; i < LINES; i++)
+			for (int y = 0; y < LINE_HEIGHT; y++)
+				for (int x = 0; x < WIDTH; x++)
+					assertEquals((lines[i].getRGB(x, y) & 0xFFFFFF), image.getRGB(x, i * LINE_HEIGHT + y) & 0xFFFFFF);
+	}
+
+	/**
+	 * Creates tile lines with repeating content (so that the compression uses back references across tile lines) and
+	 * some random noise.
+	 */
+	private static BufferedImage[] createTileLines() {
+		Random r = new Random(42);
+		BufferedImage[] lines = new BufferedImage[LINES];
+		for (int i = 0; i < LINES; i++) {
+			BufferedImage line = new BufferedImage(WIDTH, LINE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = line.createGraphics();
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, WIDTH, LINE_HEIGHT);
+			g.setColor(Color.BLUE);
+			g.drawLine(0, 0, WIDTH, LINE_HEIGHT);
+			g.dispose();
+			for (int n = 0; n < 200; n++)
+				line.setRGB(r.nextInt(WIDTH), r.nextInt(LINE_HEIGHT), r.nextInt());
+			lines[i] = line;
+		}
+		return lines;
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(PngXxlWriterTestCase.class);
+	}
+
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.awt.Polygon;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.tilefilter.PolygonTileRaster;
+
+public class PolygonTileRasterTestCase extends TestCase {
+
+	private static final int TILE_SIZE = 256;
+
+	public void testAlignedRectangle() {
+		Polygon p = new Polygon(new int[] { 512, 1280, 1280, 512 }, new int[] { 256, 256, 1024, 1024 }, 4);
+		PolygonTileRaster raster = new PolygonTileRaster(p, TILE_SIZE);
+		assertEquals(3 * 3, raster.getTileCount());
+		assertEquals(1, raster.getMinTileY());
+		assertEquals(3, raster.getMaxTileY());
+		assertTrue(raster.contains(2, 1));
+		assertTrue(raster.contains(4, 3));
+		assertFalse(raster.contains(1, 2));
+		assertFalse(raster.contains(5, 2));
+		assertFalse(raster.contains(3, 4));
+	}
+
+	public void testConcaveShapeWithHole() {
+		// U-shape: the tiles between both legs must not be included
+		Polygon p = new Polygon(new int[] { 0, 2560, 2560, 1800, 1800, 760, 760, 0 }, new int[] { 0, 0, 2560, 2560,
+				600, 600, 2560, 2560 }, 8);
+		PolygonTileRaster raster = new PolygonTileRaster(p, TILE_SIZE);
+		assertTrue(raster.contains(0, 9));
+		assertTrue(raster.contains(9, 9));
+		assertFalse(raster.contains(5, 5));
+		assertTrue(raster.contains(5, 2));
+		assertEquals(countIntersecting(p, raster), raster.getTileCount());
+	}
+
+	public void testRandomPolygons() {
+		Random rnd = new Random(4711);
+		for (int n = 0; n < 50; n++) {
+			int vertices = 3 + rnd.nextInt(60);
+			Polygon p = new Polygon();
+			int cx = 100000 + rnd.nextInt(10000);
+			int cy = 200000 + rnd.nextInt(10000);
+			for (int i = 0; i < vertices; i++) {
+				double angle = 2 * Math.PI * i / vertices;
+				double r = 200 + rnd.nextInt(6000);
+				p.addPoint(cx + (int) (Math.cos(angle) * r), cy + (int) (Math.sin(angle) * r));
+			}
+			PolygonTileRaster raster = new PolygonTileRaster(p, TILE_SIZE);
+			long count = 0;
+			for (int y = raster.getMinTileY() - 1; y <= raster.getMaxTileY() + 1; y++) {
+				for (int x = cx / TILE_SIZE - 30; x <= cx / TILE_SIZE + 30; x++) {
+					boolean expected = p.intersects(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+					boolean actual = raster.contains(x, y);
+					if (expected)
+						assertTrue("Tile " + x + "/" + y + " of polygon " + n + " is missing", actual);
+					if (actual)
+						count++;
+				}
+			}
+			assertEquals(count, raster.getTileCount());
+			// conservative, but not excessively
+			assertTrue(count <= countIntersecting(p, raster) * 1.05);
+		}
+	}
+
+	private static long countIntersecting(Polygon p, PolygonTileRaster raster) {
+		long count = 0;
+		for (int y = raster.getMinTileY(); y <= raster.getMaxTileY(); y++) {
+			for (int x = p.getBounds().x / TILE_SIZE; x <= (p.getBounds().x + p.getBounds().width) / TILE_SIZE; x++)
+				if (p.intersects(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE))
+					count++;
+		}
+		return count;
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(PolygonTileRasterTestCase.class);
+	}
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.atlascreators.tileprovider.PrefetchingTileProvider;
+import osmcd.program.atlascreators.tileprovider.TileAccessPlan;
+import osmcd.program.atlascreators.tileprovider.TileProvider;
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.TileOrder;
+
+public class PrefetchingTileProviderTestCase extends TestCase {
+
+	public void testPlanOrder() {
+		TileAccessPlan plan = TileAccessPlan.blocks(10, 20, 16, 24, 3, 2);
+		assertEquals(35, plan.getTileCount());
+		Set<Long> tiles = new HashSet<Long>();
+		for (int i = 0; i < plan.getTileCount(); i++) {
+			int x = plan.getX(i);
+			int y = plan.getY(i);
+			assertTrue(x >= 10 && x <= 16 && y >= 20 && y <= 24);
+			assertEquals(i, plan.indexOf(x, y));
+			tiles.add(((long) x << 32) | y);
+		}
+		assertEquals(35, tiles.size());
+		// first block: 3x2 tiles row by row
+		assertEquals(10, plan.getX(0));
+		assertEquals(12, plan.getX(2));
+		assertEquals(10, plan.getX(3));
+		assertEquals(21, plan.getY(3));
+		// last block of the first block row is only one tile wide
+		assertEquals(16, plan.getX(12));
+		assertEquals(16, plan.getX(13));
+		assertEquals(21, plan.getY(13));
+		assertEquals(-1, plan.indexOf(17, 20));
+
+		plan = TileAccessPlan.columnMajor(0, 0, 3, 2);
+		assertEquals(0, plan.getX(2));
+		assertEquals(2, plan.getY(2));
+		assertEquals(1, plan.getX(3));
+		plan = TileAccessPlan.rowMajor(0, 0, 3, 2);
+		assertEquals(3, plan.getX(3));
+		assertEquals(1, plan.getY(4));
+	}
+
+	public void testPrefetching() throws Exception {
+		CountingTileProvider source = new CountingTileProvider();
+		TileAccessPlan plan = TileAccessPlan.rowMajor(0, 0, 9, 9);
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(source, plan, 8, 2);
+		try {
+			for (int i = 0; i < plan.getTileCount(); i++) {
+				BufferedImage image = ptp.getTileImage(plan.getX(i), plan.getY(i));
+				assertEquals(plan.getX(i) * 100 + plan.getY(i), image.getRGB(0, 0) & 0xFFFFFF);
+			}
+			// every tile is loaded exactly once and only the first request is a cache miss
+			assertEquals(plan.getTileCount(), source.loads);
+			assertTrue(ptp.getHitRate() > 0.95);
+			// tiles outside of the plan are loaded on request
+			assertNull(ptp.getTileImage(20, 20));
+		} finally {
+			ptp.cleanup();
+		}
+	}
+
+	public void testErrorsAreNotCached() throws Exception {
+		CountingTileProvider source = new CountingTileProvider();
+		source.failing = true;
+		PrefetchingTileProvider ptp = new PrefetchingTileProvider(source, TileAccessPlan.rowMajor(0, 0, 1, 1), 4, 0);
+		try {
+			ptp.getTileImage(0, 0);
+			fail("IOException expected");
+		} catch (IOException e) {
+		}
+		source.failing = false;
+		assertNotNull(ptp.getTileImage(0, 0));
+		ptp.cleanup();
+	}
+
+	private static class CountingTileProvider implements TileProvider {
+
+		int loads = 0;
+		volatile boolean failing = false;
+
+		public synchronized BufferedImage getTileImage(int x, int y) throws IOException {
+			if (failing)
+				throw new IOException("Tile failed");
+			if (x >= 10 || y >= 10)
+				return null;
+			loads++;
+			BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+			image.setRGB(0, 0, x * 100 + y);
+			return image;
+		}
+
+		public byte[] getTileData(int x, int y) throws IOException {
+			return null;
+		}
+
+		public MapSource getMapSource() {
+			return null;
+		}
+
+		public boolean preferTileImageUsage() {
+			return true;
+		}
+
+		public TileOrder getPreferredReadOrder() {
+			return TileOrder.ROW_MAJOR;
+		}
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(PrefetchingTileProviderTestCase.class);
+	}
+
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.mapsources.impl.SimpleMapSource;
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.Settings;
+import osmcd.program.tilestore.TileCoverageIndex;
+import osmcd.program.tilestore.TileStoreEntry;
+import osmcd.program.tilestore.berkeleydb.BerkeleyDbTileStore;
+import osmcd.program.tilestore.berkeleydb.DelayedInterruptThread;
+import osmcd.program.tilestore.sqlite.BerkeleyDbMigration;
+import osmcd.program.tilestore.sqlite.SQLiteTileStore;
+import unittests.helper.TestTileData;
+
+public class SQLiteTileStoreTestCase extends TestCase {
+
+	private final MapSource mapSource = new SimpleMapSource();
+
+	private File storeDir;
+	private TestTileStore store;
+
+	@Override
+	protected void setUp() throws Exception {
+		storeDir = File.createTempFile("SQLiteTileStoreTest", "");
+		storeDir.delete();
+		storeDir.mkdirs();
+		Settings.getInstance().directories.tileStoreDirectory = storeDir.getPath();
+		store = new TestTileStore();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		store.closeAll();
+		store.releaseLock();
+		delete(storeDir);
+	}
+
+	public void testPutGet() throws Exception {
+		assertNull(store.getTile(1, 2, 10, mapSource));
+		byte[] data = TestTileData.create(1000, 1);
+		store.putTileData(data, 1, 2, 10, mapSource, 1000L, 2000L, "etag");
+		TileStoreEntry tile = store.getTile(1, 2, 10, mapSource);
+		assertTrue(Arrays.equals(data, tile.getData()));
+		assertEquals(1000L, tile.getTimeLastModified());
+		assertEquals(2000L, tile.getTimeExpires());
+		assertEquals("etag", tile.geteTag());
+		assertTrue(store.contains(1, 2, 10, mapSource));
+		assertFalse(store.contains(2, 1, 10, mapSource));
+		// overwrite
+		byte[] data2 = TestTileData.create(50, 2);
+		store.putTileData(data2, 1, 2, 10, mapSource);
+		assertTrue(Arrays.equals(data2, store.getTile(1, 2, 10, mapSource).getData()));
+		assertEquals(1, store.getStoreInfo(mapSource.getName()).getTileCount());
+	}
+
+	public void testCoverage() throws Exception {
+		store.putTileData(TestTileData.create(10, 1), 4, 4, 5, mapSource);
+		store.putTileData(TestTileData.create(10, 2), 5, 4, 5, mapSource);
+		TileCoverageIndex index = store.getCoverageIndex(mapSource);
+		assertEquals(2, index.getTileCount(5));
+		// tiles written after building the index are added to it
+		store.putTileData(TestTileData.create(10, 3), 40, 40, 8, mapSource);
+		assertTrue(index.contains(40, 40, 8));
+
+		// The index is saved on close and loaded when the database is opened again
+		store.closeAll();
+		store.releaseLock();
+		store = new TestTileStore();
+		File coverageFile = new File(storeDir, SQLiteTileStore.STORE_FILE_PREFIX + mapSource.getName()
+				+ SQLiteTileStore.STORE_FILE_SUFFIX + "-coverage");
+		assertTrue(coverageFile.isFile());
+		store.prepareTileStore(mapSource);
+		index = store.getCoverageIndex(mapSource);
+		assertEquals(2, index.getTileCount(5));
+		assertEquals(1, index.getTileCount(8));
+		assertFalse(coverageFile.exists());
+	}
+
+	public void testClearStore() throws Exception {
+		store.putTileData(TestTileData.create(10, 1), 1, 1, 3, mapSource);
+		assertTrue(store.storeExists(mapSource));
+		assertEquals(Arrays.asList(mapSource.getName()), Arrays.asList(store.getAllStoreNames()));
+		store.clearStore(mapSource.getName());
+		assertFalse(store.storeExists(mapSource));
+		assertEquals(0, store.getAllStoreNames().length);
+		assertNull(store.getTile(1, 1, 3, mapSource));
+	}
+
+	public void testConnectionsOfTerminatedThreads() throws Exception {
+		store.putTileData(TestTileData.create(10, 1), 1, 1, 3, mapSource);
+		for (int i = 0; i < 5; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					assertNotNull(store.getTile(1, 1, 3, mapSource));
+				}
+			};
+			t.start();
+			t.join();
+		}
+		// main thread + the last worker thread whose termination has not yet been noticed
+		assertEquals(2, store.getConnectionCount(mapSource.getName()));
+	}
+
+	public void testBerkeleyDbMigration() throws Exception {
+		final byte[] data1 = TestTileData.create(500, 1);
+		final byte[] data2 = TestTileData.create(700, 2);
+		// Both tile stores use the same lock file
+		store.releaseLock();
+		final TestBerkeleyDbTileStore bdbStore = new TestBerkeleyDbTileStore();
+		final Exception[] error = new Exception[1];
+		// The Berkeley DB tile store can only be accessed by a DelayedInterruptThread
+		Thread t = new DelayedInterruptThread("BerkeleyDbWriter") {
+			@Override
+			public void run() {
+				try {
+					bdbStore.putTileData(data1, 1, 1, 10, mapSource);
+					bdbStore.putTileData(data1, 1, 2, 10, mapSource);
+					bdbStore.putTileData(data2, 2, 1, 11, mapSource);
+				} catch (Exception e) {
+					error[0] = e;
+				}
+				bdbStore.closeAll();
+			}
+		};
+		t.start();
+		t.join();
+		if (error[0] != null)
+			throw error[0];
+		bdbStore.releaseLock();
+		File dbDir = new File(storeDir, "db-" + mapSource.getName());
+		assertTrue(dbDir.isDirectory());
+
+		store = new TestTileStore();
+		BerkeleyDbMigration migration = new BerkeleyDbMigration(store);
+		migration.migrateAll();
+		assertEquals(1, migration.getStoreCount());
+		assertEquals(3, migration.getTileCount());
+		assertTrue(Arrays.equals(data1, store.getTile(1, 1, 10, mapSource).getData()));
+		assertTrue(Arrays.equals(data1, store.getTile(1, 2, 10, mapSource).getData()));
+		assertTrue(Arrays.equals(data2, store.getTile(2, 1, 11, mapSource).getData()));
+		// the Berkeley DB is left untouched
+		assertTrue(dbDir.isDirectory());
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null)
+			for (File f : files)
+				delete(f);
+		file.delete();
+	}
+
+	private static class TestTileStore extends SQLiteTileStore {
+
+		public TestTileStore() throws Exception {
+			super();
+		}
+
+		public int getConnectionCount(String storeName) throws Exception {
+			return getTileDatabase(storeName).getConnectionCount();
+		}
+
+		public void releaseLock() throws IOException {
+			tileStoreLock.release();
+		}
+	}
+
+	private static class TestBerkeleyDbTileStore extends BerkeleyDbTileStore {
+
+		public TestBerkeleyDbTileStore() throws Exception {
+			super();
+		}
+
+		public void releaseLock() throws IOException {
+			tileStoreLock.release();
+		}
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(SQLiteTileStoreTestCase.class);
+	}
+
+}
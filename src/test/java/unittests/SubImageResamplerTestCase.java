@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.atlascreators.impl.rmp.SubImageResampler;
+import osmcd.program.atlascreators.impl.rmp.SubImageResampler.SampleTable;
+
+public class SubImageResamplerTestCase extends TestCase {
+
+	private static final int WHITE = 0xFFFFFF;
+
+	public void testIdentity() {
+		int[] src = createSource(4, 4);
+		int[] dest = new int[16];
+		SampleTable columns = new SampleTable(0, 4, 4, 0, 4, 4, false);
+		SampleTable rows = new SampleTable(0, 4, 4, 0, 4, 4, false);
+		SubImageResampler.resample(src, 4, dest, 4, columns, rows, false);
+		assertTrue(Arrays.equals(src, dest));
+	}
+
+	public void testPartialOverlap() {
+		// The source covers the right half of the destination
+		int[] src = createSource(4, 4);
+		int[] dest = new int[8 * 4];
+		Arrays.fill(dest, WHITE);
+		SampleTable columns = new SampleTable(0, 8, 8, 4, 8, 4, false);
+		SampleTable rows = new SampleTable(0, 4, 4, 0, 4, 4, false);
+		SubImageResampler.resample(src, 4, dest, 8, columns, rows, false);
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++)
+				assertEquals(WHITE, dest[y * 8 + x]);
+			for (int x = 4; x < 8; x++)
+				assertEquals(src[y * 4 + x - 4], dest[y * 8 + x]);
+		}
+	}
+
+	public void testDownscale() {
+		int[] src = createSource(8, 8);
+		int[] dest = new int[16];
+		SampleTable columns = new SampleTable(0, 8, 4, 0, 8, 8, false);
+		SampleTable rows = new SampleTable(0, 8, 4, 0, 8, 8, false);
+		SubImageResampler.resample(src, 8, dest, 4, columns, rows, false);
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 4; x++)
+				assertEquals(src[y * 2 * 8 + x * 2], dest[y * 4 + x]);
+	}
+
+	public void testBilinear() {
+		int[] src = new int[] { 0x000000, 0xFF80FF, 0x000000, 0xFF80FF };
+		// Upscale the first source line to 4 pixels: the second destination pixel lies between both source pixels
+		SampleTable columns = new SampleTable(0, 2, 4, 0, 2, 2, true);
+		SampleTable rows = new SampleTable(0, 1, 1, 0, 2, 2, true);
+		int[] line = new int[] { WHITE, WHITE, WHITE, WHITE };
+		SubImageResampler.resample(src, 2, line, 4, columns, rows, true);
+		assertEquals(0x000000, line[0]);
+		assertEquals(0x7F407F, line[1]);
+		assertEquals(0xFF80FF, line[2]);
+		// Outside of the source area
+		assertEquals(WHITE, line[3]);
+	}
+
+	private static int[] createSource(int width, int height) {
+		int[] src = new int[width * height];
+		for (int i = 0; i < src.length; i++)
+			src[i] = (i * 0x010203) & 0xFFFFFF;
+		return src;
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(SubImageResamplerTestCase.class);
+	}
+
+}
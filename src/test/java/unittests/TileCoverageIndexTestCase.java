@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.tilestore.TileCoverageIndex;
+
+public class TileCoverageIndexTestCase extends TestCase {
+
+	public void testAddContains() {
+		TileCoverageIndex index = new TileCoverageIndex();
+		assertTrue(index.add(100, 200, 10));
+		assertFalse(index.add(100, 200, 10));
+		assertTrue(index.contains(100, 200, 10));
+		assertFalse(index.contains(101, 200, 10));
+		assertFalse(index.contains(100, 200, 11));
+		assertEquals(1, index.getTileCount(10));
+	}
+
+	public void testCoverage() {
+		TileCoverageIndex index = new TileCoverageIndex();
+		// 2x2 tiles at zoom 12 within one tile of zoom 11, one tile in the neighbor tile
+		index.add(1000, 1000, 12);
+		index.add(1001, 1000, 12);
+		index.add(1000, 1001, 12);
+		index.add(1001, 1001, 12);
+		index.add(1002, 1000, 12);
+
+		int[] counts = index.getCoverage(12, 11, 500, 500, 501, 500);
+		assertEquals(4, counts[0]);
+		assertEquals(1, counts[1]);
+
+		// Same zoom: one cell per tile
+		counts = index.getCoverage(12, 12, 1000, 1000, 1003, 1000);
+		assertEquals(1, counts[0]);
+		assertEquals(1, counts[2]);
+		assertEquals(0, counts[3]);
+
+		// Whole blocks aggregated into one cell
+		counts = index.getCoverage(12, 2, 0, 0, 3, 3);
+		assertEquals(5, counts[0]);
+		assertEquals(0, counts[3 * 4 + 3]);
+		counts = index.getCoverage(12, 0, 0, 0, 0, 0);
+		assertEquals(5, counts[0]);
+	}
+
+	public void testSaveLoad() throws Exception {
+		TileCoverageIndex index = new TileCoverageIndex();
+		for (int i = 0; i < 1000; i++)
+			index.add(i * 7, i * 3, 15);
+		File file = File.createTempFile("TileCoverageIndexTest", ".idx");
+		try {
+			index.save(file);
+			TileCoverageIndex loaded = TileCoverageIndex.load(file);
+			assertNotNull(loaded);
+			assertEquals(1000, loaded.getTileCount(15));
+			for (int i = 0; i < 1000; i++)
+				assertTrue(loaded.contains(i * 7, i * 3, 15));
+			assertFalse(loaded.contains(1, 1, 15));
+		} finally {
+			file.delete();
+		}
+		assertNull(TileCoverageIndex.load(file));
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(TileCoverageIndexTestCase.class);
+	}
+
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.atlascreators.tileprovider.ConvertedRawTileProvider;
+import osmcd.program.atlascreators.tileprovider.TileProvider;
+import osmcd.program.interfaces.MapSource;
+import osmcd.program.model.TileImageFormat;
+import osmcd.program.model.TileOrder;
+import osmcd.program.tiledatawriter.TileImageJpegDataWriter;
+import osmcd.program.tiledatawriter.TileImageTranscoder;
+
+public class TileImageTranscoderTestCase extends TestCase {
+
+	public void testJpegQualityEstimate() throws Exception {
+		BufferedImage image = createImage(Color.BLUE);
+		for (int quality : new int[] { 30, 50, 75, 90 }) {
+			byte[] jpeg = encodeJpeg(image, quality / 100f);
+			int estimate = TileImageTranscoder.estimateJpegQuality(jpeg);
+			assertTrue("quality " + quality + " estimated as " + estimate, Math.abs(quality - estimate) <= 1);
+		}
+		assertEquals(Integer.MAX_VALUE, TileImageTranscoder.estimateJpegQuality(new byte[] { (byte) 0xFF,
+				(byte) 0xD8, (byte) 0xFF, (byte) 0xD9 }));
+	}
+
+	public void testPassThrough() throws Exception {
+		BufferedImage image = createImage(Color.RED);
+		byte[] jpeg50 = encodeJpeg(image, 0.5f);
+		byte[] jpeg98 = encodeJpeg(image, 0.98f);
+		TileImageTranscoder jpeg90 = new TileImageTranscoder(TileImageFormat.JPEG90);
+		assertSame(jpeg50, jpeg90.transcode(jpeg50));
+		byte[] converted = jpeg90.transcode(jpeg98);
+		assertTrue(jpeg98 != converted);
+		assertEquals(90, TileImageTranscoder.estimateJpegQuality(converted));
+
+		byte[] rgbPng = encode(image, "png");
+		byte[] palettePng = encode(createIndexedImage(), "png");
+		assertSame(rgbPng, new TileImageTranscoder(TileImageFormat.PNG).transcode(rgbPng));
+		assertSame(palettePng, new TileImageTranscoder(TileImageFormat.PNG8Bit).transcode(palettePng));
+		assertTrue(rgbPng != new TileImageTranscoder(TileImageFormat.PNG8Bit).transcode(rgbPng));
+		assertNull(jpeg90.transcode(null));
+	}
+
+	public void testPngToJpeg() throws Exception {
+		TileImageTranscoder transcoder = new TileImageTranscoder(TileImageFormat.JPEG90);
+		// the second tile is decoded into the image buffer of the first one
+		for (Color color : new Color[] { Color.RED, Color.GREEN, Color.BLUE }) {
+			byte[] jpeg = transcoder.transcode(encode(createImage(color), "png"));
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+			assertEquals(256, image.getWidth());
+			assertColor(color, image.getRGB(200, 50));
+		}
+	}
+
+	public void testParallelConversion() throws Exception {
+		final byte[][] tiles = new byte[4][];
+		for (int i = 0; i < tiles.length; i++)
+			tiles[i] = encode(createImage(new Color(i * 60, 0, 255 - i * 60)), "png");
+		TileProvider source = new TileProvider() {
+
+			public byte[] getTileData(int x, int y) throws IOException {
+				if (x > 9 || y > 9)
+					return null;
+				return tiles[(x + y) % tiles.length];
+			}
+
+			public BufferedImage getTileImage(int x, int y) throws IOException {
+				throw new IOException("Raw tile data expected");
+			}
+
+			public boolean preferTileImageUsage() {
+				return false;
+			}
+
+			public TileOrder getPreferredReadOrder() {
+				return TileOrder.ROW_MAJOR;
+			}
+
+			public MapSource getMapSource() {
+				return null;
+			}
+		};
+		TileOrder.Iterator readOrder = TileOrder.ROW_MAJOR.iterate(0, 0, 9, 9);
+		ConvertedRawTileProvider provider = new ConvertedRawTileProvider(source, TileImageFormat.JPEG90, readOrder,
+				8, 4);
+		try {
+			TileOrder.Iterator it = TileOrder.ROW_MAJOR.iterate(0, 0, 9, 9);
+			while (it.next()) {
+				int i = (it.getX() + it.getY()) % tiles.length;
+				byte[] jpeg = provider.getTileData(it.getX(), it.getY());
+				assertColor(new Color(i * 60, 0, 255 - i * 60), ImageIO.read(new ByteArrayInputStream(jpeg))
+						.getRGB(200, 50));
+			}
+			// tiles outside of the read order are converted on request
+			assertNotNull(provider.getTileData(3, 3));
+			assertNull(provider.getTileData(20, 20));
+		} finally {
+			provider.cleanup();
+		}
+	}
+
+	private static void assertColor(Color expected, int rgb) {
+		Color c = new Color(rgb);
+		assertTrue(expected + " != " + c, Math.abs(expected.getRed() - c.getRed()) < 8
+				&& Math.abs(expected.getGreen() - c.getGreen()) < 8 && Math.abs(expected.getBlue() - c.getBlue()) < 8);
+	}
+
+	private static BufferedImage createImage(Color color) {
+		BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(color);
+		g.fillRect(0, 0, 256, 256);
+		g.setColor(Color.WHITE);
+		g.drawLine(0, 0, 255, 255);
+		g.dispose();
+		return image;
+	}
+
+	private static BufferedImage createIndexedImage() {
+		BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_INDEXED);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.YELLOW);
+		g.fillRect(0, 0, 128, 256);
+		g.dispose();
+		return image;
+	}
+
+	private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+		TileImageJpegDataWriter writer = new TileImageJpegDataWriter(quality);
+		writer.initialize();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		writer.processImage(image, buf);
+		writer.dispose();
+		return buf.toByteArray();
+	}
+
+	private static byte[] encode(BufferedImage image, String format) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		ImageIO.write(image, format, buf);
+		return buf.toByteArray();
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(TileImageTranscoderTestCase.class);
+	}
+
+}
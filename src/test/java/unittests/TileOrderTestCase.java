@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.program.model.TileOrder;
+
+public class TileOrderTestCase extends TestCase {
+
+	private static final int[][] REGIONS = { { 0, 0, 0, 0 }, { 5, 7, 5, 20 }, { 10, 20, 17, 27 },
+			{ 3, 4, 40, 9 }, { 100, 200, 104, 263 }, { 0, 0, 12, 12 } };
+
+	public void testCompleteness() {
+		for (TileOrder order : TileOrder.values()) {
+			for (int[] r : REGIONS) {
+				int width = r[2] - r[0] + 1;
+				int height = r[3] - r[1] + 1;
+				boolean[] seen = new boolean[width * height];
+				int count = 0;
+				TileOrder.Iterator it = order.iterate(r[0], r[1], r[2], r[3]);
+				while (it.next()) {
+					int x = it.getX() - r[0];
+					int y = it.getY() - r[1];
+					assertTrue(order + " tile outside of region", x >= 0 && x < width && y >= 0 && y < height);
+					assertFalse(order + " tile enumerated twice", seen[y * width + x]);
+					seen[y * width + x] = true;
+					count++;
+				}
+				assertEquals(width * height, count);
+			}
+		}
+	}
+
+	public void testHilbertNeighbors() {
+		// Power of two squares along the long side: consecutive tiles are always neighbors
+		int[][] regions = { { 0, 0, 15, 15 }, { 8, 8, 39, 15 }, { 0, 0, 3, 11 } };
+		for (int[] r : regions) {
+			TileOrder.Iterator it = TileOrder.HILBERT.iterate(r[0], r[1], r[2], r[3]);
+			assertTrue(it.next());
+			int lastX = it.getX();
+			int lastY = it.getY();
+			while (it.next()) {
+				int dist = Math.abs(it.getX() - lastX) + Math.abs(it.getY() - lastY);
+				assertEquals(1, dist);
+				lastX = it.getX();
+				lastY = it.getY();
+			}
+		}
+	}
+
+	public void testEmptyRegion() {
+		for (TileOrder order : TileOrder.values())
+			assertFalse(order.iterate(5, 5, 4, 5).next());
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(TileOrderTestCase.class);
+	}
+
+}
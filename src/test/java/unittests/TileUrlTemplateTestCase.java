@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+import osmcd.mapsources.custom.BeanShellHttpMapSource;
+import osmcd.mapsources.custom.BeanShellHttpMapSource.TileUrlTemplate;
+
+public class TileUrlTemplateTestCase extends TestCase {
+
+	public void testCreate() {
+		TileUrlTemplate template = TileUrlTemplate.create("http://tile.example.org/12/2531/1624.png", 12, 2531, 1624);
+		assertNotNull(template);
+		assertEquals("http://tile.example.org/{z}/{x}/{y}.png", template.toString());
+		assertEquals("http://tile.example.org/3/5/7.png", template.getTileUrl(3, 5, 7));
+	}
+
+	public void testCreateParameterOrder() {
+		TileUrlTemplate template = TileUrlTemplate.create("http://tile.example.org/tile?y=1624&x=2531&z=12", 12,
+				2531, 1624);
+		assertNotNull(template);
+		assertEquals("http://tile.example.org/tile?y={y}&x={x}&z={z}", template.toString());
+		assertEquals("http://tile.example.org/tile?y=7&x=5&z=3", template.getTileUrl(3, 5, 7));
+	}
+
+	public void testCreateAmbiguous() {
+		// zoom 1 is contained in x 11
+		assertNull(TileUrlTemplate.create("http://tile.example.org/1/11/0.png", 1, 11, 0));
+		// the zoom value appears twice
+		assertNull(TileUrlTemplate.create("http://tile12.example.org/12/2531/1624.png", 12, 2531, 1624));
+		// y is not contained at all
+		assertNull(TileUrlTemplate.create("http://tile.example.org/12/2531/2471.png", 12, 2531, 1624));
+		assertNull(TileUrlTemplate.create(null, 12, 2531, 1624));
+	}
+
+	public void testPlainScript() throws Exception {
+		BeanShellHttpMapSource mapSource = createMapSource("return \"http://tile.example.org/\" + zoom + \"/\" + x "
+				+ "+ \"/\" + y + \".png\";");
+		assertNotNull(mapSource.getUrlTemplate());
+		assertEquals("http://tile.example.org/{z}/{x}/{y}.png", mapSource.getUrlTemplate().toString());
+		assertEquals("http://tile.example.org/3/5/7.png", mapSource.getTileUrl(3, 5, 7));
+	}
+
+	public void testQuadKeyScript() throws Exception {
+		BeanShellHttpMapSource mapSource = createMapSource("String quadKey = \"\"; "
+				+ "for (int i = zoom; i > 0; i--) { int mask = 1 << (i - 1); int digit = 0; "
+				+ "if ((x & mask) != 0) digit += 1; if ((y & mask) != 0) digit += 2; quadKey = quadKey + digit; } "
+				+ "return \"http://tile.example.org/tiles/a\" + quadKey + \".jpeg\";");
+		assertNull(mapSource.getUrlTemplate());
+		assertEquals("http://tile.example.org/tiles/a21.jpeg", mapSource.getTileUrl(2, 1, 2));
+	}
+
+	public void testServerRotationScript() throws Exception {
+		BeanShellHttpMapSource mapSource = createMapSource("serverNum = (serverNum + 1) % 3; "
+				+ "return \"http://\" + servers[serverNum] + \".tile.example.org/\" + zoom + \"/\" + x + \"/\" + y "
+				+ "+ \".png\";", "String[] servers = { \"a\", \"b\", \"c\" }; int serverNum = 0;");
+		assertNull(mapSource.getUrlTemplate());
+	}
+
+	public void testTmsScript() throws Exception {
+		BeanShellHttpMapSource mapSource = createMapSource("return \"http://tile.example.org/\" + zoom + \"/\" + x "
+				+ "+ \"/\" + ((1 << zoom) - 1 - y) + \".png\";");
+		assertNull(mapSource.getUrlTemplate());
+		assertEquals("http://tile.example.org/2/1/0.png", mapSource.getTileUrl(2, 1, 3));
+	}
+
+	private static BeanShellHttpMapSource createMapSource(String getTileUrlBody) throws Exception {
+		return createMapSource(getTileUrlBody, "");
+	}
+
+	private static BeanShellHttpMapSource createMapSource(String getTileUrlBody, String declarations)
+			throws Exception {
+		String code = "name = \"TileUrlTemplateTest\"; tileType = \"png\"; minZoom = 0; maxZoom = 18; "
+				+ declarations + " String getTileUrl(int zoom, int x, int y) { " + getTileUrlBody + " }";
+		return new BeanShellHttpMapSource(code);
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(TileUrlTemplateTestCase.class);
+	}
+
+}
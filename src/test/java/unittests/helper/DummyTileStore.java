@@ -16,11 +16,10 @@
  ******************************************************************************/
 package unittests.helper;
 
-import java.awt.Point;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 import osmcd.program.interfaces.MapSource;
+import osmcd.program.tilestore.TileCoverageIndex;
 import osmcd.program.tilestore.TileStore;
 import osmcd.program.tilestore.TileStoreEntry;
 import osmcd.program.tilestore.TileStoreInfo;
@@ -64,8 +63,7 @@ public class DummyTileStore extends TileStore {
 	}
 
 	@Override
-	public BufferedImage getCacheCoverage(MapSource mapSource, int zoom, Point tileNumMin, Point tileNumMax)
-			throws InterruptedException {
+	public TileCoverageIndex getCoverageIndex(MapSource mapSource) throws InterruptedException {
 		return null;
 	}
 
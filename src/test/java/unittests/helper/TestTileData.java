@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) OSMCB developers
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package unittests.helper;
+
+/**
+ * Creates deterministic tile data for tests storing and reading back tiles.
+ */
+public class TestTileData {
+
+	private TestTileData() {
+	}
+
+	/**
+	 * @return <code>length</code> bytes of non-constant data. The same <code>length</code> and <code>seed</code>
+	 *         always produce the same data, different seeds produce different data.
+	 */
+	public static byte[] create(int length, int seed) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = (byte) (i * 31 + seed);
+		return data;
+	}
+
+}